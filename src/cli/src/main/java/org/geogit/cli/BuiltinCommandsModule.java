@@ -4,13 +4,17 @@
  */
 package org.geogit.cli;
 
+import org.geogit.cli.plumbing.AttributeIndex;
 import org.geogit.cli.plumbing.Cat;
+import org.geogit.cli.plumbing.ChangedPathsIndex;
 import org.geogit.cli.plumbing.DiffTree;
+import org.geogit.cli.plumbing.FeatureHistoryIndex;
 import org.geogit.cli.plumbing.LsTree;
 import org.geogit.cli.plumbing.MergeBase;
 import org.geogit.cli.plumbing.RevList;
 import org.geogit.cli.plumbing.RevParse;
 import org.geogit.cli.plumbing.ShowRef;
+import org.geogit.cli.plumbing.SpatialIndex;
 import org.geogit.cli.plumbing.WalkGraph;
 import org.geogit.cli.porcelain.Add;
 import org.geogit.cli.porcelain.Apply;
@@ -82,9 +86,11 @@ public class BuiltinCommandsModule extends AbstractModule implements CLIModule {
         bind(RevParse.class);
         bind(Add.class);
         bind(Apply.class);
+        bind(AttributeIndex.class);
         bind(Blame.class);
         bind(Branch.class);
         bind(Cat.class);
+        bind(ChangedPathsIndex.class);
         bind(Checkout.class);
         bind(CherryPick.class);
         bind(Clean.class);
@@ -93,6 +99,7 @@ public class BuiltinCommandsModule extends AbstractModule implements CLIModule {
         bind(Conflicts.class);
         bind(Diff.class);
         bind(DiffTree.class);
+        bind(FeatureHistoryIndex.class);
         bind(FormatPatch.class);
         bind(Help.class);
         bind(Init.class);
@@ -111,6 +118,7 @@ public class BuiltinCommandsModule extends AbstractModule implements CLIModule {
         bind(RevList.class);
         bind(Show.class);
         bind(ShowRef.class);
+        bind(SpatialIndex.class);
         bind(Clone.class);
         bind(Fetch.class);
         bind(Push.class);
@@ -0,0 +1,87 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.cli.plumbing;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import jline.console.ConsoleReader;
+
+import org.geogit.api.GeoGIT;
+import org.geogit.api.NodeRef;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.RevTree;
+import org.geogit.api.plumbing.BuildAttributeIndex;
+import org.geogit.api.plumbing.FindTreeChild;
+import org.geogit.api.plumbing.ResolveTreeish;
+import org.geogit.api.plumbing.RevObjectParse;
+import org.geogit.cli.CLICommand;
+import org.geogit.cli.GeogitCLI;
+
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.Parameters;
+import com.google.common.base.Optional;
+
+/**
+ * Creates the index of the features of feature type trees by the value of an attribute, which is
+ * then kept up to date on every commit and used to speed up equality and range queries on it.
+ * <p>
+ * Usage:
+ * <ul>
+ * <li> {@code geogit attribute-index --attribute <name> <tree-ish>:<path>...}, e.g.
+ * {@code geogit attribute-index --attribute highway HEAD:roads}
+ * </ul>
+ */
+@Parameters(commandNames = "attribute-index", commandDescription = "Creates the index of feature type trees by an attribute")
+public class AttributeIndex implements CLICommand {
+
+    @Parameter(names = "--attribute", description = "Name of the attribute to index the features by", required = true)
+    private String attribute;
+
+    @Parameter(description = "<tree-ish>:<path>...")
+    private List<String> trees = new ArrayList<String>();
+
+    /**
+     * @param cli
+     * @see org.geogit.cli.CLICommand#run(org.geogit.cli.GeogitCLI)
+     */
+    @Override
+    public void run(GeogitCLI cli) throws Exception {
+        checkState(cli.getGeogit() != null, "Not a geogit repository: " + cli.getPlatform().pwd());
+        checkArgument(!trees.isEmpty(), "At least one tree must be provided");
+
+        ConsoleReader console = cli.getConsole();
+        GeoGIT geogit = cli.getGeogit();
+
+        for (String treeRef : trees) {
+            int separator = treeRef.indexOf(':');
+            checkArgument(separator > 0, treeRef + " is not of the form <tree-ish>:<path>");
+            String treeish = treeRef.substring(0, separator);
+            String path = treeRef.substring(separator + 1);
+
+            Optional<ObjectId> rootId = geogit.command(ResolveTreeish.class).setTreeish(treeish)
+                    .call();
+            checkArgument(rootId.isPresent(), treeish + " does not resolve to a tree.");
+            RevTree root = geogit.command(RevObjectParse.class).setObjectId(rootId.get())
+                    .call(RevTree.class).get();
+            Optional<NodeRef> tree = geogit.command(FindTreeChild.class).setParent(root)
+                    .setChildPath(path).call();
+            checkArgument(tree.isPresent() && TYPE.TREE.equals(tree.get().getType()), path
+                    + " is not a tree in " + treeish);
+            checkArgument(!tree.get().getMetadataId().isNull(), path
+                    + " has no default feature type");
+
+            geogit.command(BuildAttributeIndex.class).setTree(tree.get().objectId())
+                    .setMetadataId(tree.get().getMetadataId()).setAttribute(attribute).call();
+            console.println("Attribute index on " + attribute + " created for " + treeRef);
+        }
+        console.flush();
+    }
+
+}
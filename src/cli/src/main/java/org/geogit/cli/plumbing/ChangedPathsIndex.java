@@ -0,0 +1,70 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.cli.plumbing;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import jline.console.ConsoleReader;
+
+import org.geogit.api.GeoGIT;
+import org.geogit.api.ObjectId;
+import org.geogit.api.Ref;
+import org.geogit.api.RevCommit;
+import org.geogit.api.plumbing.BuildChangedPaths;
+import org.geogit.api.plumbing.RevObjectParse;
+import org.geogit.cli.CLICommand;
+import org.geogit.cli.GeogitCLI;
+
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.Parameters;
+import com.google.common.base.Optional;
+
+/**
+ * Indexes the paths changed by the commits in the history of the given commits, which speeds up
+ * path filtered {@code log} and {@code blame}. New commits are indexed as they're made, so this is
+ * only needed for the history of existing repositories.
+ * <p>
+ * Usage:
+ * <ul>
+ * <li> {@code geogit changed-paths-index [<commit-ish>...]}, defaults to {@code HEAD}
+ * </ul>
+ */
+@Parameters(commandNames = "changed-paths-index", commandDescription = "Indexes the paths changed by the commits in the history")
+public class ChangedPathsIndex implements CLICommand {
+
+    @Parameter(description = "[<commit-ish>...]")
+    private List<String> commits = new ArrayList<String>();
+
+    /**
+     * @param cli
+     * @see org.geogit.cli.CLICommand#run(org.geogit.cli.GeogitCLI)
+     */
+    @Override
+    public void run(GeogitCLI cli) throws Exception {
+        checkState(cli.getGeogit() != null, "Not a geogit repository: " + cli.getPlatform().pwd());
+
+        ConsoleReader console = cli.getConsole();
+        GeoGIT geogit = cli.getGeogit();
+
+        if (commits.isEmpty()) {
+            commits.add(Ref.HEAD);
+        }
+        for (String commitish : commits) {
+            Optional<RevCommit> commit = geogit.command(RevObjectParse.class)
+                    .setRefSpec(commitish).call(RevCommit.class);
+            checkArgument(commit.isPresent(), commitish + " does not resolve to a commit");
+            ObjectId commitId = commit.get().getId();
+            Integer indexed = geogit.command(BuildChangedPaths.class).setCommit(commitId)
+                    .setHistory(true).call();
+            console.println(indexed + " commits indexed in the history of " + commitish);
+        }
+        console.flush();
+    }
+
+}
@@ -0,0 +1,47 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.cli.plumbing;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import jline.console.ConsoleReader;
+
+import org.geogit.api.GeoGIT;
+import org.geogit.api.plumbing.UpdateFeatureHistory;
+import org.geogit.cli.CLICommand;
+import org.geogit.cli.GeogitCLI;
+
+import com.beust.jcommander.Parameters;
+
+/**
+ * Creates, or rebuilds from scratch, the index of the versions of each feature out of the history
+ * of all the refs, which speeds up feature path filtered {@code log}. Once created, the index is
+ * updated as new commits are made, merged or fetched.
+ * <p>
+ * Usage:
+ * <ul>
+ * <li> {@code geogit feature-history-index}
+ * </ul>
+ */
+@Parameters(commandNames = "feature-history-index", commandDescription = "Builds the index of the versions of each feature")
+public class FeatureHistoryIndex implements CLICommand {
+
+    /**
+     * @param cli
+     * @see org.geogit.cli.CLICommand#run(org.geogit.cli.GeogitCLI)
+     */
+    @Override
+    public void run(GeogitCLI cli) throws Exception {
+        checkState(cli.getGeogit() != null, "Not a geogit repository: " + cli.getPlatform().pwd());
+
+        ConsoleReader console = cli.getConsole();
+        GeoGIT geogit = cli.getGeogit();
+
+        Integer indexed = geogit.command(UpdateFeatureHistory.class).setRebuild(true).call();
+        console.println(indexed + " commits indexed");
+        console.flush();
+    }
+
+}
@@ -0,0 +1,65 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.cli.plumbing;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import jline.console.ConsoleReader;
+
+import org.geogit.api.GeoGIT;
+import org.geogit.api.RevObject;
+import org.geogit.api.RevTree;
+import org.geogit.api.plumbing.BuildSpatialIndex;
+import org.geogit.api.plumbing.RevObjectParse;
+import org.geogit.cli.CLICommand;
+import org.geogit.cli.GeogitCLI;
+
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.Parameters;
+import com.google.common.base.Optional;
+
+/**
+ * Creates the spatial index of feature type trees, which is then kept up to date on every commit
+ * and used to speed up bounding box queries.
+ * <p>
+ * Usage:
+ * <ul>
+ * <li> {@code geogit spatial-index <tree-ish>...}, e.g. {@code geogit spatial-index HEAD:roads}
+ * </ul>
+ */
+@Parameters(commandNames = "spatial-index", commandDescription = "Creates the spatial index of feature type trees")
+public class SpatialIndex implements CLICommand {
+
+    @Parameter(description = "<tree-ish>...")
+    private List<String> trees = new ArrayList<String>();
+
+    /**
+     * @param cli
+     * @see org.geogit.cli.CLICommand#run(org.geogit.cli.GeogitCLI)
+     */
+    @Override
+    public void run(GeogitCLI cli) throws Exception {
+        checkState(cli.getGeogit() != null, "Not a geogit repository: " + cli.getPlatform().pwd());
+        checkArgument(!trees.isEmpty(), "At least one tree must be provided");
+
+        ConsoleReader console = cli.getConsole();
+        GeoGIT geogit = cli.getGeogit();
+
+        for (String treeish : trees) {
+            Optional<RevObject> tree = geogit.command(RevObjectParse.class).setRefSpec(treeish)
+                    .call();
+            checkArgument(tree.isPresent(), treeish + " does not resolve to any object.");
+            checkArgument(tree.get() instanceof RevTree, treeish + " does not resolve to a tree");
+            geogit.command(BuildSpatialIndex.class).setTree(tree.get().getId()).call();
+            console.println("Spatial index created for " + treeish);
+        }
+        console.flush();
+    }
+
+}
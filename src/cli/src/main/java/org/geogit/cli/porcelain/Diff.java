@@ -80,6 +80,7 @@ public class Diff extends AbstractCommand implements CLICommand {
         String newVersion = resolveNewVersion();
 
         diff.setOldVersion(oldVersion).setNewVersion(newVersion).setCompareIndex(cached);
+        diff.setUseCache(true);
 
         Iterator<DiffEntry> entries;
         if (paths.isEmpty()) {
@@ -0,0 +1,219 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.api;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import static org.geogit.api.RevTree.NORMALIZED_SIZE_LIMIT;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.SortedMap;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.SortedNodeRuns.Entry;
+import org.geogit.api.plumbing.HashObject;
+import org.geogit.repository.SpatialOps;
+import org.geogit.storage.NodePathStorageOrder;
+import org.geogit.storage.ObjectDatabase;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.PeekingIterator;
+
+/**
+ * Builds a tree out of a (potentially very large) number of feature nodes, for example when
+ * importing a whole feature type.
+ * <p>
+ * Instead of partitioning the nodes in memory and saving intermediate bucket trees as
+ * {@link RevTreeBuilder} does, nodes are sorted in {@link NodePathStorageOrder storage order},
+ * spilling sorted runs to temporary files whenever more than {@code maxNodesInMemory} of them are
+ * buffered, and {@link #build()} then creates the bucket trees bottom up in a single pass over the
+ * merged runs, saving each one exactly once. The resulting tree is the same {@link RevTreeBuilder}
+ * would build out of the same nodes; if several nodes with the same name are added, the last one
+ * wins.
+ * <p>
+ * Instances are not thread safe and can build a single tree.
+ */
+public class BulkTreeBuilder {
+
+    /**
+     * How many nodes to hold in memory before spilling them to a temporary file
+     */
+    public static final int DEFAULT_MAX_NODES_IN_MEMORY = 1000 * 100;
+
+    /**
+     * How many bucket trees to save to the database at once
+     */
+    private static final int WRITE_BATCH_SIZE = 1000;
+
+    private final ObjectDatabase db;
+
+    private final NodePathStorageOrder storageOrder = new NodePathStorageOrder();
+
+    private final SortedNodeRuns nodes;
+
+    private final List<RevTree> pendingWrites;
+
+    private boolean built;
+
+    public BulkTreeBuilder(ObjectDatabase db) {
+        this(db, DEFAULT_MAX_NODES_IN_MEMORY, null);
+    }
+
+    /**
+     * @param maxNodesInMemory how many nodes to buffer before spilling them to disk
+     * @param tempDirectory where to create the temporary files, defaults to the
+     *        {@code java.io.tmpdir} directory
+     */
+    public BulkTreeBuilder(ObjectDatabase db, int maxNodesInMemory, @Nullable File tempDirectory) {
+        checkNotNull(db);
+        this.db = db;
+        this.nodes = new SortedNodeRuns(maxNodesInMemory, tempDirectory);
+        this.pendingWrites = Lists.newArrayList();
+    }
+
+    /**
+     * Adds a feature node to the tree
+     */
+    public BulkTreeBuilder put(final Node node) {
+        checkNotNull(node, "node can't be null");
+        checkArgument(TYPE.FEATURE.equals(node.getType()), "Only feature nodes are supported: %s",
+                node);
+        checkState(!built, "the tree has already been built");
+
+        nodes.add(storageOrder.pathHash(node.getName()), node);
+        return this;
+    }
+
+    /**
+     * Saves all the bucket trees to the database and returns the root tree, which is not saved,
+     * like {@link RevTreeBuilder#build()} does.
+     */
+    public RevTree build() {
+        checkState(!built, "the tree has already been built");
+        built = true;
+        try {
+            NodeStream stream = new NodeStream(nodes.merge());
+            RevTree tree = build(stream, 0, new int[20]);
+            flushWrites();
+            return tree;
+        } finally {
+            nodes.dispose();
+        }
+    }
+
+    /**
+     * Builds the tree out of the next nodes in the stream whose path hash starts with the given
+     * bucket {@code prefix} of length {@code depth}.
+     */
+    private RevTree build(final NodeStream stream, final int depth, final int[] prefix) {
+        List<Entry> leafNodes = Lists.newArrayList();
+        while (leafNodes.size() <= NORMALIZED_SIZE_LIMIT && stream.hasNext()
+                && belongs(stream.peek(), depth, prefix)) {
+            leafNodes.add(stream.next());
+        }
+
+        RevTree unnamedTree;
+        long size;
+        if (leafNodes.size() <= NORMALIZED_SIZE_LIMIT) {
+            List<Node> features = Lists.newArrayListWithCapacity(leafNodes.size());
+            for (Entry e : leafNodes) {
+                features.add(e.node);
+            }
+            size = features.size();
+            unnamedTree = RevTreeImpl.createLeafTree(ObjectId.NULL, size, features,
+                    ImmutableList.<Node> of());
+        } else {
+            stream.pushBack(leafNodes);
+            leafNodes = null;
+            SortedMap<Integer, Bucket> buckets = Maps.newTreeMap();
+            size = 0;
+            while (stream.hasNext() && belongs(stream.peek(), depth, prefix)) {
+                final Integer bucket = storageOrder.bucket(stream.peek().pathHash, depth);
+                prefix[depth] = bucket.intValue();
+                RevTree bucketTree = build(stream, depth + 1, prefix);
+                size += bucketTree.size();
+                buckets.put(bucket,
+                        Bucket.create(bucketTree.getId(), SpatialOps.boundsOf(bucketTree)));
+                save(bucketTree);
+            }
+            unnamedTree = RevTreeImpl.createNodeTree(ObjectId.NULL, size, 0, buckets);
+        }
+        ObjectId treeId = new HashObject().setObject(unnamedTree).call();
+        return RevTreeImpl.create(treeId, size, unnamedTree);
+    }
+
+    private boolean belongs(final Entry entry, final int depth, final int[] prefix) {
+        for (int d = depth - 1; d >= 0; d--) {
+            if (storageOrder.bucket(entry.pathHash, d).intValue() != prefix[d]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void save(RevTree tree) {
+        pendingWrites.add(tree);
+        if (pendingWrites.size() >= WRITE_BATCH_SIZE) {
+            flushWrites();
+        }
+    }
+
+    private void flushWrites() {
+        if (!pendingWrites.isEmpty()) {
+            db.putAll(pendingWrites.iterator());
+            pendingWrites.clear();
+        }
+    }
+
+    /**
+     * A peeking iterator over the merged nodes that allows to push back a bounded number of nodes
+     * once it's known they don't fit in a leaf tree
+     */
+    private static class NodeStream implements PeekingIterator<Entry> {
+
+        private final Iterator<Entry> source;
+
+        private final LinkedList<Entry> pushedBack = Lists.newLinkedList();
+
+        NodeStream(Iterator<Entry> source) {
+            this.source = source;
+        }
+
+        void pushBack(List<Entry> entries) {
+            pushedBack.addAll(0, entries);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !pushedBack.isEmpty() || source.hasNext();
+        }
+
+        @Override
+        public Entry peek() {
+            if (pushedBack.isEmpty()) {
+                pushedBack.add(source.next());
+            }
+            return pushedBack.getFirst();
+        }
+
+        @Override
+        public Entry next() {
+            return pushedBack.isEmpty() ? source.next() : pushedBack.removeFirst();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
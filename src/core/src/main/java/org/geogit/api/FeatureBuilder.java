@@ -13,10 +13,8 @@ import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.feature.type.FeatureType;
 import org.opengis.filter.identity.FeatureId;
 
-import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.BiMap;
-import com.google.common.collect.ImmutableList;
 
 /**
  * Provides a method of building features from {@link RevFeature} objects that have the type
@@ -69,8 +67,8 @@ public class FeatureBuilder {
         final String version = revFeature.getId().toString();
         final FeatureId fid = new FeatureIdVersionedImpl(id, version);
 
-        ImmutableList<Optional<Object>> values = revFeature.getValues();
-        GeogitSimpleFeature feature = new GeogitSimpleFeature(values,
+        // values are taken from revFeature as requested, so unused ones are never decoded
+        GeogitSimpleFeature feature = new GeogitSimpleFeature(revFeature,
                 (SimpleFeatureType) featureType, fid, attNameToRevTypeIndex, typeToRevTypeIndex);
         return feature;
     }
@@ -100,8 +100,52 @@ public class GeogitSimpleFeature implements SimpleFeature {
         this.typeToRevTypeIndex = typeToRevTypeIndex;
     }
 
+    /**
+     * Creates a feature backed by the values of the given {@link RevFeature}, which are only
+     * fetched from it as they're requested, so that values that are never asked for don't need
+     * to be decoded.
+     * 
+     * @param revFeature
+     * @param featureType
+     * @param id
+     * @param nameToRevTypeInded - attribute name to value index mapping
+     * @param typeToRevTypeIndex
+     */
+    public GeogitSimpleFeature(RevFeature revFeature, SimpleFeatureType featureType,
+            FeatureId id, Map<String, Integer> nameToRevTypeInded,
+            BiMap<Integer, Integer> typeToRevTypeIndex) {
+        this.id = id;
+        this.featureType = featureType;
+        this.revFeatureValues = new RevFeatureValues(revFeature);
+        this.nameToRevTypeIndex = nameToRevTypeInded;
+        this.typeToRevTypeIndex = typeToRevTypeIndex;
+    }
+
+    /**
+     * Read only view of the values of a {@link RevFeature}
+     */
+    private static class RevFeatureValues extends AbstractList<Optional<Object>> {
+
+        private final RevFeature revFeature;
+
+        RevFeatureValues(RevFeature revFeature) {
+            this.revFeature = revFeature;
+        }
+
+        @Override
+        public Optional<Object> get(int index) {
+            return revFeature.get(index);
+        }
+
+        @Override
+        public int size() {
+            return revFeature.size();
+        }
+    }
+
     private List<Optional<Object>> mutableValues() {
-        if (revFeatureValues instanceof ImmutableList) {
+        if (revFeatureValues instanceof ImmutableList
+                || revFeatureValues instanceof RevFeatureValues) {
             revFeatureValues = Lists.newArrayList(revFeatureValues);
         }
         return revFeatureValues;
@@ -244,7 +288,11 @@ public class GeogitSimpleFeature implements SimpleFeature {
 
         Optional<Object> o;
         for (int i = 0; i < revFeatureValues.size(); i++) {
-            o = revFeatureValues.get(i);
+            // don't decode non geometry values just to find out they're not geometries
+            if (!(featureType.getDescriptor(i) instanceof GeometryDescriptor)) {
+                continue;
+            }
+            o = revFeatureValues.get(typeToRevTypeIndex(i));
             if (o.isPresent() && o.get() instanceof Geometry) {
                 Geometry g = (Geometry) o.get();
                 // TODO: check userData for crs... and ensure its of the same
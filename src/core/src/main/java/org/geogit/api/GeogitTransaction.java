@@ -7,6 +7,7 @@ import org.geogit.repository.Index;
 import org.geogit.repository.Repository;
 import org.geogit.repository.StagingArea;
 import org.geogit.repository.WorkingTree;
+import org.geogit.storage.PerformanceSettings;
 import org.geogit.storage.RefDatabase;
 import org.geogit.storage.TransactionRefDatabase;
 
@@ -37,14 +38,17 @@ public class GeogitTransaction implements CommandLocator {
      * 
      * @param locator the non transactional command locator
      * @param transactionId the id of the transaction
+     * @param settings the repository performance settings
      */
-    public GeogitTransaction(CommandLocator locator, Repository repository, UUID transactionId) {
+    public GeogitTransaction(CommandLocator locator, Repository repository, UUID transactionId,
+            PerformanceSettings settings) {
         Preconditions.checkArgument(!(locator instanceof GeogitTransaction));
         this.locator = locator;
         this.transactionId = transactionId;
 
         transactionIndex = new Index(repository.getIndex().getDatabase(), this);
-        transactionWorkTree = new WorkingTree(repository.getIndex().getDatabase(), this);
+        transactionWorkTree = new WorkingTree(repository.getIndex().getDatabase(), this,
+                settings);
         transactionRefDatabase = new TransactionRefDatabase(repository.getRefDatabase(),
                 transactionId);
     }
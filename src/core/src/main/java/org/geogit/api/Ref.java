@@ -75,6 +75,12 @@ public class Ref implements Comparable<Ref> {
      */
     public static final String HEADS_PREFIX = REFS_PREFIX + "heads/";
 
+    /**
+     * Directory prefix for the refs to the spatial and attribute indexes of trees, kept out of
+     * {@link #REFS_PREFIX} so that they're not listed nor transferred with the branches and tags.
+     */
+    public static final String INDEXES_PREFIX = "indexes/";
+
     /**
      * By convention, the origin of the repository
      */
@@ -43,6 +43,17 @@ public class RevFeature extends AbstractRevObject {
         this.values = values;
     }
 
+    /**
+     * Constructor for subclasses that provide their values on demand, and hence must override
+     * {@link #getValues()}, {@link #size()}, and {@link #get(int)}
+     * 
+     * @param id the {@link ObjectId} to use for this feature
+     */
+    protected RevFeature(ObjectId id) {
+        super(id);
+        this.values = null;
+    }
+
     /**
      * @return a list of values, with {@link Optional#absent()} representing a null value
      */
@@ -50,6 +61,24 @@ public class RevFeature extends AbstractRevObject {
         return values;
     }
 
+    /**
+     * @return the number of values in this feature
+     */
+    public int size() {
+        return getValues().size();
+    }
+
+    /**
+     * Returns a single value, which may be cheaper than {@link #getValues()} when only some of the
+     * values are needed.
+     * 
+     * @param index the index of the value
+     * @return the value, or {@link Optional#absent()} if it's null
+     */
+    public Optional<Object> get(int index) {
+        return getValues().get(index);
+    }
+
     @Override
     public TYPE getType() {
         return TYPE.FEATURE;
@@ -9,15 +9,29 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 import static org.geogit.api.RevTree.NORMALIZED_SIZE_LIMIT;
 
+import java.io.File;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.Nullable;
 
 import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.SortedNodeRuns.Entry;
 import org.geogit.api.plumbing.HashObject;
 import org.geogit.repository.DepthSearch;
 import org.geogit.repository.SpatialOps;
@@ -26,11 +40,16 @@ import org.geogit.storage.ObjectDatabase;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ArrayListMultimap;
-import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
+import com.google.common.collect.PeekingIterator;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.vividsolutions.jts.geom.Envelope;
 
 public class RevTreeBuilder {
@@ -43,6 +62,49 @@ public class RevTreeBuilder {
      */
     public static final int DEFAULT_NORMALIZATION_THRESHOLD = 1000 * 100;
 
+    /**
+     * How many threads to rebuild the bucket trees of a tree with by default, the number of
+     * processors. Repositories can change it with the {@code tree.parallelism} config key.
+     * 
+     * @see #setParallelism(int)
+     * @see org.geogit.storage.PerformanceSettings
+     */
+    public static final int DEFAULT_PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * How many pending changes a builder {@link #spillToDisk(int, File) spilling to disk} holds on
+     * the heap by default. Repositories can change it with the {@code tree.maxchangesinmemory}
+     * config key.
+     * 
+     * @see org.geogit.storage.PerformanceSettings
+     */
+    public static final int DEFAULT_MAX_CHANGES_IN_MEMORY = DEFAULT_NORMALIZATION_THRESHOLD;
+
+    /**
+     * How many bucket trees to hold before forcing them to be saved to the database
+     */
+    private static final int DEFAULT_PENDING_WRITES_THRESHOLD = 10 * 1000;
+
+    /**
+     * Minimum number of changes for the bucket trees to be rebuilt concurrently
+     */
+    private static final int PARALLEL_REBUILD_THRESHOLD = 10 * 1000;
+
+    /**
+     * How many of the changes spilled to disk are handed over at a time to the task rebuilding
+     * their bucket
+     */
+    private static final int SPILLED_BATCH_SIZE = 1000;
+
+    /**
+     * Shared by all instances, runs the bucket tree rebuild tasks with one thread per processor.
+     * Tasks never wait on other tasks, so queued tasks can't starve running ones, and each builder
+     * has at most {@code parallelism} of them running at a time.
+     */
+    private static final ExecutorService BUCKET_EXECUTOR = Executors.newFixedThreadPool(Runtime
+            .getRuntime().availableProcessors(), new ThreadFactoryBuilder().setDaemon(true)
+            .setNameFormat("geogit-tree-builder-%d").build());
+
     private final ObjectDatabase db;
 
     private final Set<String> deletes;
@@ -63,6 +125,17 @@ public class RevTreeBuilder {
 
     private Map<ObjectId, RevTree> pendingWritesCache;
 
+    private int parallelism = DEFAULT_PARALLELISM;
+
+    private int normalizationThreshold;
+
+    private int pendingWritesThreshold;
+
+    /**
+     * The changes spilled to disk, if {@link #spillToDisk(int, File) enabled}
+     */
+    private SortedNodeRuns spilledChanges;
+
     /**
      * Empty tree constructor, used to create trees from scratch
      * 
@@ -77,14 +150,16 @@ public class RevTreeBuilder {
      * Copy constructor with tree depth
      */
     public RevTreeBuilder(ObjectDatabase db, @Nullable final RevTree copy) {
-        this(db, copy, 0, new TreeMap<ObjectId, RevTree>());
+        this(db, copy, 0, new TreeMap<ObjectId, RevTree>(), DEFAULT_NORMALIZATION_THRESHOLD,
+                DEFAULT_PENDING_WRITES_THRESHOLD);
     }
 
     /**
      * Copy constructor
      */
     private RevTreeBuilder(final ObjectDatabase db, @Nullable final RevTree copy, final int depth,
-            final Map<ObjectId, RevTree> pendingWritesCache) {
+            final Map<ObjectId, RevTree> pendingWritesCache, final int normalizationThreshold,
+            final int pendingWritesThreshold) {
 
         checkNotNull(db);
         checkNotNull(pendingWritesCache);
@@ -92,6 +167,8 @@ public class RevTreeBuilder {
         this.db = db;
         this.depth = depth;
         this.pendingWritesCache = pendingWritesCache;
+        this.normalizationThreshold = normalizationThreshold;
+        this.pendingWritesThreshold = pendingWritesThreshold;
 
         this.deletes = Sets.newHashSet();
         this.treeChanges = Maps.newHashMap();
@@ -99,9 +176,8 @@ public class RevTreeBuilder {
         this.bucketTreesByBucket = Maps.newTreeMap();
 
         if (copy != null) {
-            this.initialSize = copy.size();
-            this.initialNumTrees = copy.numTrees();
-
+            // the children of a leaf tree are added as changes, so only the size of bucket trees
+            // is accounted for upfront
             if (copy.trees().isPresent()) {
                 checkArgument(!copy.buckets().isPresent());
                 for (Node node : copy.trees().get()) {
@@ -117,6 +193,8 @@ public class RevTreeBuilder {
             if (copy.buckets().isPresent()) {
                 checkArgument(!copy.features().isPresent());
                 bucketTreesByBucket.putAll(copy.buckets().get());
+                this.initialSize = copy.size();
+                this.initialNumTrees = copy.numTrees();
             }
         }
     }
@@ -203,10 +281,12 @@ public class RevTreeBuilder {
     private RevTree normalize() {
         RevTree unnamedTree;
 
-        if (bucketTreesByBucket.isEmpty() && numPendingChanges() <= NORMALIZED_SIZE_LIMIT) {
+        final boolean spilled = isSpilled();
+        if (!spilled && bucketTreesByBucket.isEmpty()
+                && numPendingChanges() <= NORMALIZED_SIZE_LIMIT) {
             unnamedTree = normalizeToChildren();
         } else {
-            unnamedTree = normalizeToBuckets();
+            unnamedTree = spilled ? mergeSpilledChanges() : normalizeToBuckets();
             checkState(featureChanges.isEmpty());
             checkState(treeChanges.isEmpty());
 
@@ -219,7 +299,6 @@ public class RevTreeBuilder {
             }
         }
 
-        final int pendingWritesThreshold = 10 * 1000;
         final boolean actualTree = this.depth == 0;// am I an actual (addressable) tree or bucket
                                                    // tree of a higher level one?
         final boolean forceWrite = pendingWritesCache.size() > pendingWritesThreshold;
@@ -227,8 +306,10 @@ public class RevTreeBuilder {
             db.putAll(pendingWritesCache.values().iterator());
             pendingWritesCache.clear();
         }
-        this.initialSize = unnamedTree.size();
-        this.initialNumTrees = unnamedTree.numTrees();
+        // a leaf tree's children are still held as changes
+        final boolean leafTree = !unnamedTree.buckets().isPresent();
+        this.initialSize = leafTree ? 0L : unnamedTree.size();
+        this.initialNumTrees = leafTree ? 0 : unnamedTree.numTrees();
         return unnamedTree;
     }
 
@@ -286,59 +367,234 @@ public class RevTreeBuilder {
      * 
      */
     private RevTree normalizeToBuckets() {
+        final Multimap<Integer, Node> changesByBucket = getChangesByBucket();
+        Preconditions.checkState(featureChanges.isEmpty());
+        Preconditions.checkState(treeChanges.isEmpty());
+        Preconditions.checkState(deletes.isEmpty());
+
         // update all inner trees
-        final ImmutableSet<Integer> changedBucketIndexes;
+        final List<BucketUpdate> updates;
+        if (rebuildInParallel(changesByBucket)) {
+            if (!pendingWritesCache.isEmpty()) {
+                // the bucket tree builders of each task only look up their own pending writes
+                db.putAll(pendingWritesCache.values().iterator());
+                pendingWritesCache.clear();
+            }
+            updates = rebuildBucketsInParallel(changesByBucket);
+        } else {
+            updates = rebuildBuckets(changesByBucket.keySet(), changesByBucket,
+                    this.pendingWritesCache);
+        }
+        return applyBucketUpdates(updates);
+    }
 
-        // aggregate size delta for all changed buckets
-        long sizeDelta = 0L;
-        // aggregate number of trees delta for all changed buckets
-        int treesDelta = 0;
+    /**
+     * Applies the changes spilled to disk, as well as the ones still in memory, to the bucket
+     * trees. Changes are merged in path hash order, so that all the changes to a bucket come
+     * together and are applied by a single bucket tree builder, which holds at most
+     * {@link #normalizationThreshold} of them at a time.
+     */
+    private RevTree mergeSpilledChanges() {
+        moveChangesTo(spilledChanges);
+
+        final List<BucketUpdate> updates;
+        try {
+            PeekingIterator<Entry> changes = Iterators.peekingIterator(spilledChanges.merge());
+            if (this.depth == 0 && this.parallelism > 1) {
+                updates = mergeSpilledChangesInParallel(changes);
+            } else {
+                updates = Lists.newArrayList();
+                while (changes.hasNext()) {
+                    final Integer bucketIndex = computeBucket(changes.peek().pathHash);
+                    final RevTree currentBucketTree = getBucketTree(bucketIndex);
+                    final RevTreeBuilder bucketTreeBuilder = bucketTreeBuilder(
+                            currentBucketTree, this.pendingWritesCache);
+                    while (changes.hasNext()
+                            && bucketIndex.equals(computeBucket(changes.peek().pathHash))) {
+                        applyChange(bucketTreeBuilder, changes.next().node);
+                    }
+                    final RevTree modifiedBucketTree = bucketTreeBuilder.build();
+                    updates.add(new BucketUpdate(bucketIndex, currentBucketTree,
+                            modifiedBucketTree));
+                }
+            }
+        } finally {
+            spilledChanges.dispose();
+        }
+        return applyBucketUpdates(updates);
+    }
 
+    /**
+     * Feeds the merged changes of each bucket to a task rebuilding it, with up to
+     * {@link #setParallelism(int) parallelism} of them running at a time, while the calling thread
+     * keeps merging the changes of the next buckets. Changes are handed over in batches of
+     * {@link #SPILLED_BATCH_SIZE}, and each task's bucket tree builder holds its share of
+     * {@link #normalizationThreshold}, so that the number of changes in memory stays bounded.
+     */
+    private List<BucketUpdate> mergeSpilledChangesInParallel(final PeekingIterator<Entry> changes) {
+        if (!pendingWritesCache.isEmpty()) {
+            // the bucket tree builders of each task only look up their own pending writes
+            db.putAll(pendingWritesCache.values().iterator());
+            pendingWritesCache.clear();
+        }
+        final Semaphore runningTasks = new Semaphore(this.parallelism);
+        final int taskNormalizationThreshold = Math.max(1, this.normalizationThreshold
+                / this.parallelism);
+
+        List<SpilledBucketRebuild> tasks = Lists.newArrayList();
+        List<Future<BucketUpdate>> futures = Lists.newArrayList();
+        List<BucketUpdate> updates = Lists.newArrayList();
         try {
-            Multimap<Integer, Node> changesByBucket = getChangesByBucket();
-            Preconditions.checkState(featureChanges.isEmpty());
-            Preconditions.checkState(treeChanges.isEmpty());
-            Preconditions.checkState(deletes.isEmpty());
-
-            changedBucketIndexes = ImmutableSet.copyOf(changesByBucket.keySet());
-
-            for (Integer bucketIndex : changedBucketIndexes) {
-                final RevTree currentBucketTree = getBucketTree(bucketIndex);
-                final int bucketDepth = this.depth + 1;
-                final RevTreeBuilder bucketTreeBuilder = new RevTreeBuilder(this.db,
-                        currentBucketTree, bucketDepth, this.pendingWritesCache);
-                {
-                    final Collection<Node> bucketEntries = changesByBucket.removeAll(bucketIndex);
-                    for (Node node : bucketEntries) {
-                        if (node.getObjectId().isNull()) {
-                            bucketTreeBuilder.remove(node.getName());
-                        } else {
-                            bucketTreeBuilder.put(node);
-                        }
+            while (changes.hasNext()) {
+                final Integer bucketIndex = computeBucket(changes.peek().pathHash);
+                runningTasks.acquire();
+                SpilledBucketRebuild task = new SpilledBucketRebuild(bucketIndex,
+                        getBucketTree(bucketIndex), taskNormalizationThreshold, runningTasks);
+                Future<BucketUpdate> future;
+                try {
+                    future = BUCKET_EXECUTOR.submit(task);
+                } catch (RuntimeException e) {
+                    runningTasks.release();
+                    throw e;
+                }
+                tasks.add(task);
+                futures.add(future);
+
+                List<Node> batch = Lists.newArrayListWithCapacity(SPILLED_BATCH_SIZE);
+                while (changes.hasNext()
+                        && bucketIndex.equals(computeBucket(changes.peek().pathHash))) {
+                    batch.add(changes.next().node);
+                    if (batch.size() == SPILLED_BATCH_SIZE) {
+                        task.feed(batch, future);
+                        batch = Lists.newArrayListWithCapacity(SPILLED_BATCH_SIZE);
                     }
                 }
-                final RevTree modifiedBucketTree = bucketTreeBuilder.build();
-                final long bucketSizeDelta = modifiedBucketTree.size() - currentBucketTree.size();
-                final int bucketTreesDelta = modifiedBucketTree.numTrees()
-                        - currentBucketTree.numTrees();
-                sizeDelta += bucketSizeDelta;
-                treesDelta += bucketTreesDelta;
-                if (modifiedBucketTree.isEmpty()) {
-                    bucketTreesByBucket.remove(bucketIndex);
-                } else {
-                    final Bucket currBucket = this.bucketTreesByBucket.get(bucketIndex);
-                    if (currBucket == null || !currBucket.id().equals(modifiedBucketTree.getId())) {
-                        this.pendingWritesCache.put(modifiedBucketTree.getId(), modifiedBucketTree);
-                        Envelope bucketBounds = SpatialOps.boundsOf(modifiedBucketTree);
-                        Bucket bucket = Bucket.create(modifiedBucketTree.getId(), bucketBounds);
-                        bucketTreesByBucket.put(bucketIndex, bucket);
+                if (!batch.isEmpty()) {
+                    task.feed(batch, future);
+                }
+                // no more changes for this bucket
+                task.feed(ImmutableList.<Node> of(), future);
+            }
+            for (Future<BucketUpdate> future : futures) {
+                updates.add(future.get());
+            }
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Throwables.propagate(e);
+        } finally {
+            // stops the tasks still waiting for changes
+            for (Future<BucketUpdate> future : futures) {
+                future.cancel(true);
+            }
+        }
+
+        for (SpilledBucketRebuild task : tasks) {
+            this.pendingWritesCache.putAll(task.pendingWrites);
+        }
+        return updates;
+    }
+
+    private static void applyChange(final RevTreeBuilder bucketTreeBuilder, final Node node) {
+        if (node.getObjectId().isNull()) {
+            bucketTreeBuilder.remove(node.getName());
+        } else {
+            bucketTreeBuilder.put(node);
+        }
+    }
+
+    /**
+     * Applies the batches of changes to a bucket it's fed with until given an empty one
+     */
+    private class SpilledBucketRebuild implements Callable<BucketUpdate> {
+
+        private final Integer bucketIndex;
+
+        private final RevTree currentBucketTree;
+
+        private final int normalizationThreshold;
+
+        private final Semaphore runningTasks;
+
+        private final BlockingQueue<List<Node>> batches = new ArrayBlockingQueue<List<Node>>(2);
+
+        private final Map<ObjectId, RevTree> pendingWrites = new TreeMap<ObjectId, RevTree>();
+
+        SpilledBucketRebuild(Integer bucketIndex, RevTree currentBucketTree,
+                int normalizationThreshold, Semaphore runningTasks) {
+            this.bucketIndex = bucketIndex;
+            this.currentBucketTree = currentBucketTree;
+            this.normalizationThreshold = normalizationThreshold;
+            this.runningTasks = runningTasks;
+        }
+
+        /**
+         * Hands a batch of changes over to this task, waiting for room for it unless the task
+         * already failed
+         */
+        void feed(List<Node> batch, Future<BucketUpdate> future) throws InterruptedException,
+                ExecutionException {
+            while (!batches.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+                if (future.isDone()) {
+                    // throws the failure of the task
+                    future.get();
+                    throw new IllegalStateException("bucket rebuild finished early");
+                }
+            }
+        }
+
+        @Override
+        public BucketUpdate call() throws InterruptedException {
+            try {
+                RevTreeBuilder bucketTreeBuilder = new RevTreeBuilder(db, currentBucketTree,
+                        depth + 1, pendingWrites, normalizationThreshold, pendingWritesThreshold);
+                List<Node> batch;
+                while (!(batch = batches.take()).isEmpty()) {
+                    for (Node node : batch) {
+                        applyChange(bucketTreeBuilder, node);
                     }
                 }
+                RevTree modifiedBucketTree = bucketTreeBuilder.build();
+                return new BucketUpdate(bucketIndex, currentBucketTree, modifiedBucketTree);
+            } finally {
+                runningTasks.release();
+            }
+        }
+    }
+
+    /**
+     * Replaces the bucket trees by the updated ones, in bucket order
+     * 
+     * @return the unnamed tree holding the updated buckets
+     */
+    private RevTree applyBucketUpdates(final List<BucketUpdate> updates) {
+        // aggregate size delta for all changed buckets
+        long sizeDelta = 0L;
+        // aggregate number of trees delta for all changed buckets
+        int treesDelta = 0;
+
+        // apply the results in bucket order, regardless of the order they were computed in
+        for (BucketUpdate update : updates) {
+            final Integer bucketIndex = update.bucketIndex;
+            final RevTree currentBucketTree = update.currentTree;
+            final RevTree modifiedBucketTree = update.modifiedTree;
+            final long bucketSizeDelta = modifiedBucketTree.size() - currentBucketTree.size();
+            final int bucketTreesDelta = modifiedBucketTree.numTrees()
+                    - currentBucketTree.numTrees();
+            sizeDelta += bucketSizeDelta;
+            treesDelta += bucketTreesDelta;
+            if (modifiedBucketTree.isEmpty()) {
+                bucketTreesByBucket.remove(bucketIndex);
+            } else {
+                final Bucket currBucket = this.bucketTreesByBucket.get(bucketIndex);
+                if (currBucket == null || !currBucket.id().equals(modifiedBucketTree.getId())) {
+                    this.pendingWritesCache.put(modifiedBucketTree.getId(), modifiedBucketTree);
+                    Envelope bucketBounds = SpatialOps.boundsOf(modifiedBucketTree);
+                    Bucket bucket = Bucket.create(modifiedBucketTree.getId(), bucketBounds);
+                    bucketTreesByBucket.put(bucketIndex, bucket);
+                }
             }
-        } catch (RuntimeException e) {
-            throw e;
-        } catch (Exception e) {
-            throw new RuntimeException(e);
         }
 
         // compute final size and number of trees out of the aggregate deltas
@@ -348,6 +604,144 @@ public class RevTreeBuilder {
                 this.bucketTreesByBucket);
     }
 
+    /**
+     * Only the buckets of an actual tree are rebuilt concurrently, their own buckets are rebuilt
+     * by the same thread, so that tasks never wait on other tasks.
+     */
+    private boolean rebuildInParallel(Multimap<Integer, Node> changesByBucket) {
+        return this.depth == 0 && this.parallelism > 1
+                && changesByBucket.size() >= PARALLEL_REBUILD_THRESHOLD
+                && changesByBucket.keySet().size() > 1;
+    }
+
+    /**
+     * The result of applying the changes to a bucket tree
+     */
+    private static class BucketUpdate {
+
+        final Integer bucketIndex;
+
+        final RevTree currentTree;
+
+        final RevTree modifiedTree;
+
+        BucketUpdate(Integer bucketIndex, RevTree currentTree, RevTree modifiedTree) {
+            this.bucketIndex = bucketIndex;
+            this.currentTree = currentTree;
+            this.modifiedTree = modifiedTree;
+        }
+    }
+
+    /**
+     * Applies the changes to the given buckets, collecting the bucket trees still to be saved in
+     * {@code pendingWrites}.
+     * <p>
+     * Neither {@code changesByBucket} nor this builder's state are modified, so that several
+     * threads can call this method at once as long as each one uses its own {@code pendingWrites}
+     */
+    private List<BucketUpdate> rebuildBuckets(final Iterable<Integer> bucketIndexes,
+            final Multimap<Integer, Node> changesByBucket,
+            final Map<ObjectId, RevTree> pendingWrites) {
+
+        List<BucketUpdate> updates = Lists.newArrayList();
+        for (Integer bucketIndex : bucketIndexes) {
+            final RevTree currentBucketTree = getBucketTree(bucketIndex);
+            final RevTreeBuilder bucketTreeBuilder = bucketTreeBuilder(currentBucketTree,
+                    pendingWrites);
+            {
+                final Collection<Node> bucketEntries = changesByBucket.get(bucketIndex);
+                for (Node node : bucketEntries) {
+                    applyChange(bucketTreeBuilder, node);
+                }
+            }
+            final RevTree modifiedBucketTree = bucketTreeBuilder.build();
+            updates.add(new BucketUpdate(bucketIndex, currentBucketTree, modifiedBucketTree));
+        }
+        return updates;
+    }
+
+    /**
+     * Rebuilds the changed buckets with up to {@link #setParallelism(int) parallelism} tasks, the
+     * calling thread running one of them. Tasks take the next bucket to rebuild as they finish the
+     * previous one, so that a few large buckets don't leave the other threads idle. Each task
+     * collects its pending writes on its own map, which are merged into
+     * {@link #pendingWritesCache} once all of them are finished.
+     */
+    private List<BucketUpdate> rebuildBucketsInParallel(
+            final Multimap<Integer, Node> changesByBucket) {
+
+        final List<Integer> bucketIndexes = Lists.newArrayList(changesByBucket.keySet());
+        final int numTasks = Math.min(this.parallelism, bucketIndexes.size());
+        final AtomicInteger nextBucket = new AtomicInteger();
+
+        List<BucketRebuild> tasks = Lists.newArrayListWithCapacity(numTasks);
+        for (int t = 0; t < numTasks; t++) {
+            tasks.add(new BucketRebuild(bucketIndexes, nextBucket, changesByBucket));
+        }
+
+        List<Future<List<BucketUpdate>>> futures = Lists.newArrayList();
+        SortedMap<Integer, BucketUpdate> updates = Maps.newTreeMap();
+        try {
+            for (BucketRebuild task : tasks.subList(1, numTasks)) {
+                futures.add(BUCKET_EXECUTOR.submit(task));
+            }
+            for (BucketUpdate update : tasks.get(0).call()) {
+                updates.put(update.bucketIndex, update);
+            }
+            for (Future<List<BucketUpdate>> future : futures) {
+                for (BucketUpdate update : future.get()) {
+                    updates.put(update.bucketIndex, update);
+                }
+            }
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Throwables.propagate(e);
+        } finally {
+            // stops the tasks still queued or running from taking more buckets
+            nextBucket.set(bucketIndexes.size());
+            for (Future<List<BucketUpdate>> future : futures) {
+                future.cancel(true);
+            }
+        }
+
+        for (BucketRebuild task : tasks) {
+            this.pendingWritesCache.putAll(task.pendingWrites);
+        }
+        return Lists.newArrayList(updates.values());
+    }
+
+    private class BucketRebuild implements Callable<List<BucketUpdate>> {
+
+        private final List<Integer> bucketIndexes;
+
+        private final AtomicInteger nextBucket;
+
+        private final Multimap<Integer, Node> changesByBucket;
+
+        private final Map<ObjectId, RevTree> pendingWrites = new TreeMap<ObjectId, RevTree>();
+
+        BucketRebuild(List<Integer> bucketIndexes, AtomicInteger nextBucket,
+                Multimap<Integer, Node> changesByBucket) {
+            this.bucketIndexes = bucketIndexes;
+            this.nextBucket = nextBucket;
+            this.changesByBucket = changesByBucket;
+        }
+
+        @Override
+        public List<BucketUpdate> call() {
+            List<BucketUpdate> updates = Lists.newArrayList();
+            int next;
+            while ((next = nextBucket.getAndIncrement()) < bucketIndexes.size()) {
+                Integer bucketIndex = bucketIndexes.get(next);
+                updates.addAll(rebuildBuckets(ImmutableList.of(bucketIndex), changesByBucket,
+                        pendingWrites));
+            }
+            return updates;
+        }
+    }
+
     /**
      * @return the bucket tree or {@link RevTree#EMPTY} if this tree does not have a bucket for the
      *         given bucket index
@@ -361,6 +755,12 @@ public class RevTreeBuilder {
         }
     }
 
+    private RevTreeBuilder bucketTreeBuilder(final RevTree currentBucketTree,
+            final Map<ObjectId, RevTree> pendingWrites) {
+        return new RevTreeBuilder(this.db, currentBucketTree, this.depth + 1, pendingWrites,
+                this.normalizationThreshold, this.pendingWritesThreshold);
+    }
+
     private Multimap<Integer, Node> getChangesByBucket() {
         Multimap<Integer, Node> changesByBucket = ArrayListMultimap.create();
         if (!featureChanges.isEmpty()) {
@@ -394,6 +794,88 @@ public class RevTreeBuilder {
         return this.storageOrder.bucket(path, this.depth);
     }
 
+    private Integer computeBucket(final ObjectId pathHash) {
+        return this.storageOrder.bucket(pathHash, this.depth);
+    }
+
+    private boolean isSpilled() {
+        return spilledChanges != null && spilledChanges.isSpilled();
+    }
+
+    /**
+     * Moves the pending changes to {@code runs}, deletes as nodes with a {@link ObjectId#NULL
+     * null} object id
+     */
+    private void moveChangesTo(final SortedNodeRuns runs) {
+        for (Node node : featureChanges.values()) {
+            runs.add(storageOrder.pathHash(node.getName()), node);
+        }
+        featureChanges.clear();
+        for (Node node : treeChanges.values()) {
+            runs.add(storageOrder.pathHash(node.getName()), node);
+        }
+        treeChanges.clear();
+        for (String name : deletes) {
+            Node node = Node.create(name, ObjectId.NULL, ObjectId.NULL, TYPE.FEATURE);
+            runs.add(storageOrder.pathHash(name), node);
+        }
+        deletes.clear();
+    }
+
+    /**
+     * Normalizes this tree, or spills the pending changes to disk if {@link #spillToDisk(int,
+     * File) enabled}, once there are too many of them
+     */
+    private void checkPendingChanges() {
+        if (numPendingChanges() >= normalizationThreshold) {
+            if (spilledChanges == null) {
+                // hit the split factor modification tolerance, lets normalize
+                normalize();
+            } else {
+                moveChangesTo(spilledChanges);
+                spilledChanges.spill();
+            }
+        }
+    }
+
+    /**
+     * Bounds the number of pending changes this builder holds on the heap: past
+     * {@code maxChangesInMemory} of them they're sorted and written to temporary files, and merged
+     * back in when the tree is {@link #build() built}, applying all the changes to each bucket tree
+     * in turn. Bucket trees are also saved to the database more often, so that unsaved ones don't
+     * pile up. The resulting tree is the same regardless of this setting.
+     * 
+     * @param maxChangesInMemory how many changes to hold in memory, see
+     *        {@link #DEFAULT_MAX_CHANGES_IN_MEMORY}
+     * @param tempDirectory where to create the temporary files, defaults to the
+     *        {@code java.io.tmpdir} directory
+     * @return {@code this}
+     */
+    public RevTreeBuilder spillToDisk(final int maxChangesInMemory,
+            @Nullable final File tempDirectory) {
+        checkArgument(maxChangesInMemory > 0, "maxChangesInMemory shall be positive: %s",
+                maxChangesInMemory);
+        checkState(!isSpilled(), "changes have already been spilled to disk");
+        this.spilledChanges = new SortedNodeRuns(maxChangesInMemory, tempDirectory);
+        this.normalizationThreshold = maxChangesInMemory;
+        this.pendingWritesThreshold = Math.max(1, maxChangesInMemory / NORMALIZED_SIZE_LIMIT);
+        return this;
+    }
+
+    /**
+     * Sets how many threads the bucket trees of this tree can be rebuilt with when there are
+     * enough changes to make it worth it. The resulting tree is the same regardless of this
+     * setting.
+     * 
+     * @param parallelism the maximum number of threads, {@code 1} meaning the calling thread only
+     * @return {@code this}
+     */
+    public RevTreeBuilder setParallelism(final int parallelism) {
+        checkArgument(parallelism > 0, "parallelism shall be a positive integer: %s", parallelism);
+        this.parallelism = parallelism;
+        return this;
+    }
+
     /**
      * Gets an entry by key, this is potentially slow.
      * 
@@ -401,6 +883,9 @@ public class RevTreeBuilder {
      * @return
      */
     public Optional<Node> get(final String key) {
+        if (isSpilled()) {
+            normalize();
+        }
         return getInternal(key, true);
     }
 
@@ -420,10 +905,7 @@ public class RevTreeBuilder {
         Preconditions.checkNotNull(node, "node can't be null");
 
         putInternal(node);
-        if (numPendingChanges() >= DEFAULT_NORMALIZATION_THRESHOLD) {
-            // hit the split factor modification tolerance, lets normalize
-            normalize();
-        }
+        checkPendingChanges();
         return this;
     }
 
@@ -441,6 +923,7 @@ public class RevTreeBuilder {
         }
 
         deletes.add(childName);
+        checkPendingChanges();
         return this;
     }
 
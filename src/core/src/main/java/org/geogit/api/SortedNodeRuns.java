@@ -0,0 +1,278 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.api;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import javax.annotation.Nullable;
+
+import org.geogit.storage.NodePathStorageOrder;
+import org.geogit.storage.datastream.FormatCommon;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Lists;
+import com.google.common.io.Closeables;
+
+/**
+ * Holds nodes sorted by their {@link NodePathStorageOrder#pathHash(String) path hash} with a
+ * bounded amount of memory, spilling sorted runs of them to temporary files whenever more than
+ * {@code maxNodesInMemory} are buffered.
+ * <p>
+ * {@link #merge()} returns all the nodes in path hash order, keeping only the last one added for
+ * each name, and {@link #dispose()} deletes the temporary files and leaves the instance empty,
+ * ready to be used again.
+ */
+final class SortedNodeRuns {
+
+    private final int maxNodesInMemory;
+
+    private final File tempDirectory;
+
+    private List<Entry> buffer;
+
+    private final List<Run> runs;
+
+    /**
+     * @param maxNodesInMemory how many nodes to buffer before spilling them to disk
+     * @param tempDirectory where to create the temporary files, defaults to the
+     *        {@code java.io.tmpdir} directory
+     */
+    SortedNodeRuns(final int maxNodesInMemory, @Nullable final File tempDirectory) {
+        checkArgument(maxNodesInMemory > 0, "maxNodesInMemory shall be positive");
+        this.maxNodesInMemory = maxNodesInMemory;
+        this.tempDirectory = tempDirectory;
+        this.buffer = Lists.newArrayList();
+        this.runs = Lists.newArrayList();
+    }
+
+    void add(final ObjectId pathHash, final Node node) {
+        buffer.add(new Entry(pathHash, node));
+        if (buffer.size() >= maxNodesInMemory) {
+            spill();
+        }
+    }
+
+    /**
+     * @return whether any node has been written to disk
+     */
+    boolean isSpilled() {
+        return !runs.isEmpty();
+    }
+
+    /**
+     * @return whether there are no nodes at all
+     */
+    boolean isEmpty() {
+        return runs.isEmpty() && buffer.isEmpty();
+    }
+
+    /**
+     * Writes the buffered nodes, sorted, to a new temporary file
+     */
+    void spill() {
+        if (buffer.isEmpty()) {
+            return;
+        }
+        Collections.sort(buffer, ENTRY_ORDER);
+        Run run = new Run(buffer.size());
+        runs.add(run);
+        run.write(buffer);
+        buffer.clear();
+    }
+
+    /**
+     * @return the nodes in path hash order, the last one added winning for nodes with the same
+     *         name. No more nodes can be added until {@link #dispose()} is called.
+     */
+    Iterator<Entry> merge() {
+        Collections.sort(buffer, ENTRY_ORDER);
+        List<Iterator<Entry>> sources = Lists.newArrayList();
+        for (Run run : runs) {
+            sources.add(run.open());
+        }
+        sources.add(buffer.iterator());
+        buffer = null;
+        return new MergedEntries(sources);
+    }
+
+    /**
+     * Deletes the temporary files and discards all the nodes
+     */
+    void dispose() {
+        for (Run run : runs) {
+            run.dispose();
+        }
+        runs.clear();
+        buffer = Lists.newArrayList();
+    }
+
+    /**
+     * Orders by path hash only, so that sorting keeps the insertion order of nodes with the same
+     * name
+     */
+    private static final Comparator<Entry> ENTRY_ORDER = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry e1, Entry e2) {
+            return e1.pathHash.compareTo(e2.pathHash);
+        }
+    };
+
+    static final class Entry {
+
+        final ObjectId pathHash;
+
+        final Node node;
+
+        Entry(ObjectId pathHash, Node node) {
+            this.pathHash = pathHash;
+            this.node = node;
+        }
+    }
+
+    /**
+     * A temporary file holding a sorted run of nodes
+     */
+    private class Run {
+
+        private final int size;
+
+        private File file;
+
+        private DataInputStream in;
+
+        Run(int size) {
+            this.size = size;
+        }
+
+        void write(List<Entry> entries) {
+            DataOutputStream out = null;
+            boolean written = false;
+            try {
+                file = File.createTempFile("geogit-tree-", ".nodes", tempDirectory);
+                out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file),
+                        64 * 1024));
+                for (Entry e : entries) {
+                    out.write(e.pathHash.getRawValue());
+                    FormatCommon.writeNode(e.node, out);
+                }
+                out.flush();
+                written = true;
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            } finally {
+                Closeables.closeQuietly(out);
+                if (!written && file != null) {
+                    file.delete();
+                }
+            }
+        }
+
+        Iterator<Entry> open() {
+            try {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(file),
+                        64 * 1024));
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+            return new AbstractIterator<Entry>() {
+                private int read;
+
+                @Override
+                protected Entry computeNext() {
+                    if (read == size) {
+                        return endOfData();
+                    }
+                    read++;
+                    try {
+                        byte[] pathHash = new byte[20];
+                        in.readFully(pathHash);
+                        return new Entry(new ObjectId(pathHash), FormatCommon.readNode(in));
+                    } catch (IOException e) {
+                        throw Throwables.propagate(e);
+                    }
+                }
+            };
+        }
+
+        void dispose() {
+            Closeables.closeQuietly(in);
+            if (file != null) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Merges the sorted sources into a single sorted iterator, keeping only the last node of each
+     * name, being later sources the ones holding the latest nodes
+     */
+    private static class MergedEntries extends AbstractIterator<Entry> {
+
+        private final PriorityQueue<Head> heads;
+
+        MergedEntries(List<Iterator<Entry>> sources) {
+            heads = new PriorityQueue<Head>(Math.max(1, sources.size()));
+            for (int i = 0; i < sources.size(); i++) {
+                Iterator<Entry> source = sources.get(i);
+                if (source.hasNext()) {
+                    heads.add(new Head(i, source.next(), source));
+                }
+            }
+        }
+
+        @Override
+        protected Entry computeNext() {
+            Entry next = null;
+            while (!heads.isEmpty()) {
+                Head head = heads.poll();
+                if (next != null && !next.pathHash.equals(head.entry.pathHash)) {
+                    heads.add(head);
+                    break;
+                }
+                next = head.entry;
+                if (head.source.hasNext()) {
+                    heads.add(new Head(head.index, head.source.next(), head.source));
+                }
+            }
+            return next == null ? endOfData() : next;
+        }
+    }
+
+    private static class Head implements Comparable<Head> {
+
+        private final int index;
+
+        private final Entry entry;
+
+        private final Iterator<Entry> source;
+
+        Head(int index, Entry entry, Iterator<Entry> source) {
+            this.index = index;
+            this.entry = entry;
+            this.source = source;
+        }
+
+        @Override
+        public int compareTo(Head o) {
+            int c = entry.pathHash.compareTo(o.entry.pathHash);
+            return c == 0 ? (index < o.index ? -1 : (index == o.index ? 0 : 1)) : c;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+
+package org.geogit.api.plumbing;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.AbstractGeoGitOp;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevTree;
+import org.geogit.repository.AttributeIndex;
+import org.geogit.storage.ObjectDatabase;
+
+import com.google.common.base.Optional;
+import com.google.inject.Inject;
+
+/**
+ * Creates the {@link AttributeIndex attribute index} of the features of a tree by one of their
+ * attributes in the repository's object database.
+ * <p>
+ * If the {@link #setPreviousTree(ObjectId) previous version} of the tree is given and it's been
+ * indexed by the same attribute, the index is updated out of its index rather than built from
+ * scratch.
+ *
+ * @return the id of the object through which the index is found, as given by
+ *         {@link AttributeIndex#indexId(ObjectId, String)}
+ */
+public class BuildAttributeIndex extends AbstractGeoGitOp<ObjectId> {
+
+    private ObjectDatabase odb;
+
+    private ObjectId treeId;
+
+    private ObjectId previousTreeId;
+
+    private ObjectId metadataId;
+
+    private String attribute;
+
+    /**
+     * Constructs a new {@code BuildAttributeIndex} operation with the specified parameters.
+     *
+     * @param odb the repository object database
+     */
+    @Inject
+    public BuildAttributeIndex(ObjectDatabase odb) {
+        this.odb = odb;
+    }
+
+    /**
+     * @param treeId the id of the tree to index
+     * @return {@code this}
+     */
+    public BuildAttributeIndex setTree(ObjectId treeId) {
+        this.treeId = treeId;
+        return this;
+    }
+
+    /**
+     * @param previousTreeId the id of a previous version of the tree, whose index may be updated
+     *        instead of building the new one from scratch
+     * @return {@code this}
+     */
+    public BuildAttributeIndex setPreviousTree(@Nullable ObjectId previousTreeId) {
+        this.previousTreeId = previousTreeId;
+        return this;
+    }
+
+    /**
+     * @param metadataId the id of the feature type of the tree, the one of the features that don't
+     *        have their own
+     * @return {@code this}
+     */
+    public BuildAttributeIndex setMetadataId(ObjectId metadataId) {
+        this.metadataId = metadataId;
+        return this;
+    }
+
+    /**
+     * @param attribute the name of the attribute to index the features by
+     * @return {@code this}
+     */
+    public BuildAttributeIndex setAttribute(String attribute) {
+        this.attribute = attribute;
+        return this;
+    }
+
+    /**
+     * Executes the operation.
+     *
+     * @return the id of the object through which the attribute index of the tree is found, as
+     *         given by {@link AttributeIndex#indexId(ObjectId, String)}
+     */
+    @Override
+    public ObjectId call() {
+        checkState(treeId != null, "tree to index not specified");
+        checkState(metadataId != null, "feature type not specified");
+        checkState(attribute != null, "attribute to index by not specified");
+        checkArgument(odb.exists(treeId), "tree %s does not exist", treeId);
+
+        AttributeIndex index = new AttributeIndex(odb, getRefDatabase());
+        Optional<ObjectId> indexId = index.indexId(treeId, attribute);
+        if (indexId.isPresent()) {
+            return indexId.get();
+        }
+        if (previousTreeId != null && index.exists(previousTreeId, attribute)) {
+            return index.update(previousTreeId, treeId, metadataId, attribute);
+        }
+        RevTree tree = odb.getTree(treeId);
+        return index.build(tree, metadataId, attribute);
+    }
+}
@@ -0,0 +1,176 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+
+package org.geogit.api.plumbing;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.util.Iterator;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.AbstractGeoGitOp;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevCommit;
+import org.geogit.api.RevTree;
+import org.geogit.api.plumbing.diff.DiffEntry;
+import org.geogit.api.plumbing.diff.DiffTreeWalk;
+import org.geogit.api.porcelain.LogOp;
+import org.geogit.storage.ChangedPaths;
+import org.geogit.storage.ChangedPathsIndex;
+import org.geogit.storage.ObjectDatabase;
+import org.geogit.storage.PerformanceSettings;
+
+import com.google.common.collect.Maps;
+import com.google.inject.Inject;
+
+/**
+ * Computes the {@link ChangedPaths paths changed} by a commit with respect to its first parent
+ * and adds them to the {@link ChangedPathsIndex}, optionally doing the same for all of its
+ * ancestors in order to index the history of repositories created before the index existed.
+ * <p>
+ * Already indexed commits are skipped.
+ *
+ * @return the number of commits that were indexed
+ */
+public class BuildChangedPaths extends AbstractGeoGitOp<Integer> {
+
+    /**
+     * How many commits to index before saving them when indexing the history
+     */
+    private static final int BATCH_SIZE = 1000;
+
+    private ObjectDatabase objectDb;
+
+    private ChangedPathsIndex index;
+
+    private PerformanceSettings settings;
+
+    private ObjectId commitId;
+
+    private boolean history;
+
+    @Nullable
+    private ChangedPaths changedPaths;
+
+    /**
+     * Constructs a new {@code BuildChangedPaths} operation with the specified parameters.
+     *
+     * @param objectDb the repository object database
+     * @param index the index of changed paths
+     * @param settings the repository performance settings
+     */
+    @Inject
+    public BuildChangedPaths(ObjectDatabase objectDb, ChangedPathsIndex index,
+            PerformanceSettings settings) {
+        this.objectDb = objectDb;
+        this.index = index;
+        this.settings = settings;
+    }
+
+    /**
+     * @param commitId the id of the commit to index
+     * @return {@code this}
+     */
+    public BuildChangedPaths setCommit(ObjectId commitId) {
+        this.commitId = commitId;
+        return this;
+    }
+
+    /**
+     * @param changedPaths the summary of the paths the commit changed, if already known, like by
+     *        the operation that created it, which saves computing its diff again. Ignored when
+     *        indexing the {@link #setHistory(boolean) history}.
+     * @return {@code this}
+     */
+    public BuildChangedPaths setChangedPaths(@Nullable ChangedPaths changedPaths) {
+        this.changedPaths = changedPaths;
+        return this;
+    }
+
+    /**
+     * @param history whether to index all the ancestors of the commit too, defaults to
+     *        {@code false}
+     * @return {@code this}
+     */
+    public BuildChangedPaths setHistory(boolean history) {
+        this.history = history;
+        return this;
+    }
+
+    /**
+     * Executes the operation.
+     *
+     * @return the number of commits that were indexed
+     */
+    @Override
+    public Integer call() {
+        checkState(commitId != null, "commit to index not specified");
+        checkArgument(objectDb.exists(commitId), "commit %s does not exist", commitId);
+
+        if (!history) {
+            if (index.exists(commitId)) {
+                return Integer.valueOf(0);
+            }
+            index.put(commitId, changedPaths != null ? changedPaths : changedPaths(objectDb
+                    .getCommit(commitId)));
+            return Integer.valueOf(1);
+        }
+
+        int count = 0;
+        Map<ObjectId, ChangedPaths> batch = Maps.newHashMap();
+        Iterator<RevCommit> commits = command(LogOp.class).addCommit(commitId).call();
+        while (commits.hasNext()) {
+            if (getProgressListener().isCanceled()) {
+                break;
+            }
+            RevCommit commit = commits.next();
+            if (index.exists(commit.getId())) {
+                continue;
+            }
+            batch.put(commit.getId(), changedPaths(commit));
+            if (batch.size() == BATCH_SIZE) {
+                index.putAll(batch);
+                count += batch.size();
+                batch.clear();
+            }
+        }
+        index.putAll(batch);
+        count += batch.size();
+        return Integer.valueOf(count);
+    }
+
+    private ChangedPaths changedPaths(final RevCommit commit) {
+        ObjectId parentTreeId = ObjectId.NULL;
+        final ObjectId parentId = commit.parentN(0).or(ObjectId.NULL);
+        if (!parentId.isNull() && objectDb.exists(parentId)) {
+            parentTreeId = objectDb.getCommit(parentId).getTreeId();
+        }
+        // a missing parent (the bottom of a shallow clone) makes the summary report every path
+        // in the commit as changed, which is still safe for skipping commits
+        final RevTree parentTree = tree(parentTreeId);
+        final RevTree tree = tree(commit.getTreeId());
+
+        ChangedPaths.Builder paths = ChangedPaths.builder();
+        if (parentTree.getId().equals(tree.getId())) {
+            return paths.build();
+        }
+        DiffTreeWalk walk = new DiffTreeWalk(objectDb, parentTree, tree);
+        walk.setReportTrees(true);
+        walk.setParallelism(settings.diffParallelism());
+        walk.setOrdered(false);
+        Iterator<DiffEntry> entries = walk.get();
+        while (entries.hasNext()) {
+            paths.add(entries.next());
+        }
+        return paths.build();
+    }
+
+    private RevTree tree(ObjectId treeId) {
+        return treeId.isNull() ? RevTree.EMPTY : objectDb.getTree(treeId);
+    }
+}
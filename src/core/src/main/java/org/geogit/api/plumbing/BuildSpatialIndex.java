@@ -0,0 +1,89 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+
+package org.geogit.api.plumbing;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.AbstractGeoGitOp;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevTree;
+import org.geogit.repository.SpatialIndex;
+import org.geogit.storage.ObjectDatabase;
+
+import com.google.common.base.Optional;
+import com.google.inject.Inject;
+
+/**
+ * Creates the {@link SpatialIndex spatial index} of a tree in the repository's object database.
+ * <p>
+ * If the {@link #setPreviousTree(ObjectId) previous version} of the tree is given and it's been
+ * indexed, the index is updated out of its index rather than built from scratch.
+ *
+ * @return the id of the object through which the index is found, as given by
+ *         {@link SpatialIndex#indexId(ObjectId)}
+ */
+public class BuildSpatialIndex extends AbstractGeoGitOp<ObjectId> {
+
+    private ObjectDatabase odb;
+
+    private ObjectId treeId;
+
+    private ObjectId previousTreeId;
+
+    /**
+     * Constructs a new {@code BuildSpatialIndex} operation with the specified parameters.
+     *
+     * @param odb the repository object database
+     */
+    @Inject
+    public BuildSpatialIndex(ObjectDatabase odb) {
+        this.odb = odb;
+    }
+
+    /**
+     * @param treeId the id of the tree to index
+     * @return {@code this}
+     */
+    public BuildSpatialIndex setTree(ObjectId treeId) {
+        this.treeId = treeId;
+        return this;
+    }
+
+    /**
+     * @param previousTreeId the id of a previous version of the tree, whose index may be updated
+     *        instead of building the new one from scratch
+     * @return {@code this}
+     */
+    public BuildSpatialIndex setPreviousTree(@Nullable ObjectId previousTreeId) {
+        this.previousTreeId = previousTreeId;
+        return this;
+    }
+
+    /**
+     * Executes the operation.
+     *
+     * @return the id of the spatial index of the tree
+     */
+    @Override
+    public ObjectId call() {
+        checkState(treeId != null, "tree to index not specified");
+        checkArgument(odb.exists(treeId), "tree %s does not exist", treeId);
+
+        SpatialIndex index = new SpatialIndex(odb, getRefDatabase());
+        Optional<ObjectId> indexId = index.indexId(treeId);
+        if (indexId.isPresent()) {
+            return indexId.get();
+        }
+        if (previousTreeId != null && index.exists(previousTreeId)) {
+            return index.update(previousTreeId, treeId);
+        }
+        RevTree tree = odb.getTree(treeId);
+        return index.build(tree);
+    }
+}
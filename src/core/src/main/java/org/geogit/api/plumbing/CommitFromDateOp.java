@@ -6,39 +6,53 @@
 package org.geogit.api.plumbing;
 
 import java.util.Date;
-import java.util.Iterator;
 
 import org.geogit.api.AbstractGeoGitOp;
+import org.geogit.api.Ref;
 import org.geogit.api.RevCommit;
-import org.geogit.api.porcelain.LogOp;
+import org.geogit.storage.CommitTimeIndex.Timeline;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 
 /**
- * Returns the last commit in the current branch at a given date
+ * Returns the last commit in the current branch at a given date, that is, the first commit older
+ * than the date in the first parent history of the branch.
+ * <p>
+ * The commit is found with a binary search in the {@link ResolveTimeline timeline} of the branch.
  */
 public class CommitFromDateOp extends AbstractGeoGitOp<Optional<RevCommit>> {
 
     private Date date;
 
+    private String ref = Ref.HEAD;
+
     public CommitFromDateOp setDate(Date date) {
         this.date = date;
         return this;
     }
 
+    /**
+     * @param ref the name of the branch to look up the commit in, defaults to {@link Ref#HEAD
+     *        HEAD}
+     * @return {@code this}
+     */
+    public CommitFromDateOp setRef(String ref) {
+        this.ref = ref;
+        return this;
+    }
+
     @Override
     public Optional<RevCommit> call() {
         Preconditions.checkState(date != null);
         long time = date.getTime();
-        Iterator<RevCommit> iter = command(LogOp.class).setFirstParentOnly(true).call();
-        while (iter.hasNext()) {
-            RevCommit commit = iter.next();
-            if (commit.getCommitter().getTimestamp() < time) {
-                return Optional.of(commit);
-            }
+        Timeline timeline = command(ResolveTimeline.class).setRef(ref).call();
+        int index = timeline.lastBefore(time);
+        if (index < 0) {
+            return Optional.absent();
         }
-        return Optional.absent();
+        return command(RevObjectParse.class).setObjectId(timeline.get(index)).call(
+                RevCommit.class);
     }
 
 }
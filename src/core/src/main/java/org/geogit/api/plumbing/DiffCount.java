@@ -5,9 +5,9 @@
 
 package org.geogit.api.plumbing;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
 
-import java.util.Iterator;
 import java.util.List;
 
 import javax.annotation.Nullable;
@@ -16,8 +16,8 @@ import org.geogit.api.AbstractGeoGitOp;
 import org.geogit.api.ObjectId;
 import org.geogit.api.RevTree;
 import org.geogit.api.plumbing.diff.DiffCounter;
-import org.geogit.api.plumbing.diff.DiffEntry;
 import org.geogit.api.plumbing.diff.DiffTreeWalk;
+import org.geogit.storage.PerformanceSettings;
 import org.geogit.storage.StagingDatabase;
 
 import com.google.common.base.Optional;
@@ -26,7 +26,8 @@ import com.google.inject.Inject;
 
 /**
  * A faster alternative to count the number of diffs between two trees than walking a
- * {@link DiffTreeWalk} iterator.
+ * {@link DiffTreeWalk} iterator; counts the features that differ, at or under the path filters if
+ * any.
  * 
  * @see DiffCounter
  */
@@ -40,11 +41,12 @@ public class DiffCount extends AbstractGeoGitOp<Long> {
 
     private String newRefSpec;
 
-    private boolean reportTrees;
+    private int parallelism;
 
     @Inject
-    public DiffCount(StagingDatabase index) {
+    public DiffCount(StagingDatabase index, PerformanceSettings settings) {
         this.index = index;
+        this.parallelism = settings.diffParallelism();
     }
 
     public DiffCount setOldVersion(@Nullable String refSpec) {
@@ -88,25 +90,10 @@ public class DiffCount extends AbstractGeoGitOp<Long> {
         final RevTree oldTree = getTree(oldRefSpec);
         final RevTree newTree = getTree(newRefSpec);
 
-        Long diffCount;
-        if (pathFilters.isEmpty()) {
-            DiffCounter counter = new DiffCounter(index, oldTree, newTree);
-            diffCount = counter.get();
-        } else {
-            DiffTreeWalk treeWalk = new DiffTreeWalk(index, oldTree, newTree);
-            for (String path : pathFilters) {
-                treeWalk.addFilter(path);
-            }
-
-            treeWalk.setReportTrees(reportTrees);
-            Iterator<DiffEntry> iterator = treeWalk.get();
-            long count = 0;
-            while (iterator.hasNext()) {
-                iterator.next();
-                count++;
-            }
-            diffCount = Long.valueOf(count);
-        }
+        DiffCounter counter = new DiffCounter(index, oldTree, newTree);
+        counter.setFilter(pathFilters);
+        counter.setParallelism(parallelism);
+        Long diffCount = counter.get();
         return diffCount;
     }
 
@@ -131,8 +118,14 @@ public class DiffCount extends AbstractGeoGitOp<Long> {
         return headTree;
     }
 
-    public DiffCount setReportTrees(boolean reportTrees) {
-        this.reportTrees = reportTrees;
+    /**
+     * @param parallelism how many pairs of bucket trees to count concurrently, defaults to
+     *        {@link PerformanceSettings#diffParallelism()}; {@code 1} counts them sequentially
+     * @return {@code this}
+     */
+    public DiffCount setParallelism(int parallelism) {
+        checkArgument(parallelism > 0, "parallelism shall be positive");
+        this.parallelism = parallelism;
         return this;
     }
 
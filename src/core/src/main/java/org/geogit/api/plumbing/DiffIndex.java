@@ -21,6 +21,7 @@ import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 import com.google.inject.Inject;
+import com.vividsolutions.jts.geom.Envelope;
 
 /**
  * Compares content and metadata links of blobs between the index and repository
@@ -33,6 +34,9 @@ public class DiffIndex extends AbstractGeoGitOp<Iterator<DiffEntry>> {
 
     private boolean reportTrees;
 
+    @Nullable
+    private Envelope boundsFilter;
+
     /**
      * Constructs a new {@code DiffIndex}.
      */
@@ -96,6 +100,7 @@ public class DiffIndex extends AbstractGeoGitOp<Iterator<DiffEntry>> {
         DiffTreeWalk treeWalk = new DiffTreeWalk(getIndex().getDatabase(), rootTree, newTree);
         treeWalk.setFilter(this.pathFilters);
         treeWalk.setReportTrees(reportTrees);
+        treeWalk.setBoundsFilter(boundsFilter);
         return treeWalk.get();
     }
 
@@ -107,4 +112,14 @@ public class DiffIndex extends AbstractGeoGitOp<Iterator<DiffEntry>> {
         this.reportTrees = reportTrees;
         return this;
     }
+
+    /**
+     * @param boundsFilter if not {@code null}, only the features whose old or new bounds intersect
+     *        it are reported
+     * @return {@code this}
+     */
+    public DiffIndex setBoundsFilter(@Nullable Envelope boundsFilter) {
+        this.boundsFilter = boundsFilter;
+        return this;
+    }
 }
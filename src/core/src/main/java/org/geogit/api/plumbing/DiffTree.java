@@ -10,16 +10,21 @@ import static com.google.common.base.Preconditions.checkNotNull;
 
 import java.util.Iterator;
 
+import javax.annotation.Nullable;
+
 import org.geogit.api.AbstractGeoGitOp;
 import org.geogit.api.ObjectId;
 import org.geogit.api.RevTree;
 import org.geogit.api.plumbing.diff.DiffEntry;
 import org.geogit.api.plumbing.diff.DiffTreeWalk;
+import org.geogit.storage.DiffCache;
 import org.geogit.storage.ObjectDatabase;
+import org.geogit.storage.PerformanceSettings;
 import org.geogit.storage.StagingDatabase;
 
 import com.google.common.base.Optional;
 import com.google.inject.Inject;
+import com.vividsolutions.jts.geom.Envelope;
 
 /**
  * Compares the content and metadata links of blobs found via two tree objects on the repository's
@@ -29,6 +34,8 @@ public class DiffTree extends AbstractGeoGitOp<Iterator<DiffEntry>> {
 
     private StagingDatabase objectDb;
 
+    private DiffCache diffCache;
+
     private String path;
 
     private String oldRefSpec;
@@ -37,14 +44,27 @@ public class DiffTree extends AbstractGeoGitOp<Iterator<DiffEntry>> {
 
     private boolean reportTrees;
 
+    private int parallelism;
+
+    private boolean ordered = true;
+
+    @Nullable
+    private Envelope boundsFilter;
+
+    private boolean useCache;
+
     /**
      * Constructs a new instance of the {@code DiffTree} operation with the given parameters.
      * 
      * @param objectDb the repository object database
+     * @param diffCache the cache of previously computed diffs
+     * @param settings the repository performance settings
      */
     @Inject
-    public DiffTree(StagingDatabase objectDb) {
+    public DiffTree(StagingDatabase objectDb, DiffCache diffCache, PerformanceSettings settings) {
         this.objectDb = objectDb;
+        this.diffCache = diffCache;
+        this.parallelism = settings.diffParallelism();
     }
 
     /**
@@ -103,33 +123,58 @@ public class DiffTree extends AbstractGeoGitOp<Iterator<DiffEntry>> {
         checkNotNull(oldRefSpec, "old version not specified");
         checkNotNull(newRefSpec, "new version not specified");
 
-        final RevTree oldTree;
-        final RevTree newTree;
-
-        if (!oldRefSpec.equals(ObjectId.NULL.toString())) {
-            final Optional<ObjectId> oldTreeId = command(ResolveTreeish.class).setTreeish(
-                    oldRefSpec).call();
-            checkArgument(oldTreeId.isPresent(), oldRefSpec + " did not resolve to a tree");
-            oldTree = command(RevObjectParse.class).setObjectId(oldTreeId.get())
-                    .call(RevTree.class).or(RevTree.EMPTY);
-        } else {
-            oldTree = RevTree.EMPTY;
-        }
+        final ObjectId oldTreeId = resolveTree(oldRefSpec);
+        final ObjectId newTreeId = resolveTree(newRefSpec);
 
-        if (!newRefSpec.equals(ObjectId.NULL.toString())) {
-            final Optional<ObjectId> newTreeId = command(ResolveTreeish.class).setTreeish(
-                    newRefSpec).call();
-            checkArgument(newTreeId.isPresent(), newRefSpec + " did not resolve to a tree");
-            newTree = command(RevObjectParse.class).setObjectId(newTreeId.get())
-                    .call(RevTree.class).or(RevTree.EMPTY);
-        } else {
-            newTree = RevTree.EMPTY;
+        final String filter = path + " " + reportTrees + " " + boundsFilter;
+        if (useCache) {
+            Optional<Iterator<DiffEntry>> cached = diffCache.get(oldTreeId, newTreeId, filter);
+            if (cached.isPresent()) {
+                // cached diffs are in storage order, which is fine for unordered requests too
+                return cached.get();
+            }
         }
 
+        final RevTree oldTree = parseTree(oldTreeId);
+        final RevTree newTree = parseTree(newTreeId);
+
         DiffTreeWalk treeWalk = new DiffTreeWalk(objectDb, oldTree, newTree);
         treeWalk.addFilter(this.path);
         treeWalk.setReportTrees(reportTrees);
-        return treeWalk.get();
+        treeWalk.setParallelism(parallelism);
+        treeWalk.setOrdered(ordered);
+        treeWalk.setBoundsFilter(boundsFilter);
+        Iterator<DiffEntry> diff = treeWalk.get();
+        if (useCache && ordered && found(oldTreeId, oldTree) && found(newTreeId, newTree)) {
+            diff = diffCache.record(oldTreeId, newTreeId, filter, diff);
+        }
+        return diff;
+    }
+
+    private ObjectId resolveTree(String refSpec) {
+        if (refSpec.equals(ObjectId.NULL.toString())) {
+            return ObjectId.NULL;
+        }
+        final Optional<ObjectId> treeId = command(ResolveTreeish.class).setTreeish(refSpec)
+                .call();
+        checkArgument(treeId.isPresent(), refSpec + " did not resolve to a tree");
+        return treeId.get();
+    }
+
+    /**
+     * Whether the tree was found, otherwise the diff is not worth caching since it'd change once
+     * the tree is
+     */
+    private static boolean found(ObjectId treeId, RevTree tree) {
+        return treeId.isNull() || treeId.equals(tree.getId());
+    }
+
+    private RevTree parseTree(ObjectId treeId) {
+        if (treeId.isNull()) {
+            return RevTree.EMPTY;
+        }
+        return command(RevObjectParse.class).setObjectId(treeId).call(RevTree.class)
+                .or(RevTree.EMPTY);
     }
 
     /**
@@ -140,4 +185,48 @@ public class DiffTree extends AbstractGeoGitOp<Iterator<DiffEntry>> {
         this.reportTrees = reportTrees;
         return this;
     }
+
+    /**
+     * @param parallelism how many pairs of bucket trees to compare concurrently, defaults to
+     *        {@link PerformanceSettings#diffParallelism()}; {@code 1} compares them sequentially
+     * @return {@code this}
+     */
+    public DiffTree setParallelism(int parallelism) {
+        checkArgument(parallelism > 0, "parallelism shall be positive");
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * @param ordered whether the differences shall be returned in storage order, defaults to
+     *        {@code true}. Unordered differences are returned as soon as they're found, which
+     *        makes for a faster diff when the order doesn't matter.
+     * @return {@code this}
+     */
+    public DiffTree setOrdered(boolean ordered) {
+        this.ordered = ordered;
+        return this;
+    }
+
+    /**
+     * @param boundsFilter if not {@code null}, only the features whose old or new bounds intersect
+     *        it are reported, the bucket and subtree pairs
+     *        out of it not even being fetched
+     * @return {@code this}
+     */
+    public DiffTree setBoundsFilter(@Nullable Envelope boundsFilter) {
+        this.boundsFilter = boundsFilter;
+        return this;
+    }
+
+    /**
+     * @param useCache whether to look up the diff in the {@link DiffCache} and store it there
+     *        once fully consumed, defaults to {@code false}. Recording the diff costs encoding
+     *        every entry, so only callers that will be asked for the same diff again shall use it.
+     * @return {@code this}
+     */
+    public DiffTree setUseCache(boolean useCache) {
+        this.useCache = useCache;
+        return this;
+    }
 }
@@ -20,6 +20,7 @@ import org.geogit.repository.WorkingTree;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.vividsolutions.jts.geom.Envelope;
 
 /**
  * Compares the features in the {@link WorkingTree working tree} and the {@link StagingArea index}
@@ -33,6 +34,9 @@ public class DiffWorkTree extends AbstractGeoGitOp<Iterator<DiffEntry>> {
 
     private boolean reportTrees;
 
+    @Nullable
+    private Envelope boundsFilter;
+
     /**
      * Constructs a new instance of the {@code DiffWorkTree} operation with the given parameters.
      */
@@ -77,6 +81,7 @@ public class DiffWorkTree extends AbstractGeoGitOp<Iterator<DiffEntry>> {
         DiffTreeWalk treeWalk = new DiffTreeWalk(getIndex().getDatabase(), oldTree, newTree);
         treeWalk.addFilter(pathFilter);
         treeWalk.setReportTrees(reportTrees);
+        treeWalk.setBoundsFilter(boundsFilter);
 
         return treeWalk.get();
     }
@@ -111,4 +116,14 @@ public class DiffWorkTree extends AbstractGeoGitOp<Iterator<DiffEntry>> {
         return this;
     }
 
+    /**
+     * @param boundsFilter if not {@code null}, only the features whose old or new bounds intersect
+     *        it are reported
+     * @return {@code this}
+     */
+    public DiffWorkTree setBoundsFilter(@Nullable Envelope boundsFilter) {
+        this.boundsFilter = boundsFilter;
+        return this;
+    }
+
 }
@@ -9,8 +9,11 @@ import static com.google.common.base.Preconditions.checkArgument;
 import java.util.Iterator;
 import java.util.List;
 
+import javax.annotation.Nullable;
+
 import org.geogit.api.AbstractGeoGitOp;
 import org.geogit.api.Bounded;
+import org.geogit.api.Node;
 import org.geogit.api.NodeRef;
 import org.geogit.api.ObjectId;
 import org.geogit.api.Ref;
@@ -20,13 +23,18 @@ import org.geogit.api.RevObject.TYPE;
 import org.geogit.api.RevTree;
 import org.geogit.api.plumbing.diff.DepthTreeIterator;
 import org.geogit.di.CanRunDuringConflict;
+import org.geogit.repository.SpatialIndex;
+import org.geogit.storage.ObjectDatabase;
 
 import com.google.common.base.Optional;
+import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 import com.google.inject.Inject;
+import com.vividsolutions.jts.geom.Envelope;
 
 /**
  * List the contents of a {@link RevTree tree} object as an Iterator&lt;{@link NodeRef}&gt;, using
@@ -80,6 +88,8 @@ public class LsTreeOp extends AbstractGeoGitOp<Iterator<NodeRef>> {
 
     private Predicate<Bounded> refBoundsFilter;
 
+    private Envelope queryBounds;
+
     @Inject
     public LsTreeOp() {
         this.strategy = Strategy.CHILDREN;
@@ -109,6 +119,20 @@ public class LsTreeOp extends AbstractGeoGitOp<Iterator<NodeRef>> {
         return this;
     }
 
+    /**
+     * Restricts the results to the entries whose bounds intersect the given envelope. Unlike
+     * {@link #setBoundsFilter(Predicate)}, this allows listing the features of a tree with the
+     * {@link Strategy#FEATURES_ONLY} strategy out of its {@link SpatialIndex spatial index}, if
+     * it has one, in which case they're returned in no particular order.
+     *
+     * @param queryBounds the bounds to query, or {@code null} for no restriction
+     * @return {@code this}
+     */
+    public LsTreeOp setQueryBounds(@Nullable Envelope queryBounds) {
+        this.queryBounds = queryBounds;
+        return this;
+    }
+
     /**
      * @see java.util.concurrent.Callable#call()
      */
@@ -203,13 +227,50 @@ public class LsTreeOp extends AbstractGeoGitOp<Iterator<NodeRef>> {
             final String path = ref.lastIndexOf(':') != -1 ? ref
                     .substring(ref.lastIndexOf(':') + 1) : "";
 
-            DepthTreeIterator iter = new DepthTreeIterator(path, parentObjectId,
-                    (RevTree) revObject.get(), getIndex().getDatabase(), iterStrategy);
-            iter.setBoundsFilter(refBoundsFilter);
+            final RevTree tree = (RevTree) revObject.get();
+            final ObjectDatabase db = getIndex().getDatabase();
+            if (queryBounds != null && Strategy.FEATURES_ONLY.equals(this.strategy)) {
+                SpatialIndex spatialIndex = new SpatialIndex(db, getRefDatabase());
+                Optional<Iterator<Node>> indexed = spatialIndex.query(tree.getId(), queryBounds);
+                if (indexed.isPresent()) {
+                    return indexedRefs(indexed.get(), path, parentObjectId);
+                }
+            }
+
+            DepthTreeIterator iter = new DepthTreeIterator(path, parentObjectId, tree, db,
+                    iterStrategy);
+            iter.setBoundsFilter(boundsFilter());
             return iter;
         default:
             throw new IllegalArgumentException(String.format("Invalid reference: %s", ref));
         }
 
     }
-}
\ No newline at end of file
+
+    private Predicate<Bounded> boundsFilter() {
+        if (queryBounds == null) {
+            return refBoundsFilter;
+        }
+        Predicate<Bounded> intersects = new Predicate<Bounded>() {
+            @Override
+            public boolean apply(Bounded bounded) {
+                return bounded.intersects(queryBounds);
+            }
+        };
+        return refBoundsFilter == null ? intersects : Predicates.and(refBoundsFilter, intersects);
+    }
+
+    private Iterator<NodeRef> indexedRefs(final Iterator<Node> features, final String treePath,
+            final ObjectId treeMetadataId) {
+        Iterator<NodeRef> refs = Iterators.transform(features, new Function<Node, NodeRef>() {
+            @Override
+            public NodeRef apply(Node node) {
+                return new NodeRef(node, treePath, node.getMetadataId().or(treeMetadataId));
+            }
+        });
+        if (refBoundsFilter != null) {
+            refs = Iterators.filter(refs, refBoundsFilter);
+        }
+        return refs;
+    }
+}
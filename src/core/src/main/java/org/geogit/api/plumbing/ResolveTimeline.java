@@ -0,0 +1,117 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+
+package org.geogit.api.plumbing;
+
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.AbstractGeoGitOp;
+import org.geogit.api.ObjectId;
+import org.geogit.api.Ref;
+import org.geogit.api.RevCommit;
+import org.geogit.api.RevObject;
+import org.geogit.api.SymRef;
+import org.geogit.storage.CommitTimeIndex;
+import org.geogit.storage.CommitTimeIndex.Timeline;
+import org.geogit.storage.ObjectDatabase;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.inject.Inject;
+
+/**
+ * Returns the {@link Timeline timeline} of a ref out of the {@link CommitTimeIndex}, bringing it
+ * up to date first if the ref moved since the last time it was resolved, for which only the new
+ * commits are read, walking the first parents back from the current tip until reaching a commit
+ * already in the timeline.
+ * <p>
+ * Symbolic refs resolve to the timeline of their target. Refs that don't exist or don't point to a
+ * commit resolve to an {@link Timeline#EMPTY empty} timeline.
+ */
+public class ResolveTimeline extends AbstractGeoGitOp<Timeline> {
+
+    private ObjectDatabase objectDb;
+
+    private CommitTimeIndex index;
+
+    private String ref = Ref.HEAD;
+
+    /**
+     * Constructs a new {@code ResolveTimeline} operation with the specified parameters.
+     *
+     * @param objectDb the repository object database
+     * @param index the index of ref timelines
+     */
+    @Inject
+    public ResolveTimeline(ObjectDatabase objectDb, CommitTimeIndex index) {
+        this.objectDb = objectDb;
+        this.index = index;
+    }
+
+    /**
+     * @param ref the name of the ref to resolve the timeline of, defaults to {@link Ref#HEAD HEAD}
+     * @return {@code this}
+     */
+    public ResolveTimeline setRef(String ref) {
+        this.ref = ref;
+        return this;
+    }
+
+    /**
+     * Executes the operation.
+     *
+     * @return the current timeline of the ref
+     */
+    @Override
+    public Timeline call() {
+        Preconditions.checkState(ref != null, "ref not specified");
+        Optional<Ref> resolved = command(RefParse.class).setName(ref).call();
+        if (!resolved.isPresent()) {
+            return Timeline.EMPTY;
+        }
+        final String refName = resolved.get() instanceof SymRef ? ((SymRef) resolved.get())
+                .getTarget() : resolved.get().getName();
+        final ObjectId tip = resolved.get().getObjectId();
+        final Timeline timeline = index.get(refName);
+        if (tip.equals(timeline.tip())) {
+            return timeline;
+        }
+        if (commit(tip) == null) {
+            return Timeline.EMPTY;
+        }
+
+        List<RevCommit> newCommits = Lists.newArrayList();
+        int base = -1;
+        ObjectId commitId = tip;
+        while (!commitId.isNull()) {
+            base = timeline.indexOf(commitId);
+            if (base >= 0) {
+                break;
+            }
+            // stops at missing commits, like at the bottom of a shallow clone
+            RevCommit commit = commit(commitId);
+            if (commit == null) {
+                break;
+            }
+            newCommits.add(commit);
+            commitId = commit.parentN(0).or(ObjectId.NULL);
+        }
+        Timeline updated = timeline.append(base + 1, Lists.reverse(newCommits));
+        index.put(refName, updated);
+        return updated;
+    }
+
+    @Nullable
+    private RevCommit commit(ObjectId id) {
+        if (id.isNull()) {
+            return null;
+        }
+        RevObject object = objectDb.getIfPresent(id);
+        return object instanceof RevCommit ? (RevCommit) object : null;
+    }
+}
@@ -11,6 +11,7 @@ import java.util.concurrent.TimeoutException;
 import org.geogit.api.AbstractGeoGitOp;
 import org.geogit.api.GeogitTransaction;
 import org.geogit.repository.Repository;
+import org.geogit.storage.PerformanceSettings;
 
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
@@ -26,14 +27,18 @@ public class TransactionBegin extends AbstractGeoGitOp<GeogitTransaction> {
 
     private Repository repository;
 
+    private PerformanceSettings settings;
+
     /**
      * Constructs a new {@code TransactionBegin} with the given parameters.
      * 
      * @param repository the geogit repository
+     * @param settings the repository performance settings
      */
     @Inject
-    public TransactionBegin(final Repository repository) {
+    public TransactionBegin(final Repository repository, final PerformanceSettings settings) {
         this.repository = repository;
+        this.settings = settings;
     }
 
     /**
@@ -46,7 +51,8 @@ public class TransactionBegin extends AbstractGeoGitOp<GeogitTransaction> {
         Preconditions.checkState(!(commandLocator instanceof GeogitTransaction),
                 "Cannot start a new transaction within a transaction!");
 
-        GeogitTransaction t = new GeogitTransaction(commandLocator, repository, UUID.randomUUID());
+        GeogitTransaction t = new GeogitTransaction(commandLocator, repository, UUID.randomUUID(),
+                settings);
 
         // Lock the repository
         try {
@@ -0,0 +1,224 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+
+package org.geogit.api.plumbing;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.AbstractGeoGitOp;
+import org.geogit.api.NodeRef;
+import org.geogit.api.ObjectId;
+import org.geogit.api.Ref;
+import org.geogit.api.RevCommit;
+import org.geogit.api.RevObject;
+import org.geogit.api.RevTree;
+import org.geogit.api.plumbing.diff.DiffEntry;
+import org.geogit.api.plumbing.diff.DiffTreeWalk;
+import org.geogit.storage.FeatureHistoryIndex;
+import org.geogit.storage.ObjectDatabase;
+import org.geogit.storage.PerformanceSettings;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.inject.Inject;
+
+/**
+ * Adds the versions of the features changed by a commit, with respect to its first parent, to the
+ * {@link FeatureHistoryIndex}, along with those of all of its ancestors that are not indexed yet,
+ * parents first.
+ * <p>
+ * Does nothing if the index is not enabled, unless asked to {@link #setRebuild(boolean) rebuild}
+ * it, in which case the index is enabled, cleared, and the history of all the refs indexed.
+ *
+ * @return the number of commits that were indexed
+ */
+public class UpdateFeatureHistory extends AbstractGeoGitOp<Integer> {
+
+    /**
+     * How many commits to index before saving them
+     */
+    private static final int BATCH_SIZE = 1000;
+
+    private ObjectDatabase objectDb;
+
+    private FeatureHistoryIndex index;
+
+    private PerformanceSettings settings;
+
+    private ObjectId commitId;
+
+    private boolean rebuild;
+
+    /**
+     * Constructs a new {@code UpdateFeatureHistory} operation with the specified parameters.
+     *
+     * @param objectDb the repository object database
+     * @param index the feature history index
+     * @param settings the repository performance settings
+     */
+    @Inject
+    public UpdateFeatureHistory(ObjectDatabase objectDb, FeatureHistoryIndex index,
+            PerformanceSettings settings) {
+        this.objectDb = objectDb;
+        this.index = index;
+        this.settings = settings;
+    }
+
+    /**
+     * @param commitId the id of the commit to index
+     * @return {@code this}
+     */
+    public UpdateFeatureHistory setCommit(ObjectId commitId) {
+        this.commitId = commitId;
+        return this;
+    }
+
+    /**
+     * @param rebuild whether to create the index from scratch out of the history of all the refs,
+     *        instead of indexing a single commit, defaults to {@code false}
+     * @return {@code this}
+     */
+    public UpdateFeatureHistory setRebuild(boolean rebuild) {
+        this.rebuild = rebuild;
+        return this;
+    }
+
+    /**
+     * Executes the operation.
+     *
+     * @return the number of commits that were indexed
+     */
+    @Override
+    public Integer call() {
+        checkState(rebuild || commitId != null, "commit to index not specified");
+
+        List<ObjectId> tips = Lists.newArrayList();
+        if (rebuild) {
+            index.create();
+            index.clear();
+            for (Ref ref : command(ForEachRef.class).call()) {
+                tips.add(ref.getObjectId());
+            }
+        } else {
+            if (!index.isEnabled()) {
+                return Integer.valueOf(0);
+            }
+            tips.add(commitId);
+        }
+
+        int count = 0;
+        Map<RevCommit, Map<String, ObjectId>> batch = Maps.newLinkedHashMap();
+        Set<ObjectId> visited = Sets.newHashSet();
+        Deque<Frame> stack = new ArrayDeque<Frame>();
+        walk: for (ObjectId tip : tips) {
+            push(stack, visited, tip);
+            // post order walk, so that parents are indexed before their children
+            while (!stack.isEmpty()) {
+                if (getProgressListener().isCanceled()) {
+                    break walk;
+                }
+                Frame top = stack.peek();
+                List<ObjectId> parentIds = top.commit.getParentIds();
+                if (top.nextParent < parentIds.size()) {
+                    push(stack, visited, parentIds.get(top.nextParent++));
+                    continue;
+                }
+                stack.pop();
+                batch.put(top.commit, changes(top.commit));
+                if (batch.size() == BATCH_SIZE) {
+                    index.putAll(batch);
+                    count += batch.size();
+                    batch.clear();
+                }
+            }
+        }
+        index.putAll(batch);
+        count += batch.size();
+        if (rebuild) {
+            index.compact();
+        }
+        return Integer.valueOf(count);
+    }
+
+    private void push(Deque<Frame> stack, Set<ObjectId> visited, ObjectId id) {
+        if (id.isNull() || index.isIndexed(id) || !visited.add(id)) {
+            return;
+        }
+        // skips missing commits (like at the bottom of a shallow clone) and refs pointing to
+        // other kind of objects
+        RevCommit commit = commit(id);
+        if (commit != null) {
+            stack.push(new Frame(commit));
+        }
+    }
+
+    /**
+     * @return the id of the feature left by the commit at each of the feature paths it changed
+     *         with respect to its first parent, {@link ObjectId#NULL} for the removed ones
+     */
+    private Map<String, ObjectId> changes(final RevCommit commit) {
+        ObjectId parentTreeId = ObjectId.NULL;
+        RevCommit parent = commit(commit.parentN(0).or(ObjectId.NULL));
+        if (parent != null) {
+            parentTreeId = parent.getTreeId();
+        }
+        Map<String, ObjectId> changes = Maps.newHashMap();
+        if (parentTreeId.equals(commit.getTreeId())) {
+            return changes;
+        }
+        DiffTreeWalk walk = new DiffTreeWalk(objectDb, tree(parentTreeId),
+                tree(commit.getTreeId()));
+        walk.setParallelism(settings.diffParallelism());
+        walk.setOrdered(false);
+        Iterator<DiffEntry> entries = walk.get();
+        while (entries.hasNext()) {
+            DiffEntry entry = entries.next();
+            NodeRef newObject = entry.getNewObject();
+            if (newObject == null) {
+                changes.put(entry.getOldObject().path(), ObjectId.NULL);
+            } else {
+                changes.put(newObject.path(), newObject.objectId());
+            }
+        }
+        return changes;
+    }
+
+    @Nullable
+    private RevCommit commit(ObjectId id) {
+        if (id.isNull()) {
+            return null;
+        }
+        RevObject object = objectDb.getIfPresent(id);
+        return object instanceof RevCommit ? (RevCommit) object : null;
+    }
+
+    private RevTree tree(ObjectId treeId) {
+        return treeId.isNull() ? RevTree.EMPTY : objectDb.getTree(treeId);
+    }
+
+    /**
+     * A commit in the walk stack, and the index of the next of its parents to visit
+     */
+    private static class Frame {
+
+        private final RevCommit commit;
+
+        private int nextParent;
+
+        Frame(RevCommit commit) {
+            this.commit = commit;
+        }
+    }
+}
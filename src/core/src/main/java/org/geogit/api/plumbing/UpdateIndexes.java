@@ -0,0 +1,146 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+
+package org.geogit.api.plumbing;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import java.util.Iterator;
+import java.util.List;
+
+import org.geogit.api.AbstractGeoGitOp;
+import org.geogit.api.NodeRef;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevTree;
+import org.geogit.api.plumbing.diff.DepthTreeIterator;
+import org.geogit.api.plumbing.diff.DepthTreeIterator.Strategy;
+import org.geogit.repository.AttributeIndex;
+import org.geogit.repository.SpatialIndex;
+import org.geogit.storage.ObjectDatabase;
+
+import com.google.common.base.Optional;
+import com.google.inject.Inject;
+
+/**
+ * Carries the {@link SpatialIndex spatial} and {@link AttributeIndex attribute} indexes of the
+ * trees under a root tree forward to their versions under another root tree, usually the ones of
+ * the old and new commit a branch points to, updating each index out of the previous one.
+ * <p>
+ * Only the trees that changed between both root trees are visited, and the indexes of each are
+ * looked up through its index refs, so repositories with no indexes pay for little more than
+ * reading the changed trees. Run by {@link org.geogit.api.porcelain.CommitOp commit}, by
+ * fast-forward {@link org.geogit.api.porcelain.MergeOp merges} and by
+ * {@link org.geogit.api.porcelain.FetchOp fetch} for the refs it updates; the trees of the
+ * commits in between are not indexed.
+ *
+ * @return the number of indexes updated
+ */
+public class UpdateIndexes extends AbstractGeoGitOp<Integer> {
+
+    private ObjectDatabase objectDb;
+
+    private ObjectId oldTreeId;
+
+    private ObjectId newTreeId;
+
+    private SpatialIndex spatialIndex;
+
+    private AttributeIndex attributeIndex;
+
+    /**
+     * Constructs a new {@code UpdateIndexes} operation with the specified parameters.
+     *
+     * @param objectDb the repository object database
+     */
+    @Inject
+    public UpdateIndexes(ObjectDatabase objectDb) {
+        this.objectDb = objectDb;
+    }
+
+    /**
+     * @param oldTreeId the id of the root tree whose trees' indexes to carry forward
+     * @return {@code this}
+     */
+    public UpdateIndexes setOldTree(ObjectId oldTreeId) {
+        this.oldTreeId = oldTreeId;
+        return this;
+    }
+
+    /**
+     * @param newTreeId the id of the root tree whose trees to index
+     * @return {@code this}
+     */
+    public UpdateIndexes setNewTree(ObjectId newTreeId) {
+        this.newTreeId = newTreeId;
+        return this;
+    }
+
+    /**
+     * Executes the operation.
+     *
+     * @return the number of indexes updated
+     */
+    @Override
+    public Integer call() {
+        checkState(oldTreeId != null, "old root tree not specified");
+        checkState(newTreeId != null, "new root tree not specified");
+        if (oldTreeId.isNull() || newTreeId.isNull() || oldTreeId.equals(newTreeId)) {
+            return Integer.valueOf(0);
+        }
+        spatialIndex = new SpatialIndex(objectDb, getRefDatabase());
+        attributeIndex = new AttributeIndex(objectDb, getRefDatabase());
+        int count = update(NodeRef.ROOT, ObjectId.NULL, objectDb.getTree(oldTreeId),
+                objectDb.getTree(newTreeId));
+        return Integer.valueOf(count);
+    }
+
+    /**
+     * Updates the indexes of the changed subtrees of {@code oldTree}, and of their own subtrees
+     */
+    private int update(final String path, final ObjectId metadataId, final RevTree oldTree,
+            final RevTree newTree) {
+        if (oldTree.numTrees() == 0) {
+            return 0;
+        }
+        int count = 0;
+        Iterator<NodeRef> oldTrees = new DepthTreeIterator(path, metadataId, oldTree, objectDb,
+                Strategy.TREES_ONLY);
+        while (oldTrees.hasNext()) {
+            final NodeRef oldChild = oldTrees.next();
+            Optional<NodeRef> newChild = command(FindTreeChild.class).setParent(newTree)
+                    .setParentPath(path).setChildPath(oldChild.path()).call();
+            if (!newChild.isPresent() || newChild.get().objectId().equals(oldChild.objectId())) {
+                continue;
+            }
+            count += updateIndexes(oldChild, newChild.get());
+            count += update(oldChild.path(), oldChild.getMetadataId(),
+                    objectDb.getTree(oldChild.objectId()),
+                    objectDb.getTree(newChild.get().objectId()));
+        }
+        return count;
+    }
+
+    private int updateIndexes(final NodeRef oldTree, final NodeRef newTree) {
+        final ObjectId oldTreeId = oldTree.objectId();
+        final ObjectId newTreeId = newTree.objectId();
+        int count = 0;
+        if (spatialIndex.exists(oldTreeId)) {
+            command(BuildSpatialIndex.class).setTree(newTreeId).setPreviousTree(oldTreeId).call();
+            count++;
+        }
+        final List<String> indexedAttributes = attributeIndex.indexedAttributes(oldTreeId);
+        final ObjectId metadataId = newTree.getMetadataId();
+        if (indexedAttributes.isEmpty() || metadataId.isNull()) {
+            return count;
+        }
+        final boolean sameType = metadataId.equals(oldTree.getMetadataId());
+        for (String attribute : indexedAttributes) {
+            command(BuildAttributeIndex.class).setTree(newTreeId).setMetadataId(metadataId)
+                    .setAttribute(attribute).setPreviousTree(sameType ? oldTreeId : null).call();
+            count++;
+        }
+        return count;
+    }
+}
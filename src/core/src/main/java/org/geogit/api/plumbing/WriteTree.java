@@ -22,6 +22,7 @@ import org.geogit.api.RevTree;
 import org.geogit.api.RevTreeBuilder;
 import org.geogit.api.plumbing.diff.DiffEntry;
 import org.geogit.api.plumbing.diff.DiffEntry.ChangeType;
+import org.geogit.storage.ChangedPaths;
 import org.geogit.storage.ObjectDatabase;
 import org.opengis.util.ProgressListener;
 
@@ -64,6 +65,9 @@ public class WriteTree extends AbstractGeoGitOp<ObjectId> {
 
     private Supplier<Iterator<DiffEntry>> diffSupplier = null;
 
+    @Nullable
+    private ChangedPaths.Builder changedPaths;
+
     /**
      * Creates a new {@code WriteTree} operation using the specified parameters.
      * 
@@ -108,6 +112,15 @@ public class WriteTree extends AbstractGeoGitOp<ObjectId> {
         return this;
     }
 
+    /**
+     * @param changedPaths if given, collects the paths of all the changes written
+     * @return {@code this}
+     */
+    public WriteTree setChangedPaths(@Nullable ChangedPaths.Builder changedPaths) {
+        this.changedPaths = changedPaths;
+        return this;
+    }
+
     /**
      * Executes the write tree operation.
      * 
@@ -150,6 +163,9 @@ public class WriteTree extends AbstractGeoGitOp<ObjectId> {
             }
 
             DiffEntry diff = diffs.next();
+            if (changedPaths != null) {
+                changedPaths.add(diff);
+            }
             // ignore the root entry
             if (NodeRef.ROOT.equals(diff.newName()) || NodeRef.ROOT.equals(diff.oldName())) {
                 continue;
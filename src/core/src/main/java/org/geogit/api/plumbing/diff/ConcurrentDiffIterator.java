@@ -0,0 +1,269 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+
+package org.geogit.api.plumbing.diff;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Supplier;
+import com.google.common.base.Throwables;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterators;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Concatenates the diffs of a number of tree pairs (usually the differing bucket pairs of two
+ * bucket trees) computing up to {@code parallelism} of them concurrently, so that the latency of
+ * fetching the trees of one pair overlaps with the others.
+ * <p>
+ * Each diff runs on its own thread, handing its entries over through a bounded queue, which keeps
+ * memory usage bounded no matter how big the diffs are. In <i>ordered</i> mode the entries are
+ * returned in the same order than the sequential concatenation of the diffs, the diffs ahead of
+ * the current one reading ahead until their queues are full; otherwise entries are returned as
+ * soon as they're found.
+ * <p>
+ * Since {@link Iterator}s can't be closed, a diff blocked for too long because its entries are not
+ * being consumed gives up, and the consumer resumes it on its own thread if ever gets to it, so
+ * that abandoned iterators don't leak threads.
+ */
+class ConcurrentDiffIterator extends AbstractIterator<DiffEntry> {
+
+    /**
+     * How many entries each diff may find ahead of the consumer
+     */
+    private static final int QUEUE_CAPACITY = 1000;
+
+    /**
+     * How long a diff waits for its entries to be consumed before giving up
+     */
+    private static final long ABANDON_TIMEOUT_SECONDS = 60;
+
+    private static final long POLL_MILLIS = 100;
+
+    /**
+     * Shared by all instances; tasks never wait on other tasks, and each instance runs at most
+     * {@code parallelism} of them at a time.
+     */
+    private static final ExecutorService EXECUTOR = Executors
+            .newCachedThreadPool(new ThreadFactoryBuilder().setDaemon(true)
+                    .setNameFormat("geogit-diff-%d").build());
+
+    private final List<Supplier<Iterator<DiffEntry>>> diffs;
+
+    private final int parallelism;
+
+    private final boolean ordered;
+
+    private final Task[] tasks;
+
+    /**
+     * Where all the tasks put their entries in unordered mode
+     */
+    @Nullable
+    private final BlockingQueue<Item> sharedQueue;
+
+    private int started;
+
+    private int running;
+
+    private int finished;
+
+    /**
+     * In ordered mode, the task whose entries are being returned
+     */
+    private int current;
+
+    /**
+     * Resumes a task that gave up, on the consumer thread
+     */
+    private Iterator<DiffEntry> resumed;
+
+    private Task resumedTask;
+
+    /**
+     * @param diffs the diffs to run, each one returning a new iterator every time it's called
+     * @param parallelism how many diffs to compute at the same time
+     * @param ordered whether to return the entries in the order of the diffs
+     */
+    ConcurrentDiffIterator(final List<Supplier<Iterator<DiffEntry>>> diffs,
+            final int parallelism, final boolean ordered) {
+        checkArgument(parallelism > 0, "parallelism shall be positive");
+        this.diffs = ImmutableList.copyOf(diffs);
+        this.parallelism = parallelism;
+        this.ordered = ordered;
+        this.tasks = new Task[diffs.size()];
+        this.sharedQueue = ordered ? null : new ArrayBlockingQueue<Item>(QUEUE_CAPACITY);
+    }
+
+    @Override
+    protected DiffEntry computeNext() {
+        startTasks();
+        while (true) {
+            if (resumed != null) {
+                if (resumed.hasNext()) {
+                    return resumed.next();
+                }
+                resumed = null;
+                finish(resumedTask);
+                continue;
+            }
+            if (finished == tasks.length) {
+                return endOfData();
+            }
+            final Task task = ordered ? tasks[current] : null;
+            final BlockingQueue<Item> queue = ordered ? task.queue : sharedQueue;
+            final Item item;
+            try {
+                item = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw Throwables.propagate(e);
+            }
+            if (item == null) {
+                resumeAbandoned(task);
+                continue;
+            }
+            if (item.error != null) {
+                throw Throwables.propagate(item.error);
+            }
+            if (item.entry == null) {
+                finish(item.task);
+                continue;
+            }
+            item.task.consumed++;
+            return item.entry;
+        }
+    }
+
+    private void startTasks() {
+        while (started < tasks.length && running < parallelism
+                && (!ordered || started < current + parallelism)) {
+            Task task = new Task(started, ordered ? new ArrayBlockingQueue<Item>(QUEUE_CAPACITY)
+                    : sharedQueue);
+            tasks[started] = task;
+            started++;
+            running++;
+            EXECUTOR.execute(task);
+        }
+    }
+
+    private void finish(Task task) {
+        if (!task.abandoned) {
+            running--;
+        }
+        finished++;
+        if (ordered) {
+            current++;
+        }
+        startTasks();
+    }
+
+    /**
+     * Looks for a task that gave up once all its entries have been consumed, and resumes it
+     *
+     * @param task the task to check for in ordered mode, {@code null} to check them all
+     */
+    private void resumeAbandoned(@Nullable Task task) {
+        if (task != null) {
+            // it's important to check the flag before the queue, a task gives up before its
+            // last entries are consumed
+            if (task.abandoned && task.queue.isEmpty()) {
+                resume(task);
+            }
+            return;
+        }
+        for (int i = 0; i < started; i++) {
+            // the queue was empty, and tasks give up after waiting way longer than the poll time
+            if (tasks[i].abandoned && !tasks[i].resumed) {
+                resume(tasks[i]);
+                return;
+            }
+        }
+    }
+
+    private void resume(Task task) {
+        running--;
+        task.resumed = true;
+        resumedTask = task;
+        resumed = diffs.get(task.index).get();
+        Iterators.advance(resumed, task.consumed);
+    }
+
+    private static class Item {
+
+        final Task task;
+
+        @Nullable
+        final DiffEntry entry;
+
+        @Nullable
+        final Throwable error;
+
+        Item(Task task, @Nullable DiffEntry entry, @Nullable Throwable error) {
+            this.task = task;
+            this.entry = entry;
+            this.error = error;
+        }
+    }
+
+    private class Task implements Runnable {
+
+        final int index;
+
+        final BlockingQueue<Item> queue;
+
+        volatile boolean abandoned;
+
+        /**
+         * How many entries the consumer took, only accessed by the consumer
+         */
+        int consumed;
+
+        boolean resumed;
+
+        Task(int index, BlockingQueue<Item> queue) {
+            this.index = index;
+            this.queue = queue;
+        }
+
+        @Override
+        public void run() {
+            try {
+                Iterator<DiffEntry> entries = diffs.get(index).get();
+                while (entries.hasNext()) {
+                    if (!offer(new Item(this, entries.next(), null))) {
+                        return;
+                    }
+                }
+                offer(new Item(this, null, null));
+            } catch (Throwable e) {
+                offer(new Item(this, null, e));
+            }
+        }
+
+        private boolean offer(Item item) {
+            try {
+                if (queue.offer(item, ABANDON_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    return true;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            abandoned = true;
+            return false;
+        }
+    }
+}
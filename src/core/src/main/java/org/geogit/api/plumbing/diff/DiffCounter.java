@@ -8,23 +8,32 @@ import static com.google.common.base.Preconditions.checkState;
 
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 import java.util.SortedSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 import org.geogit.api.Bucket;
 import org.geogit.api.Node;
+import org.geogit.api.NodeRef;
 import org.geogit.api.ObjectId;
 import org.geogit.api.RevObject;
 import org.geogit.api.RevObject.TYPE;
 import org.geogit.api.RevTree;
+import org.geogit.storage.NodePathStorageOrder;
 import org.geogit.storage.NodeStorageOrder;
 import org.geogit.storage.ObjectDatabase;
 
 import com.google.common.base.Preconditions;
 import com.google.common.base.Supplier;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.Iterators;
@@ -34,16 +43,23 @@ import com.google.common.collect.PeekingIterator;
 import com.google.common.collect.Sets;
 import com.google.common.collect.SortedSetMultimap;
 import com.google.common.collect.TreeMultimap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * A faster alternative to count the number of diffs between two trees than walking a
- * {@link DiffTreeWalk} iterator; doesn't support filtering, counts the total number of differences
- * between the two trees
+ * {@link DiffTreeWalk} iterator; counts the number of features that differ between the two
+ * trees, optionally restricted to the given path filters.
  * <p>
- * TODO: add support for path filtering
+ * Subtrees are only fetched when their ids differ and they may contain paths matching the
+ * filters, and the differing bucket pairs of the first pair of bucket trees found can be counted
+ * {@link #setParallelism(int) concurrently}.
  */
 public class DiffCounter implements Supplier<Long> {
 
+    private static final ExecutorService EXECUTOR = Executors
+            .newCachedThreadPool(new ThreadFactoryBuilder().setDaemon(true)
+                    .setNameFormat("geogit-diffcount-%d").build());
+
     @Nonnull
     private final RevTree fromRootTree;
 
@@ -53,6 +69,10 @@ public class DiffCounter implements Supplier<Long> {
     @Nonnull
     private ObjectDatabase objectDb;
 
+    private final List<String> pathFilters = Lists.newLinkedList();
+
+    private int parallelism = 1;
+
     public DiffCounter(final ObjectDatabase db, final RevTree fromRootTree, final RevTree toRootTree) {
         Preconditions.checkNotNull(db);
         Preconditions.checkNotNull(fromRootTree);
@@ -62,28 +82,75 @@ public class DiffCounter implements Supplier<Long> {
         this.toRootTree = toRootTree;
     }
 
+    /**
+     * @param path a path to restrict the count to; only features at that path or under it are
+     *        counted
+     */
+    public void addFilter(@Nullable final String path) {
+        if (path != null) {
+            this.pathFilters.add(path);
+        }
+    }
+
+    /**
+     * @param paths the paths to restrict the count to, if {@code null} or empty all the
+     *        differences are counted
+     */
+    public void setFilter(@Nullable List<String> paths) {
+        this.pathFilters.clear();
+        if (paths != null) {
+            this.pathFilters.addAll(paths);
+        }
+    }
+
+    /**
+     * @param parallelism how many pairs of bucket trees to count concurrently, defaults to
+     *        {@code 1}, meaning to count them sequentially on the calling thread
+     * @see DiffTreeWalk#DEFAULT_PARALLELISM
+     */
+    public void setParallelism(int parallelism) {
+        Preconditions.checkArgument(parallelism > 0, "parallelism shall be positive");
+        this.parallelism = parallelism;
+    }
+
     @Override
     public Long get() {
 
         RevTree oldTree = this.fromRootTree;
         RevTree newTree = this.toRootTree;
 
-        return countDiffs(oldTree, newTree);
+        List<String> filters = null;
+        if (!pathFilters.isEmpty()) {
+            filters = childFilters(NodeRef.ROOT, pathFilters);
+        }
+        return countDiffs(oldTree, newTree, NodeRef.ROOT, filters, 0);
     }
 
-    private Long countDiffs(ObjectId oldTreeId, ObjectId newTreeId) {
+    private long countDiffs(ObjectId oldTreeId, ObjectId newTreeId, String treePath,
+            @Nullable List<String> filters, int bucketDepth) {
+        if (oldTreeId.equals(newTreeId)) {
+            return 0L;
+        }
         RevTree leftTree = getTree(oldTreeId);
         RevTree rightTree = getTree(newTreeId);
-        return countDiffs(leftTree, rightTree);
+        return countDiffs(leftTree, rightTree, treePath, filters, bucketDepth);
     }
 
-    private long countDiffs(RevTree oldTree, RevTree newTree) {
-        if (oldTree.getId().equals(newTree.getId())) {
+    /**
+     * @param treePath the path of the trees being compared, the same for all their buckets
+     * @param filters the filters that apply to the children of the trees, {@code null} if all of
+     *        them match
+     * @param bucketDepth the depth of the trees if they're buckets of a bigger tree, {@code 0}
+     *        otherwise
+     */
+    private long countDiffs(RevTree oldTree, RevTree newTree, String treePath,
+            @Nullable List<String> filters, int bucketDepth) {
+        if (oldTree.getId().equals(newTree.getId()) || pruned(filters)) {
             return 0L;
         } else if (newTree.isEmpty()) {
-            return countOf(oldTree);
+            return countOf(oldTree, treePath, filters, bucketDepth);
         } else if (oldTree.isEmpty()) {
-            return countOf(newTree);
+            return countOf(newTree, treePath, filters, bucketDepth);
         }
 
         long count = 0L;
@@ -94,11 +161,11 @@ public class DiffCounter implements Supplier<Long> {
                 && newTree.buckets().isPresent();
 
         if (childrenVsChildren) {
-            count = countChildrenDiffs(oldTree, newTree);
+            count = countChildrenDiffs(oldTree.children(), newTree.children(), treePath, filters);
         } else if (bucketsVsBuckets) {
             ImmutableSortedMap<Integer, Bucket> leftBuckets = oldTree.buckets().get();
             ImmutableSortedMap<Integer, Bucket> rightBuckets = newTree.buckets().get();
-            count = countBucketDiffs(leftBuckets, rightBuckets);
+            count = countBucketDiffs(leftBuckets, rightBuckets, treePath, filters, bucketDepth);
         } else {
             // get the children and buckets from the respective trees, order doesn't matter as we're
             // counting diffs
@@ -109,7 +176,8 @@ public class DiffCounter implements Supplier<Long> {
                     .get();
 
             children = oldTree.buckets().isPresent() ? newTree.children() : oldTree.children();
-            count = countBucketsChildren(buckets, children);
+            count = countBucketsChildren(buckets, children, new NodeStorageOrder(), bucketDepth,
+                    treePath, filters);
         }
 
         return count;
@@ -121,15 +189,8 @@ public class DiffCounter implements Supplier<Long> {
      * split into {@link RevTree#buckets()}.
      */
     private long countBucketsChildren(ImmutableSortedMap<Integer, Bucket> buckets,
-            Iterator<Node> children) {
-
-        final NodeStorageOrder refOrder = new NodeStorageOrder();
-        final int bucketDepth = 0; // start at depth 0
-        return countBucketsChildren(buckets, children, refOrder, bucketDepth);
-    }
-
-    private long countBucketsChildren(ImmutableSortedMap<Integer, Bucket> buckets,
-            Iterator<Node> children, final NodeStorageOrder refOrder, final int depth) {
+            Iterator<Node> children, final NodeStorageOrder refOrder, final int depth,
+            final String treePath, @Nullable final List<String> filters) {
 
         final SortedSetMultimap<Integer, Node> treesByBucket;
         final SortedSetMultimap<Integer, Node> featuresByBucket;
@@ -153,6 +214,8 @@ public class DiffCounter implements Supplier<Long> {
             }
         }
 
+        @Nullable
+        final Set<Integer> matchingBuckets = matchingBuckets(treePath, filters, depth);
         long count = 0;
 
         {// count full size of all buckets for which no children falls into
@@ -160,19 +223,21 @@ public class DiffCounter implements Supplier<Long> {
                     Sets.union(featuresByBucket.keySet(), treesByBucket.keySet()));
 
             for (Integer bucket : loneleyBuckets) {
-                ObjectId bucketId = buckets.get(bucket).id();
-                count += sizeOfTree(bucketId);
+                if (matchingBuckets == null || matchingBuckets.contains(bucket)) {
+                    ObjectId bucketId = buckets.get(bucket).id();
+                    count += countOf(getTree(bucketId), treePath, filters, depth + 1);
+                }
             }
         }
         {// count the full size of all children whose buckets don't exist on the buckets tree
             for (Integer bucket : Sets.difference(featuresByBucket.keySet(), buckets.keySet())) {
                 SortedSet<Node> refs = featuresByBucket.get(bucket);
-                count += refs.size();
+                count += aggregateSize(refs.iterator(), treePath, filters);
             }
 
             for (Integer bucket : Sets.difference(treesByBucket.keySet(), buckets.keySet())) {
                 SortedSet<Node> refs = treesByBucket.get(bucket);
-                count += aggregateSize(refs);
+                count += aggregateSize(refs.iterator(), treePath, filters);
             }
         }
 
@@ -180,6 +245,9 @@ public class DiffCounter implements Supplier<Long> {
         final Set<Integer> commonBuckets = Sets.intersection(buckets.keySet(),
                 Sets.union(featuresByBucket.keySet(), treesByBucket.keySet()));
         for (Integer bucket : commonBuckets) {
+            if (matchingBuckets != null && !matchingBuckets.contains(bucket)) {
+                continue;
+            }
 
             Iterator<Node> refs = Iterators.concat(treesByBucket.get(bucket).iterator(),
                     featuresByBucket.get(bucket).iterator());
@@ -189,14 +257,15 @@ public class DiffCounter implements Supplier<Long> {
 
             if (bucketTree.isEmpty()) {
                 // unlikely
-                count += aggregateSize(refs);
+                count += aggregateSize(refs, treePath, filters);
             } else if (!bucketTree.buckets().isPresent()) {
-                count += countChildrenDiffs(bucketTree.children(), refs);
+                count += countChildrenDiffs(bucketTree.children(), refs, treePath, filters);
             } else {
                 final int deeperBucketsDepth = depth + 1;
                 final ImmutableSortedMap<Integer, Bucket> deeperBuckets;
                 deeperBuckets = bucketTree.buckets().get();
-                count += countBucketsChildren(deeperBuckets, refs, refOrder, deeperBucketsDepth);
+                count += countBucketsChildren(deeperBuckets, refs, refOrder, deeperBucketsDepth,
+                        treePath, filters);
             }
         }
 
@@ -208,44 +277,84 @@ public class DiffCounter implements Supplier<Long> {
      * buckets} instead of direct {@link RevTree#children() children}
      */
     private long countBucketDiffs(ImmutableSortedMap<Integer, Bucket> leftBuckets,
-            ImmutableSortedMap<Integer, Bucket> rightBuckets) {
+            ImmutableSortedMap<Integer, Bucket> rightBuckets, final String treePath,
+            @Nullable final List<String> filters, final int bucketDepth) {
 
-        long count = 0;
         final Set<Integer> bucketIds = Sets.union(leftBuckets.keySet(), rightBuckets.keySet());
+        @Nullable
+        final Set<Integer> matchingBuckets = matchingBuckets(treePath, filters, bucketDepth);
 
-        ObjectId leftTreeId;
-        ObjectId rightTreeId;
-
+        List<BucketPair> changedBuckets = Lists.newArrayList();
         for (Integer bucketId : bucketIds) {
+            if (matchingBuckets != null && !matchingBuckets.contains(bucketId)) {
+                continue;
+            }
             @Nullable
             Bucket leftBucket = leftBuckets.get(bucketId);
             @Nullable
             Bucket rightBucket = rightBuckets.get(bucketId);
 
-            leftTreeId = leftBucket == null ? null : leftBucket.id();
-            rightTreeId = rightBucket == null ? null : rightBucket.id();
+            ObjectId leftTreeId = leftBucket == null ? ObjectId.NULL : leftBucket.id();
+            ObjectId rightTreeId = rightBucket == null ? ObjectId.NULL : rightBucket.id();
 
-            if (leftTreeId == null || rightTreeId == null) {
-                count += sizeOfTree(leftTreeId == null ? rightTreeId : leftTreeId);
-            } else {
-                count += countDiffs(leftTreeId, rightTreeId);
+            if (!leftTreeId.equals(rightTreeId)) {
+                changedBuckets.add(new BucketPair(leftTreeId, rightTreeId));
             }
         }
+
+        final int deeperBucketsDepth = bucketDepth + 1;
+        if (parallelism > 1 && changedBuckets.size() > 1) {
+            return countInParallel(changedBuckets, treePath, filters, deeperBucketsDepth);
+        }
+        long count = 0;
+        for (BucketPair pair : changedBuckets) {
+            count += countDiffs(pair.left, pair.right, treePath, filters, deeperBucketsDepth);
+        }
         return count;
     }
 
-    private long countChildrenDiffs(RevTree leftTree, RevTree rightTree) {
-        // ImmutableList<Node> empty = ImmutableList.of();
-        //
-        // Set<Node> leftFeatures = ImmutableSet.copyOf(leftTree.features().or(empty));
-        // Set<Node> rightFeatures = ImmutableSet.copyOf(rightTree.features().or(empty));
-        // SetView<Node> featureDiff = Sets.difference(leftFeatures, rightFeatures);
-        // long count = featureDiff.size();
+    /**
+     * Splits the changed bucket pairs among up to {@link #setParallelism(int) parallelism} tasks,
+     * the calling thread running one of them. The tasks count their buckets sequentially.
+     */
+    private long countInParallel(final List<BucketPair> changedBuckets, final String treePath,
+            @Nullable final List<String> filters, final int bucketDepth) {
+
+        final int numTasks = Math.min(this.parallelism, changedBuckets.size());
+        List<BucketCount> tasks = Lists.newArrayListWithCapacity(numTasks);
+        for (int t = 0; t < numTasks; t++) {
+            List<BucketPair> taskBuckets = Lists.newArrayList();
+            for (int i = t; i < changedBuckets.size(); i += numTasks) {
+                taskBuckets.add(changedBuckets.get(i));
+            }
+            tasks.add(new BucketCount(taskBuckets, treePath, filters, bucketDepth));
+        }
 
-        return countChildrenDiffs(leftTree.children(), rightTree.children());
+        List<Future<Long>> futures = Lists.newArrayList();
+        long count = 0;
+        try {
+            for (BucketCount task : tasks.subList(1, numTasks)) {
+                futures.add(EXECUTOR.submit(task));
+            }
+            count += tasks.get(0).call().longValue();
+            for (Future<Long> future : futures) {
+                count += future.get().longValue();
+            }
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Throwables.propagate(e);
+        } finally {
+            for (Future<Long> future : futures) {
+                future.cancel(true);
+            }
+        }
+        return count;
     }
 
-    private long countChildrenDiffs(Iterator<Node> leftTree, Iterator<Node> rightTree) {
+    private long countChildrenDiffs(Iterator<Node> leftTree, Iterator<Node> rightTree,
+            final String treePath, @Nullable final List<String> filters) {
 
         final Ordering<Node> storageOrder = new NodeStorageOrder();
 
@@ -263,45 +372,47 @@ public class DiffCounter implements Supplier<Long> {
                 peekLeft = left.next();
                 peekRight = right.next();
                 if (!peekLeft.getObjectId().equals(peekRight.getObjectId())) {
+                    final String path = NodeRef.appendChild(treePath, peekLeft.getName());
                     // find the diffs between these two specific refs
                     if (RevObject.TYPE.FEATURE.equals(peekLeft.getType())) {
                         checkState(RevObject.TYPE.FEATURE.equals(peekRight.getType()));
-                        count++;
+                        if (matches(path, filters)) {
+                            count++;
+                        }
                     } else {
                         checkState(RevObject.TYPE.TREE.equals(peekLeft.getType()));
                         checkState(RevObject.TYPE.TREE.equals(peekRight.getType()));
-                        ObjectId leftTreeId = peekLeft.getObjectId();
-                        ObjectId rightTreeId = peekRight.getObjectId();
-                        count += countDiffs(leftTreeId, rightTreeId);
+                        List<String> childFilters = childFilters(path, filters);
+                        if (!pruned(childFilters)) {
+                            ObjectId leftTreeId = peekLeft.getObjectId();
+                            ObjectId rightTreeId = peekRight.getObjectId();
+                            count += countDiffs(leftTreeId, rightTreeId, path, childFilters, 0);
+                        }
                     }
                 }
             } else if (peekLeft == storageOrder.min(peekLeft, peekRight)) {
                 peekLeft = left.next();// consume only the left value
-                count += aggregateSize(ImmutableList.of(peekLeft));
+                count += aggregateSize(ImmutableList.of(peekLeft).iterator(), treePath, filters);
             } else {
                 peekRight = right.next();// consume only the right value
-                count += aggregateSize(ImmutableList.of(peekRight));
+                count += aggregateSize(ImmutableList.of(peekRight).iterator(), treePath, filters);
             }
         }
 
         if (left.hasNext()) {
-            count += countRemaining(left);
+            count += countRemaining(left, treePath, filters);
         } else if (right.hasNext()) {
-            count += countRemaining(right);
+            count += countRemaining(right, treePath, filters);
         }
         Preconditions.checkState(!left.hasNext());
         Preconditions.checkState(!right.hasNext());
         return count;
     }
 
-    private long countRemaining(Iterator<Node> remaining) {
+    private long countRemaining(Iterator<Node> remaining, String treePath,
+            @Nullable List<String> filters) {
         ArrayList<Node> iterable = Lists.newArrayList(remaining);
-        return aggregateSize(iterable);
-    }
-
-    private long sizeOfTree(ObjectId treeId) {
-        RevTree tree = getTree(treeId);
-        return countOf(tree);
+        return aggregateSize(iterable.iterator(), treePath, filters);
     }
 
     private RevTree getTree(ObjectId treeId) {
@@ -313,28 +424,160 @@ public class DiffCounter implements Supplier<Long> {
     }
 
     /**
-     * @return the total size of {@code tree}
+     * @return the number of features in {@code tree} matching the filters
      */
-    private long countOf(RevTree tree) {
-        return tree.size();
-    }
-
-    private long aggregateSize(Iterable<Node> children) {
-        return aggregateSize(children.iterator());
+    private long countOf(RevTree tree, String treePath, @Nullable List<String> filters,
+            int bucketDepth) {
+        if (filters == null) {
+            return tree.size();
+        }
+        if (pruned(filters) || tree.isEmpty()) {
+            return 0L;
+        }
+        if (!tree.buckets().isPresent()) {
+            return aggregateSize(tree.children(), treePath, filters);
+        }
+        @Nullable
+        final Set<Integer> matchingBuckets = matchingBuckets(treePath, filters, bucketDepth);
+        long size = 0;
+        for (Integer bucket : tree.buckets().get().keySet()) {
+            if (matchingBuckets.contains(bucket)) {
+                RevTree bucketTree = getTree(tree.buckets().get().get(bucket).id());
+                size += countOf(bucketTree, treePath, filters, bucketDepth + 1);
+            }
+        }
+        return size;
     }
 
-    private long aggregateSize(Iterator<Node> children) {
+    /**
+     * @return the number of features in or under {@code children} matching the filters
+     */
+    private long aggregateSize(Iterator<Node> children, String treePath,
+            @Nullable List<String> filters) {
         long size = 0;
         while (children.hasNext()) {
             Node ref = children.next();
+            String path = NodeRef.appendChild(treePath, ref.getName());
             if (RevObject.TYPE.FEATURE.equals(ref.getType())) {
-                size++;
+                if (matches(path, filters)) {
+                    size++;
+                }
             } else if (RevObject.TYPE.TREE.equals(ref.getType())) {
-                ObjectId treeId = ref.getObjectId();
-                size += sizeOfTree(treeId);
+                List<String> childFilters = childFilters(path, filters);
+                if (!pruned(childFilters)) {
+                    ObjectId treeId = ref.getObjectId();
+                    size += countOf(getTree(treeId), path, childFilters, 0);
+                }
             }
         }
         return size;
     }
 
+    /**
+     * @return whether the feature at {@code path} matches the filters
+     */
+    private static boolean matches(String path, @Nullable List<String> filters) {
+        if (filters == null) {
+            return true;
+        }
+        for (String filter : filters) {
+            if (filter.equals(path) || NodeRef.isChild(filter, path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return {@code null} if all the nodes under the tree at {@code path} match the filters,
+     *         otherwise the filters pointing to nodes under it, which is empty if no node under it
+     *         can match
+     */
+    @Nullable
+    private static List<String> childFilters(String path, @Nullable List<String> filters) {
+        if (filters == null) {
+            return null;
+        }
+        List<String> childFilters = Lists.newArrayListWithCapacity(1);
+        for (String filter : filters) {
+            if (filter.equals(path) || NodeRef.isChild(filter, path)) {
+                return null;
+            }
+            if (NodeRef.isChild(path, filter)) {
+                childFilters.add(filter);
+            }
+        }
+        return childFilters;
+    }
+
+    private static boolean pruned(@Nullable List<String> filters) {
+        return filters != null && filters.isEmpty();
+    }
+
+    /**
+     * @return the buckets at {@code bucketDepth} of the tree at {@code treePath} where the nodes
+     *         the filters point to fall into, or {@code null} if all of them may match
+     */
+    @Nullable
+    private static Set<Integer> matchingBuckets(String treePath, @Nullable List<String> filters,
+            int bucketDepth) {
+        if (filters == null) {
+            return null;
+        }
+        final NodePathStorageOrder order = new NodePathStorageOrder();
+        Set<Integer> buckets = Sets.newHashSet();
+        for (String filter : filters) {
+            String relativePath = treePath.isEmpty() ? filter : filter
+                    .substring(treePath.length() + 1);
+            int separator = relativePath.indexOf(NodeRef.PATH_SEPARATOR);
+            String childName = separator == -1 ? relativePath : relativePath.substring(0,
+                    separator);
+            buckets.add(order.bucket(childName, bucketDepth));
+        }
+        return buckets;
+    }
+
+    private static class BucketPair {
+
+        final ObjectId left;
+
+        final ObjectId right;
+
+        BucketPair(ObjectId left, ObjectId right) {
+            this.left = left;
+            this.right = right;
+        }
+    }
+
+    private class BucketCount implements Callable<Long> {
+
+        private final List<BucketPair> buckets;
+
+        private final String treePath;
+
+        @Nullable
+        private final List<String> filters;
+
+        private final int bucketDepth;
+
+        BucketCount(List<BucketPair> buckets, String treePath, @Nullable List<String> filters,
+                int bucketDepth) {
+            this.buckets = buckets;
+            this.treePath = treePath;
+            this.filters = filters;
+            this.bucketDepth = bucketDepth;
+        }
+
+        @Override
+        public Long call() {
+            // nested bucket trees are counted sequentially on this thread
+            DiffCounter sequential = new DiffCounter(objectDb, fromRootTree, toRootTree);
+            long count = 0;
+            for (BucketPair pair : buckets) {
+                count += sequential.countDiffs(pair.left, pair.right, treePath, filters,
+                        bucketDepth);
+            }
+            return Long.valueOf(count);
+        }
+    }
 }
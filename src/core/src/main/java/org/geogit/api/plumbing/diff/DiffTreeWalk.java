@@ -26,12 +26,22 @@ import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
+import com.vividsolutions.jts.geom.Envelope;
 
 /**
  * Composes an {@link Iterator} of {@link DiffEntry} out of two {@link RevTree}ss
  */
 public class DiffTreeWalk {
 
+    /**
+     * Number of bucket tree pairs worth comparing concurrently by default, the number of
+     * processors. Repositories can change it with the {@code diff.parallelism} config key.
+     * 
+     * @see #setParallelism(int)
+     * @see org.geogit.storage.PerformanceSettings
+     */
+    public static final int DEFAULT_PARALLELISM = Runtime.getRuntime().availableProcessors();
+
     @Nonnull
     private final RevTree fromRootTree;
 
@@ -45,6 +55,13 @@ public class DiffTreeWalk {
 
     private boolean reportTrees;
 
+    private int parallelism = 1;
+
+    private boolean ordered = true;
+
+    @Nullable
+    private Envelope boundsFilter;
+
     public DiffTreeWalk(final ObjectDatabase db, final RevTree fromRootTree,
             final RevTree toRootTree) {
         Preconditions.checkNotNull(db);
@@ -76,6 +93,34 @@ public class DiffTreeWalk {
         this.reportTrees = reportTrees;
     }
 
+    /**
+     * @param parallelism how many pairs of bucket trees to compare concurrently, defaults to
+     *        {@code 1}, meaning to compare them sequentially on the calling thread
+     * @see #DEFAULT_PARALLELISM
+     */
+    public void setParallelism(int parallelism) {
+        Preconditions.checkArgument(parallelism > 0, "parallelism shall be positive");
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * @param ordered whether the entries shall be returned in storage order when comparing bucket
+     *        trees {@link #setParallelism(int) concurrently}, defaults to {@code true}. Unordered
+     *        entries are returned as soon as they're found.
+     */
+    public void setOrdered(boolean ordered) {
+        this.ordered = ordered;
+    }
+
+    /**
+     * @param boundsFilter if not {@code null}, only the features whose old or new bounds intersect
+     *        it are reported, and the bucket and subtree pairs whose bounds don't are skipped
+     *        altogether
+     */
+    public void setBoundsFilter(@Nullable Envelope boundsFilter) {
+        this.boundsFilter = boundsFilter == null ? null : new Envelope(boundsFilter);
+    }
+
     public Iterator<DiffEntry> get() {
 
         RevTree oldTree = this.fromRootTree;
@@ -99,6 +144,10 @@ public class DiffTreeWalk {
             final TYPE type = oldObjectType == null ? newObjectType : oldObjectType;
             switch (type) {
             case FEATURE:
+                if (boundsFilter != null && !intersects(oldObjectRef)
+                        && !intersects(newObjectRef)) {
+                    return Iterators.emptyIterator();
+                }
                 return Iterators.singletonIterator(new DiffEntry(oldObjectRef.orNull(),
                         newObjectRef.orNull()));
             case TREE:
@@ -128,7 +177,7 @@ public class DiffTreeWalk {
         // TODO: pass pathFilter to TreeDiffEntryIterator so it ignores inner trees where the path
         // is guaranteed not to be present
         Iterator<DiffEntry> iterator = new TreeDiffEntryIterator(oldRef, newRef, oldTree, newTree,
-                reportTrees, objectDb);
+                reportTrees, objectDb, parallelism, ordered, boundsFilter);
 
         // boolean comparingTree = (oldRef == null ? newRef : oldRef).getType().equals(TYPE.TREE);
         // if (reportTrees && comparingTree && !Objects.equal(oldRef, newRef)) {
@@ -156,6 +205,10 @@ public class DiffTreeWalk {
         return iterator;
     }
 
+    private boolean intersects(Optional<NodeRef> ref) {
+        return ref.isPresent() && ref.get().intersects(boundsFilter);
+    }
+
     private Optional<NodeRef> getFilteredObjectRef(RevTree tree) {
         if (pathFilter.size() != 1) {
             Node node = Node.create("", tree.getId(), ObjectId.NULL, TYPE.TREE);
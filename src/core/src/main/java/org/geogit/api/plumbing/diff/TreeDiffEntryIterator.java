@@ -11,10 +11,12 @@ import static org.geogit.api.plumbing.diff.DiffEntry.ChangeType.ADDED;
 import static org.geogit.api.plumbing.diff.DiffEntry.ChangeType.REMOVED;
 
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 
 import javax.annotation.Nullable;
 
+import org.geogit.api.Bounded;
 import org.geogit.api.Bucket;
 import org.geogit.api.Node;
 import org.geogit.api.NodeRef;
@@ -29,16 +31,20 @@ import org.geogit.storage.ObjectDatabase;
 import com.google.common.base.Function;
 import com.google.common.base.Objects;
 import com.google.common.base.Optional;
+import com.google.common.base.Predicate;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
 import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Ordering;
 import com.google.common.collect.PeekingIterator;
 import com.google.common.collect.Sets;
 import com.google.common.collect.UnmodifiableIterator;
+import com.vividsolutions.jts.geom.Envelope;
 
 /**
  * Traverses the direct children iterators of both trees (fromTree and toTree) simultaneously. If
@@ -61,13 +67,58 @@ class TreeDiffEntryIterator extends AbstractIterator<DiffEntry> {
      */
     private final Strategy strategy;
 
+    /**
+     * How many bucket pairs to compare concurrently, {@code 1} meaning to do it sequentially
+     */
+    private final int parallelism;
+
+    private final boolean ordered;
+
+    /**
+     * If not {@code null}, only the features whose old or new bounds intersect it are reported
+     */
+    @Nullable
+    private final Envelope boundsFilter;
+
     public TreeDiffEntryIterator(@Nullable NodeRef oldTreeRef, @Nullable NodeRef newTreeRef,
             @Nullable RevTree oldTree, @Nullable RevTree newTree, final boolean reportTrees,
             final ObjectDatabase db) {
+        this(oldTreeRef, newTreeRef, oldTree, newTree, reportTrees, db, 1, true);
+    }
+
+    /**
+     * @param parallelism how many differing bucket pairs to compare concurrently, {@code 1}
+     *        meaning to do it sequentially. Only the topmost bucket trees of each pair of changed
+     *        subtrees are split, the diff of each bucket pair runs sequentially.
+     * @param ordered whether to keep returning the entries in storage order when comparing bucket
+     *        pairs concurrently
+     * @see ConcurrentDiffIterator
+     */
+    public TreeDiffEntryIterator(@Nullable NodeRef oldTreeRef, @Nullable NodeRef newTreeRef,
+            @Nullable RevTree oldTree, @Nullable RevTree newTree, final boolean reportTrees,
+            final ObjectDatabase db, final int parallelism, final boolean ordered) {
+        this(oldTreeRef, newTreeRef, oldTree, newTree, reportTrees, db, parallelism, ordered,
+                null);
+    }
+
+    /**
+     * @param boundsFilter if not {@code null}, only the features whose old or new bounds
+     *        intersect it are reported. Bucket and subtree pairs whose bounds don't intersect it
+     *        are not even fetched, so the cost of the diff is about that of the changes in the
+     *        area.
+     */
+    public TreeDiffEntryIterator(@Nullable NodeRef oldTreeRef, @Nullable NodeRef newTreeRef,
+            @Nullable RevTree oldTree, @Nullable RevTree newTree, final boolean reportTrees,
+            final ObjectDatabase db, final int parallelism, final boolean ordered,
+            @Nullable final Envelope boundsFilter) {
 
         checkArgument(oldTree != null || newTree != null);
+        checkArgument(parallelism > 0, "parallelism shall be positive");
         this.reportTrees = reportTrees;
         this.objectDb = db;
+        this.parallelism = parallelism;
+        this.ordered = ordered;
+        this.boundsFilter = boundsFilter == null ? null : new Envelope(boundsFilter);
 
         if (reportTrees) {
             strategy = DepthTreeIterator.Strategy.RECURSIVE;
@@ -91,8 +142,9 @@ class TreeDiffEntryIterator extends AbstractIterator<DiffEntry> {
 
             delegate = new ChildrenChildrenDiff(left, right);
         } else if (oldTree.buckets().isPresent() && newTree.buckets().isPresent()) {
-            delegate = new BucketBucketDiff(oldTreeRef, newTreeRef, oldTree.buckets().get(),
-                    newTree.buckets().get());
+            BucketBucketDiff bucketDiff = new BucketBucketDiff(oldTreeRef, newTreeRef, oldTree
+                    .buckets().get(), newTree.buckets().get());
+            delegate = parallelism > 1 ? bucketDiff.concurrent() : bucketDiff;
         } else if (newTree.buckets().isPresent()) {
             checkState(!oldTree.buckets().isPresent());
             DepthTreeIterator left = new DepthTreeIterator(oldTreeRef.path(),
@@ -114,7 +166,6 @@ class TreeDiffEntryIterator extends AbstractIterator<DiffEntry> {
             delegate = new ChildrenChildrenDiff(leftIterator, right);
             // delegate = new BucketsChildrenDiff(left, right);
         }
-
         // If the tree has changed its metadata Id, it will not be reported as a diff
         // up to this point.
         // We check here that both metadata Id's are identical, and if not, we add the DiffEntry
@@ -135,6 +186,32 @@ class TreeDiffEntryIterator extends AbstractIterator<DiffEntry> {
         return endOfData();
     }
 
+    /**
+     * @return whether either version of a node may be or contain a feature within the
+     *         {@link #boundsFilter}
+     */
+    private boolean matches(@Nullable Bounded left, @Nullable Bounded right) {
+        return (left != null && matches(left)) || (right != null && matches(right));
+    }
+
+    /**
+     * @return whether the feature node intersects the {@link #boundsFilter}, or the bucket or tree
+     *         node may contain features that do, which is assumed if it has no bounds
+     */
+    private boolean matches(Bounded bounded) {
+        if (boundsFilter == null) {
+            return true;
+        }
+        Node node = bounded instanceof NodeRef ? ((NodeRef) bounded).getNode()
+                : (bounded instanceof Node ? (Node) bounded : null);
+        if (node != null && TYPE.FEATURE.equals(node.getType())) {
+            return node.intersects(boundsFilter);
+        }
+        Envelope bounds = new Envelope();
+        bounded.expand(bounds);
+        return bounds.isNull() || bounds.intersects(boundsFilter);
+    }
+
     private Iterator<DiffEntry> addRemoveAll(@Nullable final NodeRef treeRef, final RevTree tree,
             final ChangeType changeType) {
         DepthTreeIterator treeIterator;
@@ -143,6 +220,15 @@ class TreeDiffEntryIterator extends AbstractIterator<DiffEntry> {
         final ObjectId metadataId = treeRef == null ? ObjectId.NULL : treeRef.getMetadataId();
 
         treeIterator = new DepthTreeIterator(path, metadataId, tree, objectDb, strategy);
+        if (boundsFilter != null) {
+            // there's no other version of the nodes, so they can be pruned right away
+            treeIterator.setBoundsFilter(new Predicate<Bounded>() {
+                @Override
+                public boolean apply(Bounded bounded) {
+                    return matches(bounded);
+                }
+            });
+        }
 
         Iterator<DiffEntry> iterator;
 
@@ -182,51 +268,59 @@ class TreeDiffEntryIterator extends AbstractIterator<DiffEntry> {
 
         @Override
         protected DiffEntry computeNext() {
-            if (null != subtreeIterator) {
-                if (subtreeIterator.hasNext()) {
-                    return subtreeIterator.next();
+            while (true) {
+                if (null != subtreeIterator) {
+                    if (subtreeIterator.hasNext()) {
+                        return subtreeIterator.next();
+                    }
+                    subtreeIterator = null;
+                }
+                if (!(left.hasNext() || right.hasNext())) {
+                    return endOfData();
                 }
-                subtreeIterator = null;
-            }
-            if (!(left.hasNext() || right.hasNext())) {
-                return endOfData();
-            }
 
-            // use peek to glimpse over the next values without consuming the iterator
-            NodeRef nextLeft = left.hasNext() ? left.peek() : null;
-            NodeRef nextRight = right.hasNext() ? right.peek() : null;
-
-            if (nextLeft == null) {
-                nextRight = right.next();
-            } else if (nextRight == null) {
-                nextLeft = left.next();
-            } else if (nextLeft.path().equals(nextRight.path())) {
-                // same path, consume both
-                nextLeft = left.next();
-                nextRight = right.next();
-                if (nextLeft.equals(nextRight)) {
-                    // but not a diff
-                    return computeNext();
+                // use peek to glimpse over the next values without consuming the iterator
+                NodeRef nextLeft = left.hasNext() ? left.peek() : null;
+                NodeRef nextRight = right.hasNext() ? right.peek() : null;
+
+                if (nextLeft == null) {
+                    nextRight = right.next();
+                } else if (nextRight == null) {
+                    nextLeft = left.next();
+                } else if (nextLeft.path().equals(nextRight.path())) {
+                    // same path, consume both
+                    nextLeft = left.next();
+                    nextRight = right.next();
+                    if (nextLeft.equals(nextRight)) {
+                        // but not a diff
+                        continue;
+                    }
+                } else if (comparator.min(nextLeft.getNode(), nextRight.getNode()) == nextLeft
+                        .getNode()) {
+                    nextLeft = left.next();
+                    nextRight = null;
+                } else {
+                    nextLeft = null;
+                    nextRight = right.next();
                 }
-            } else if (comparator.min(nextLeft.getNode(), nextRight.getNode()) == nextLeft
-                    .getNode()) {
-                nextLeft = left.next();
-                nextRight = null;
-            } else {
-                nextLeft = null;
-                nextRight = right.next();
-            }
 
-            final boolean isSubtree = (nextLeft != null && nextLeft.getType() == TYPE.TREE)
-                    || (nextRight != null && nextRight.getType() == TYPE.TREE);
+                // both versions of a node are tested at once, as a feature may have moved in or
+                // out of the bounds
+                if (!matches(nextLeft, nextRight)) {
+                    continue;
+                }
 
-            if (isSubtree) {
-                this.subtreeIterator = resolveSubtreeIterator(nextLeft, nextRight);
-                return computeNext();
-            }
+                final boolean isSubtree = (nextLeft != null && nextLeft.getType() == TYPE.TREE)
+                        || (nextRight != null && nextRight.getType() == TYPE.TREE);
 
-            DiffEntry entry = new DiffEntry(nextLeft, nextRight);
-            return entry;
+                if (isSubtree) {
+                    this.subtreeIterator = resolveSubtreeIterator(nextLeft, nextRight);
+                    continue;
+                }
+
+                DiffEntry entry = new DiffEntry(nextLeft, nextRight);
+                return entry;
+            }
         }
 
         private Iterator<DiffEntry> resolveSubtreeIterator(@Nullable NodeRef nextLeft,
@@ -240,7 +334,7 @@ class TreeDiffEntryIterator extends AbstractIterator<DiffEntry> {
             Iterator<DiffEntry> it;
 
             it = new TreeDiffEntryIterator(nextLeft, nextRight, fromTree, toTree, reportTrees,
-                    objectDb);
+                    objectDb, parallelism, ordered, boundsFilter);
 
             return it;
         }
@@ -326,7 +420,8 @@ class TreeDiffEntryIterator extends AbstractIterator<DiffEntry> {
                 final Optional<Bucket> leftBucket = leftRightBuckets.get(bucket).get(0);
                 final Optional<Bucket> rightBucket = leftRightBuckets.get(bucket).get(1);
 
-                if (Objects.equal(leftBucket, rightBucket)) {
+                if (Objects.equal(leftBucket, rightBucket)
+                        || !matches(leftBucket.orNull(), rightBucket.orNull())) {
                     continue;
                 }
 
@@ -334,12 +429,36 @@ class TreeDiffEntryIterator extends AbstractIterator<DiffEntry> {
                 final RevTree right = resolveTree(rightBucket);
 
                 this.currentBucketIterator = new TreeDiffEntryIterator(leftRef, rightRef, left,
-                        right, reportTrees, objectDb);
+                        right, reportTrees, objectDb, 1, true, boundsFilter);
                 break;
             }
             return computeNext();
         }
 
+        /**
+         * @return the concatenated diffs of the differing bucket pairs, computed concurrently
+         */
+        Iterator<DiffEntry> concurrent() {
+            List<Supplier<Iterator<DiffEntry>>> diffs = Lists.newArrayList();
+            for (Integer bucket : leftRightBuckets.keySet()) {
+                final Optional<Bucket> leftBucket = leftRightBuckets.get(bucket).get(0);
+                final Optional<Bucket> rightBucket = leftRightBuckets.get(bucket).get(1);
+                if (Objects.equal(leftBucket, rightBucket)
+                        || !matches(leftBucket.orNull(), rightBucket.orNull())) {
+                    continue;
+                }
+                diffs.add(new Supplier<Iterator<DiffEntry>>() {
+                    @Override
+                    public Iterator<DiffEntry> get() {
+                        return new TreeDiffEntryIterator(leftRef, rightRef, resolveTree(leftBucket),
+                                resolveTree(rightBucket), reportTrees, objectDb, 1, true,
+                                boundsFilter);
+                    }
+                });
+            }
+            return new ConcurrentDiffIterator(diffs, parallelism, ordered);
+        }
+
         private RevTree resolveTree(Optional<Bucket> bucket) {
             RevTree bucketTree = RevTree.EMPTY;
             if (bucket.isPresent()) {
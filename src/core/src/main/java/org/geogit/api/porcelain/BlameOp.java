@@ -5,38 +5,56 @@
 package org.geogit.api.porcelain;
 
 import java.util.Iterator;
-import java.util.Map;
 
 import org.geogit.api.AbstractGeoGitOp;
+import org.geogit.api.NodeRef;
 import org.geogit.api.ObjectId;
 import org.geogit.api.Ref;
 import org.geogit.api.RevCommit;
-import org.geogit.api.RevFeature;
-import org.geogit.api.RevFeatureType;
 import org.geogit.api.RevObject.TYPE;
-import org.geogit.api.plumbing.DiffFeature;
-import org.geogit.api.plumbing.ResolveFeatureType;
 import org.geogit.api.plumbing.ResolveObjectType;
-import org.geogit.api.plumbing.RevObjectParse;
+import org.geogit.api.plumbing.ResolveTreeish;
 import org.geogit.api.plumbing.RevParse;
-import org.geogit.api.plumbing.diff.AttributeDiff;
-import org.geogit.api.plumbing.diff.DiffEntry;
-import org.geogit.api.plumbing.diff.FeatureDiff;
-import org.opengis.feature.type.PropertyDescriptor;
+import org.geogit.repository.DepthSearch;
+import org.geogit.storage.ObjectDatabase;
+import org.geogit.storage.PerformanceSettings;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
-import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableList;
+import com.google.inject.Inject;
 
 /**
  * Creates a report that contains information about who was the last to change each attribute in a
  * feature
+ * <p>
+ * The first parent history of the commits that touched the feature is walked backwards only once,
+ * looking up the feature in the trees of each commit and its parent and comparing its attribute
+ * values only when it changed, until all of them are blamed. The changes a merge brought in are
+ * blamed on the merge.
  * 
+ * @see BlameTreeOp
  */
 public class BlameOp extends AbstractGeoGitOp<BlameReport> {
 
     private String path;
 
+    private ObjectDatabase objectDb;
+
+    private PerformanceSettings settings;
+
+    /**
+     * Constructs a new {@code BlameOp} with the given object database.
+     * 
+     * @param objectDb the repository object database
+     * @param settings the repository performance settings
+     */
+    @Inject
+    public BlameOp(ObjectDatabase objectDb, PerformanceSettings settings) {
+        this.objectDb = objectDb;
+        this.settings = settings;
+    }
+
     /**
      * Sets the path of the feature to use
      * 
@@ -55,45 +73,14 @@ public class BlameOp extends AbstractGeoGitOp<BlameReport> {
         TYPE type = command(ResolveObjectType.class).setObjectId(id.get()).call();
         Preconditions.checkArgument(type.equals(TYPE.FEATURE),
                 "The supplied path does not resolve to a feature");
-        Optional<RevFeatureType> featureType = command(ResolveFeatureType.class).setRefSpec(path)
-                .call();
-
-        BlameReport report = new BlameReport(featureType.get());
 
-        Iterator<RevCommit> log = command(LogOp.class).addPath(path).call();
-        RevCommit commit = log.next();
+        ObjectId headTreeId = command(ResolveTreeish.class).setTreeish(Ref.HEAD).call().get();
+        NodeRef feature = new DepthSearch(objectDb).find(headTreeId, path).get();
 
-        while (!report.isComplete()) {
-            if (!log.hasNext()) {
-                String refSpec = commit.getId().toString() + ":" + path;
-                RevFeature feature = command(RevObjectParse.class).setRefSpec(refSpec)
-                        .call(RevFeature.class).get();
-                report.setFirstVersion(feature, commit);
-                break;
-            }
-            RevCommit commitB = log.next();
-            Iterator<DiffEntry> diffs = command(DiffOp.class).setNewVersion(commit.getId())
-                    .setOldVersion(commitB.getId()).setReportTrees(false).call();
-
-            while (diffs.hasNext()) {
-                DiffEntry diff = diffs.next();
-                if (path.equals(diff.newPath())) {
-                    FeatureDiff featureDiff = command(DiffFeature.class)
-                            .setNewVersion(Suppliers.ofInstance(diff.getNewObject()))
-                            .setOldVersion(Suppliers.ofInstance(diff.getOldObject())).call();
-                    Map<PropertyDescriptor, AttributeDiff> attribDiffs = featureDiff.getDiffs();
-                    Iterator<PropertyDescriptor> iter = attribDiffs.keySet().iterator();
-                    while (iter.hasNext()) {
-                        PropertyDescriptor key = iter.next();
-                        Optional<?> value = attribDiffs.get(key).getNewValue();
-                        String attribute = key.getName().toString();
-                        report.addDiff(attribute, value, commit);
-                    }
-                }
-
-            }
-            commit = commitB;
-        }
-        return report;
+        BlameWalk walk = new BlameWalk(objectDb, path, ImmutableList.of(feature),
+                settings.diffParallelism());
+        Iterator<RevCommit> history = command(LogOp.class).setFirstParentOnly(true).addPath(path)
+                .call();
+        return walk.run(history).get(path);
     }
 }
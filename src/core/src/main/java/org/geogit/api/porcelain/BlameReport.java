@@ -86,6 +86,7 @@ public class BlameReport {
                 Optional<Object> value = values.get(i);
                 changes.put(attr, new ValueAndCommit(value, commit));
             }
+            i++;
         }
 
     }
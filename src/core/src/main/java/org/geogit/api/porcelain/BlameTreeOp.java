@@ -0,0 +1,89 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.api.porcelain;
+
+import java.util.Iterator;
+import java.util.Map;
+
+import org.geogit.api.AbstractGeoGitOp;
+import org.geogit.api.NodeRef;
+import org.geogit.api.ObjectId;
+import org.geogit.api.Ref;
+import org.geogit.api.RevCommit;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.RevTree;
+import org.geogit.api.plumbing.ResolveTreeish;
+import org.geogit.api.plumbing.diff.DepthTreeIterator;
+import org.geogit.api.plumbing.diff.DepthTreeIterator.Strategy;
+import org.geogit.repository.DepthSearch;
+import org.geogit.storage.ObjectDatabase;
+import org.geogit.storage.PerformanceSettings;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.inject.Inject;
+
+/**
+ * Blames all the features in a tree at once, creating a report for each one of them like
+ * {@link BlameOp} does, but walking the history only once for all the features.
+ *
+ * @return the blame reports of all the features in the tree, by feature path
+ */
+public class BlameTreeOp extends AbstractGeoGitOp<Map<String, BlameReport>> {
+
+    private String path;
+
+    private ObjectDatabase objectDb;
+
+    private PerformanceSettings settings;
+
+    /**
+     * Constructs a new {@code BlameTreeOp} with the given object database.
+     *
+     * @param objectDb the repository object database
+     * @param settings the repository performance settings
+     */
+    @Inject
+    public BlameTreeOp(ObjectDatabase objectDb, PerformanceSettings settings) {
+        this.objectDb = objectDb;
+        this.settings = settings;
+    }
+
+    /**
+     * @param path the path of the tree whose features to blame
+     * @return {@code this}
+     */
+    public BlameTreeOp setPath(String path) {
+        this.path = path;
+        return this;
+    }
+
+    /**
+     * Executes the operation.
+     *
+     * @return the blame reports of all the features in the tree, by feature path
+     */
+    @Override
+    public Map<String, BlameReport> call() {
+        Preconditions.checkState(path != null, "path not specified");
+        Optional<ObjectId> headTreeId = command(ResolveTreeish.class).setTreeish(Ref.HEAD).call();
+        Preconditions.checkArgument(headTreeId.isPresent(), "The supplied path does not exist");
+        Optional<NodeRef> treeRef = new DepthSearch(objectDb).find(headTreeId.get(), path);
+        Preconditions.checkArgument(treeRef.isPresent(), "The supplied path does not exist");
+        Preconditions.checkArgument(TYPE.TREE.equals(treeRef.get().getType()),
+                "The supplied path does not resolve to a tree");
+
+        RevTree tree = objectDb.getTree(treeRef.get().objectId());
+        Iterator<NodeRef> features = new DepthTreeIterator(path, treeRef.get().getMetadataId(),
+                tree, objectDb, Strategy.RECURSIVE_FEATURES_ONLY);
+
+        BlameWalk walk = new BlameWalk(objectDb, path, ImmutableList.copyOf(features),
+                settings.diffParallelism());
+        Iterator<RevCommit> history = command(LogOp.class).setFirstParentOnly(true).addPath(path)
+                .call();
+        return walk.run(history);
+    }
+}
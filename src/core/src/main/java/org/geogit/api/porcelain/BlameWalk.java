@@ -0,0 +1,213 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.api.porcelain;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.geogit.api.NodeRef;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevCommit;
+import org.geogit.api.RevFeature;
+import org.geogit.api.RevFeatureType;
+import org.geogit.api.RevObject;
+import org.geogit.api.RevTree;
+import org.geogit.api.plumbing.diff.DiffEntry;
+import org.geogit.api.plumbing.diff.DiffTreeWalk;
+import org.geogit.storage.ObjectDatabase;
+import org.opengis.feature.type.PropertyDescriptor;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Blames a number of features in a single backwards walk of the history.
+ * <p>
+ * Each commit is compared against its first parent only if their trees differ, and only under the
+ * given path, which for a single feature is just a lookup of the feature node in both trees. The
+ * history given shall be the first parent history that touched the path, so that the changes a
+ * merge brought in are blamed on the merge. The attribute values of a feature are compared only when its object id changed,
+ * and the walk stops as soon as all the attributes of all the features have been blamed.
+ * Attributes still not blamed when the history ends are blamed on the oldest commit.
+ *
+ * @see BlameOp
+ * @see BlameTreeOp
+ */
+class BlameWalk {
+
+    private final ObjectDatabase objectDb;
+
+    private final String path;
+
+    private final int parallelism;
+
+    private final Map<ObjectId, RevFeatureType> featureTypes = Maps.newHashMap();
+
+    private final Map<String, BlameReport> reports = Maps.newHashMap();
+
+    /**
+     * The features not fully blamed yet, and the attribute values of their version in the last
+     * commit visited
+     */
+    private final Map<String, Map<String, Optional<Object>>> pending = Maps.newHashMap();
+
+    /**
+     * @param objectDb the database to read the trees and features from
+     * @param path the path of the feature, or of the tree containing all the features, to blame
+     * @param features the current version of the features to blame
+     * @param parallelism how many pairs of bucket trees to compare concurrently
+     */
+    BlameWalk(ObjectDatabase objectDb, String path, Iterable<NodeRef> features, int parallelism) {
+        this.objectDb = objectDb;
+        this.path = path;
+        this.parallelism = parallelism;
+        Map<ObjectId, NodeRef> refs = Maps.newHashMap();
+        for (NodeRef ref : features) {
+            refs.put(ref.objectId(), ref);
+            RevFeatureType featureType = featureType(ref.getMetadataId());
+            reports.put(ref.path(), new BlameReport(featureType));
+        }
+        Map<ObjectId, RevFeature> values = getFeatures(refs.keySet());
+        for (NodeRef ref : features) {
+            pending.put(ref.path(), values(ref, values.get(ref.objectId())));
+        }
+    }
+
+    /**
+     * @param history the first parent history that touched the path, most recent commit first
+     * @return the reports of the blamed features, by path
+     */
+    Map<String, BlameReport> run(final Iterator<RevCommit> history) {
+        RevCommit newer = null;
+        RevTree tree = null;
+        while (!pending.isEmpty() && history.hasNext()) {
+            final RevCommit commit = history.next();
+            if (tree == null || !tree.getId().equals(commit.getTreeId())) {
+                tree = tree(commit.getTreeId());
+            }
+            final ObjectId parentTreeId = parentTreeId(commit);
+            if (!parentTreeId.equals(commit.getTreeId())) {
+                final RevTree parentTree = tree(parentTreeId);
+                blame(parentTree, tree, commit);
+                // the parent is the next commit unless the history skipped some
+                tree = parentTree;
+            }
+            newer = commit;
+        }
+        if (newer != null) {
+            // whatever is left was there since the oldest commit
+            for (Map.Entry<String, Map<String, Optional<Object>>> feature : pending.entrySet()) {
+                BlameReport report = reports.get(feature.getKey());
+                for (Map.Entry<String, Optional<Object>> value : feature.getValue().entrySet()) {
+                    report.addDiff(value.getKey(), value.getValue(), newer);
+                }
+            }
+            pending.clear();
+        }
+        return reports;
+    }
+
+    /**
+     * Blames on {@code newer} the attributes that changed between its tree and the tree of its
+     * first parent
+     */
+    private void blame(final RevTree olderTree, final RevTree newerTree, final RevCommit newer) {
+        DiffTreeWalk walk = new DiffTreeWalk(objectDb, olderTree, newerTree);
+        walk.addFilter(path);
+        walk.setParallelism(parallelism);
+        walk.setOrdered(false);
+        List<DiffEntry> changes = Lists.newArrayList();
+        Map<ObjectId, NodeRef> olderRefs = Maps.newHashMap();
+        Iterator<DiffEntry> entries = walk.get();
+        while (entries.hasNext()) {
+            DiffEntry entry = entries.next();
+            NodeRef newRef = entry.getNewObject();
+            if (newRef == null || !pending.containsKey(newRef.path())) {
+                continue;
+            }
+            changes.add(entry);
+            if (entry.getOldObject() != null) {
+                olderRefs.put(entry.getOldObject().objectId(), entry.getOldObject());
+            }
+        }
+        if (changes.isEmpty()) {
+            return;
+        }
+        final Map<ObjectId, RevFeature> olderFeatures = getFeatures(olderRefs.keySet());
+        for (DiffEntry change : changes) {
+            final String featurePath = change.getNewObject().path();
+            final Map<String, Optional<Object>> newerValues = pending.get(featurePath);
+            final BlameReport report = reports.get(featurePath);
+            final NodeRef olderRef = change.getOldObject();
+            Map<String, Optional<Object>> olderValues = null;
+            if (olderRef != null) {
+                olderValues = values(olderRef, olderFeatures.get(olderRef.objectId()));
+            }
+            for (Map.Entry<String, Optional<Object>> value : newerValues.entrySet()) {
+                String attribute = value.getKey();
+                if (olderValues == null || !Objects.equal(value.getValue(), //
+                        olderValues.get(attribute))) {
+                    report.addDiff(attribute, value.getValue(), newer);
+                }
+            }
+            if (olderValues == null || report.isComplete()) {
+                // the feature was added by the newer commit or is completely blamed
+                pending.remove(featurePath);
+            } else {
+                pending.put(featurePath, olderValues);
+            }
+        }
+    }
+
+    private Map<ObjectId, RevFeature> getFeatures(Iterable<ObjectId> ids) {
+        Map<ObjectId, RevFeature> features = Maps.newHashMap();
+        Iterator<RevObject> objects = objectDb.getAll(ids);
+        while (objects.hasNext()) {
+            RevObject object = objects.next();
+            features.put(object.getId(), (RevFeature) object);
+        }
+        return features;
+    }
+
+    private Map<String, Optional<Object>> values(NodeRef ref, RevFeature feature) {
+        ImmutableList<PropertyDescriptor> descriptors = featureType(ref.getMetadataId())
+                .sortedDescriptors();
+        ImmutableList<Optional<Object>> values = feature.getValues();
+        Map<String, Optional<Object>> byName = Maps.newHashMap();
+        for (int i = 0; i < descriptors.size(); i++) {
+            byName.put(descriptors.get(i).getName().getLocalPart(), values.get(i));
+        }
+        return byName;
+    }
+
+    private RevFeatureType featureType(ObjectId metadataId) {
+        RevFeatureType featureType = featureTypes.get(metadataId);
+        if (featureType == null) {
+            featureType = objectDb.getFeatureType(metadataId);
+            featureTypes.put(metadataId, featureType);
+        }
+        return featureType;
+    }
+
+    /**
+     * @return the tree of the first parent of the commit, the empty tree for the first commit or
+     *         the bottom of a shallow clone
+     */
+    private ObjectId parentTreeId(RevCommit commit) {
+        Optional<ObjectId> parentId = commit.parentN(0);
+        if (!parentId.isPresent() || !objectDb.exists(parentId.get())) {
+            return ObjectId.NULL;
+        }
+        return objectDb.getCommit(parentId.get()).getTreeId();
+    }
+
+    private RevTree tree(ObjectId treeId) {
+        return treeId.isNull() ? RevTree.EMPTY : objectDb.getTree(treeId);
+    }
+}
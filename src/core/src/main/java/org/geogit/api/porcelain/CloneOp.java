@@ -21,6 +21,7 @@ import org.geogit.api.porcelain.ConfigOp.ConfigScope;
 import org.geogit.remote.IRemoteRepo;
 import org.geogit.remote.RemoteUtils;
 import org.geogit.repository.Repository;
+import org.geogit.storage.BulkLoadSession;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
@@ -122,8 +123,14 @@ public class CloneOp extends AbstractGeoGitOp<Void> {
                     .setName(Repository.DEPTH_CONFIG_KEY).setValue(depth.get().toString()).call();
         }
 
-        // Fetch remote data
-        command(FetchOp.class).setDepth(depth.or(0)).setProgressListener(subProgress(90.f)).call();
+        // Fetch remote data, the repository is empty so load it in bulk
+        BulkLoadSession bulkLoad = BulkLoadSession.begin(repository.getObjectDatabase());
+        try {
+            command(FetchOp.class).setDepth(depth.or(0)).setProgressListener(subProgress(90.f))
+                    .call();
+        } finally {
+            bulkLoad.end();
+        }
 
         // Set up remote tracking branches
         final ImmutableSet<Ref> remoteRefs = command(LsRemote.class)
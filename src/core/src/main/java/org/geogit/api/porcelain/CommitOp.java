@@ -23,9 +23,12 @@ import org.geogit.api.RevCommit;
 import org.geogit.api.RevPerson;
 import org.geogit.api.RevTree;
 import org.geogit.api.SymRef;
+import org.geogit.api.plumbing.BuildChangedPaths;
 import org.geogit.api.plumbing.RefParse;
 import org.geogit.api.plumbing.ResolveTreeish;
 import org.geogit.api.plumbing.RevObjectParse;
+import org.geogit.api.plumbing.UpdateFeatureHistory;
+import org.geogit.api.plumbing.UpdateIndexes;
 import org.geogit.api.plumbing.UpdateRef;
 import org.geogit.api.plumbing.UpdateSymRef;
 import org.geogit.api.plumbing.WriteTree;
@@ -33,6 +36,7 @@ import org.geogit.api.plumbing.merge.Conflict;
 import org.geogit.api.plumbing.merge.ConflictsReadOp;
 import org.geogit.api.plumbing.merge.ReadMergeCommitMessageOp;
 import org.geogit.di.CanRunDuringConflict;
+import org.geogit.storage.ChangedPaths;
 import org.geogit.storage.ObjectDatabase;
 
 import com.google.common.base.Optional;
@@ -285,9 +289,11 @@ public class CommitOp extends AbstractGeoGitOp<RevCommit> {
         for (String st : pathFilters) {
             command(AddOp.class).addPattern(st).call();
         }
+        // the staged changes are the changes of the commit with respect to its first parent
+        final ChangedPaths.Builder changedPaths = ChangedPaths.builder();
         ObjectId newTreeId = command(WriteTree.class).setOldRoot(resolveOldRoot())
-                .setPathFilter(pathFilters).setProgressListener(subProgress(writeTreeProgress))
-                .call();
+                .setPathFilter(pathFilters).setChangedPaths(changedPaths)
+                .setProgressListener(subProgress(writeTreeProgress)).call();
 
         if (getProgressListener().isCanceled()) {
             return null;
@@ -347,6 +353,11 @@ public class CommitOp extends AbstractGeoGitOp<RevCommit> {
         checkState(treeId.isPresent());
         checkState(newTreeId.equals(treeId.get()));
 
+        command(UpdateIndexes.class).setOldTree(currentRootTreeId).setNewTree(newTreeId).call();
+        command(BuildChangedPaths.class).setCommit(commit.getId())
+                .setChangedPaths(changedPaths.build()).call();
+        command(UpdateFeatureHistory.class).setCommit(commit.getId()).call();
+
         getProgressListener().progress(100f);
         getProgressListener().complete();
 
@@ -17,6 +17,7 @@ import org.geogit.api.plumbing.DiffTree;
 import org.geogit.api.plumbing.DiffWorkTree;
 import org.geogit.api.plumbing.diff.DiffEntry;
 import org.geogit.di.CanRunDuringConflict;
+import com.vividsolutions.jts.geom.Envelope;
 
 /**
  * Perform a diff between trees pointed out by two commits
@@ -58,6 +59,13 @@ public class DiffOp extends AbstractGeoGitOp<Iterator<DiffEntry>> {
 
     private boolean reportTrees;
 
+    private boolean ordered = true;
+
+    private boolean useCache;
+
+    @Nullable
+    private Envelope boundsFilter;
+
     /**
      * @param compareIndex if true, the index will be used in the comparison
      */
@@ -126,7 +134,7 @@ public class DiffOp extends AbstractGeoGitOp<Iterator<DiffEntry>> {
         if (cached) {
             // compare the tree-ish (default to HEAD) and the index
             DiffIndex diffIndex = command(DiffIndex.class).addFilter(this.pathFilter)
-                    .setReportTrees(reportTrees);
+                    .setReportTrees(reportTrees).setBoundsFilter(boundsFilter);
             if (oldRefSpec != null) {
                 diffIndex.setOldVersion(oldRefSpec);
             }
@@ -134,7 +142,7 @@ public class DiffOp extends AbstractGeoGitOp<Iterator<DiffEntry>> {
         } else if (newRefSpec == null) {
 
             DiffWorkTree workTreeIndexDiff = command(DiffWorkTree.class).setFilter(pathFilter)
-                    .setReportTrees(reportTrees);
+                    .setReportTrees(reportTrees).setBoundsFilter(boundsFilter);
             if (oldRefSpec != null) {
                 workTreeIndexDiff.setOldVersion(oldRefSpec);
             }
@@ -142,7 +150,8 @@ public class DiffOp extends AbstractGeoGitOp<Iterator<DiffEntry>> {
         } else {
 
             iterator = command(DiffTree.class).setOldVersion(oldRefSpec).setNewVersion(newRefSpec)
-                    .setFilterPath(pathFilter).setReportTrees(reportTrees).call();
+                    .setFilterPath(pathFilter).setReportTrees(reportTrees).setOrdered(ordered)
+                    .setBoundsFilter(boundsFilter).setUseCache(useCache).call();
         }
 
         return iterator;
@@ -157,4 +166,36 @@ public class DiffOp extends AbstractGeoGitOp<Iterator<DiffEntry>> {
         return this;
     }
 
+    /**
+     * @param ordered whether the differences between two commits shall be returned in storage
+     *        order, defaults to {@code true}
+     * @return {@code this}
+     * @see DiffTree#setOrdered(boolean)
+     */
+    public DiffOp setOrdered(boolean ordered) {
+        this.ordered = ordered;
+        return this;
+    }
+
+    /**
+     * @param boundsFilter if not {@code null}, only the features whose old or new bounds intersect
+     *        it are reported
+     * @return {@code this}
+     * @see DiffTree#setBoundsFilter(Envelope)
+     */
+    public DiffOp setBoundsFilter(@Nullable Envelope boundsFilter) {
+        this.boundsFilter = boundsFilter;
+        return this;
+    }
+
+    /**
+     * @param useCache whether to look up the differences between two commits in the diff cache
+     *        and store them there once fully consumed, defaults to {@code false}
+     * @return {@code this}
+     * @see DiffTree#setUseCache(boolean)
+     */
+    public DiffOp setUseCache(boolean useCache) {
+        this.useCache = useCache;
+        return this;
+    }
 }
@@ -15,6 +15,9 @@ import org.geogit.api.Ref;
 import org.geogit.api.Remote;
 import org.geogit.api.SymRef;
 import org.geogit.api.plumbing.LsRemote;
+import org.geogit.api.plumbing.ResolveTreeish;
+import org.geogit.api.plumbing.UpdateFeatureHistory;
+import org.geogit.api.plumbing.UpdateIndexes;
 import org.geogit.api.plumbing.UpdateRef;
 import org.geogit.api.plumbing.UpdateSymRef;
 import org.geogit.api.porcelain.ConfigOp.ConfigAction;
@@ -247,6 +250,14 @@ public class FetchOp extends AbstractGeoGitOp<FetchResult> {
                     // Update the ref
                     Ref updatedRef = updateLocalRef(ref.getNewRef(), remote, localRemoteRefs);
                     ref.setNewRef(updatedRef);
+                    if (!(updatedRef instanceof SymRef)) {
+                        command(UpdateFeatureHistory.class).setCommit(updatedRef.getObjectId())
+                                .call();
+                        if (ref.getOldRef() != null) {
+                            updateIndexes(ref.getOldRef().getObjectId(),
+                                    updatedRef.getObjectId());
+                        }
+                    }
                 }
             }
 
@@ -314,6 +325,18 @@ public class FetchOp extends AbstractGeoGitOp<FetchResult> {
      * Filters the remote references for the given remote that are not present or outdated in the
      * local repository
      */
+    /**
+     * Carries the indexes of the trees of the commit a ref pointed to forward to the fetched one
+     */
+    private void updateIndexes(ObjectId oldCommitId, ObjectId newCommitId) {
+        Optional<ObjectId> oldTreeId = command(ResolveTreeish.class).setTreeish(oldCommitId).call();
+        Optional<ObjectId> newTreeId = command(ResolveTreeish.class).setTreeish(newCommitId).call();
+        if (oldTreeId.isPresent() && newTreeId.isPresent()) {
+            command(UpdateIndexes.class).setOldTree(oldTreeId.get())
+                    .setNewTree(newTreeId.get()).call();
+        }
+    }
+
     private List<ChangedRef> findOutdatedRefs(Remote remote, ImmutableSet<Ref> remoteRefs,
             ImmutableSet<Ref> localRemoteRefs, Optional<Integer> depth) {
 
@@ -8,6 +8,7 @@ import java.util.Date;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.Stack;
 import java.util.regex.Matcher;
@@ -17,11 +18,20 @@ import org.geogit.api.AbstractGeoGitOp;
 import org.geogit.api.ObjectId;
 import org.geogit.api.Ref;
 import org.geogit.api.RevCommit;
+import org.geogit.api.plumbing.ResolveTimeline;
 import org.geogit.api.plumbing.RevParse;
 import org.geogit.api.plumbing.diff.DiffEntry;
 import org.geogit.di.CanRunDuringConflict;
+import org.geogit.repository.HistoryWalker;
 import org.geogit.repository.Repository;
+import org.geogit.storage.ChangedPaths;
+import org.geogit.storage.ChangedPathsIndex;
+import org.geogit.storage.CommitTimeIndex.Timeline;
+import org.geogit.storage.DiffCache;
+import org.geogit.storage.FeatureHistoryIndex;
+import org.geogit.storage.FeatureHistoryIndex.Version;
 import org.geogit.storage.GraphDatabase;
+import org.geogit.storage.ObjectDatabase;
 import org.geotools.util.Range;
 
 import com.google.common.base.Optional;
@@ -32,6 +42,7 @@ import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.inject.Inject;
 
@@ -80,17 +91,34 @@ public class LogOp extends AbstractGeoGitOp<Iterator<RevCommit>> {
 
     private GraphDatabase graphDb;
 
+    private ChangedPathsIndex changedPaths;
+
+    private FeatureHistoryIndex featureHistory;
+
+    private DiffCache diffCache;
+
     private List<ObjectId> commits = Lists.newArrayList();
 
     /**
      * Constructs a new {@code LogOp} with the given {@link Repository}.
      * 
      * @param repository the repository to log commits from
+     * @param graphDb the commit graph
+     * @param changedPaths the index used to skip the commits that didn't touch the
+     *        {@link #addPath(String) paths}
+     * @param featureHistory the index used to find the commits that changed the features at the
+     *        {@link #addPath(String) paths}, if enabled
+     * @param diffCache the cache of whether a commit touched a path, for the commits not indexed
      */
     @Inject
-    public LogOp(final Repository repository, GraphDatabase graphDb) {
+    public LogOp(final Repository repository, GraphDatabase graphDb,
+            ChangedPathsIndex changedPaths, FeatureHistoryIndex featureHistory,
+            DiffCache diffCache) {
         this.repository = repository;
         this.graphDb = graphDb;
+        this.changedPaths = changedPaths;
+        this.featureHistory = featureHistory;
+        this.diffCache = diffCache;
         timeRange = ALWAYS;
     }
 
@@ -263,7 +291,7 @@ public class LogOp extends AbstractGeoGitOp<Iterator<RevCommit>> {
 
         Iterator<RevCommit> history;
         if (firstParent) {
-            history = new LinearHistoryIterator(newestCommitId, repository);
+            history = firstParentHistory(newestCommitId, oldestCommitId);
         } else {
             if (commits.isEmpty()) {
                 commits.add(newestCommitId);
@@ -271,7 +299,7 @@ public class LogOp extends AbstractGeoGitOp<Iterator<RevCommit>> {
             if (topo) {
                 history = new TopologicalHistoryIterator(commits, repository, graphDb);
             } else {
-                history = new ChronologicalHistoryIterator(commits, repository);
+                history = new HistoryWalker(repository.getObjectDatabase(), commits, false);
             }
         }
         LogFilter filter = new LogFilter(oldestCommitId, timeRange, paths, author, commiter);
@@ -286,65 +314,37 @@ public class LogOp extends AbstractGeoGitOp<Iterator<RevCommit>> {
     }
 
     /**
-     * Iterator that traverses the commit history backwards starting from the provided commit, in
-     * chronological order. It performs a reverse breadth-first search
-     * 
+     * Returns the first parent history of the given commit. If a time range is set and the commit
+     * is the tip of the current branch, the history starts at the most recent commit in the range
+     * and ends at the oldest one, both found with a binary search in the branch
+     * {@link ResolveTimeline timeline}.
      */
-    private static class ChronologicalHistoryIterator extends AbstractIterator<RevCommit> {
-
-        private final Repository repo;
-
-        private Set<RevCommit> parents;
-
-        /**
-         * Constructs a new {@code LinearHistoryIterator} with the given parameters.
-         * 
-         * @param tip the first commit in the history
-         * @param repo the repository where the commits are stored.
-         */
-        public ChronologicalHistoryIterator(final List<ObjectId> tips, final Repository repo) {
-            parents = Sets.newHashSet();
-            for (ObjectId tip : tips) {
-                if (!tip.isNull()) {
-                    final RevCommit commit = repo.getCommit(tip);
-                    parents.add(commit);
+    private Iterator<RevCommit> firstParentHistory(final ObjectId newestCommitId,
+            final ObjectId oldestCommitId) {
+        final ObjectDatabase objectDb = repository.getObjectDatabase();
+        if (timeRange != ALWAYS) {
+            final Timeline timeline = command(ResolveTimeline.class).setRef(Ref.HEAD).call();
+            if (newestCommitId.equals(timeline.tip())) {
+                final long min = timeRange.getMinValue().longValue();
+                final long max = timeRange.getMaxValue().longValue();
+                int newest = timeline.size() - 1;
+                if (max < Long.MAX_VALUE || !timeRange.isMaxIncluded()) {
+                    newest = timeline.lastBefore(timeRange.isMaxIncluded() ? max + 1 : max);
                 }
-            }
-            this.repo = repo;
-        }
-
-        /**
-         * Calculates the next commit in the history.
-         * 
-         * @return the next {@link RevCommit commit} in the history
-         */
-        @Override
-        protected RevCommit computeNext() {
-            if (parents.isEmpty()) {
-                return endOfData();
-            } else {
-                Iterator<RevCommit> iter = parents.iterator();
-                // TODO: Maybe we should make RevCommit implement Comparable?
-                RevCommit mostRecent = iter.next();
-                while (iter.hasNext()) {
-                    RevCommit commit = iter.next();
-                    if (mostRecent.getCommitter().getTimestamp() < commit.getCommitter()
-                            .getTimestamp()) {
-                        mostRecent = commit;
-                    }
+                int oldest = 0;
+                if (min > Long.MIN_VALUE || !timeRange.isMinIncluded()) {
+                    oldest = timeline.firstFrom(timeRange.isMinIncluded() ? min : min + 1);
                 }
-                parents.remove(mostRecent);
-                RevCommit commit;
-                for (ObjectId parent : mostRecent.getParentIds()) {
-                    if (repo.commitExists(parent)) {
-                        commit = repo.getCommit(parent);
-                        parents.add(commit);
-                    }
+                // the log stops at the 'since' commit
+                oldest = Math.max(oldest, timeline.indexOf(oldestCommitId) + 1);
+                if (newest < oldest) {
+                    return Iterators.<RevCommit> emptyIterator();
                 }
-                return mostRecent;
+                return Iterators.limit(new HistoryWalker(objectDb,
+                        ImmutableList.of(timeline.get(newest)), true), newest - oldest + 1);
             }
-
         }
+        return new HistoryWalker(objectDb, ImmutableList.of(newestCommitId), true);
     }
 
     /**
@@ -433,50 +433,6 @@ public class LogOp extends AbstractGeoGitOp<Iterator<RevCommit>> {
         }
     }
 
-    /**
-     * Iterator that traverses the commit history backwards starting from the provided commit, using
-     * only the first parent of each commit
-     * 
-     */
-    private static class LinearHistoryIterator extends AbstractIterator<RevCommit> {
-
-        private Optional<ObjectId> nextCommitId;
-
-        private final Repository repo;
-
-        /**
-         * Constructs a new {@code LinearHistoryIterator} with the given parameters.
-         * 
-         * @param tip the first commit in the history
-         * @param repo the repository where the commits are stored.
-         */
-        @SuppressWarnings("unchecked")
-        public LinearHistoryIterator(final ObjectId tip, final Repository repo) {
-            this.nextCommitId = (Optional<ObjectId>) (tip.isNull() ? Optional.absent() : Optional
-                    .of(tip));
-            this.repo = repo;
-        }
-
-        /**
-         * Calculates the next commit in the history.
-         * 
-         * @return the next {@link RevCommit commit} in the history
-         */
-        @Override
-        protected RevCommit computeNext() {
-            if (nextCommitId.isPresent()) {
-                RevCommit commit = repo.getCommit(nextCommitId.get());
-                nextCommitId = commit.parentN(0);
-                if (nextCommitId.isPresent() && !repo.commitExists(nextCommitId.get())) {
-                    nextCommitId = Optional.absent();
-                }
-                return commit;
-            }
-            return endOfData();
-        }
-
-    }
-
     /**
      * Checks whether the given commit satisfies all the filter criteria set to this op.
      * 
@@ -496,6 +452,12 @@ public class LogOp extends AbstractGeoGitOp<Iterator<RevCommit>> {
 
         private Pattern committer;
 
+        /**
+         * The commits that changed the feature at each path, according to the feature history
+         * index, absent for the paths that are not indexed features
+         */
+        private final Map<String, Optional<Set<ObjectId>>> featureVersions = Maps.newHashMap();
+
         /**
          * Constructs a new {@code LogFilter} with the given parameters.
          * 
@@ -550,20 +512,50 @@ public class LogOp extends AbstractGeoGitOp<Iterator<RevCommit>> {
                 return false;
             }
             if (paths != null && paths.size() > 0) {
+                ObjectId parentId = commit.parentN(0).or(ObjectId.NULL);
+                Optional<ChangedPaths> changed = Optional.absent();
+                boolean indexed = false;
+                if (!parentId.equals(ObjectId.NULL) && !repository.commitExists(parentId)) {
+                    // we have reached the bottom of a shallow clone. We "fake" it and pretend
+                    // it is the real first commit of the repo
+                    parentId = ObjectId.NULL;
+                } else {
+                    changed = changedPaths.get(commit.getId());
+                    indexed = featureHistory.isIndexed(commit.getId());
+                }
                 // did this commit touch any of the paths?
+                applies = false;
                 for (String path : paths) {
-                    DiffOp diff = command(DiffOp.class);
-                    ObjectId parentId = commit.parentN(0).or(ObjectId.NULL);
-                    if (!parentId.equals(ObjectId.NULL) && !repository.commitExists(parentId)) {
-                        // we have reached the bottom of a shallow clone. We "fake" it and pretend
-                        // it is the real first commit of the repo
-                        parentId = ObjectId.NULL;
+                    if (changed.isPresent() && !changed.get().mightTouch(path)) {
+                        continue;
                     }
+                    if (indexed) {
+                        // for a feature path, the commit touched it iff it made a new version
+                        Optional<Set<ObjectId>> versions = featureVersions(path);
+                        if (versions.isPresent()) {
+                            applies = versions.get().contains(commit.getId());
+                            if (applies) {
+                                break;
+                            }
+                            continue;
+                        }
+                    }
+                    // commit ids stand for their trees, only whether the diff is empty is cached
+                    Optional<Boolean> touched = diffCache.touched(parentId, commit.getId(), path);
+                    if (touched.isPresent()) {
+                        applies = touched.get().booleanValue();
+                        if (applies) {
+                            break;
+                        }
+                        continue;
+                    }
+                    DiffOp diff = command(DiffOp.class);
                     Iterator<DiffEntry> diffResult;
                     try {
                         diff.setOldVersion(parentId).setNewVersion(commit.getId()).setFilter(path);
                         diffResult = diff.call();
                         applies = diffResult.hasNext();
+                        diffCache.putTouched(parentId, commit.getId(), path, applies);
                         if (applies) {
                             break;
                         }
@@ -575,6 +567,23 @@ public class LogOp extends AbstractGeoGitOp<Iterator<RevCommit>> {
 
             return applies;
         }
+
+        private Optional<Set<ObjectId>> featureVersions(final String path) {
+            Optional<Set<ObjectId>> versions = featureVersions.get(path);
+            if (versions == null) {
+                versions = Optional.absent();
+                List<Version> list = featureHistory.getVersions(path);
+                if (!list.isEmpty()) {
+                    Set<ObjectId> commitIds = Sets.newHashSet();
+                    for (Version version : list) {
+                        commitIds.add(version.getCommitId());
+                    }
+                    versions = Optional.of(commitIds);
+                }
+                featureVersions.put(path, versions);
+            }
+            return versions;
+        }
     }
 
 }
@@ -19,6 +19,8 @@ import org.geogit.api.plumbing.DiffTree;
 import org.geogit.api.plumbing.FindCommonAncestor;
 import org.geogit.api.plumbing.RefParse;
 import org.geogit.api.plumbing.ResolveBranchId;
+import org.geogit.api.plumbing.UpdateFeatureHistory;
+import org.geogit.api.plumbing.UpdateIndexes;
 import org.geogit.api.plumbing.UpdateRef;
 import org.geogit.api.plumbing.UpdateSymRef;
 import org.geogit.api.plumbing.diff.DiffEntry;
@@ -248,6 +250,7 @@ public class MergeOp extends AbstractGeoGitOp<RevCommit> {
 
                     getWorkTree().updateWorkHead(commitId);
                     getIndex().updateStageHead(commitId);
+                    command(UpdateFeatureHistory.class).setCommit(commitId).call();
                     subProgress.complete();
                     changed = true;
                     continue;
@@ -278,6 +281,9 @@ public class MergeOp extends AbstractGeoGitOp<RevCommit> {
 
                         getWorkTree().updateWorkHead(commitId);
                         getIndex().updateStageHead(commitId);
+                        command(UpdateIndexes.class).setOldTree(headCommit.getTreeId())
+                                .setNewTree(targetCommit.getTreeId()).call();
+                        command(UpdateFeatureHistory.class).setCommit(commitId).call();
                         subProgress.complete();
                         changed = true;
                         continue;
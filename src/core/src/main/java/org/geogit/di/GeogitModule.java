@@ -22,17 +22,23 @@ import org.geogit.repository.Repository;
 import org.geogit.repository.StagingArea;
 import org.geogit.repository.WorkingTree;
 import org.geogit.storage.CachingObjectDatabaseGetInterceptor;
+import org.geogit.storage.ChangedPathsIndex;
+import org.geogit.storage.CommitTimeIndex;
 import org.geogit.storage.ConfigDatabase;
+import org.geogit.storage.DiffCache;
+import org.geogit.storage.FeatureHistoryIndex;
 import org.geogit.storage.GraphDatabase;
-import org.geogit.storage.Neo4JGraphDatabase;
+import org.geogit.storage.ObjectCache;
 import org.geogit.storage.ObjectDatabase;
 import org.geogit.storage.ObjectDatabasePutInterceptor;
 import org.geogit.storage.ObjectSerializingFactory;
+import org.geogit.storage.PerformanceSettings;
 import org.geogit.storage.RefDatabase;
 import org.geogit.storage.datastream.DataStreamSerializationFactory;
-import org.geogit.storage.fs.FileObjectDatabase;
+import org.geogit.storage.fs.FileGraphDatabase;
 import org.geogit.storage.fs.FileRefDatabase;
 import org.geogit.storage.fs.IniConfigDatabase;
+import org.geogit.storage.fs.PackedObjectDatabase;
 
 import com.google.common.base.Throwables;
 import com.google.inject.AbstractModule;
@@ -55,6 +61,12 @@ import com.google.inject.matcher.Matcher;
 
 public class GeogitModule extends AbstractModule {
 
+    /**
+     * Config key selecting the {@link GraphDatabase} implementation, either {@code neo4j} (the
+     * default) or {@code file} for the {@link FileGraphDatabase commit graph file}
+     */
+    public static final String GRAPH_DATABASE_CONFIG_KEY = "storage.graph";
+
     /**
      * 
      * @see com.google.inject.AbstractModule#configure()
@@ -69,14 +81,20 @@ public class GeogitModule extends AbstractModule {
         bind(ConfigDatabase.class).to(IniConfigDatabase.class).in(Scopes.SINGLETON);
         bind(StagingArea.class).to(Index.class).in(Scopes.SINGLETON);
         bind(WorkingTree.class).in(Scopes.SINGLETON);
-        bind(GraphDatabase.class).to(Neo4JGraphDatabase.class).in(Scopes.SINGLETON);
+        bind(GraphDatabase.class).toProvider(GraphDatabaseProvider.class).in(Scopes.SINGLETON);
 
-        bind(ObjectDatabase.class).to(FileObjectDatabase.class).in(Scopes.SINGLETON);
+        bind(ObjectDatabase.class).to(PackedObjectDatabase.class).in(Scopes.SINGLETON);
         bind(RefDatabase.class).to(FileRefDatabase.class).in(Scopes.SINGLETON);
 
         bind(ObjectSerializingFactory.class).to(DataStreamSerializationFactory.class).in(
                 Scopes.SINGLETON);
 
+        bind(DiffCache.class).in(Scopes.SINGLETON);
+        bind(ChangedPathsIndex.class).in(Scopes.SINGLETON);
+        bind(FeatureHistoryIndex.class).in(Scopes.SINGLETON);
+        bind(CommitTimeIndex.class).in(Scopes.SINGLETON);
+        bind(PerformanceSettings.class).in(Scopes.SINGLETON);
+
         bindRevObjectCachingDatabaseInterceptor();
 
         bindCommitGraphInterceptor();
@@ -87,9 +105,11 @@ public class GeogitModule extends AbstractModule {
     private void bindRevObjectCachingDatabaseInterceptor() {
         final Method getObjectId;
         final Method getObjectIdClass;
+        final Method deleteObjectId;
         try {
             getObjectId = ObjectDatabase.class.getMethod("get", ObjectId.class);
             getObjectIdClass = ObjectDatabase.class.getMethod("get", ObjectId.class, Class.class);
+            deleteObjectId = ObjectDatabase.class.getMethod("delete", ObjectId.class);
         } catch (Exception e) {
             throw Throwables.propagate(e);
         }
@@ -104,6 +124,9 @@ public class GeogitModule extends AbstractModule {
                         return true;
                     }
                 }
+                if ("delete".equals(t.getName())) {
+                    return Arrays.equals(deleteObjectId.getParameterTypes(), t.getParameterTypes());
+                }
                 return false;
             }
 
@@ -118,8 +141,12 @@ public class GeogitModule extends AbstractModule {
             }
         };
 
+        final ObjectCache objectCache = new ObjectCache(getProvider(ConfigDatabase.class),
+                getProvider(ObjectSerializingFactory.class));
+        bind(ObjectCache.class).toInstance(objectCache);
+
         bindInterceptor(subclassesOf(ObjectDatabase.class), methodMatcher,
-                new CachingObjectDatabaseGetInterceptor());
+                new CachingObjectDatabaseGetInterceptor(objectCache));
     }
 
     private void bindConflictCheckingInterceptor() {
@@ -0,0 +1,69 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.di;
+
+import org.geogit.api.porcelain.ConfigException;
+import org.geogit.storage.ConfigDatabase;
+import org.geogit.storage.GraphDatabase;
+import org.geogit.storage.Neo4JGraphDatabase;
+import org.geogit.storage.fs.FileGraphDatabase;
+
+import com.google.common.base.Optional;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+
+/**
+ * Provides the {@link GraphDatabase} implementation the
+ * {@link GeogitModule#GRAPH_DATABASE_CONFIG_KEY storage.graph} config key asks for, looked up in
+ * the repository config and then in the global one: {@code neo4j} (the default) or {@code file}
+ * for the {@link FileGraphDatabase commit graph file}.
+ */
+class GraphDatabaseProvider implements Provider<GraphDatabase> {
+
+    private final ConfigDatabase configDb;
+
+    private final Provider<Neo4JGraphDatabase> neo4j;
+
+    private final Provider<FileGraphDatabase> file;
+
+    @Inject
+    GraphDatabaseProvider(ConfigDatabase configDb, Provider<Neo4JGraphDatabase> neo4j,
+            Provider<FileGraphDatabase> file) {
+        this.configDb = configDb;
+        this.neo4j = neo4j;
+        this.file = file;
+    }
+
+    @Override
+    public GraphDatabase get() {
+        final String graph = config(GeogitModule.GRAPH_DATABASE_CONFIG_KEY).or("neo4j").trim();
+        if ("neo4j".equals(graph)) {
+            return neo4j.get();
+        }
+        if ("file".equals(graph)) {
+            return file.get();
+        }
+        throw new IllegalStateException(GeogitModule.GRAPH_DATABASE_CONFIG_KEY
+                + " shall be one of neo4j or file: " + graph);
+    }
+
+    private Optional<String> config(String key) {
+        Optional<String> value;
+        try {
+            value = configDb.get(key);
+        } catch (ConfigException e) {
+            // not inside a repository yet
+            value = Optional.absent();
+        }
+        if (!value.isPresent()) {
+            try {
+                value = configDb.getGlobal(key);
+            } catch (ConfigException e) {
+                value = Optional.absent();
+            }
+        }
+        return value;
+    }
+}
@@ -62,8 +62,9 @@ public final class BinaryPackedObjects {
     public <T> T write(OutputStream out, List<ObjectId> want, List<ObjectId> have,
             Set<ObjectId> sent, Callback<T> callback, boolean traverseCommits) throws IOException {
         T state = null;
+        final Set<ObjectId> known = database.existsAll(want);
         for (ObjectId i : want) {
-            if (!database.exists(i)) {
+            if (!known.contains(i)) {
                 throw new NoSuchElementException("Wanted id: " + i + " is not known");
             }
         }
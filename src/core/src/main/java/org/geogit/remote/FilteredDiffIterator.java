@@ -5,6 +5,9 @@
 package org.geogit.remote;
 
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.geogit.api.NodeRef;
 import org.geogit.api.ObjectId;
@@ -12,11 +15,16 @@ import org.geogit.api.RepositoryFilter;
 import org.geogit.api.RevFeatureType;
 import org.geogit.api.RevObject;
 import org.geogit.api.RevObject.TYPE;
-import org.geogit.api.plumbing.RevObjectParse;
 import org.geogit.api.plumbing.diff.DiffEntry;
 import org.geogit.repository.Repository;
+import org.geogit.storage.ObjectDatabase;
 
 import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
 /**
  * An implementation of a {@link DiffEntry} iterator that filters entries based on a provided
@@ -24,6 +32,11 @@ import com.google.common.collect.AbstractIterator;
  */
 public class FilteredDiffIterator extends AbstractIterator<DiffEntry> {
 
+    /**
+     * Number of diff entries whose objects are fetched from the database at once
+     */
+    private static final int BATCH_SIZE = 100;
+
     protected boolean filtered = false;
 
     private Iterator<DiffEntry> source;
@@ -32,6 +45,18 @@ public class FilteredDiffIterator extends AbstractIterator<DiffEntry> {
 
     private RepositoryFilter repoFilter;
 
+    private Iterator<DiffEntry> batch = ImmutableList.<DiffEntry> of().iterator();
+
+    /**
+     * The objects referenced by the entries in the current batch
+     */
+    private Map<ObjectId, RevObject> batchObjects = Maps.newHashMap();
+
+    /**
+     * Feature types are shared by many entries, so they're kept across batches
+     */
+    private Map<ObjectId, RevObject> metadataObjects = Maps.newHashMap();
+
     public final boolean wasFiltered() {
         return filtered;
     }
@@ -55,8 +80,8 @@ public class FilteredDiffIterator extends AbstractIterator<DiffEntry> {
      * Compute the next {@link DiffEntry} that matches our {@link RepositoryFilter}.
      */
     protected DiffEntry computeNext() {
-        while (source.hasNext()) {
-            DiffEntry input = source.next();
+        while (batch.hasNext() || nextBatch()) {
+            DiffEntry input = batch.next();
 
             NodeRef oldObject = filter(input.getOldObject());
             NodeRef newObject;
@@ -81,13 +106,11 @@ public class FilteredDiffIterator extends AbstractIterator<DiffEntry> {
             return null;
         }
 
-        RevObject object = sourceRepo.command(RevObjectParse.class)
-                .setObjectId(node.getNode().getObjectId()).call().get();
+        RevObject object = getObject(node.getNode().getObjectId());
 
         RevObject metadata = null;
-        if (node.getMetadataId() != ObjectId.NULL) {
-            metadata = sourceRepo.command(RevObjectParse.class).setObjectId(node.getMetadataId())
-                    .call().get();
+        if (!node.getMetadataId().isNull()) {
+            metadata = getObject(node.getMetadataId());
         }
         if (node.getType() == TYPE.FEATURE) {
             if (trackingObject(object.getId())) {
@@ -107,6 +130,59 @@ public class FilteredDiffIterator extends AbstractIterator<DiffEntry> {
         return node;
     }
 
+    /**
+     * Reads the next batch of entries from the source iterator and fetches all the objects they
+     * reference with a single database call.
+     * 
+     * @return {@code false} if the source iterator is exhausted
+     */
+    private boolean nextBatch() {
+        if (!source.hasNext()) {
+            return false;
+        }
+        final List<DiffEntry> entries = Lists.newArrayList(Iterators.limit(source, BATCH_SIZE));
+        final Set<ObjectId> ids = Sets.newHashSet();
+        for (DiffEntry entry : entries) {
+            for (NodeRef ref : new NodeRef[] { entry.getOldObject(), entry.getNewObject() }) {
+                if (ref == null) {
+                    continue;
+                }
+                ids.add(ref.getNode().getObjectId());
+                ObjectId metadataId = ref.getMetadataId();
+                if (!metadataId.isNull() && !metadataObjects.containsKey(metadataId)) {
+                    ids.add(metadataId);
+                }
+            }
+        }
+        batchObjects.clear();
+        Iterator<RevObject> objects = getDatabase().getAll(ids);
+        while (objects.hasNext()) {
+            RevObject object = objects.next();
+            if (object instanceof RevFeatureType) {
+                metadataObjects.put(object.getId(), object);
+            } else {
+                batchObjects.put(object.getId(), object);
+            }
+        }
+        batch = entries.iterator();
+        return true;
+    }
+
+    private RevObject getObject(ObjectId id) {
+        RevObject object = batchObjects.get(id);
+        if (object == null) {
+            object = metadataObjects.get(id);
+        }
+        if (object == null) {
+            object = getDatabase().get(id);
+        }
+        return object;
+    }
+
+    private ObjectDatabase getDatabase() {
+        return sourceRepo.getIndex().getDatabase();
+    }
+
     /**
      * An overridable method for hinting that the given object should be tracked, regardless of
      * whether or not it matches the filter.
@@ -0,0 +1,650 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.repository;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static org.geogit.api.RevTree.NORMALIZED_SIZE_LIMIT;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.Node;
+import org.geogit.api.NodeRef;
+import org.geogit.api.ObjectId;
+import org.geogit.api.Ref;
+import org.geogit.api.RevFeature;
+import org.geogit.api.RevFeatureType;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.RevTree;
+import org.geogit.api.RevTreeImpl;
+import org.geogit.api.plumbing.HashObject;
+import org.geogit.api.plumbing.diff.DepthTreeIterator;
+import org.geogit.api.plumbing.diff.DepthTreeIterator.Strategy;
+import org.geogit.api.plumbing.diff.DiffEntry;
+import org.geogit.api.plumbing.diff.DiffTreeWalk;
+import org.geogit.storage.ObjectDatabase;
+import org.geogit.storage.RefDatabase;
+import org.opengis.feature.type.PropertyDescriptor;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Predicates;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * An index of the feature nodes directly held by a {@link RevTree tree} sorted by the value of one
+ * of their attributes, used to find the features whose value is equal to, or within a range of,
+ * given values without reading every feature in the tree.
+ * <p>
+ * The index is a B+tree whose pages are stored as {@link RevTree} objects under their content ids:
+ * leaf pages hold, in order, a copy of each feature node named after the value of the attribute
+ * and the feature name; inner pages hold, in order, a tree node per child page named after its
+ * first entry. The root page is held by a tree that's found through the
+ * {@code indexes/attribute/<tree id>/<attribute>} ref, see {@link #indexId(ObjectId, String)}, so
+ * the attributes a tree is indexed by are the names of the refs under
+ * {@code indexes/attribute/<tree id>/}, see {@link #indexedAttributes(ObjectId)}. Pages left less
+ * than half full by an update are merged with a sibling.
+ * <p>
+ * Only {@link Number numbers}, {@link String strings}, {@link Date dates} and {@link Boolean
+ * booleans} are indexed; features whose value is {@code null} or of any other type are left out.
+ * Numbers are compared as doubles, so queries may return more features than strictly match when
+ * large integral values are involved, and results are meant to be filtered again.
+ */
+public class AttributeIndex {
+
+    /**
+     * Separates the encoded attribute value from the feature name in the leaf entries, sorting
+     * before any other character so that entries are sorted by value first
+     */
+    private static final char SEPARATOR = '\u0000';
+
+    private static final char NUMBER = 'n';
+
+    private static final char STRING = 's';
+
+    private static final char DATE = 'd';
+
+    private static final char BOOLEAN = 'b';
+
+    /**
+     * The number of entries or child pages below which an updated page is merged with a sibling
+     */
+    private static final int MIN_FANOUT = NORMALIZED_SIZE_LIMIT / 2;
+
+    /**
+     * Namespace of the refs from each indexed tree and attribute to its index
+     */
+    public static final String NAMESPACE = Ref.INDEXES_PREFIX + "attribute/";
+
+    private final ObjectDatabase db;
+
+    private final RefDatabase refs;
+
+    public AttributeIndex(final ObjectDatabase db, final RefDatabase refs) {
+        checkNotNull(db);
+        checkNotNull(refs);
+        this.db = db;
+        this.refs = refs;
+    }
+
+    private static String namespace(final ObjectId treeId) {
+        return NAMESPACE + treeId + "/";
+    }
+
+    /**
+     * @return the id of the object through which the index of the given attribute of the tree's
+     *         features is found, or {@link Optional#absent() absent} if it has not been indexed
+     */
+    public Optional<ObjectId> indexId(final ObjectId treeId, final String attribute) {
+        final String value = refs.getRef(namespace(treeId) + attribute);
+        if (value == null) {
+            return Optional.absent();
+        }
+        final ObjectId indexId = ObjectId.valueOf(value);
+        return db.exists(indexId) ? Optional.of(indexId) : Optional.<ObjectId> absent();
+    }
+
+    /**
+     * @return the names of the attributes the given tree's features are indexed by, in
+     *         alphabetical order
+     */
+    public List<String> indexedAttributes(final ObjectId treeId) {
+        final String namespace = namespace(treeId);
+        List<String> attributes = Lists.newArrayList();
+        for (Map.Entry<String, String> ref : refs.getAll(namespace).entrySet()) {
+            if (db.exists(ObjectId.valueOf(ref.getValue()))) {
+                attributes.add(ref.getKey().substring(namespace.length()));
+            }
+        }
+        Collections.sort(attributes);
+        return attributes;
+    }
+
+    /**
+     * @return whether the given attribute of the tree's features has been indexed
+     */
+    public boolean exists(final ObjectId treeId, final String attribute) {
+        return indexId(treeId, attribute).isPresent();
+    }
+
+    /**
+     * Indexes the features of the given tree by the value of the given attribute
+     *
+     * @param metadataId the feature type of the features in the tree that don't have their own
+     * @return the {@link #indexId(ObjectId, String) id} of the index
+     */
+    public ObjectId build(final RevTree tree, final ObjectId metadataId, final String attribute) {
+        final ValueExtractor values = new ValueExtractor(metadataId, attribute);
+        List<Node> entries = Lists.newArrayList();
+        Iterator<NodeRef> features = new DepthTreeIterator("", metadataId, tree, db,
+                Strategy.FEATURES_ONLY);
+        while (features.hasNext()) {
+            Node entry = values.entry(features.next().getNode());
+            if (entry != null) {
+                entries.add(entry);
+            }
+        }
+        Collections.sort(entries, ENTRY_ORDER);
+        return save(tree.getId(), attribute, root(leafPages(entries)));
+    }
+
+    /**
+     * Indexes the features of {@code newTreeId} out of the index of {@code oldTreeId}, rewriting
+     * only the pages affected by the differences between both trees.
+     *
+     * @param metadataId the feature type of the features in the trees that don't have their own
+     * @return the {@link #indexId(ObjectId, String) id} of the index
+     */
+    public ObjectId update(final ObjectId oldTreeId, final ObjectId newTreeId,
+            final ObjectId metadataId, final String attribute) {
+        final ValueExtractor values = new ValueExtractor(metadataId, attribute);
+        // entry name -> entry to add, or null to remove
+        final SortedMap<String, Node> changes = Maps.newTreeMap();
+        DiffTreeWalk diff = new DiffTreeWalk(db, db.getTree(oldTreeId), db.getTree(newTreeId));
+        for (Iterator<DiffEntry> it = diff.get(); it.hasNext();) {
+            DiffEntry entry = it.next();
+            NodeRef oldRef = entry.getOldObject();
+            NodeRef newRef = entry.getNewObject();
+            if (oldRef != null && isIndexed(oldRef)) {
+                Node removed = values.entry(oldRef.getNode());
+                if (removed != null) {
+                    changes.put(removed.getName(), null);
+                }
+            }
+            if (newRef != null && isIndexed(newRef)) {
+                Node added = values.entry(newRef.getNode());
+                if (added != null) {
+                    changes.put(added.getName(), added);
+                }
+            }
+        }
+
+        final Optional<ObjectId> oldIndexId = indexId(oldTreeId, attribute);
+        checkArgument(oldIndexId.isPresent(), "attribute %s of tree %s has not been indexed",
+                attribute, oldTreeId);
+        final RevTree oldIndex = db.getTree(oldIndexId.get());
+        Page root = null;
+        if (oldIndex.trees().isPresent() && !oldIndex.trees().get().isEmpty()) {
+            root = new Page(oldIndex.trees().get().get(0), oldIndex.size());
+        }
+        final List<Page> pages;
+        if (root == null) {
+            pages = leafPages(Lists.newArrayList(Iterables.filter(changes.values(),
+                    Predicates.notNull())));
+        } else {
+            pages = changes.isEmpty() ? ImmutableList.of(root) : update(root, changes);
+        }
+        return save(newTreeId, attribute, root(pages));
+    }
+
+    private static boolean isIndexed(NodeRef ref) {
+        return TYPE.FEATURE.equals(ref.getType()) && ref.getParentPath().isEmpty();
+    }
+
+    /**
+     * Finds the features of the given tree whose attribute value is within the given range. Use
+     * the same value, inclusive, for both bounds to look for the features with that value.
+     *
+     * @param lowerBound the lower bound of the range, or {@code null} if unbounded
+     * @param upperBound the upper bound of the range, or {@code null} if unbounded
+     * @return the matching feature nodes in ascending attribute value order, or
+     *         {@link Optional#absent() absent} if the attribute of the tree's features is not
+     *         indexed or the bounds are not of a supported type
+     */
+    public Optional<Iterator<Node>> query(final ObjectId treeId, final String attribute,
+            @Nullable final Object lowerBound, final boolean lowerInclusive,
+            @Nullable final Object upperBound, final boolean upperInclusive) {
+
+        final String lowerKey = lowerBound == null ? null : key(lowerBound);
+        final String upperKey = upperBound == null ? null : key(upperBound);
+        if ((lowerBound != null && lowerKey == null) || (upperBound != null && upperKey == null)
+                || (lowerKey == null && upperKey == null)) {
+            return Optional.absent();
+        }
+        final char type = (lowerKey == null ? upperKey : lowerKey).charAt(0);
+        if (upperKey != null && upperKey.charAt(0) != type) {
+            return Optional.absent();
+        }
+        final Optional<ObjectId> indexId = indexId(treeId, attribute);
+        if (!indexId.isPresent()) {
+            return Optional.absent();
+        }
+        // entries are in the [from, to) range of names
+        final String from;
+        if (lowerKey == null) {
+            from = String.valueOf(type);
+        } else {
+            from = lowerKey + (lowerInclusive ? SEPARATOR : (char) (SEPARATOR + 1));
+        }
+        final String to;
+        if (upperKey == null) {
+            to = String.valueOf((char) (type + 1));
+        } else {
+            to = upperKey + (upperInclusive ? (char) (SEPARATOR + 1) : SEPARATOR);
+        }
+        Iterator<Node> nodes = new Query(db.getTree(indexId.get()), from, to);
+        return Optional.of(nodes);
+    }
+
+    /**
+     * Encodes an attribute value as a string that sorts like the values do
+     *
+     * @return the encoded value, or {@code null} if values of its type are not indexed
+     */
+    @Nullable
+    static String key(final Object value) {
+        if (value instanceof Number) {
+            double d = ((Number) value).doubleValue();
+            if (d == 0D) {
+                d = 0D;// -0.0
+            }
+            long bits = Double.doubleToLongBits(d);
+            bits = bits < 0 ? ~bits : bits ^ Long.MIN_VALUE;
+            return NUMBER + hex(bits);
+        }
+        if (value instanceof String) {
+            return STRING + (String) value;
+        }
+        if (value instanceof Date) {
+            return DATE + hex(((Date) value).getTime() ^ Long.MIN_VALUE);
+        }
+        if (value instanceof Boolean) {
+            return BOOLEAN + (((Boolean) value).booleanValue() ? "1" : "0");
+        }
+        return null;
+    }
+
+    private static String hex(long unsigned) {
+        String hex = Long.toHexString(unsigned);
+        return "0000000000000000".substring(hex.length()) + hex;
+    }
+
+    private static String featureName(Node entry) {
+        String name = entry.getName();
+        return name.substring(name.indexOf(SEPARATOR) + 1);
+    }
+
+    private static Node rename(Node node, String name) {
+        Envelope bounds = new Envelope();
+        node.expand(bounds);
+        return Node.create(name, node.getObjectId(), node.getMetadataId().or(ObjectId.NULL),
+                node.getType(), bounds);
+    }
+
+    /**
+     * Saves the tree holding the root page and points the index ref of the tree and attribute to it
+     */
+    private ObjectId save(final ObjectId treeId, final String attribute,
+            @Nullable final Page root) {
+        List<Node> trees = root == null ? ImmutableList.<Node> of() : ImmutableList.of(root.node);
+        long size = root == null ? 0 : root.size();
+        RevTree unnamed = RevTreeImpl.createLeafTree(ObjectId.NULL, size,
+                ImmutableList.<Node> of(), trees);
+        ObjectId indexId = new HashObject().setObject(unnamed).call();
+        db.put(RevTreeImpl.createLeafTree(indexId, size, ImmutableList.<Node> of(), trees));
+        refs.putRef(namespace(treeId) + attribute, indexId.toString());
+        return indexId;
+    }
+
+    /**
+     * @return the single page on top of the given ones, adding as many levels of inner pages as
+     *         needed, or {@code null} if there are no pages
+     */
+    @Nullable
+    private Page root(List<Page> pages) {
+        while (pages.size() > 1) {
+            pages = innerPages(pages);
+        }
+        if (pages.isEmpty()) {
+            return null;
+        }
+        Page root = pages.get(0);
+        // an inner root with a single child is not needed
+        RevTree tree = db.getTree(root.node.getObjectId());
+        while (tree.trees().isPresent() && tree.trees().get().size() == 1) {
+            root = new Page(tree.trees().get().get(0), tree.size());
+            tree = db.getTree(root.node.getObjectId());
+        }
+        return root;
+    }
+
+    /**
+     * Applies the changes to the given page
+     *
+     * @return the pages replacing the given one, none if it's left empty or more than one if it
+     *         got too big
+     */
+    private List<Page> update(final Page page, final SortedMap<String, Node> changes) {
+        final RevTree tree = db.getTree(page.node.getObjectId());
+        if (!tree.trees().isPresent()) {
+            SortedMap<String, Node> entries = Maps.newTreeMap();
+            for (Node entry : tree.features().or(ImmutableList.<Node> of())) {
+                entries.put(entry.getName(), entry);
+            }
+            for (Map.Entry<String, Node> change : changes.entrySet()) {
+                if (change.getValue() == null) {
+                    entries.remove(change.getKey());
+                } else {
+                    entries.put(change.getKey(), change.getValue());
+                }
+            }
+            return leafPages(Lists.newArrayList(entries.values()));
+        }
+
+        final ImmutableList<Node> children = tree.trees().get();
+        final List<Page> updated = Lists.newArrayList();
+        final Set<Page> changed = Sets.newIdentityHashSet();
+        for (int i = 0; i < children.size(); i++) {
+            // the first child also takes the entries before it, and the last one those after it
+            SortedMap<String, Node> childChanges = changes;
+            if (i > 0) {
+                childChanges = childChanges.tailMap(children.get(i).getName());
+            }
+            if (i < children.size() - 1) {
+                childChanges = childChanges.headMap(children.get(i + 1).getName());
+            }
+            Page child = new Page(children.get(i), -1);
+            if (childChanges.isEmpty()) {
+                updated.add(child);
+            } else {
+                List<Page> pages = update(child, childChanges);
+                updated.addAll(pages);
+                changed.addAll(pages);
+            }
+        }
+        mergeUnderfull(updated, changed);
+        return updated.isEmpty() ? updated : innerPages(updated);
+    }
+
+    /**
+     * Merges each of the changed sibling pages that is less than half full with the next one, or
+     * with the previous one if it's the last
+     */
+    private void mergeUnderfull(final List<Page> siblings, final Set<Page> changed) {
+        for (int i = 0; i < siblings.size() && siblings.size() > 1; i++) {
+            final Page page = siblings.get(i);
+            if (!changed.contains(page) || page.fanout() >= MIN_FANOUT) {
+                continue;
+            }
+            final int first = i < siblings.size() - 1 ? i : i - 1;
+            List<Page> merged = merge(siblings.get(first), siblings.get(first + 1));
+            siblings.remove(first + 1);
+            siblings.remove(first);
+            siblings.addAll(first, merged);
+            changed.addAll(merged);
+            // the merged page may still be underfull
+            i = first - 1;
+        }
+    }
+
+    /**
+     * @return the one or two pages holding the entries, or child pages, of both sibling pages
+     */
+    private List<Page> merge(final Page page, final Page next) {
+        final RevTree tree = db.getTree(page.node.getObjectId());
+        final RevTree nextTree = db.getTree(next.node.getObjectId());
+        if (!tree.trees().isPresent()) {
+            List<Node> entries = Lists.newArrayList(tree.features().or(ImmutableList.<Node> of()));
+            entries.addAll(nextTree.features().or(ImmutableList.<Node> of()));
+            return leafPages(entries);
+        }
+        List<Page> children = Lists.newArrayList();
+        for (Node child : tree.trees().get()) {
+            children.add(new Page(child, -1));
+        }
+        for (Node child : nextTree.trees().get()) {
+            children.add(new Page(child, -1));
+        }
+        return innerPages(children);
+    }
+
+    private List<Page> leafPages(final List<Node> entries) {
+        List<Page> pages = Lists.newArrayList();
+        for (List<Node> chunk : chunks(entries)) {
+            RevTree unnamed = RevTreeImpl.createLeafTree(ObjectId.NULL, chunk.size(),
+                    ImmutableList.copyOf(chunk), ImmutableList.<Node> of());
+            pages.add(save(unnamed, chunk.get(0).getName()));
+        }
+        return pages;
+    }
+
+    private List<Page> innerPages(final List<Page> children) {
+        List<Page> pages = Lists.newArrayList();
+        for (List<Page> chunk : chunks(children)) {
+            long size = 0;
+            ImmutableList.Builder<Node> trees = ImmutableList.builder();
+            for (Page child : chunk) {
+                size += child.size();
+                trees.add(child.node);
+            }
+            RevTree unnamed = RevTreeImpl.createLeafTree(ObjectId.NULL, size,
+                    ImmutableList.<Node> of(), trees.build());
+            pages.add(save(unnamed, chunk.get(0).node.getName()));
+        }
+        return pages;
+    }
+
+    /**
+     * Splits the list in as few chunks of at most {@link RevTree#NORMALIZED_SIZE_LIMIT} elements
+     * as possible, all of about the same size
+     */
+    private static <T> List<List<T>> chunks(final List<T> list) {
+        final int count = (list.size() + NORMALIZED_SIZE_LIMIT - 1) / NORMALIZED_SIZE_LIMIT;
+        List<List<T>> chunks = Lists.newArrayListWithCapacity(count);
+        int start = 0;
+        for (int i = 0; i < count; i++) {
+            int end = start + list.size() / count + (i < list.size() % count ? 1 : 0);
+            chunks.add(list.subList(start, end));
+            start = end;
+        }
+        return chunks;
+    }
+
+    private Page save(final RevTree unnamed, final String firstName) {
+        ObjectId id = new HashObject().setObject(unnamed).call();
+        RevTree tree = RevTreeImpl.createLeafTree(id, unnamed.size(),
+                unnamed.features().or(ImmutableList.<Node> of()),
+                unnamed.trees().or(ImmutableList.<Node> of()));
+        db.put(tree);
+        Page page = new Page(Node.create(firstName, id, ObjectId.NULL, TYPE.TREE), tree.size());
+        page.fanout = unnamed.trees().or(ImmutableList.<Node> of()).size()
+                + unnamed.features().or(ImmutableList.<Node> of()).size();
+        return page;
+    }
+
+    private static final Comparator<Node> ENTRY_ORDER = new Comparator<Node>() {
+        @Override
+        public int compare(Node e1, Node e2) {
+            return e1.getName().compareTo(e2.getName());
+        }
+    };
+
+    /**
+     * A page of the index, and the number of entries under it and of its own entries or child
+     * pages if known
+     */
+    private class Page {
+
+        final Node node;
+
+        private long size;
+
+        private int fanout = -1;
+
+        Page(Node node, long size) {
+            this.node = node;
+            this.size = size;
+        }
+
+        long size() {
+            if (size < 0) {
+                size = db.getTree(node.getObjectId()).size();
+            }
+            return size;
+        }
+
+        int fanout() {
+            if (fanout < 0) {
+                RevTree tree = db.getTree(node.getObjectId());
+                fanout = tree.trees().isPresent() ? tree.trees().get().size() : tree.features()
+                        .or(ImmutableList.<Node> of()).size();
+            }
+            return fanout;
+        }
+    }
+
+    /**
+     * Creates the index entries of feature nodes, reading the attribute value of each feature
+     */
+    private class ValueExtractor {
+
+        private final ObjectId defaultMetadataId;
+
+        private final String attribute;
+
+        private final Map<ObjectId, Integer> attributeIndexes = Maps.newHashMap();
+
+        ValueExtractor(ObjectId defaultMetadataId, String attribute) {
+            checkArgument(!defaultMetadataId.isNull(), "no feature type given");
+            this.defaultMetadataId = defaultMetadataId;
+            this.attribute = attribute;
+        }
+
+        @Nullable
+        Node entry(final Node node) {
+            final ObjectId metadataId = node.getMetadataId().or(defaultMetadataId);
+            final int index = attributeIndex(metadataId);
+            if (index < 0) {
+                return null;
+            }
+            RevFeature feature = db.getFeature(node.getObjectId());
+            Optional<Object> value = feature.get(index);
+            String key = value.isPresent() ? key(value.get()) : null;
+            if (key == null) {
+                return null;
+            }
+            Envelope bounds = new Envelope();
+            node.expand(bounds);
+            return Node.create(key + SEPARATOR + node.getName(), node.getObjectId(), metadataId,
+                    TYPE.FEATURE, bounds);
+        }
+
+        private int attributeIndex(final ObjectId metadataId) {
+            Integer index = attributeIndexes.get(metadataId);
+            if (index == null) {
+                index = Integer.valueOf(-1);
+                RevFeatureType type = db.getFeatureType(metadataId);
+                ImmutableList<PropertyDescriptor> descriptors = type.sortedDescriptors();
+                for (int i = 0; i < descriptors.size(); i++) {
+                    if (attribute.equals(descriptors.get(i).getName().getLocalPart())) {
+                        index = Integer.valueOf(i);
+                        break;
+                    }
+                }
+                attributeIndexes.put(metadataId, index);
+            }
+            return index.intValue();
+        }
+    }
+
+    /**
+     * Depth first traversal of the index pages that may hold entries in the [from, to) range
+     */
+    private class Query extends AbstractIterator<Node> {
+
+        private final String from;
+
+        private final String to;
+
+        private final LinkedList<Iterator<Node>> stack = Lists.newLinkedList();
+
+        Query(RevTree index, String from, String to) {
+            this.from = from;
+            this.to = to;
+            stack.push(index.children());
+        }
+
+        @Override
+        protected Node computeNext() {
+            while (!stack.isEmpty()) {
+                Iterator<Node> nodes = stack.peek();
+                if (!nodes.hasNext()) {
+                    stack.pop();
+                    continue;
+                }
+                Node node = nodes.next();
+                if (TYPE.TREE.equals(node.getType())) {
+                    if (node.getName().compareTo(to) >= 0) {
+                        // neither this page nor the following ones hold entries in range
+                        stack.pop();
+                        continue;
+                    }
+                    RevTree page = db.getTree(node.getObjectId());
+                    stack.push(pageChildren(page));
+                } else {
+                    String name = node.getName();
+                    if (name.compareTo(to) >= 0) {
+                        stack.pop();
+                    } else if (name.compareTo(from) >= 0) {
+                        return rename(node, featureName(node));
+                    }
+                }
+            }
+            return endOfData();
+        }
+
+        /**
+         * @return the children of the page, skipping the child pages whose entries are all before
+         *         the start of the range
+         */
+        private Iterator<Node> pageChildren(RevTree page) {
+            if (!page.trees().isPresent()) {
+                return page.children();
+            }
+            ImmutableList<Node> children = page.trees().get();
+            int first = 0;
+            while (first < children.size() - 1
+                    && children.get(first + 1).getName().compareTo(from) <= 0) {
+                first++;
+            }
+            return children.subList(first, children.size()).iterator();
+        }
+    }
+}
@@ -17,6 +17,7 @@ import org.geogit.api.ObjectId;
 import org.geogit.api.RevTree;
 import org.geogit.storage.NodePathStorageOrder;
 import org.geogit.storage.ObjectDatabase;
+import org.geogit.storage.datastream.LazyRevTree;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Splitter;
@@ -133,6 +134,10 @@ public class DepthSearch {
             return Optional.absent();
         }
 
+        if (parent instanceof LazyRevTree && !parent.buckets().isPresent()) {
+            return ((LazyRevTree) parent).getChild(directChildName);
+        }
+
         if (parent.trees().isPresent() || parent.features().isPresent()) {
             if (parent.trees().isPresent()) {
                 ImmutableList<Node> refs = parent.trees().get();
@@ -0,0 +1,302 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.repository;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevCommit;
+import org.geogit.api.RevObject;
+import org.geogit.storage.ObjectDatabase;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Walks the history of a number of commits backwards, returning every reachable commit once, most
+ * recent (by committer timestamp) first, commits with the same timestamp in the order they were
+ * reached.
+ * <p>
+ * The commits reached but not returned yet are kept in a priority queue, and while the consumer
+ * processes the returned commits, the parents of the queued commits and their ancestors, up to
+ * {@link #READ_AHEAD_LEVELS} levels and {@link #MAX_READ_AHEAD} commits, are fetched in the
+ * background with {@link ObjectDatabase#getAll(Iterable)}, so that most of the time the parents of
+ * a commit are already in memory when it's returned. Commits the read ahead didn't get to are
+ * fetched on the consumer thread.
+ * <p>
+ * Parents that don't exist in the object database (like at the bottom of a shallow clone) are
+ * silently skipped.
+ */
+public class HistoryWalker extends AbstractIterator<RevCommit> {
+
+    /**
+     * How many generations of ancestors each read ahead fetches
+     */
+    static final int READ_AHEAD_LEVELS = 8;
+
+    /**
+     * Maximum number of commits read ahead and not consumed yet
+     */
+    static final int MAX_READ_AHEAD = 1000;
+
+    /**
+     * Shared by all instances; each instance runs at most one read ahead at a time, and read aheads
+     * finish on their own even if the walker is abandoned.
+     */
+    private static final ExecutorService EXECUTOR = Executors
+            .newCachedThreadPool(new ThreadFactoryBuilder().setDaemon(true)
+                    .setNameFormat("geogit-history-%d").build());
+
+    private final ObjectDatabase objectDb;
+
+    private final boolean firstParentOnly;
+
+    private final PriorityQueue<Entry> queue = new PriorityQueue<Entry>();
+
+    private long sequence;
+
+    /**
+     * Ids of all the commits reached so far
+     */
+    private final Set<ObjectId> reached = concurrentSet();
+
+    /**
+     * Ids of all the commits the read ahead was asked to fetch
+     */
+    private final Set<ObjectId> requested = concurrentSet();
+
+    /**
+     * Parents of the queued commits not requested yet, to be fetched by the next read ahead
+     */
+    private final Set<ObjectId> pendingParents = Sets.newLinkedHashSet();
+
+    private final ConcurrentMap<ObjectId, RevCommit> readAhead = //
+    new ConcurrentHashMap<ObjectId, RevCommit>();
+
+    @Nullable
+    private Future<?> readAheadTask;
+
+    /**
+     * @param objectDb the database to read the commits from
+     * @param tips the commits to start walking the history from, {@link ObjectId#NULL null} ids
+     *        are ignored
+     * @param firstParentOnly whether to follow only the first parent of each commit
+     * @throws IllegalArgumentException if any of the tips is not a commit in the database
+     */
+    public HistoryWalker(final ObjectDatabase objectDb, final Iterable<ObjectId> tips,
+            final boolean firstParentOnly) throws IllegalArgumentException {
+        checkNotNull(objectDb);
+        checkNotNull(tips);
+        this.objectDb = objectDb;
+        this.firstParentOnly = firstParentOnly;
+        for (ObjectId tip : tips) {
+            if (!tip.isNull() && reached.add(tip)) {
+                enqueue(objectDb.getCommit(tip));
+            }
+        }
+        startReadAhead();
+    }
+
+    @Override
+    protected RevCommit computeNext() {
+        final Entry next = queue.poll();
+        if (next == null) {
+            return endOfData();
+        }
+        final RevCommit commit = next.commit;
+        List<ObjectId> toLoad = Lists.newArrayListWithCapacity(2);
+        for (ObjectId parentId : parents(commit)) {
+            pendingParents.remove(parentId);
+            if (!parentId.isNull() && reached.add(parentId)) {
+                toLoad.add(parentId);
+            }
+        }
+        final Map<ObjectId, RevCommit> parents = load(toLoad);
+        for (ObjectId parentId : toLoad) {
+            // keep the parents order for the ones with the same timestamp
+            RevCommit parent = parents.get(parentId);
+            if (parent != null) {
+                enqueue(parent);
+            }
+        }
+        startReadAhead();
+        return commit;
+    }
+
+    private List<ObjectId> parents(final RevCommit commit) {
+        final ImmutableList<ObjectId> parentIds = commit.getParentIds();
+        if (firstParentOnly && parentIds.size() > 1) {
+            return parentIds.subList(0, 1);
+        }
+        return parentIds;
+    }
+
+    private void enqueue(final RevCommit commit) {
+        queue.add(new Entry(commit, sequence++));
+        for (ObjectId parentId : parents(commit)) {
+            if (!parentId.isNull() && !reached.contains(parentId)
+                    && !requested.contains(parentId)) {
+                pendingParents.add(parentId);
+            }
+        }
+    }
+
+    /**
+     * Loads the given commits, taking them from the read ahead ones if possible
+     */
+    private Map<ObjectId, RevCommit> load(final List<ObjectId> ids) {
+        Map<ObjectId, RevCommit> commits = Maps.newHashMap();
+        if (ids.isEmpty()) {
+            return commits;
+        }
+        List<ObjectId> missing = takeReadAhead(ids, commits);
+        if (!missing.isEmpty() && readAheadTask != null) {
+            // they're most probably being read ahead right now
+            awaitReadAhead();
+            missing = takeReadAhead(missing, commits);
+        }
+        if (!missing.isEmpty()) {
+            Iterator<RevObject> objects = objectDb.getAll(missing);
+            while (objects.hasNext()) {
+                RevObject object = objects.next();
+                if (object instanceof RevCommit) {
+                    commits.put(object.getId(), (RevCommit) object);
+                }
+            }
+        }
+        return commits;
+    }
+
+    private List<ObjectId> takeReadAhead(final List<ObjectId> ids,
+            final Map<ObjectId, RevCommit> target) {
+        List<ObjectId> missing = Lists.newArrayListWithCapacity(0);
+        for (ObjectId id : ids) {
+            RevCommit commit = readAhead.remove(id);
+            if (commit == null) {
+                missing.add(id);
+            } else {
+                target.put(id, commit);
+            }
+        }
+        return missing;
+    }
+
+    private void awaitReadAhead() {
+        try {
+            readAheadTask.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Throwables.propagate(e);
+        } catch (ExecutionException e) {
+            // ignore, whatever the read ahead didn't get is read again, and any error thrown,
+            // when needed
+        }
+        readAheadTask = null;
+    }
+
+    private void startReadAhead() {
+        if (pendingParents.isEmpty() || readAhead.size() >= MAX_READ_AHEAD) {
+            return;
+        }
+        if (readAheadTask != null) {
+            if (!readAheadTask.isDone()) {
+                return;
+            }
+            awaitReadAhead();
+        }
+        final List<ObjectId> firstLevel = Lists.newArrayList(pendingParents);
+        pendingParents.clear();
+        requested.addAll(firstLevel);
+        readAheadTask = EXECUTOR.submit(new Runnable() {
+            @Override
+            public void run() {
+                readAhead(firstLevel);
+            }
+        });
+    }
+
+    /**
+     * Runs on the read ahead thread, fetching the given commits and their ancestors
+     */
+    private void readAhead(final List<ObjectId> firstLevel) {
+        Collection<ObjectId> level = firstLevel;
+        for (int i = 0; i < READ_AHEAD_LEVELS && !level.isEmpty(); i++) {
+            List<ObjectId> nextLevel = Lists.newArrayList();
+            Iterator<RevObject> objects = objectDb.getAll(level);
+            while (objects.hasNext()) {
+                RevObject object = objects.next();
+                if (!(object instanceof RevCommit)) {
+                    continue;
+                }
+                RevCommit commit = (RevCommit) object;
+                if (!reached.contains(commit.getId())) {
+                    readAhead.put(commit.getId(), commit);
+                }
+                for (ObjectId parentId : parents(commit)) {
+                    if (!parentId.isNull() && !reached.contains(parentId)
+                            && requested.add(parentId)) {
+                        nextLevel.add(parentId);
+                    }
+                }
+            }
+            if (readAhead.size() >= MAX_READ_AHEAD) {
+                // the ones not fetched will be requested again once their children are queued
+                requested.removeAll(nextLevel);
+                break;
+            }
+            level = nextLevel;
+        }
+    }
+
+    private static Set<ObjectId> concurrentSet() {
+        return Sets.newSetFromMap(new ConcurrentHashMap<ObjectId, Boolean>());
+    }
+
+    /**
+     * A queued commit; most recent first, in the order they were queued for the same timestamp
+     */
+    private static class Entry implements Comparable<Entry> {
+
+        private final RevCommit commit;
+
+        private final long timestamp;
+
+        private final long sequence;
+
+        Entry(RevCommit commit, long sequence) {
+            this.commit = commit;
+            this.timestamp = commit.getCommitter().getTimestamp();
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Entry o) {
+            if (timestamp != o.timestamp) {
+                return timestamp > o.timestamp ? -1 : 1;
+            }
+            return sequence < o.sequence ? -1 : (sequence == o.sequence ? 0 : 1);
+        }
+    }
+}
@@ -293,7 +293,7 @@ public class Index implements StagingArea {
     @Override
     public long countStaged(final @Nullable List<String> pathFilters) {
         Long count = commandLocator.command(DiffCount.class).setOldVersion(Ref.HEAD)
-                .setNewVersion(Ref.STAGE_HEAD).setReportTrees(true).setFilter(pathFilters).call();
+                .setNewVersion(Ref.STAGE_HEAD).setFilter(pathFilters).call();
 
         return count.longValue();
     }
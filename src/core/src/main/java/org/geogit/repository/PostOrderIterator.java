@@ -5,6 +5,7 @@
 package org.geogit.repository;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -80,6 +81,13 @@ public class PostOrderIterator extends AbstractIterator<RevObject> {
      */
     private final Successors successors;
 
+    /**
+     * Objects fetched in batch when their ids are enqueued, so that each level of the traversal is
+     * retrieved from the database with a single {@link ObjectDatabase#getAll(Iterable)} call
+     * instead of one look up per object. Entries are removed as soon as the objects are visited.
+     */
+    private final Map<ObjectId, RevObject> prefetched = new HashMap<ObjectId, RevObject>();
+
     /**
      * The single, private constructor for PostOrderIterator. Generally it will be more convenient
      * to use static factory methods which properly prepare a Successors capturing the traversal
@@ -114,18 +122,20 @@ public class PostOrderIterator extends AbstractIterator<RevObject> {
                     // We're building up a list of objects to visit, so add all the reachable
                     // objects from here to the front of the toVisit stack
                     final ObjectId id = currentList.get(0);
-                    final RevObject object = database.get(id);
+                    final RevObject object = load(id);
                     final List<ObjectId> next = new ArrayList<ObjectId>();
                     successors.findSuccessors(object, next);
+                    prefetch(next);
                     toVisit.add(0, next);
                 } else {
                     // We just visited a node, so switch back to enqueuing mode in order to make
                     // sure the successors of the next one at this depth are visited.
                     enqueue = true;
                     final ObjectId id = currentList.remove(0);
+                    final RevObject object = prefetched.remove(id);
 
                     if (successors.previsit(id)) {
-                        return database.get(id);
+                        return object == null ? database.get(id) : object;
                     }
                 }
             }
@@ -134,6 +144,25 @@ public class PostOrderIterator extends AbstractIterator<RevObject> {
         return endOfData();
     }
 
+    private RevObject load(final ObjectId id) {
+        RevObject object = prefetched.get(id);
+        if (object == null) {
+            object = database.get(id);
+        }
+        return object;
+    }
+
+    private void prefetch(final List<ObjectId> ids) {
+        if (ids.size() < 2) {
+            return;
+        }
+        Iterator<RevObject> objects = database.getAll(ids);
+        while (objects.hasNext()) {
+            RevObject object = objects.next();
+            prefetched.put(object.getId(), object);
+        }
+    }
+
     /**
      * The Successors interface defines a pluggable strategy for finding successors of (nodes
      * reachable from) a GeoGit history object. We follow a combinatorial approach in defining
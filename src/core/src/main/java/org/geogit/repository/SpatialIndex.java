@@ -0,0 +1,502 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.repository;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static org.geogit.api.RevTree.NORMALIZED_SIZE_LIMIT;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.Node;
+import org.geogit.api.NodeRef;
+import org.geogit.api.ObjectId;
+import org.geogit.api.Ref;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.RevTree;
+import org.geogit.api.RevTreeImpl;
+import org.geogit.api.plumbing.HashObject;
+import org.geogit.api.plumbing.diff.DepthTreeIterator;
+import org.geogit.api.plumbing.diff.DepthTreeIterator.Strategy;
+import org.geogit.api.plumbing.diff.DiffEntry;
+import org.geogit.api.plumbing.diff.DiffTreeWalk;
+import org.geogit.storage.ObjectDatabase;
+import org.geogit.storage.RefDatabase;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * A spatial index of the feature nodes directly held by a {@link RevTree tree}, used to find the
+ * ones whose bounds intersect a given envelope without traversing the whole tree, whose buckets
+ * are organized by feature name and hence can hardly be pruned by bounds.
+ * <p>
+ * The index is a quadtree over a fixed grid, each feature being assigned to the cell holding the
+ * center of its bounds. Cells holding more than {@link RevTree#NORMALIZED_SIZE_LIMIT} features
+ * are split in four, and every cell is the smallest one of the grid holding its features, so that
+ * the index of a given set of features is always the same no matter how it was built, and
+ * {@link #update(ObjectId, ObjectId) updating} it only rewrites the cells the changes fall in.
+ * <p>
+ * The index is stored as {@link RevTree} objects under their content ids: leaf cells hold the
+ * feature nodes, and inner cells hold a tree node per non empty child cell, named after it and
+ * bounded by its features. The root cell is held by a tree that's found through the
+ * {@code indexes/spatial/<tree id>} ref, see {@link #indexId(ObjectId)}. Features with no bounds
+ * are not indexed.
+ */
+public class SpatialIndex {
+
+    /**
+     * Lower left corner of the grid, the same on both axes
+     */
+    private static final double GRID_ORIGIN = -(1L << 31);
+
+    /**
+     * Depth of the smallest cells of the grid, which are {@code 2^-16} units wide
+     */
+    static final int MAX_LEVEL = 48;
+
+    /**
+     * Namespace of the refs from each indexed tree to its index
+     */
+    public static final String NAMESPACE = Ref.INDEXES_PREFIX + "spatial/";
+
+    private final ObjectDatabase db;
+
+    private final RefDatabase refs;
+
+    public SpatialIndex(final ObjectDatabase db, final RefDatabase refs) {
+        checkNotNull(db);
+        checkNotNull(refs);
+        this.db = db;
+        this.refs = refs;
+    }
+
+    /**
+     * @return the id of the object through which the index of the given tree is found, or
+     *         {@link Optional#absent() absent} if the tree has not been indexed
+     */
+    public Optional<ObjectId> indexId(final ObjectId treeId) {
+        final String value = refs.getRef(NAMESPACE + treeId);
+        if (value == null) {
+            return Optional.absent();
+        }
+        final ObjectId indexId = ObjectId.valueOf(value);
+        return db.exists(indexId) ? Optional.of(indexId) : Optional.<ObjectId> absent();
+    }
+
+    /**
+     * @return whether the given tree has been indexed
+     */
+    public boolean exists(final ObjectId treeId) {
+        return indexId(treeId).isPresent();
+    }
+
+    /**
+     * Indexes the features of the given tree
+     *
+     * @return the {@link #indexId(ObjectId) id} of the index
+     */
+    public ObjectId build(final RevTree tree) {
+        List<Item> items = Lists.newArrayList();
+        Iterator<NodeRef> features = new DepthTreeIterator("", ObjectId.NULL, tree, db,
+                Strategy.FEATURES_ONLY);
+        while (features.hasNext()) {
+            Item item = Item.of(features.next().getNode());
+            if (item != null) {
+                items.add(item);
+            }
+        }
+        return save(tree.getId(), build(items));
+    }
+
+    /**
+     * Indexes the features of {@code newTreeId} out of the index of {@code oldTreeId}, rewriting
+     * only the cells affected by the differences between both trees.
+     *
+     * @return the {@link #indexId(ObjectId) id} of the index
+     */
+    public ObjectId update(final ObjectId oldTreeId, final ObjectId newTreeId) {
+        final Optional<ObjectId> oldIndexId = indexId(oldTreeId);
+        checkArgument(oldIndexId.isPresent(), "tree %s has not been indexed", oldTreeId);
+        final RevTree oldIndex = db.getTree(oldIndexId.get());
+        Cell root = null;
+        if (oldIndex.trees().isPresent() && !oldIndex.trees().get().isEmpty()) {
+            root = Cell.of(oldIndex.trees().get().get(0));
+            root.size = oldIndex.size();
+        }
+
+        List<Item> adds = Lists.newArrayList();
+        List<Item> removes = Lists.newArrayList();
+        DiffTreeWalk diff = new DiffTreeWalk(db, db.getTree(oldTreeId), db.getTree(newTreeId));
+        for (Iterator<DiffEntry> it = diff.get(); it.hasNext();) {
+            DiffEntry entry = it.next();
+            NodeRef oldRef = entry.getOldObject();
+            NodeRef newRef = entry.getNewObject();
+            if (oldRef != null && isIndexed(oldRef)) {
+                Item item = Item.of(oldRef.getNode());
+                if (item != null) {
+                    removes.add(item);
+                }
+            }
+            if (newRef != null && isIndexed(newRef)) {
+                Item item = Item.of(newRef.getNode());
+                if (item != null) {
+                    adds.add(item);
+                }
+            }
+        }
+        return save(newTreeId, update(root, adds, removes));
+    }
+
+    private static boolean isIndexed(NodeRef ref) {
+        return TYPE.FEATURE.equals(ref.getType()) && ref.getParentPath().isEmpty();
+    }
+
+    /**
+     * @return the indexed features of the given tree whose bounds intersect {@code bounds}, or
+     *         {@link Optional#absent() absent} if the tree has no index
+     */
+    public Optional<Iterator<Node>> query(final ObjectId treeId, final Envelope bounds) {
+        final Optional<ObjectId> indexId = indexId(treeId);
+        if (!indexId.isPresent()) {
+            return Optional.absent();
+        }
+        Iterator<Node> nodes = new Query(db.getTree(indexId.get()), bounds);
+        return Optional.of(nodes);
+    }
+
+    /**
+     * Saves the tree holding the root cell and points the tree's index ref to it
+     */
+    private ObjectId save(final ObjectId treeId, @Nullable final Cell root) {
+        List<Node> trees = root == null ? ImmutableList.<Node> of() : ImmutableList
+                .of(root.node);
+        long size = root == null ? 0 : root.size;
+        RevTree unnamed = RevTreeImpl.createLeafTree(ObjectId.NULL, size,
+                ImmutableList.<Node> of(), trees);
+        ObjectId indexId = new HashObject().setObject(unnamed).call();
+        db.put(RevTreeImpl.createLeafTree(indexId, size, ImmutableList.<Node> of(), trees));
+        refs.putRef(NAMESPACE + treeId, indexId.toString());
+        return indexId;
+    }
+
+    /**
+     * Builds the index cell for the given features
+     */
+    @Nullable
+    private Cell build(final List<Item> items) {
+        if (items.isEmpty()) {
+            return null;
+        }
+        final Cell cell = Cell.of(items);
+        final RevTree unnamedTree;
+        if (items.size() <= NORMALIZED_SIZE_LIMIT || cell.level == MAX_LEVEL) {
+            List<Node> features = Lists.newArrayListWithCapacity(items.size());
+            for (Item item : items) {
+                features.add(item.node);
+            }
+            unnamedTree = RevTreeImpl.createLeafTree(ObjectId.NULL, features.size(), features,
+                    ImmutableList.<Node> of());
+        } else {
+            List<List<Item>> quadrants = cell.split(items);
+            List<Cell> children = Lists.newArrayListWithCapacity(4);
+            for (List<Item> quadrant : quadrants) {
+                Cell child = build(quadrant);
+                if (child != null) {
+                    children.add(child);
+                }
+            }
+            unnamedTree = innerTree(items.size(), children);
+        }
+        return cell.save(unnamedTree, db);
+    }
+
+    /**
+     * Applies the changes to the given cell
+     *
+     * @param cell the cell to update, {@code null} if there's none yet
+     * @return the updated cell, or {@code null} if it's left empty
+     */
+    @Nullable
+    private Cell update(@Nullable final Cell cell, final List<Item> adds,
+            final List<Item> removes) {
+        if (cell == null) {
+            return build(adds);
+        }
+        if (adds.isEmpty() && removes.isEmpty()) {
+            return cell;
+        }
+        final RevTree tree = db.getTree(cell.node.getObjectId());
+        cell.size = tree.size();
+        if (!tree.trees().isPresent() || tree.trees().get().isEmpty()) {
+            // a leaf cell, small enough to be rebuilt
+            Map<String, Item> items = Maps.newLinkedHashMap();
+            for (Item item : Item.all(tree)) {
+                items.put(item.node.getName(), item);
+            }
+            for (Item item : removes) {
+                items.remove(item.node.getName());
+            }
+            for (Item item : adds) {
+                items.put(item.node.getName(), item);
+            }
+            return build(Lists.newArrayList(items.values()));
+        }
+
+        // the features added out of this cell make it a child of a bigger one
+        Cell enclosing = cell;
+        for (Item item : adds) {
+            enclosing = enclosing.enclosing(item);
+        }
+        final Cell[] children = new Cell[4];
+        if (enclosing == cell) {
+            for (Node child : tree.trees().get()) {
+                Cell childCell = Cell.of(child);
+                childCell.size = sizeOf(child);
+                children[cell.quadrant(childCell)] = childCell;
+            }
+        } else {
+            children[enclosing.quadrant(cell)] = cell;
+        }
+
+        final List<List<Item>> quadrantAdds = enclosing.split(adds);
+        final List<List<Item>> quadrantRemoves = enclosing.split(removes);
+        List<Cell> updated = Lists.newArrayListWithCapacity(4);
+        long size = 0;
+        for (int q = 0; q < 4; q++) {
+            Cell child = update(children[q], quadrantAdds.get(q), quadrantRemoves.get(q));
+            if (child != null) {
+                updated.add(child);
+                size += child.size;
+            }
+        }
+        if (updated.isEmpty()) {
+            return null;
+        }
+        if (updated.size() == 1) {
+            // the only child is the smallest cell holding all the features
+            return updated.get(0);
+        }
+        if (size <= NORMALIZED_SIZE_LIMIT) {
+            List<Item> items = Lists.newArrayList();
+            for (Cell child : updated) {
+                collect(db.getTree(child.node.getObjectId()), items);
+            }
+            return build(items);
+        }
+        return enclosing.save(innerTree(size, updated), db);
+    }
+
+    private long sizeOf(Node cellNode) {
+        return db.getTree(cellNode.getObjectId()).size();
+    }
+
+    private void collect(RevTree cellTree, List<Item> target) {
+        if (cellTree.trees().isPresent() && !cellTree.trees().get().isEmpty()) {
+            for (Node child : cellTree.trees().get()) {
+                collect(db.getTree(child.getObjectId()), target);
+            }
+        } else {
+            target.addAll(Item.all(cellTree));
+        }
+    }
+
+    private static RevTree innerTree(final long size, final List<Cell> children) {
+        List<Node> trees = Lists.newArrayListWithCapacity(children.size());
+        for (Cell child : children) {
+            trees.add(child.node);
+        }
+        return RevTreeImpl.createLeafTree(ObjectId.NULL, size, ImmutableList.<Node> of(), trees);
+    }
+
+    /**
+     * A feature node and the grid coordinates of the center of its bounds at {@link #MAX_LEVEL}
+     */
+    private static final class Item {
+
+        final Node node;
+
+        final long x;
+
+        final long y;
+
+        private Item(Node node, long x, long y) {
+            this.node = node;
+            this.x = x;
+            this.y = y;
+        }
+
+        @Nullable
+        static Item of(final Node node) {
+            Envelope bounds = new Envelope();
+            node.expand(bounds);
+            if (bounds.isNull()) {
+                return null;
+            }
+            return new Item(node, grid(bounds.centre().x), grid(bounds.centre().y));
+        }
+
+        static List<Item> all(RevTree leafCell) {
+            List<Item> items = Lists.newArrayList();
+            for (Node node : leafCell.features().or(ImmutableList.<Node> of())) {
+                items.add(of(node));
+            }
+            return items;
+        }
+
+        private static long grid(final double ordinate) {
+            final double scaled = Math.scalb(ordinate - GRID_ORIGIN, MAX_LEVEL - 32);
+            final long max = (1L << MAX_LEVEL) - 1;
+            if (!(scaled > 0)) {
+                return 0;
+            }
+            return scaled >= max ? max : (long) scaled;
+        }
+    }
+
+    /**
+     * A grid cell at a given level, and the node that references its tree once saved
+     */
+    private static final class Cell {
+
+        final int level;
+
+        final long x;
+
+        final long y;
+
+        Node node;
+
+        long size;
+
+        Cell(int level, long x, long y) {
+            this.level = level;
+            this.x = x;
+            this.y = y;
+        }
+
+        /**
+         * @return the smallest cell holding all the items
+         */
+        static Cell of(List<Item> items) {
+            final Item first = items.get(0);
+            long diff = 0;
+            for (Item item : items) {
+                diff |= (item.x ^ first.x) | (item.y ^ first.y);
+            }
+            final int shift = 64 - Long.numberOfLeadingZeros(diff);
+            return new Cell(MAX_LEVEL - shift, first.x >>> shift, first.y >>> shift);
+        }
+
+        /**
+         * Parses the cell out of the name of the node referencing it
+         */
+        static Cell of(Node cellNode) {
+            String[] parts = cellNode.getName().split("_");
+            checkArgument(parts.length == 3, "Not a spatial index cell: %s", cellNode.getName());
+            Cell cell = new Cell(Integer.parseInt(parts[0]), Long.parseLong(parts[1]),
+                    Long.parseLong(parts[2]));
+            cell.node = cellNode;
+            return cell;
+        }
+
+        /**
+         * @return the smallest cell holding both this cell and the item
+         */
+        Cell enclosing(Item item) {
+            final int levelShift = MAX_LEVEL - level;
+            final long diff = ((x << levelShift) ^ item.x) | ((y << levelShift) ^ item.y);
+            final int shift = Math.max(levelShift, 64 - Long.numberOfLeadingZeros(diff));
+            if (shift == levelShift) {
+                return this;
+            }
+            return new Cell(MAX_LEVEL - shift, item.x >>> shift, item.y >>> shift);
+        }
+
+        /**
+         * @return the quadrant of this cell that holds the given, smaller, cell
+         */
+        int quadrant(Cell child) {
+            final int shift = child.level - level - 1;
+            return (int) (((child.x >>> shift) & 1) | (((child.y >>> shift) & 1) << 1));
+        }
+
+        /**
+         * Splits the items held by this cell among its quadrants, ignoring any other item
+         */
+        List<List<Item>> split(List<Item> items) {
+            List<List<Item>> quadrants = Lists.newArrayListWithCapacity(4);
+            for (int q = 0; q < 4; q++) {
+                quadrants.add(Lists.<Item> newArrayList());
+            }
+            final int shift = MAX_LEVEL - level - 1;
+            for (Item item : items) {
+                if ((item.x >>> (shift + 1)) != x || (item.y >>> (shift + 1)) != y) {
+                    continue;
+                }
+                int q = (int) (((item.x >>> shift) & 1) | (((item.y >>> shift) & 1) << 1));
+                quadrants.get(q).add(item);
+            }
+            return quadrants;
+        }
+
+        Cell save(RevTree unnamedTree, ObjectDatabase db) {
+            ObjectId id = new HashObject().setObject(unnamedTree).call();
+            final ImmutableList<Node> none = ImmutableList.of();
+            RevTree tree = RevTreeImpl.createLeafTree(id, unnamedTree.size(), unnamedTree
+                    .features().or(none), unnamedTree.trees().or(none));
+            db.put(tree);
+            this.size = tree.size();
+            this.node = Node.create(level + "_" + x + "_" + y, id, ObjectId.NULL, TYPE.TREE,
+                    SpatialOps.boundsOf(tree));
+            return this;
+        }
+    }
+
+    /**
+     * Depth first traversal of the index cells intersecting the query bounds
+     */
+    private class Query extends AbstractIterator<Node> {
+
+        private final Envelope bounds;
+
+        private final LinkedList<Iterator<Node>> stack = Lists.newLinkedList();
+
+        Query(RevTree index, Envelope bounds) {
+            this.bounds = bounds;
+            stack.push(index.children());
+        }
+
+        @Override
+        protected Node computeNext() {
+            while (!stack.isEmpty()) {
+                Iterator<Node> nodes = stack.peek();
+                if (!nodes.hasNext()) {
+                    stack.pop();
+                    continue;
+                }
+                Node node = nodes.next();
+                if (!node.intersects(bounds)) {
+                    continue;
+                }
+                if (TYPE.TREE.equals(node.getType())) {
+                    stack.push(db.getTree(node.getObjectId()).children());
+                } else {
+                    return node;
+                }
+            }
+            return endOfData();
+        }
+    }
+}
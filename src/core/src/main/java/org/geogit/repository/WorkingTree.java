@@ -13,6 +13,7 @@ import java.util.Map;
 
 import javax.annotation.Nullable;
 
+import org.geogit.api.BulkTreeBuilder;
 import org.geogit.api.CommandLocator;
 import org.geogit.api.FeatureBuilder;
 import org.geogit.api.Node;
@@ -37,6 +38,7 @@ import org.geogit.api.plumbing.RevObjectParse;
 import org.geogit.api.plumbing.UpdateRef;
 import org.geogit.api.plumbing.WriteBack;
 import org.geogit.api.plumbing.diff.DiffEntry;
+import org.geogit.storage.PerformanceSettings;
 import org.geogit.storage.StagingDatabase;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.opengis.feature.Feature;
@@ -83,12 +85,17 @@ public class WorkingTree {
 
     private CommandLocator commandLocator;
 
+    private PerformanceSettings settings;
+
     @Inject
-    public WorkingTree(final StagingDatabase indexDb, final CommandLocator commandLocator) {
+    public WorkingTree(final StagingDatabase indexDb, final CommandLocator commandLocator,
+            final PerformanceSettings settings) {
         Preconditions.checkNotNull(indexDb);
         Preconditions.checkNotNull(commandLocator);
+        Preconditions.checkNotNull(settings);
         this.indexDatabase = indexDb;
         this.commandLocator = commandLocator;
+        this.settings = settings;
     }
 
     /**
@@ -309,7 +316,9 @@ public class WorkingTree {
             } else {
                 parentTree = commandLocator.command(FindOrCreateSubtree.class).setIndex(true)
                         .setParent(Suppliers.ofInstance(Optional.of(currentWorkHead)))
-                        .setChildPath(parentPath).call().builder(indexDatabase);
+                        .setChildPath(parentPath).call().builder(indexDatabase)
+                        .spillToDisk(settings.treeMaxChangesInMemory(), null)
+                        .setParallelism(settings.treeParallelism());
                 parents.put(parentPath, parentTree);
             }
             String featureName = NodeRef.nodeFromPath(featurePath);
@@ -445,14 +454,25 @@ public class WorkingTree {
         final Integer size = collectionSize == null || collectionSize.intValue() < 1 ? null
                 : collectionSize.intValue();
 
-        RevTreeBuilder parentTree = commandLocator.command(FindOrCreateSubtree.class)
+        final RevTree typeTree = commandLocator.command(FindOrCreateSubtree.class)
                 .setIndex(true).setParent(Suppliers.ofInstance(Optional.of(getTree())))
-                .setChildPath(treePath).call().builder(indexDatabase);
-
-        putInDatabase(treePath, features, listener, size, insertedTarget, parentTree,
-                treeRef.getMetadataId());
-
-        RevTree newTypeTree = parentTree.build();
+                .setChildPath(treePath).call();
+
+        final RevTree newTypeTree;
+        if (typeTree.isEmpty()) {
+            // nothing to merge with, build the whole tree at once
+            BulkTreeBuilder bulkTree = new BulkTreeBuilder(indexDatabase);
+            putInDatabase(treePath, features, listener, size, insertedTarget, null, bulkTree,
+                    treeRef.getMetadataId());
+            newTypeTree = bulkTree.build();
+        } else {
+            RevTreeBuilder parentTree = typeTree.builder(indexDatabase)
+                    .spillToDisk(settings.treeMaxChangesInMemory(), null)
+                    .setParallelism(settings.treeParallelism());
+            putInDatabase(treePath, features, listener, size, insertedTarget, parentTree, null,
+                    treeRef.getMetadataId());
+            newTypeTree = parentTree.build();
+        }
         ObjectId newTree = commandLocator.command(WriteBack.class).setAncestor(getTreeSupplier())
                 .setChildPath(treePath).setMetadataId(treeRef.getMetadataId()).setToIndex(true)
                 .setTree(newTypeTree).call();
@@ -563,16 +583,22 @@ public class WorkingTree {
      * @param progress the {@link ProgressListener} for this process
      * @param size number of features to add
      * @param target if specified, created {@link Node}s will be added to the list
+     * @param parentTree the builder to add the created {@link Node}s to, if {@code bulkTree} is
+     *        not given
+     * @param bulkTree the builder to add the created {@link Node}s to, if {@code parentTree} is
+     *        not given
      * @param defaultMetadataId
      */
     private void putInDatabase(final String parentTreePath,
             final Iterator<? extends Feature> objects, final ProgressListener progress,
             final @Nullable Integer size, @Nullable final List<Node> target,
-            final RevTreeBuilder parentTree, ObjectId defaultMetadataId) {
+            @Nullable final RevTreeBuilder parentTree, @Nullable final BulkTreeBuilder bulkTree,
+            ObjectId defaultMetadataId) {
 
         checkNotNull(objects);
         checkNotNull(progress);
-        checkNotNull(parentTree);
+        checkArgument(parentTree == null ^ bulkTree == null,
+                "exactly one of parentTree and bulkTree shall be given");
 
         Feature feature;
         int count = 0;
@@ -606,7 +632,11 @@ public class WorkingTree {
 
             final Node objectRef = putInDatabase(feature,
                     defaultMetadataId.equals(revFeatureTypeId) ? ObjectId.NULL : revFeatureTypeId);
-            parentTree.put(objectRef);
+            if (parentTree == null) {
+                bulkTree.put(objectRef);
+            } else {
+                parentTree.put(objectRef);
+            }
             if (target != null) {
                 target.add(objectRef);
             }
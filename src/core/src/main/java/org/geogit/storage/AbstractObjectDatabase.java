@@ -4,12 +4,17 @@
  */
 package org.geogit.storage;
 
-import java.io.ByteArrayOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import javax.annotation.Nullable;
 
@@ -22,9 +27,11 @@ import org.geogit.api.RevObject.TYPE;
 import org.geogit.api.RevTag;
 import org.geogit.api.RevTree;
 
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
-import com.google.common.io.ByteStreams;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Sets;
 import com.google.common.io.Closeables;
 import com.ning.compress.lzf.LZFInputStream;
 import com.ning.compress.lzf.LZFOutputStream;
@@ -36,13 +43,216 @@ import com.ning.compress.lzf.LZFOutputStream;
  */
 public abstract class AbstractObjectDatabase implements ObjectDatabase {
 
+    /**
+     * Number of objects fetched at once by the batched operations ({@link #getAll(Iterable)},
+     * {@link #existsAll(Iterable)}) of subclasses that support them.
+     */
+    protected static final int BATCH_SIZE = 1000;
+
+    /**
+     * A bloom filter is rebuilt larger when its expected false positive probability exceeds this
+     * value
+     */
+    private static final double MAX_BLOOM_FILTER_FPP = 0.05;
+
     protected ObjectSerializingFactory serializationFactory;
 
+    /**
+     * Filter over the ids of the stored objects, {@code null} if the subclass doesn't maintain one
+     */
+    @Nullable
+    private volatile ObjectIdBloomFilter bloomFilter;
+
+    @Nullable
+    private File bloomFilterFile;
+
+    @Nullable
+    private BloomFilterLock bloomFilterLock;
+
+    /**
+     * Held for reading while objects are being written, and for writing while the bloom filter is
+     * rebuilt, so that no object added to the old filter is missing from the new one
+     */
+    private final ReadWriteLock writeLock = new ReentrantReadWriteLock();
+
     public AbstractObjectDatabase(final ObjectSerializingFactory serializationFactory) {
         Preconditions.checkNotNull(serializationFactory);
         this.serializationFactory = serializationFactory;
     }
 
+    /**
+     * @return the bloom filter over the ids of the objects in this database, if the database
+     *         maintains one
+     */
+    public Optional<ObjectIdBloomFilter> getBloomFilter() {
+        return Optional.fromNullable(bloomFilter);
+    }
+
+    /**
+     * Loads the bloom filter saved to {@code file} by {@link #closeBloomFilter()}, or builds it
+     * out of a full scan of the database if there's none, it got too saturated, or it can't be
+     * trusted.
+     * <p>
+     * A filter is only used while this instance is the only one with the database open, among all
+     * processes, since it would miss the objects written by others; see {@link BloomFilterLock}.
+     * The saved filter is only trusted if no other instance opened the database since it was
+     * saved, which also rules out one left behind by a process that died before closing the
+     * database.
+     * <p>
+     * Subclasses calling this method shall implement {@link #scanIds(ObjectIdBloomFilter)}, add
+     * each object to the filter through {@link #bloomFilterAdd(ObjectId)} <em>before</em> writing
+     * it, and write objects between {@link #beginWrite()} and {@link #endWrite()} unless through
+     * the methods of this class that already do.
+     */
+    protected void openBloomFilter(final File file) {
+        final BloomFilterLock lock = BloomFilterLock.acquire(file);
+        this.bloomFilterLock = lock;
+        this.bloomFilterFile = file;
+        if (!lock.isOwner()) {
+            this.bloomFilter = null;
+            return;
+        }
+        ObjectIdBloomFilter filter = null;
+        if (file.exists() && lock.isSavedFilterValid()) {
+            try {
+                filter = ObjectIdBloomFilter.load(file);
+            } catch (IOException e) {
+                // unreadable or from an incompatible version, rebuild it
+                filter = null;
+            }
+        }
+        if (filter == null || filter.expectedFpp() > MAX_BLOOM_FILTER_FPP) {
+            long expected = filter == null ? ObjectIdBloomFilter.DEFAULT_EXPECTED_INSERTIONS
+                    : 2 * filter.insertions();
+            filter = buildBloomFilter(expected);
+        }
+        this.bloomFilter = filter;
+    }
+
+    /**
+     * Saves the bloom filter to the file given to {@link #openBloomFilter(File)}, if it can still
+     * be trusted, and stops using it.
+     */
+    protected void closeBloomFilter() {
+        final ObjectIdBloomFilter filter = this.bloomFilter;
+        final File file = this.bloomFilterFile;
+        final BloomFilterLock lock = this.bloomFilterLock;
+        this.bloomFilter = null;
+        this.bloomFilterFile = null;
+        this.bloomFilterLock = null;
+        if (lock == null) {
+            return;
+        }
+        try {
+            if (filter != null && lock.isValid()) {
+                filter.save(file);
+                lock.filterSaved();
+            }
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        } finally {
+            lock.release();
+        }
+    }
+
+    /**
+     * Discards the current bloom filter and builds a new one out of a full scan of the database,
+     * sized for the number of objects found. Objects can't be written meanwhile.
+     */
+    public void rebuildBloomFilter() {
+        writeLock.writeLock().lock();
+        try {
+            final ObjectIdBloomFilter current = this.bloomFilter;
+            Preconditions.checkState(current != null, "database does not use a bloom filter");
+            this.bloomFilter = buildBloomFilter(Math.max(
+                    ObjectIdBloomFilter.DEFAULT_EXPECTED_INSERTIONS, 2 * current.insertions()));
+        } finally {
+            writeLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return the new filter, or {@code null} if the ids can't be scanned
+     */
+    @Nullable
+    private ObjectIdBloomFilter buildBloomFilter(long expectedInsertions) {
+        ObjectIdBloomFilter filter = ObjectIdBloomFilter.create(expectedInsertions);
+        if (!scanIds(filter)) {
+            return null;
+        }
+        if (filter.expectedFpp() > MAX_BLOOM_FILTER_FPP) {
+            // now we know how many objects there are
+            filter = ObjectIdBloomFilter.create(2 * filter.insertions());
+            scanIds(filter);
+        }
+        return filter;
+    }
+
+    /**
+     * Adds the ids of all the objects in the database to the given filter. Subclasses that use a
+     * bloom filter shall override, this default implementation adds nothing and returns
+     * {@code false} so that no filter is used.
+     *
+     * @return whether the ids were scanned
+     */
+    protected boolean scanIds(ObjectIdBloomFilter filter) {
+        return false;
+    }
+
+    /**
+     * Marks the beginning of a write, shall be followed by {@link #endWrite()} once the written
+     * objects are visible to {@link #scanIds(ObjectIdBloomFilter)}.
+     */
+    protected void beginWrite() {
+        writeLock.readLock().lock();
+    }
+
+    /**
+     * Marks the end of a write started with {@link #beginWrite()}.
+     */
+    protected void endWrite() {
+        writeLock.readLock().unlock();
+    }
+
+    /**
+     * @return {@code false} if the object is definitely not in the database, {@code true} if it
+     *         might be or there's no bloom filter in use
+     */
+    protected boolean mightContain(final ObjectId id) {
+        final ObjectIdBloomFilter filter = this.bloomFilter;
+        if (filter == null || filter.mightContain(id)) {
+            return true;
+        }
+        final BloomFilterLock lock = this.bloomFilterLock;
+        if (lock != null && !lock.isValid()) {
+            // someone else opened the database and may have written objects the filter misses
+            this.bloomFilter = null;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Records that an object for which {@link #mightContain(ObjectId)} returned {@code true} was
+     * not found.
+     */
+    protected void bloomFilterMiss() {
+        final ObjectIdBloomFilter filter = this.bloomFilter;
+        if (filter != null) {
+            filter.falsePositive();
+        }
+    }
+
+    /**
+     * Adds the id to the bloom filter, if in use.
+     */
+    protected void bloomFilterAdd(final ObjectId id) {
+        final ObjectIdBloomFilter filter = this.bloomFilter;
+        if (filter != null) {
+            filter.put(id);
+        }
+    }
+
     /**
      * Searches the database for {@link ObjectId}s that match the given partial id.
      * 
@@ -135,6 +345,11 @@ public abstract class AbstractObjectDatabase implements ObjectDatabase {
         if (null == raw) {
             return null;
         }
+        return read(id, raw, reader);
+    }
+
+    private <T extends RevObject> T read(final ObjectId id, final InputStream raw,
+            final ObjectReader<T> reader) {
         T object;
         try {
             object = reader.read(id, raw);
@@ -147,6 +362,63 @@ public abstract class AbstractObjectDatabase implements ObjectDatabase {
         return object;
     }
 
+    /**
+     * Parses an object out of its stored representation, as given to
+     * {@link #putInternal(ObjectId, byte[])}.
+     * 
+     * @param id the id of the object
+     * @param rawData the compressed object contents
+     * @return the parsed object
+     */
+    protected RevObject readObject(final ObjectId id, final byte[] rawData) {
+        InputStream raw;
+        try {
+            raw = new LZFInputStream(new ByteArrayInputStream(rawData));
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        return read(id, raw, serializationFactory.createObjectReader());
+    }
+
+    /**
+     * This default implementation looks up each object through {@link #getIfPresent(ObjectId)} as
+     * the returned iterator is traversed; subclasses may override if they can fetch several
+     * objects at once more efficiently.
+     */
+    @Override
+    public Iterator<RevObject> getAll(final Iterable<ObjectId> ids) {
+        Preconditions.checkNotNull(ids, "ids");
+        final Iterator<ObjectId> idIterator = ids.iterator();
+        return new AbstractIterator<RevObject>() {
+            @Override
+            protected RevObject computeNext() {
+                while (idIterator.hasNext()) {
+                    RevObject object = getIfPresent(idIterator.next());
+                    if (object != null) {
+                        return object;
+                    }
+                }
+                return endOfData();
+            }
+        };
+    }
+
+    /**
+     * This default implementation calls {@link #exists(ObjectId)} for each id; subclasses may
+     * override if appropriate.
+     */
+    @Override
+    public Set<ObjectId> existsAll(final Iterable<ObjectId> ids) {
+        Preconditions.checkNotNull(ids, "ids");
+        Set<ObjectId> existing = Sets.newHashSet();
+        for (ObjectId id : ids) {
+            if (exists(id)) {
+                existing.add(id);
+            }
+        }
+        return existing;
+    }
+
     @Override
     public RevTree getTree(ObjectId id) {
         return get(id, RevTree.class);
@@ -191,6 +463,9 @@ public abstract class AbstractObjectDatabase implements ObjectDatabase {
     @Nullable
     private InputStream getRaw(final ObjectId id, boolean failIfNotFound)
             throws IllegalArgumentException {
+        if (!failIfNotFound && !mightContain(id)) {
+            return null;
+        }
         InputStream in = getRawInternal(id, failIfNotFound);
         if (null == in) {
             return null;
@@ -211,20 +486,18 @@ public abstract class AbstractObjectDatabase implements ObjectDatabase {
         Preconditions.checkNotNull(raw);
         Preconditions.checkArgument(!objectId.isNull(), "ObjectId is NULL");
 
-        ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
-        LZFOutputStream cOut = new LZFOutputStream(rawOut);
-
+        CompressedObjectBuffer buffer = CompressedObjectBuffer.acquire();
         try {
-            ByteStreams.copy(raw, cOut);
-            cOut.flush();
-            cOut.close();
-        } catch (IOException e) {
-            throw Throwables.propagate(e);
+            buffer.encode(raw);
+            beginWrite();
+            try {
+                return putInternal(objectId, buffer.buffer(), 0, buffer.length());
+            } finally {
+                endWrite();
+            }
+        } finally {
+            buffer.release();
         }
-
-        final byte[] rawData = rawOut.toByteArray();
-        final boolean inserted = putInternal(objectId, rawData);
-        return inserted;
     }
 
     @Override
@@ -232,34 +505,51 @@ public abstract class AbstractObjectDatabase implements ObjectDatabase {
         Preconditions.checkNotNull(object);
         Preconditions.checkArgument(!object.getId().isNull(), "ObjectId is NULL %s", object);
 
-        ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
-        writeObject(object, rawOut);
-        final ObjectId id = object.getId();
-        final byte[] rawData = rawOut.toByteArray();
-        final boolean inserted = putInternal(id, rawData);
-        return inserted;
+        CompressedObjectBuffer buffer = CompressedObjectBuffer.acquire();
+        try {
+            encode(object, buffer);
+            beginWrite();
+            try {
+                return putInternal(object.getId(), buffer.buffer(), 0, buffer.length());
+            } finally {
+                endWrite();
+            }
+        } finally {
+            buffer.release();
+        }
     }
 
     /**
-     * This default implementation calls {@link #putInternal(ObjectId, byte[])} for each object;
-     * subclasses may override if appropriate.
+     * This default implementation calls {@link #putInternal(ObjectId, byte[], int, int)} for each
+     * object; subclasses may override if appropriate.
      */
     @Override
     public void putAll(Iterator<? extends RevObject> objects) {
-
-        ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
-        while (objects.hasNext()) {
-            RevObject object = objects.next();
-            rawOut.reset();
-
-            writeObject(object, rawOut);
-            final byte[] rawData = rawOut.toByteArray();
-
-            final ObjectId id = object.getId();
-            putInternal(id, rawData);
+        CompressedObjectBuffer buffer = CompressedObjectBuffer.acquire();
+        try {
+            while (objects.hasNext()) {
+                RevObject object = objects.next();
+                encode(object, buffer);
+                beginWrite();
+                try {
+                    putInternal(object.getId(), buffer.buffer(), 0, buffer.length());
+                } finally {
+                    endWrite();
+                }
+            }
+        } finally {
+            buffer.release();
         }
     }
 
+    /**
+     * Serializes and compresses {@code object} into {@code buffer}, replacing its contents.
+     */
+    protected void encode(RevObject object, CompressedObjectBuffer buffer) {
+        ObjectWriter<RevObject> writer = serializationFactory.createObjectWriter(object.getType());
+        buffer.encode(object, writer);
+    }
+
     protected void writeObject(RevObject object, OutputStream target) {
 
         ObjectWriter<RevObject> writer = serializationFactory.createObjectWriter(object.getType());
@@ -284,6 +574,20 @@ public abstract class AbstractObjectDatabase implements ObjectDatabase {
      */
     protected abstract boolean putInternal(ObjectId id, byte[] rawData);
 
+    /**
+     * Stores {@code length} bytes of {@code buffer} starting at {@code offset} as the raw data for
+     * the given id <em>only if it does not exist</em> already, and returns whether the object was
+     * actually inserted.
+     * <p>
+     * The buffer is reused once this method returns, so implementations that hold on to the data
+     * shall copy it. This default implementation copies the slice and calls
+     * {@link #putInternal(ObjectId, byte[])}; subclasses that can write straight out of the buffer
+     * should override.
+     */
+    protected boolean putInternal(ObjectId id, byte[] buffer, int offset, int length) {
+        return putInternal(id, Arrays.copyOfRange(buffer, offset, offset + length));
+    }
+
     /**
      * @return a newly constructed {@link ObjectInserter} for this database
      * @see org.geogit.storage.ObjectDatabase#newObjectInserter()
@@ -0,0 +1,251 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.FileLock;
+import java.util.Map;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.Maps;
+import com.google.common.io.Closeables;
+
+/**
+ * Decides whether a database instance can trust its {@link ObjectIdBloomFilter}, that is, whether
+ * it's the only one that may write objects to the database, as a filter that misses objects
+ * written by someone else would report them as not stored.
+ * <p>
+ * The first instance to open a database, among all processes and within this JVM, becomes its
+ * <i>owner</i> and may use a filter; the instances opened while it's open don't use one. Each
+ * instance increments a counter in the {@code <filter file>.lock} file when it opens the database,
+ * so the owner finds out that someone else may be writing objects as soon as the counter changes,
+ * and stops trusting its filter. The counter is memory mapped, so checking it costs no I/O.
+ * <p>
+ * The lock file also records the value of the counter when the filter file was last saved, so
+ * that a filter file is only trusted if no other instance opened the database since, and not
+ * after a crash, as the crashed owner had incremented the counter too.
+ * <p>
+ * File locks are used to tell whether other processes have the database open, and to serialize
+ * the updates of the counter: the owner holds {@link #OWNER_REGION}, every other process holds
+ * {@link #SHARED_REGION} shared, and {@link #UPDATE_REGION} is held while updating the counters.
+ * Since file locks are held on behalf of the whole JVM, instances within this JVM are tracked in a
+ * static registry instead.
+ */
+final class BloomFilterLock {
+
+    private static final int COUNTER_OFFSET = 0;
+
+    private static final int SAVED_OFFSET = 8;
+
+    private static final int DATA_LENGTH = 16;
+
+    private static final long OWNER_REGION = DATA_LENGTH;
+
+    private static final long SHARED_REGION = DATA_LENGTH + 1;
+
+    private static final long UPDATE_REGION = DATA_LENGTH + 2;
+
+    /**
+     * The lock files in use in this JVM
+     */
+    private static final Map<File, LockFile> OPEN = Maps.newHashMap();
+
+    private final LockFile lockFile;
+
+    private final boolean owner;
+
+    /**
+     * The value of the counter after this instance incremented it
+     */
+    private final long generation;
+
+    private final boolean savedFilterValid;
+
+    private BloomFilterLock(LockFile lockFile, boolean owner, long generation,
+            boolean savedFilterValid) {
+        this.lockFile = lockFile;
+        this.owner = owner;
+        this.generation = generation;
+        this.savedFilterValid = savedFilterValid;
+    }
+
+    /**
+     * Registers a database instance using the filter saved to or to be saved to the given file.
+     */
+    public static BloomFilterLock acquire(final File filterFile) {
+        synchronized (OPEN) {
+            LockFile lockFile = null;
+            try {
+                final File file = new File(filterFile.getParentFile(), filterFile.getName()
+                        + ".lock").getCanonicalFile();
+                lockFile = OPEN.get(file);
+                if (lockFile == null) {
+                    lockFile = new LockFile(file);
+                    OPEN.put(file, lockFile);
+                }
+                lockFile.sessions++;
+                if (lockFile.sessions == 1) {
+                    FileLock ownerLock = lockFile.channel.tryLock(OWNER_REGION, 1, false);
+                    if (ownerLock != null) {
+                        // incremented before looking for other processes, so that any process
+                        // that opened the database after the check increments it again
+                        final long saved = lockFile.get(SAVED_OFFSET);
+                        final long previous = lockFile.increment();
+                        FileLock probe = lockFile.channel.tryLock(SHARED_REGION, 1, false);
+                        if (probe != null) {
+                            probe.release();
+                            lockFile.ownerLock = ownerLock;
+                            return new BloomFilterLock(lockFile, true, previous + 1,
+                                    saved == previous);
+                        }
+                        ownerLock.release();
+                    }
+                }
+                if (lockFile.sharedLock == null) {
+                    lockFile.sharedLock = lockFile.channel.lock(SHARED_REGION, 1, true);
+                }
+                lockFile.nonOwners++;
+                final long previous = lockFile.increment();
+                return new BloomFilterLock(lockFile, false, previous + 1, false);
+            } catch (IOException e) {
+                if (lockFile != null) {
+                    lockFile.sessions--;
+                    lockFile.closeIfUnused();
+                }
+                throw Throwables.propagate(e);
+            }
+        }
+    }
+
+    /**
+     * @return {@code true} if this instance may use a bloom filter
+     */
+    public boolean isOwner() {
+        return owner;
+    }
+
+    /**
+     * @return {@code true} if the saved filter file can be trusted by the owner, as no other
+     *         instance opened the database since it was saved
+     */
+    public boolean isSavedFilterValid() {
+        return savedFilterValid;
+    }
+
+    /**
+     * @return {@code true} if this instance is the owner and no other instance opened the database
+     *         since it did
+     */
+    public boolean isValid() {
+        return owner && lockFile.get(COUNTER_OFFSET) == generation;
+    }
+
+    /**
+     * Records that the owner saved a filter that can be trusted the next time the database is
+     * opened, if no other instance opens it in the meantime.
+     */
+    public void filterSaved() {
+        synchronized (OPEN) {
+            try {
+                FileLock update = lockFile.channel.lock(UPDATE_REGION, 1, false);
+                try {
+                    lockFile.counters.putLong(SAVED_OFFSET, generation);
+                    lockFile.counters.force();
+                } finally {
+                    update.release();
+                }
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+    }
+
+    /**
+     * Unregisters the database instance.
+     */
+    public void release() {
+        synchronized (OPEN) {
+            try {
+                if (owner) {
+                    lockFile.ownerLock.release();
+                    lockFile.ownerLock = null;
+                } else if (--lockFile.nonOwners == 0) {
+                    lockFile.sharedLock.release();
+                    lockFile.sharedLock = null;
+                }
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            } finally {
+                lockFile.sessions--;
+                lockFile.closeIfUnused();
+            }
+        }
+    }
+
+    /**
+     * A lock file and the locks held on it by this JVM
+     */
+    private static class LockFile {
+
+        private final File file;
+
+        private final RandomAccessFile raf;
+
+        private final FileChannel channel;
+
+        private final MappedByteBuffer counters;
+
+        private int sessions;
+
+        private int nonOwners;
+
+        private FileLock ownerLock;
+
+        private FileLock sharedLock;
+
+        LockFile(File file) throws IOException {
+            this.file = file;
+            this.raf = new RandomAccessFile(file, "rw");
+            try {
+                this.channel = raf.getChannel();
+                this.counters = channel.map(MapMode.READ_WRITE, 0, DATA_LENGTH);
+            } catch (IOException e) {
+                Closeables.closeQuietly(raf);
+                throw e;
+            }
+        }
+
+        long get(int offset) {
+            return counters.getLong(offset);
+        }
+
+        /**
+         * @return the value of the counter before incrementing it
+         */
+        long increment() throws IOException {
+            FileLock update = channel.lock(UPDATE_REGION, 1, false);
+            try {
+                final long previous = counters.getLong(COUNTER_OFFSET);
+                counters.putLong(COUNTER_OFFSET, previous + 1);
+                counters.force();
+                return previous;
+            } finally {
+                update.release();
+            }
+        }
+
+        void closeIfUnused() {
+            if (sessions == 0) {
+                OPEN.remove(file);
+                Closeables.closeQuietly(raf);
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import java.util.List;
+
+import com.google.common.collect.Lists;
+
+/**
+ * A bulk load session started on one or more {@link BulkLoadable} object databases.
+ * <p>
+ * Usage:
+ * 
+ * <pre>
+ * <code>
+ * BulkLoadSession session = BulkLoadSession.begin(objectDatabase, stagingDatabase);
+ * try {
+ *     // write lots of objects
+ * } finally {
+ *     session.end();
+ * }
+ * </code>
+ * </pre>
+ */
+public abstract class BulkLoadSession {
+
+    /**
+     * Takes the database(s) back to their normal mode, making sure everything written during the
+     * session is durable. Calling it more than once has no effect.
+     */
+    public abstract void end();
+
+    /**
+     * Starts a bulk load session on each of the given databases that support it.
+     * 
+     * @return a session that ends the sessions of all the databases, in reverse order
+     */
+    public static BulkLoadSession begin(ObjectDatabase... databases) {
+        final List<BulkLoadSession> sessions = Lists.newArrayListWithCapacity(databases.length);
+        try {
+            for (ObjectDatabase db : databases) {
+                if (db instanceof BulkLoadable) {
+                    sessions.add(((BulkLoadable) db).beginBulkLoad());
+                }
+            }
+        } catch (RuntimeException e) {
+            endAll(Lists.reverse(sessions));
+            throw e;
+        }
+        return new BulkLoadSession() {
+
+            private boolean ended;
+
+            @Override
+            public synchronized void end() {
+                if (!ended) {
+                    ended = true;
+                    endAll(Lists.reverse(sessions));
+                }
+            }
+        };
+    }
+
+    private static void endAll(List<BulkLoadSession> sessions) {
+        RuntimeException error = null;
+        for (BulkLoadSession session : sessions) {
+            try {
+                session.end();
+            } catch (RuntimeException e) {
+                if (error == null) {
+                    error = e;
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+}
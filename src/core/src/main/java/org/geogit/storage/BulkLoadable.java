@@ -0,0 +1,25 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+/**
+ * Implemented by {@link ObjectDatabase}s that can switch to a mode optimized for writing large
+ * amounts of new objects, like during a first import or a full clone, trading durability of the
+ * individual writes for throughput.
+ * 
+ * @see BulkLoadSession#begin(ObjectDatabase...)
+ */
+public interface BulkLoadable {
+
+    /**
+     * Puts the database in bulk load mode until the returned session is
+     * {@link BulkLoadSession#end() ended}. Sessions may be nested, only ending the outermost one
+     * takes the database back to its normal mode.
+     * <p>
+     * Objects written during the session are only guaranteed to be durable once the session
+     * ends.
+     */
+    public BulkLoadSession beginBulkLoad();
+}
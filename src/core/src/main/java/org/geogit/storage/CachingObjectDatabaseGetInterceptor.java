@@ -5,37 +5,48 @@
 
 package org.geogit.storage;
 
-import java.util.concurrent.TimeUnit;
-
 import org.aopalliance.intercept.MethodInterceptor;
 import org.aopalliance.intercept.MethodInvocation;
 import org.geogit.api.ObjectId;
 import org.geogit.api.RevObject;
-import org.geogit.api.RevTree;
-
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
 
 /**
- * Method interceptor for {@link ObjectDatabase#get(ObjectId, ObjectReader)} that applies caching.
+ * Method interceptor for {@link ObjectDatabase#get(ObjectId)} and
+ * {@link ObjectDatabase#get(ObjectId, Class)} that serves objects out of an {@link ObjectCache},
+ * and for {@link ObjectDatabase#delete(ObjectId)} that evicts the deleted object from it.
  * <p>
  * <!-- increases random object lookup on revtrees by 20x, ~40K/s instad of ~2K/s as per
  * RevSHA1TreeTest.testPutGet -->
  */
 public class CachingObjectDatabaseGetInterceptor implements MethodInterceptor {
 
-    private Cache<ObjectId, RevObject> cache = CacheBuilder.newBuilder().maximumSize(50 * 1000)
-            .expireAfterAccess(30, TimeUnit.SECONDS).concurrencyLevel(4).build();
+    private final ObjectCache cache;
+
+    public CachingObjectDatabaseGetInterceptor(ObjectCache cache) {
+        this.cache = cache;
+    }
 
+    @SuppressWarnings("unchecked")
     @Override
     public Object invoke(MethodInvocation invocation) throws Throwable {
-        final ObjectId oid = (ObjectId) invocation.getArguments()[0];
+        final Object[] arguments = invocation.getArguments();
+        final ObjectId oid = (ObjectId) arguments[0];
 
-        Object object = cache.getIfPresent(oid);
+        if ("delete".equals(invocation.getMethod().getName())) {
+            cache.invalidate(oid);
+            return invocation.proceed();
+        }
+
+        Object object;
+        if (arguments.length == 2) {
+            object = cache.getIfPresent(oid, (Class<? extends RevObject>) arguments[1]);
+        } else {
+            object = cache.getIfPresent(oid);
+        }
         if (object == null) {
             object = invocation.proceed();
-            if (object instanceof RevTree) {
-                cache.put(oid, (RevObject) object);
+            if (object instanceof RevObject) {
+                cache.put((RevObject) object);
             }
         }
         return object;
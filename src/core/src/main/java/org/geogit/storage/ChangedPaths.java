@@ -0,0 +1,252 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.NodeRef;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.plumbing.diff.DiffEntry;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+/**
+ * A summary of the paths a commit changed with respect to its first parent, used to tell, without
+ * computing the diff, that a commit did not touch a given path.
+ * <p>
+ * The summary holds the exact set of paths of the trees that changed (added, removed or modified,
+ * including the ancestors of every changed feature) and a Bloom filter of the paths of the
+ * features that changed. Commits that changed too many features keep no feature filter, and any
+ * feature in a changed tree is assumed to have changed.
+ * <p>
+ * Summaries are {@link #builder() built} out of the entries of the diff of the commit, reported
+ * with trees.
+ *
+ * @see ChangedPathsIndex
+ */
+public class ChangedPaths {
+
+    /**
+     * Commits changing more features than this don't get a feature filter, which would be too
+     * big and most likely match anything anyway
+     */
+    public static final int MAX_FEATURE_PATHS = 10000;
+
+    /**
+     * Number of bits per feature path, ~1% false positive probability with {@link #NUM_HASHES}
+     */
+    private static final int BITS_PER_PATH = 10;
+
+    private static final int NUM_HASHES = 7;
+
+    private final ImmutableSet<String> treePaths;
+
+    @Nullable
+    private final long[] featureBits;
+
+    private ChangedPaths(ImmutableSet<String> treePaths, @Nullable long[] featureBits) {
+        this.treePaths = treePaths;
+        this.featureBits = featureBits;
+    }
+
+    /**
+     * @param treePaths the paths of the trees that changed, including the ancestors of every
+     *        changed feature
+     * @param featurePaths the paths of the features that changed, {@code null} if there are too
+     *        many of them to keep a filter
+     */
+    public static ChangedPaths create(final Set<String> treePaths,
+            @Nullable final Collection<String> featurePaths) {
+        checkNotNull(treePaths);
+        long[] featureBits = null;
+        if (featurePaths != null && featurePaths.size() <= MAX_FEATURE_PATHS) {
+            long numBits = Math.max(64, featurePaths.size() * BITS_PER_PATH);
+            featureBits = new long[(int) ((numBits + 63) / 64)];
+            for (String path : featurePaths) {
+                final ObjectId hash = ObjectId.forString(path);
+                final long numBitsTotal = 64L * featureBits.length;
+                for (int i = 1; i <= NUM_HASHES; i++) {
+                    long bit = bit(hash, i, numBitsTotal);
+                    featureBits[(int) (bit >>> 6)] |= 1L << bit;
+                }
+            }
+        }
+        return new ChangedPaths(ImmutableSet.copyOf(treePaths), featureBits);
+    }
+
+    /**
+     * @return a builder to add the entries of the diff of a commit to
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return the paths of the trees that changed
+     */
+    public Set<String> treePaths() {
+        return treePaths;
+    }
+
+    /**
+     * @param path the path of a tree or feature
+     * @return {@code false} if the commit definitely did not change anything at or under the
+     *         given path, {@code true} if it might have
+     */
+    public boolean mightTouch(@Nullable final String path) {
+        if (path == null || path.isEmpty()) {
+            return !treePaths.isEmpty();
+        }
+        if (treePaths.contains(path)) {
+            return true;
+        }
+        // if it's a changed feature its tree changed too
+        if (!treePaths.contains(NodeRef.parentPath(path))) {
+            return false;
+        }
+        if (featureBits == null) {
+            return true;
+        }
+        final ObjectId hash = ObjectId.forString(path);
+        final long numBits = 64L * featureBits.length;
+        for (int i = 1; i <= NUM_HASHES; i++) {
+            long bit = bit(hash, i, numBits);
+            if ((featureBits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long bit(ObjectId hash, int i, long numBits) {
+        return ((toLong(hash, 0) + i * toLong(hash, 8)) & Long.MAX_VALUE) % numBits;
+    }
+
+    private static long toLong(ObjectId id, int offset) {
+        long value = 0;
+        for (int i = offset; i < offset + 8; i++) {
+            value = (value << 8) | id.byteN(i);
+        }
+        return value;
+    }
+
+    void write(DataOutput out) throws IOException {
+        out.writeInt(treePaths.size());
+        for (String path : treePaths) {
+            out.writeUTF(path);
+        }
+        if (featureBits == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(featureBits.length);
+            for (long word : featureBits) {
+                out.writeLong(word);
+            }
+        }
+    }
+
+    /**
+     * Skips a summary {@link #write(DataOutput) written} to {@code in}
+     * 
+     * @throws EOFException if the summary is truncated
+     */
+    static void skip(DataInput in) throws IOException {
+        final int numTrees = in.readInt();
+        for (int i = 0; i < numTrees; i++) {
+            skipFully(in, in.readUnsignedShort());
+        }
+        final int numWords = in.readInt();
+        if (numWords > 0) {
+            skipFully(in, numWords * 8);
+        }
+    }
+
+    private static void skipFully(DataInput in, int n) throws IOException {
+        if (in.skipBytes(n) < n) {
+            throw new EOFException();
+        }
+    }
+
+    static ChangedPaths read(DataInput in) throws IOException {
+        final int numTrees = in.readInt();
+        ImmutableSet.Builder<String> treePaths = ImmutableSet.builder();
+        for (int i = 0; i < numTrees; i++) {
+            treePaths.add(in.readUTF());
+        }
+        final int numWords = in.readInt();
+        long[] featureBits = null;
+        if (numWords >= 0) {
+            featureBits = new long[numWords];
+            for (int i = 0; i < numWords; i++) {
+                featureBits[i] = in.readLong();
+            }
+        }
+        return new ChangedPaths(treePaths.build(), featureBits);
+    }
+
+    /**
+     * Collects the paths of the entries of the diff of a commit, reported with trees. Feature
+     * paths stop being collected past {@link #MAX_FEATURE_PATHS}, as the summary would keep no
+     * filter for them anyway.
+     */
+    public static class Builder {
+
+        private final Set<String> treePaths = Sets.newHashSet();
+
+        @Nullable
+        private List<String> featurePaths = Lists.newArrayList();
+
+        private Builder() {
+        }
+
+        /**
+         * @param entry an entry of the diff of the commit
+         * @return {@code this}
+         */
+        public Builder add(final DiffEntry entry) {
+            NodeRef ref = entry.getNewObject() == null ? entry.getOldObject() : entry
+                    .getNewObject();
+            final String path = ref.path();
+            treePaths.add(NodeRef.ROOT);
+            if (TYPE.TREE.equals(ref.getType())) {
+                treePaths.add(path);
+                return this;
+            }
+            if (featurePaths != null) {
+                if (featurePaths.size() < MAX_FEATURE_PATHS) {
+                    featurePaths.add(path);
+                } else {
+                    // too many to keep a filter, only the changed trees are summarized
+                    featurePaths = null;
+                }
+            }
+            final String parentPath = NodeRef.parentPath(path);
+            if (!parentPath.isEmpty()) {
+                treePaths.addAll(NodeRef.allPathsTo(parentPath));
+            }
+            return this;
+        }
+
+        /**
+         * @return the summary of the entries added so far
+         */
+        public ChangedPaths build() {
+            return ChangedPaths.create(treePaths, featurePaths);
+        }
+    }
+}
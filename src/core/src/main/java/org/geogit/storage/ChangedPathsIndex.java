@@ -0,0 +1,399 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.channels.FileLock;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.Platform;
+import org.geogit.api.plumbing.ResolveGeogitDir;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.Closeables;
+import com.google.common.io.CountingInputStream;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+
+/**
+ * Keeps the {@link ChangedPaths} summary of each indexed commit, so that path filtered history
+ * walks can skip the commits that didn't touch the path without diffing them.
+ * <p>
+ * Summaries are appended to the {@code changedpaths} file of the repository directory, next to
+ * the commit graph. Only the commit ids and the offsets of their summaries are held in memory,
+ * sorted by id, and summaries are read from the file when asked for. The file is locked while
+ * summaries are appended, and the ones appended by other processes are picked up before
+ * appending and when looking up a commit that's not indexed. A record truncated by an
+ * interrupted write is dropped. Commits with no summary are simply not indexed, and callers shall
+ * fall back to computing the diff.
+ *
+ * @see org.geogit.api.plumbing.BuildChangedPaths
+ */
+public class ChangedPathsIndex {
+
+    private static final String FILE = "changedpaths";
+
+    private static final int ID_LENGTH = ObjectId.HASH_FUNCTION.bits() / 8;
+
+    /**
+     * How many commits indexed since the sorted ids were last built to hold apart from them
+     */
+    private static final int MAX_UNSORTED = 1024;
+
+    /**
+     * Serializes the access to the index files of all the indexes in this JVM, since file locks
+     * are held on behalf of the whole JVM and can't be acquired twice
+     */
+    private static final Object FILE_LOCK = new Object();
+
+    private static final Comparator<ObjectId> UNSIGNED_ORDER = new Comparator<ObjectId>() {
+        @Override
+        public int compare(ObjectId o1, ObjectId o2) {
+            for (int i = 0; i < ID_LENGTH; i++) {
+                int c = o1.byteN(i) - o2.byteN(i);
+                if (c != 0) {
+                    return c;
+                }
+            }
+            return 0;
+        }
+    };
+
+    private final Provider<Platform> platform;
+
+    private boolean initialized;
+
+    /**
+     * The index file, {@code null} if not inside a repository
+     */
+    @Nullable
+    private File file;
+
+    /**
+     * How much of the file has been indexed, always at a record boundary
+     */
+    private long indexedLength;
+
+    /**
+     * The raw ids of the indexed commits, in unsigned byte order, {@link #ID_LENGTH} bytes each
+     */
+    private byte[] sortedIds = new byte[0];
+
+    /**
+     * The file offset of the record of each id in {@link #sortedIds}
+     */
+    private long[] sortedOffsets = new long[0];
+
+    /**
+     * The commits indexed since {@link #sortedIds} was last built, and their file offsets
+     */
+    private final Map<ObjectId, Long> unsorted = Maps.newHashMap();
+
+    /**
+     * @param platform provides the platform used to find the repository directory
+     */
+    @Inject
+    public ChangedPathsIndex(Provider<Platform> platform) {
+        this.platform = platform;
+    }
+
+    /**
+     * @return the summary of the paths changed by the given commit, or {@link Optional#absent()
+     *         absent} if the commit is not indexed
+     */
+    public synchronized Optional<ChangedPaths> get(final ObjectId commitId) {
+        init();
+        long offset = offset(commitId);
+        if (offset < 0 && refreshIfGrown()) {
+            offset = offset(commitId);
+        }
+        if (offset < 0) {
+            return Optional.absent();
+        }
+        try {
+            return Optional.of(read(offset));
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * @return whether the given commit is indexed
+     */
+    public synchronized boolean exists(final ObjectId commitId) {
+        init();
+        if (offset(commitId) >= 0) {
+            return true;
+        }
+        return refreshIfGrown() && offset(commitId) >= 0;
+    }
+
+    /**
+     * @return the number of indexed commits
+     */
+    public synchronized int size() {
+        init();
+        refreshIfGrown();
+        return sortedOffsets.length + unsorted.size();
+    }
+
+    /**
+     * Indexes the paths changed by a commit; does nothing if the commit is already indexed
+     */
+    public void put(final ObjectId commitId, final ChangedPaths paths) {
+        putAll(ImmutableMap.of(commitId, paths));
+    }
+
+    /**
+     * Indexes the paths changed by a number of commits at once, skipping the already indexed ones
+     */
+    public synchronized void putAll(final Map<ObjectId, ChangedPaths> commits) {
+        init();
+        if (file == null || commits.isEmpty()) {
+            return;
+        }
+        synchronized (FILE_LOCK) {
+            try {
+                RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                try {
+                    FileLock lock = raf.getChannel().lock();
+                    try {
+                        refresh(raf);
+                        append(raf, commits);
+                    } finally {
+                        lock.release();
+                    }
+                } finally {
+                    raf.close();
+                }
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+        sortIfNeeded();
+    }
+
+    private void init() {
+        if (initialized) {
+            return;
+        }
+        initialized = true;
+        final URL repoUrl = new ResolveGeogitDir(platform.get()).call();
+        if (repoUrl == null) {
+            return;
+        }
+        try {
+            file = new File(new File(repoUrl.toURI()), FILE);
+        } catch (URISyntaxException e) {
+            throw Throwables.propagate(e);
+        }
+        refreshIfGrown();
+    }
+
+    /**
+     * Picks up the records appended to the file since it was last read, by this index or by
+     * another one
+     *
+     * @return whether the file had grown
+     */
+    private boolean refreshIfGrown() {
+        if (file == null || !file.exists() || file.length() == indexedLength) {
+            return false;
+        }
+        synchronized (FILE_LOCK) {
+            try {
+                RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                try {
+                    FileLock lock = raf.getChannel().lock();
+                    try {
+                        refresh(raf);
+                    } finally {
+                        lock.release();
+                    }
+                } finally {
+                    raf.close();
+                }
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+        sortIfNeeded();
+        return true;
+    }
+
+    /**
+     * Indexes the records past {@link #indexedLength}. Shall be called with the file locked, so
+     * that a truncated record at the end can only be the leftover of an interrupted write.
+     */
+    private void refresh(final RandomAccessFile raf) throws IOException {
+        final long length = raf.length();
+        if (length < indexedLength) {
+            // not the file this index read, start over
+            indexedLength = 0;
+            sortedIds = new byte[0];
+            sortedOffsets = new long[0];
+            unsorted.clear();
+        }
+        if (length == indexedLength) {
+            return;
+        }
+        long validLength = indexedLength;
+        FileInputStream fileIn = new FileInputStream(file);
+        try {
+            fileIn.getChannel().position(indexedLength);
+            CountingInputStream counting = new CountingInputStream(new BufferedInputStream(
+                    fileIn));
+            DataInputStream in = new DataInputStream(counting);
+            while (true) {
+                final long offset = indexedLength + counting.getCount();
+                ObjectId commitId;
+                try {
+                    byte[] rawId = new byte[ID_LENGTH];
+                    in.readFully(rawId);
+                    commitId = new ObjectId(rawId);
+                    ChangedPaths.skip(in);
+                } catch (EOFException e) {
+                    break;
+                }
+                if (offset(commitId) < 0) {
+                    unsorted.put(commitId, Long.valueOf(offset));
+                }
+                validLength = indexedLength + counting.getCount();
+            }
+        } finally {
+            Closeables.closeQuietly(fileIn);
+        }
+        if (validLength < length) {
+            // drop the record left truncated by an interrupted write
+            raf.setLength(validLength);
+        }
+        indexedLength = validLength;
+    }
+
+    /**
+     * Appends the records of the commits not indexed yet at the end of the file, which shall be
+     * locked and {@link #refresh refreshed}
+     */
+    private void append(final RandomAccessFile raf, final Map<ObjectId, ChangedPaths> commits)
+            throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+        Map<ObjectId, Long> appended = Maps.newHashMap();
+        for (Map.Entry<ObjectId, ChangedPaths> entry : commits.entrySet()) {
+            final ObjectId commitId = entry.getKey();
+            if (offset(commitId) >= 0 || appended.containsKey(commitId)) {
+                continue;
+            }
+            appended.put(commitId, Long.valueOf(indexedLength + buffer.size()));
+            out.write(commitId.getRawValue());
+            entry.getValue().write(out);
+        }
+        if (appended.isEmpty()) {
+            return;
+        }
+        out.flush();
+        raf.seek(indexedLength);
+        raf.write(buffer.toByteArray());
+        indexedLength += buffer.size();
+        unsorted.putAll(appended);
+    }
+
+    private ChangedPaths read(final long offset) throws IOException {
+        // records before indexedLength are complete and never change
+        FileInputStream fileIn = new FileInputStream(file);
+        try {
+            fileIn.getChannel().position(offset + ID_LENGTH);
+            return ChangedPaths.read(new DataInputStream(new BufferedInputStream(fileIn)));
+        } finally {
+            Closeables.closeQuietly(fileIn);
+        }
+    }
+
+    /**
+     * @return the file offset of the record of the given commit, {@code -1} if it's not indexed
+     */
+    private long offset(final ObjectId commitId) {
+        Long offset = unsorted.get(commitId);
+        if (offset != null) {
+            return offset.longValue();
+        }
+        int low = 0;
+        int high = sortedOffsets.length - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int c = compare(commitId, mid);
+            if (c > 0) {
+                low = mid + 1;
+            } else if (c < 0) {
+                high = mid - 1;
+            } else {
+                return sortedOffsets[mid];
+            }
+        }
+        return -1;
+    }
+
+    private int compare(final ObjectId commitId, final int sortedIndex) {
+        final int base = sortedIndex * ID_LENGTH;
+        for (int i = 0; i < ID_LENGTH; i++) {
+            int c = commitId.byteN(i) - (sortedIds[base + i] & 0xFF);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Merges the {@link #unsorted} commits into the sorted ones once there are too many of them
+     */
+    private void sortIfNeeded() {
+        if (unsorted.size() <= MAX_UNSORTED) {
+            return;
+        }
+        List<ObjectId> added = Lists.newArrayList(unsorted.keySet());
+        Collections.sort(added, UNSIGNED_ORDER);
+
+        final int size = sortedOffsets.length + added.size();
+        byte[] ids = new byte[size * ID_LENGTH];
+        long[] offsets = new long[size];
+        int s = 0;
+        int a = 0;
+        for (int i = 0; i < size; i++) {
+            if (a == added.size()
+                    || (s < sortedOffsets.length && compare(added.get(a), s) > 0)) {
+                System.arraycopy(sortedIds, s * ID_LENGTH, ids, i * ID_LENGTH, ID_LENGTH);
+                offsets[i] = sortedOffsets[s++];
+            } else {
+                ObjectId id = added.get(a++);
+                System.arraycopy(id.getRawValue(), 0, ids, i * ID_LENGTH, ID_LENGTH);
+                offsets[i] = unsorted.get(id).longValue();
+            }
+        }
+        sortedIds = ids;
+        sortedOffsets = offsets;
+        unsorted.clear();
+    }
+}
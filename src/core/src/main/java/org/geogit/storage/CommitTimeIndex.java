@@ -0,0 +1,371 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.Platform;
+import org.geogit.api.RevCommit;
+import org.geogit.api.plumbing.ResolveGeogitDir;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+
+/**
+ * Keeps the {@link Timeline timeline} of each ref: the commits in the first parent history of the
+ * ref, oldest first, along with their committer timestamps, so that the commit a ref pointed to at
+ * a given time can be found with a binary search instead of walking the history.
+ * <p>
+ * Timelines are kept in the {@code committime} directory of the repository directory, in a file
+ * per ref named after it, as a sequence of fixed size records, and are loaded in memory the first
+ * time they're used. New commits are appended to the file, and the file is rewritten only when the
+ * ref is moved to a commit that's not a descendant of its previous tip, or when the file no longer
+ * holds the timeline this index last read or wrote, as updated by another process. Files are
+ * locked while being read or written. A record truncated by an interrupted write is dropped on
+ * load.
+ *
+ * @see org.geogit.api.plumbing.ResolveTimeline
+ */
+public class CommitTimeIndex {
+
+    private static final String DIRECTORY = "committime";
+
+    private static final int ID_LENGTH = ObjectId.HASH_FUNCTION.bits() / 8;
+
+    private static final int RECORD_LENGTH = ID_LENGTH + 8;
+
+    /**
+     * Serializes the access to the timeline files of all the indexes in this JVM, since file locks
+     * are held on behalf of the whole JVM and can't be acquired twice
+     */
+    private static final Object FILE_LOCK = new Object();
+
+    private final Provider<Platform> platform;
+
+    private boolean initialized;
+
+    /**
+     * The index directory, {@code null} if not inside a repository
+     */
+    @Nullable
+    private File directory;
+
+    private final Map<String, Timeline> timelines = Maps.newHashMap();
+
+    /**
+     * @param platform provides the platform used to find the repository directory
+     */
+    @Inject
+    public CommitTimeIndex(Provider<Platform> platform) {
+        this.platform = platform;
+    }
+
+    /**
+     * @param refName the full name of a ref
+     * @return the timeline of the ref as of the last time it was {@link #put(String, Timeline)
+     *         stored}, possibly {@link Timeline#EMPTY empty}
+     */
+    public synchronized Timeline get(final String refName) {
+        init();
+        Timeline timeline = timelines.get(refName);
+        if (timeline == null) {
+            try {
+                timeline = load(refName);
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+            timelines.put(refName, timeline);
+        }
+        return timeline;
+    }
+
+    /**
+     * Stores the current timeline of a ref
+     */
+    public synchronized void put(final String refName, final Timeline timeline) {
+        final Timeline previous = get(refName);
+        timelines.put(refName, timeline);
+        if (directory == null) {
+            return;
+        }
+        final File file = new File(directory, refName);
+        file.getParentFile().mkdirs();
+        final boolean extendsPrevious = previous.size() > 0 && previous.size() <= timeline.size()
+                && previous.tip().equals(timeline.get(previous.size() - 1));
+        synchronized (FILE_LOCK) {
+            try {
+                RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                try {
+                    FileLock lock = raf.getChannel().lock();
+                    try {
+                        // appending is only safe if the file still holds the previous timeline
+                        if (extendsPrevious
+                                && raf.length() == (long) previous.size() * RECORD_LENGTH) {
+                            write(raf, timeline, previous.size());
+                        } else {
+                            raf.setLength(0);
+                            write(raf, timeline, 0);
+                        }
+                    } finally {
+                        lock.release();
+                    }
+                } finally {
+                    raf.close();
+                }
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+    }
+
+    private void init() {
+        if (initialized) {
+            return;
+        }
+        initialized = true;
+        final URL repoUrl = new ResolveGeogitDir(platform.get()).call();
+        if (repoUrl == null) {
+            return;
+        }
+        try {
+            directory = new File(new File(repoUrl.toURI()), DIRECTORY);
+        } catch (URISyntaxException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    private void write(final RandomAccessFile raf, final Timeline timeline, final int from)
+            throws IOException {
+        final ByteBuffer records = ByteBuffer.allocate((timeline.size() - from) * RECORD_LENGTH);
+        for (int i = from; i < timeline.size(); i++) {
+            records.put(timeline.get(i).getRawValue());
+            records.putLong(timeline.getTimestamp(i));
+        }
+        records.flip();
+        final FileChannel channel = raf.getChannel();
+        long position = (long) from * RECORD_LENGTH;
+        while (records.hasRemaining()) {
+            position += channel.write(records, position);
+        }
+    }
+
+    private Timeline load(final String refName) throws IOException {
+        if (directory == null) {
+            return Timeline.EMPTY;
+        }
+        final File file = new File(directory, refName);
+        if (!file.isFile()) {
+            return Timeline.EMPTY;
+        }
+        final ByteBuffer records;
+        synchronized (FILE_LOCK) {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                FileLock lock = raf.getChannel().lock();
+                try {
+                    final int size = (int) (raf.length() / RECORD_LENGTH);
+                    if (raf.length() > (long) size * RECORD_LENGTH) {
+                        // drop the record left truncated by an interrupted write
+                        raf.setLength((long) size * RECORD_LENGTH);
+                    }
+                    records = ByteBuffer.allocate(size * RECORD_LENGTH);
+                    final FileChannel channel = raf.getChannel();
+                    while (records.hasRemaining()) {
+                        if (channel.read(records, records.position()) < 0) {
+                            throw new IOException("Unexpected end of file " + file);
+                        }
+                    }
+                } finally {
+                    lock.release();
+                }
+            } finally {
+                raf.close();
+            }
+        }
+        records.flip();
+        final int size = records.remaining() / RECORD_LENGTH;
+        ObjectId[] ids = new ObjectId[size];
+        long[] timestamps = new long[size];
+        Set<ObjectId> seen = Sets.newHashSetWithExpectedSize(size);
+        for (int i = 0; i < size; i++) {
+            byte[] rawId = new byte[ID_LENGTH];
+            records.get(rawId);
+            ids[i] = new ObjectId(rawId);
+            timestamps[i] = records.getLong();
+            if (!seen.add(ids[i])) {
+                // not a first parent history, start over from the ref tip
+                return Timeline.EMPTY;
+            }
+        }
+        return new Timeline(ids, timestamps);
+    }
+
+    /**
+     * The first parent history of a ref, oldest commit first.
+     * <p>
+     * Committer timestamps are not necessarily increasing along the history, because of clock
+     * skew between machines, so time lookups search the running minimum of the timestamps from the
+     * tip backwards, and their running maximum from the oldest commit forwards, which are. The
+     * results are thus the same as walking the history commit by commit.
+     */
+    public static class Timeline {
+
+        public static final Timeline EMPTY = new Timeline(new ObjectId[0], new long[0]);
+
+        private final ObjectId[] ids;
+
+        private final long[] timestamps;
+
+        /**
+         * {@code suffixMin[i]} is the minimum timestamp from {@code i} to the tip
+         */
+        private final long[] suffixMin;
+
+        /**
+         * {@code prefixMax[i]} is the maximum timestamp from the oldest commit to {@code i}
+         */
+        private final long[] prefixMax;
+
+        private Map<ObjectId, Integer> positions;
+
+        private Timeline(ObjectId[] ids, long[] timestamps) {
+            this.ids = ids;
+            this.timestamps = timestamps;
+            final int size = ids.length;
+            suffixMin = new long[size];
+            prefixMax = new long[size];
+            for (int i = size - 1; i >= 0; i--) {
+                suffixMin[i] = i == size - 1 ? timestamps[i] : Math.min(timestamps[i],
+                        suffixMin[i + 1]);
+            }
+            for (int i = 0; i < size; i++) {
+                prefixMax[i] = i == 0 ? timestamps[i] : Math.max(timestamps[i], prefixMax[i - 1]);
+            }
+        }
+
+        /**
+         * @return the number of commits in the timeline
+         */
+        public int size() {
+            return ids.length;
+        }
+
+        /**
+         * @return the most recent commit of the timeline, {@link ObjectId#NULL} if it's empty
+         */
+        public ObjectId tip() {
+            return ids.length == 0 ? ObjectId.NULL : ids[ids.length - 1];
+        }
+
+        /**
+         * @return the id of the commit at the given position, {@code 0} being the oldest
+         */
+        public ObjectId get(int index) {
+            return ids[index];
+        }
+
+        /**
+         * @return the committer timestamp of the commit at the given position
+         */
+        public long getTimestamp(int index) {
+            return timestamps[index];
+        }
+
+        /**
+         * @return the position of the given commit in the timeline, or {@code -1} if it's not part
+         *         of it
+         */
+        public synchronized int indexOf(ObjectId commitId) {
+            if (commitId.equals(tip())) {
+                return ids.length - 1;
+            }
+            if (positions == null) {
+                positions = Maps.newHashMapWithExpectedSize(ids.length);
+                for (int i = 0; i < ids.length; i++) {
+                    positions.put(ids[i], Integer.valueOf(i));
+                }
+            }
+            Integer position = positions.get(commitId);
+            return position == null ? -1 : position.intValue();
+        }
+
+        /**
+         * @return the position of the most recent commit made before the given time, that is, the
+         *         first one older than {@code time} walking the history back from the tip, or
+         *         {@code -1} if there is none
+         */
+        public int lastBefore(long time) {
+            // suffixMin is non decreasing, find the last position where it's < time
+            int low = 0;
+            int high = ids.length - 1;
+            int found = -1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (suffixMin[mid] < time) {
+                    found = mid;
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return found;
+        }
+
+        /**
+         * @return the position of the oldest commit made at or after the given time, or
+         *         {@link #size()} if there is none
+         */
+        public int firstFrom(long time) {
+            // prefixMax is non decreasing, find the first position where it's >= time
+            int low = 0;
+            int high = ids.length - 1;
+            int found = ids.length;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (prefixMax[mid] >= time) {
+                    found = mid;
+                    high = mid - 1;
+                } else {
+                    low = mid + 1;
+                }
+            }
+            return found;
+        }
+
+        /**
+         * @param size the number of commits to keep from this timeline
+         * @param commits the commits to append after them, oldest first
+         * @return a new timeline made of the first {@code size} commits of this one followed by
+         *         the given commits
+         */
+        public Timeline append(int size, List<RevCommit> commits) {
+            ObjectId[] newIds = Arrays.copyOf(ids, size + commits.size());
+            long[] newTimestamps = Arrays.copyOf(timestamps, size + commits.size());
+            for (int i = 0; i < commits.size(); i++) {
+                RevCommit commit = commits.get(i);
+                newIds[size + i] = commit.getId();
+                newTimestamps[size + i] = commit.getCommitter().getTimestamp();
+            }
+            return new Timeline(newIds, newTimestamps);
+        }
+    }
+}
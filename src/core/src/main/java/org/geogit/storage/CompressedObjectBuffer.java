@@ -0,0 +1,179 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.geogit.api.RevObject;
+
+import com.google.common.base.Throwables;
+import com.ning.compress.lzf.LZFOutputStream;
+
+/**
+ * A per thread, reusable buffer objects are serialized and LZF compressed into before being
+ * stored, so that the write path of {@link AbstractObjectDatabase} doesn't allocate a new output
+ * buffer, compressor, and result array for each object.
+ * <p>
+ * Usage is:
+ *
+ * <pre>
+ * <code>
+ * CompressedObjectBuffer buffer = CompressedObjectBuffer.acquire();
+ * try {
+ *     buffer.encode(object, writer);
+ *     store(id, buffer.buffer(), 0, buffer.length());
+ * } finally {
+ *     buffer.release();
+ * }
+ * </code>
+ * </pre>
+ *
+ * The contents of {@link #buffer()} are only valid until the next call to one of the
+ * {@code encode} methods or to {@link #release()}, hence whoever consumes them shall copy them
+ * if needed past that point.
+ * <p>
+ * The compressed stream is flushed but not closed after each object, so a single compressor is
+ * reused for the life of the buffer; since each LZF chunk is self contained, the bytes written
+ * for an object are a complete LZF stream by themselves.
+ */
+public final class CompressedObjectBuffer {
+
+    /**
+     * Buffers that grew larger than this (because of a very large object) are not kept around
+     * after {@link #release()}
+     */
+    private static final int MAX_RETAINED_SIZE = 1024 * 1024;
+
+    private static final int INITIAL_SIZE = 8 * 1024;
+
+    private static final int COPY_BUFFER_SIZE = 8 * 1024;
+
+    private static final ThreadLocal<CompressedObjectBuffer> BUFFERS = new ThreadLocal<CompressedObjectBuffer>() {
+        @Override
+        protected CompressedObjectBuffer initialValue() {
+            return new CompressedObjectBuffer(true);
+        }
+    };
+
+    private final ExposedByteArrayOutputStream out;
+
+    private final LZFOutputStream compressor;
+
+    private byte[] copyBuffer;
+
+    private final boolean pooled;
+
+    private boolean inUse;
+
+    /**
+     * Whether the compressor may hold data from an encoding that failed half way
+     */
+    private boolean dirty;
+
+    private CompressedObjectBuffer(boolean pooled) {
+        this.pooled = pooled;
+        this.out = new ExposedByteArrayOutputStream(INITIAL_SIZE);
+        this.compressor = new LZFOutputStream(out);
+    }
+
+    /**
+     * @return the calling thread's buffer, or a new one if it's already in use (e.g. an object
+     *         stored while storing another one)
+     */
+    public static CompressedObjectBuffer acquire() {
+        CompressedObjectBuffer buffer = BUFFERS.get();
+        if (buffer.inUse) {
+            buffer = new CompressedObjectBuffer(false);
+        }
+        buffer.inUse = true;
+        return buffer;
+    }
+
+    /**
+     * Gives the buffer back to the calling thread for reuse.
+     */
+    public void release() {
+        inUse = false;
+        if (pooled && (dirty || out.capacity() > MAX_RETAINED_SIZE)) {
+            BUFFERS.remove();
+        }
+    }
+
+    /**
+     * Replaces the contents of the buffer by the compressed serialized form of {@code object}.
+     */
+    public void encode(final RevObject object, final ObjectWriter<RevObject> writer) {
+        out.reset();
+        dirty = true;
+        try {
+            writer.write(object, compressor);
+            compressor.flush();
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        dirty = false;
+    }
+
+    /**
+     * Replaces the contents of the buffer by the compressed contents of {@code raw}, which is
+     * consumed but not closed.
+     */
+    public void encode(final InputStream raw) {
+        out.reset();
+        dirty = true;
+        if (copyBuffer == null) {
+            copyBuffer = new byte[COPY_BUFFER_SIZE];
+        }
+        try {
+            int read;
+            while ((read = raw.read(copyBuffer)) != -1) {
+                compressor.write(copyBuffer, 0, read);
+            }
+            compressor.flush();
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        dirty = false;
+    }
+
+    /**
+     * @return the backing array, holding the last encoded object from index {@code 0} to
+     *         {@link #length()}
+     */
+    public byte[] buffer() {
+        return out.buffer();
+    }
+
+    /**
+     * @return the number of bytes of the last encoded object
+     */
+    public int length() {
+        return out.size();
+    }
+
+    /**
+     * @return a copy of the last encoded object
+     */
+    public byte[] toByteArray() {
+        return out.toByteArray();
+    }
+
+    private static class ExposedByteArrayOutputStream extends ByteArrayOutputStream {
+
+        ExposedByteArrayOutputStream(int size) {
+            super(size);
+        }
+
+        byte[] buffer() {
+            return buf;
+        }
+
+        int capacity() {
+            return buf.length;
+        }
+    }
+}
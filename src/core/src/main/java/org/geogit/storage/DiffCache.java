@@ -0,0 +1,468 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.Platform;
+import org.geogit.api.plumbing.ResolveGeogitDir;
+import org.geogit.api.plumbing.diff.DiffEntry;
+import org.geogit.api.porcelain.ConfigException;
+import org.geogit.storage.datastream.FormatCommon;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.io.Files;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.ning.compress.lzf.LZFInputStream;
+import com.ning.compress.lzf.LZFOutputStream;
+
+/**
+ * A byte bounded, persistent cache of the differences between pairs of trees.
+ * <p>
+ * Trees are immutable, so the diff between two given trees with a given filter never changes.
+ * Each cached diff is kept as the LZF compressed stream of its entries, encoded with
+ * {@link FormatCommon#writeDiff}, on its own file under the {@code diffcache} directory of the
+ * repository. When the total size of the files exceeds the budget the least recently used ones
+ * are deleted.
+ * <p>
+ * The cache is configured through the repository config database the first time it's used:
+ * <ul>
+ * <li>{@code diffcache.maxbytes}: byte budget for the whole cache, defaults to 32MB. Zero
+ * disables the cache. A single diff is not cached if it takes more than a quarter of it.
+ * </ul>
+ * <p>
+ * Encoding a diff as it's consumed is not free, so only the callers that are going to be asked for
+ * the same diff again shall {@link #record} it. Callers that only need to know whether a diff is
+ * empty, like path filtered history walks, shall rather cache that through {@link #putTouched},
+ * which is kept in memory, for up to {@link #MAX_TOUCHED} pairs of trees and paths.
+ *
+ * @see org.geogit.api.plumbing.DiffTree
+ */
+public class DiffCache {
+
+    private static final long DEFAULT_MAX_BYTES = 32L * 1024 * 1024;
+
+    private static final String DIRECTORY = "diffcache";
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * How many {@link #touched} results to keep
+     */
+    static final int MAX_TOUCHED = 100000;
+
+    private final Provider<Platform> platform;
+
+    private final Provider<ConfigDatabase> configDb;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private boolean initialized;
+
+    /**
+     * The cache directory, {@code null} if the cache is disabled
+     */
+    @Nullable
+    private File directory;
+
+    private long maxBytes;
+
+    /**
+     * File name to file size of the cached diffs, in access order
+     */
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<String, Long>(16,
+            0.75f, true);
+
+    private long weightedSize;
+
+    /**
+     * Whether the diff between a pair of trees with a path filter is not empty, least recently
+     * used first
+     */
+    private final LinkedHashMap<ObjectId, Boolean> touched = new LinkedHashMap<ObjectId, Boolean>(
+            16, 0.75f, true) {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ObjectId, Boolean> eldest) {
+            return size() > MAX_TOUCHED;
+        }
+    };
+
+    /**
+     * @param platform provides the platform used to find the repository directory
+     * @param configDb provides the config database the cache settings are read from
+     */
+    @Inject
+    public DiffCache(Provider<Platform> platform, Provider<ConfigDatabase> configDb) {
+        this.platform = platform;
+        this.configDb = configDb;
+    }
+
+    /**
+     * @param oldTreeId the id of the old tree
+     * @param newTreeId the id of the new tree
+     * @param filter a description of the filters applied to the diff, which is part of the key
+     * @return the cached diff entries, or {@link Optional#absent() absent} if the diff is not
+     *         cached
+     */
+    public Optional<Iterator<DiffEntry>> get(final ObjectId oldTreeId, final ObjectId newTreeId,
+            final String filter) {
+        final String name = key(oldTreeId, newTreeId, filter);
+        final byte[] data;
+        synchronized (this) {
+            init();
+            if (directory == null) {
+                return Optional.absent();
+            }
+            if (entries.get(name) == null) {
+                misses.incrementAndGet();
+                return Optional.absent();
+            }
+            File file = new File(directory, name);
+            try {
+                data = Files.toByteArray(file);
+            } catch (IOException e) {
+                // deleted behind our back
+                remove(name);
+                misses.incrementAndGet();
+                return Optional.absent();
+            }
+            file.setLastModified(System.currentTimeMillis());
+        }
+        hits.incrementAndGet();
+        return Optional.<Iterator<DiffEntry>> of(new Decoder(data));
+    }
+
+    /**
+     * Returns an iterator over the given diff entries that caches them once it's exhausted, as
+     * long as they fit in the cache.
+     *
+     * @param oldTreeId the id of the old tree
+     * @param newTreeId the id of the new tree
+     * @param filter a description of the filters applied to the diff, which is part of the key
+     * @param diff the entries to cache
+     * @return an iterator over the same entries as {@code diff}
+     */
+    public Iterator<DiffEntry> record(final ObjectId oldTreeId, final ObjectId newTreeId,
+            final String filter, final Iterator<DiffEntry> diff) {
+        final long maxEntryBytes;
+        synchronized (this) {
+            init();
+            if (directory == null) {
+                return diff;
+            }
+            maxEntryBytes = maxBytes / 4;
+        }
+        return new Recorder(key(oldTreeId, newTreeId, filter), diff, maxEntryBytes);
+    }
+
+    /**
+     * @param oldId the id of the old tree, or of a commit standing for its tree
+     * @param newId the id of the new tree, or of a commit standing for its tree
+     * @param path the path the diff is filtered by
+     * @return whether the diff filtered by the given path is not empty, or
+     *         {@link Optional#absent() absent} if that's not cached
+     */
+    public synchronized Optional<Boolean> touched(final ObjectId oldId, final ObjectId newId,
+            final String path) {
+        init();
+        if (maxBytes <= 0) {
+            return Optional.absent();
+        }
+        Boolean result = touched.get(touchedKey(oldId, newId, path));
+        if (result == null) {
+            misses.incrementAndGet();
+            return Optional.absent();
+        }
+        hits.incrementAndGet();
+        return Optional.of(result);
+    }
+
+    /**
+     * Caches whether the diff between two trees filtered by a path is not empty
+     *
+     * @see #touched(ObjectId, ObjectId, String)
+     */
+    public synchronized void putTouched(final ObjectId oldId, final ObjectId newId,
+            final String path, final boolean result) {
+        init();
+        if (maxBytes > 0) {
+            touched.put(touchedKey(oldId, newId, path), Boolean.valueOf(result));
+        }
+    }
+
+    /**
+     * Discards all the cached diffs.
+     */
+    public synchronized void invalidateAll() {
+        init();
+        touched.clear();
+        for (String name : entries.keySet()) {
+            new File(directory, name).delete();
+        }
+        entries.clear();
+        weightedSize = 0;
+    }
+
+    /**
+     * @return how many times a cached diff was found
+     */
+    public long hits() {
+        return hits.get();
+    }
+
+    /**
+     * @return how many times a diff was looked up and not found
+     */
+    public long misses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the total size, in bytes, of the cached diffs
+     */
+    public synchronized long weightedSize() {
+        init();
+        return weightedSize;
+    }
+
+    /**
+     * @return the configured byte budget, {@code 0} if the cache is disabled
+     */
+    public synchronized long maxBytes() {
+        init();
+        return directory == null ? 0L : maxBytes;
+    }
+
+    private static String key(ObjectId oldTreeId, ObjectId newTreeId, String filter) {
+        return ObjectId.forString(oldTreeId + " " + newTreeId + " " + filter).toString();
+    }
+
+    private static ObjectId touchedKey(ObjectId oldId, ObjectId newId, String path) {
+        return ObjectId.forString(oldId + " " + newId + " touched " + path);
+    }
+
+    /**
+     * Reads the settings and the list of cached diffs, with the least recently used first
+     */
+    private void init() {
+        if (initialized) {
+            return;
+        }
+        initialized = true;
+        maxBytes = DEFAULT_MAX_BYTES;
+        Optional<String> configured = config("diffcache.maxbytes");
+        if (configured.isPresent()) {
+            try {
+                maxBytes = Long.parseLong(configured.get().trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalStateException("diffcache.maxbytes is not a number: "
+                        + configured.get());
+            }
+        }
+        if (maxBytes <= 0) {
+            return;
+        }
+        final URL repoUrl = new ResolveGeogitDir(platform.get()).call();
+        if (repoUrl == null) {
+            return;
+        }
+        try {
+            directory = new File(new File(repoUrl.toURI()), DIRECTORY);
+        } catch (URISyntaxException e) {
+            throw Throwables.propagate(e);
+        }
+        if (!directory.exists() && !directory.mkdirs()) {
+            directory = null;
+            return;
+        }
+        File[] files = directory.listFiles();
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                long m1 = f1.lastModified();
+                long m2 = f2.lastModified();
+                return m1 < m2 ? -1 : (m1 == m2 ? 0 : 1);
+            }
+        });
+        for (File file : files) {
+            if (file.getName().endsWith(TEMP_SUFFIX)) {
+                // left over by an interrupted write
+                file.delete();
+            } else {
+                entries.put(file.getName(), Long.valueOf(file.length()));
+                weightedSize += file.length();
+            }
+        }
+        evict();
+    }
+
+    private synchronized void put(final String name, final byte[] data) {
+        init();
+        if (directory == null || entries.containsKey(name)) {
+            return;
+        }
+        File file = new File(directory, name);
+        try {
+            File temp = File.createTempFile(name, TEMP_SUFFIX, directory);
+            Files.write(data, temp);
+            file.delete();
+            if (!temp.renameTo(file)) {
+                temp.delete();
+                return;
+            }
+        } catch (IOException e) {
+            // the cache is best effort
+            return;
+        }
+        entries.put(name, Long.valueOf(data.length));
+        weightedSize += data.length;
+        evict();
+    }
+
+    private void remove(String name) {
+        Long size = entries.remove(name);
+        if (size != null) {
+            weightedSize -= size.longValue();
+            new File(directory, name).delete();
+        }
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> lru = entries.entrySet().iterator();
+        while (weightedSize > maxBytes && lru.hasNext()) {
+            Map.Entry<String, Long> eldest = lru.next();
+            lru.remove();
+            weightedSize -= eldest.getValue().longValue();
+            new File(directory, eldest.getKey()).delete();
+        }
+    }
+
+    private Optional<String> config(String key) {
+        if (configDb == null) {
+            return Optional.absent();
+        }
+        try {
+            Optional<String> value = configDb.get().get(key);
+            if (value.isPresent() && value.get().trim().isEmpty()) {
+                return Optional.absent();
+            }
+            return value;
+        } catch (ConfigException e) {
+            // not inside a repository, go with the defaults
+            return Optional.absent();
+        }
+    }
+
+    /**
+     * Decodes a cached diff; each entry is preceded by a {@code true} flag, and the stream ends
+     * with a {@code false} one.
+     */
+    private static class Decoder extends AbstractIterator<DiffEntry> {
+
+        private final DataInputStream in;
+
+        Decoder(byte[] data) {
+            try {
+                this.in = new DataInputStream(new LZFInputStream(new ByteArrayInputStream(data)));
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+
+        @Override
+        protected DiffEntry computeNext() {
+            try {
+                if (!in.readBoolean()) {
+                    return endOfData();
+                }
+                return FormatCommon.readDiff(in);
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+    }
+
+    /**
+     * Encodes the entries as they're returned, and caches them once the source is exhausted,
+     * unless they grow bigger than {@code maxEntryBytes}
+     */
+    private class Recorder extends AbstractIterator<DiffEntry> {
+
+        private final String name;
+
+        private final Iterator<DiffEntry> source;
+
+        private final long maxEntryBytes;
+
+        private ByteArrayOutputStream buffer;
+
+        private DataOutputStream out;
+
+        Recorder(String name, Iterator<DiffEntry> source, long maxEntryBytes) {
+            this.name = name;
+            this.source = source;
+            this.maxEntryBytes = maxEntryBytes;
+            this.buffer = new ByteArrayOutputStream();
+            this.out = new DataOutputStream(new LZFOutputStream(buffer));
+        }
+
+        @Override
+        protected DiffEntry computeNext() {
+            if (!source.hasNext()) {
+                if (out != null) {
+                    try {
+                        out.writeBoolean(false);
+                        out.close();
+                        put(name, buffer.toByteArray());
+                    } catch (IOException e) {
+                        // nothing to cache then
+                    }
+                    out = null;
+                    buffer = null;
+                }
+                return endOfData();
+            }
+            DiffEntry entry = source.next();
+            if (out != null) {
+                try {
+                    out.writeBoolean(true);
+                    FormatCommon.writeDiff(entry, out);
+                } catch (IOException e) {
+                    out = null;
+                }
+                if (buffer.size() > maxEntryBytes) {
+                    // too big to be worth caching
+                    out = null;
+                    buffer = null;
+                }
+            }
+            return entry;
+        }
+    }
+}
@@ -0,0 +1,969 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.channels.FileLock;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.Platform;
+import org.geogit.api.RevCommit;
+import org.geogit.api.plumbing.ResolveGeogitDir;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.io.Closeables;
+import com.google.common.io.CountingInputStream;
+import com.google.common.io.CountingOutputStream;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+
+/**
+ * Keeps the list of versions of every feature path in the indexed commits, that is, the commits
+ * that added, modified or removed the feature at that path with respect to their first parent,
+ * along with the id of the feature they left at the path, so that the history of a feature can be
+ * found without walking and diffing the whole commit history.
+ * <p>
+ * The index is optional; it's kept in the {@code featurehistory} directory of the repository
+ * directory and it's only maintained if that directory exists, which {@link #create()} does. The
+ * versions of new commits are appended to a {@code log} file, which is held in memory. Once it
+ * grows beyond {@link #COMPACT_THRESHOLD} versions, the log is written to a new segment file with
+ * the versions sorted by path, which is merged with the most recent segments not much larger than
+ * itself, so that segments get larger the older they are and every version is rewritten a
+ * logarithmic number of times. Only the commit ids and every {@link #SPARSE_INTERVAL}th path of a
+ * segment, with its file offset, are held in memory; the versions of a path are read from the
+ * segments when asked for. The {@code segments} file lists the current segments.
+ * <p>
+ * The log file is locked while it's appended to or written to a segment, and the changes made by
+ * other processes are picked up before. A record truncated by an interrupted write is dropped from
+ * the log.
+ * <p>
+ * Commits must be indexed after their parents for the versions to be kept in order.
+ *
+ * @see org.geogit.api.plumbing.UpdateFeatureHistory
+ */
+public class FeatureHistoryIndex {
+
+    private static final String DIRECTORY = "featurehistory";
+
+    private static final String MANIFEST_FILE = "segments";
+
+    private static final String LOG_FILE = "log";
+
+    private static final String SEGMENT_PREFIX = "segment-";
+
+    private static final int MAGIC = 0x46484958;
+
+    private static final int VERSION = 2;
+
+    /**
+     * Number of versions in the log file that triggers writing them to a new segment
+     */
+    static final int COMPACT_THRESHOLD = 100000;
+
+    /**
+     * One of every how many paths of a segment to hold in memory
+     */
+    static final int SPARSE_INTERVAL = 128;
+
+    private static final int ID_LENGTH = ObjectId.HASH_FUNCTION.bits() / 8;
+
+    private static final int VERSION_LENGTH = ID_LENGTH + 8 + ID_LENGTH;
+
+    /**
+     * Serializes the access to the index files of all the indexes in this JVM, since file locks
+     * are held on behalf of the whole JVM and can't be acquired twice
+     */
+    private static final Object FILE_LOCK = new Object();
+
+    private final Provider<Platform> platform;
+
+    private boolean initialized;
+
+    /**
+     * The index directory, {@code null} if not inside a repository
+     */
+    @Nullable
+    private File directory;
+
+    /**
+     * The generation of the segments file last read, {@code -1} if none was read yet
+     */
+    private long generation = -1;
+
+    private long manifestModified;
+
+    private List<Segment> segments = ImmutableList.of();
+
+    private final Set<ObjectId> commits = Sets.newHashSet();
+
+    /**
+     * How much of the log file has been read, always at a record boundary
+     */
+    private long logLength;
+
+    private final List<ObjectId> logCommits = Lists.newArrayList();
+
+    /**
+     * The versions of each path in the log file, oldest first
+     */
+    private final Map<String, List<Version>> logVersions = Maps.newHashMap();
+
+    private int logVersionCount;
+
+    /**
+     * @param platform provides the platform used to find the repository directory
+     */
+    @Inject
+    public FeatureHistoryIndex(Provider<Platform> platform) {
+        this.platform = platform;
+    }
+
+    /**
+     * @return whether the index is maintained for this repository
+     */
+    public synchronized boolean isEnabled() {
+        init();
+        return directory != null && directory.isDirectory();
+    }
+
+    /**
+     * Enables the index for this repository; it will be empty until commits are
+     * {@link #putAll(Map) added} to it
+     */
+    public synchronized void create() {
+        init();
+        if (directory == null) {
+            throw new IllegalStateException("Not inside a geogit repository");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalStateException("Unable to create " + directory);
+        }
+    }
+
+    /**
+     * Removes all the indexed commits, leaving the index enabled if it was
+     */
+    public synchronized void clear() {
+        init();
+        if (directory == null || !directory.isDirectory()) {
+            return;
+        }
+        locked(new Update() {
+            @Override
+            void run(RandomAccessFile log) throws IOException {
+                refresh(log);
+                List<Segment> obsolete = segments;
+                writeManifest(generation + 1, ImmutableList.<Segment> of());
+                log.setLength(0);
+                for (Segment segment : obsolete) {
+                    segment.file.delete();
+                }
+                refresh(log);
+            }
+        });
+    }
+
+    /**
+     * @return whether the given commit is indexed
+     */
+    public synchronized boolean isIndexed(final ObjectId commitId) {
+        init();
+        if (commits.contains(commitId)) {
+            return true;
+        }
+        return refreshIfChanged() && commits.contains(commitId);
+    }
+
+    /**
+     * @return the number of indexed commits
+     */
+    public synchronized int size() {
+        init();
+        refreshIfChanged();
+        return commits.size();
+    }
+
+    /**
+     * @param path the path of a feature
+     * @return the versions of the feature at the given path in the indexed commits, most recent
+     *         first, or an empty list if no indexed commit touched the path, or it's not a feature
+     *         path
+     */
+    public synchronized List<Version> getVersions(final String path) {
+        init();
+        refreshIfChanged();
+        try {
+            try {
+                return versions(path);
+            } catch (FileNotFoundException e) {
+                // a segment merged away by another process since the segments were last read
+                locked(new Update() {
+                    @Override
+                    void run(RandomAccessFile log) throws IOException {
+                        refresh(log);
+                    }
+                });
+                return versions(path);
+            }
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * Indexes the versions left by a number of commits, skipping the already indexed ones.
+     * Commits are indexed in iteration order, so parents shall come before their children.
+     *
+     * @param changes for each commit, the id of the feature it left at each of the feature paths
+     *        it changed, {@link ObjectId#NULL} for the removed ones
+     */
+    public synchronized void putAll(final Map<RevCommit, Map<String, ObjectId>> changes) {
+        init();
+        if (directory == null || !directory.isDirectory() || changes.isEmpty()) {
+            return;
+        }
+        locked(new Update() {
+            @Override
+            void run(RandomAccessFile log) throws IOException {
+                refresh(log);
+                append(log, changes);
+                if (logVersionCount > COMPACT_THRESHOLD) {
+                    writeLog(log);
+                }
+            }
+        });
+    }
+
+    /**
+     * Writes the versions in the log file to a new segment, regardless of how many they are
+     */
+    public synchronized void compact() {
+        init();
+        if (directory == null || !directory.isDirectory()) {
+            return;
+        }
+        locked(new Update() {
+            @Override
+            void run(RandomAccessFile log) throws IOException {
+                refresh(log);
+                writeLog(log);
+            }
+        });
+    }
+
+    private void init() {
+        if (initialized) {
+            return;
+        }
+        initialized = true;
+        final URL repoUrl = new ResolveGeogitDir(platform.get()).call();
+        if (repoUrl == null) {
+            return;
+        }
+        try {
+            directory = new File(new File(repoUrl.toURI()), DIRECTORY);
+        } catch (URISyntaxException e) {
+            throw Throwables.propagate(e);
+        }
+        refreshIfChanged();
+    }
+
+    private List<Version> versions(final String path) throws IOException {
+        List<Version> list = Lists.newArrayList();
+        for (Segment segment : segments) {
+            list.addAll(segment.versions(path));
+        }
+        List<Version> logged = logVersions.get(path);
+        if (logged != null) {
+            list.addAll(logged);
+        }
+        return ImmutableList.copyOf(Lists.reverse(list));
+    }
+
+    /**
+     * Picks up the changes made to the index files since they were last read, by this index or by
+     * another one
+     *
+     * @return whether the files had changed
+     */
+    private boolean refreshIfChanged() {
+        if (directory == null || !directory.isDirectory()) {
+            return false;
+        }
+        if (new File(directory, LOG_FILE).length() == logLength
+                && new File(directory, MANIFEST_FILE).lastModified() == manifestModified) {
+            return false;
+        }
+        locked(new Update() {
+            @Override
+            void run(RandomAccessFile log) throws IOException {
+                refresh(log);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Runs an update with the log file locked
+     */
+    private void locked(final Update update) {
+        synchronized (FILE_LOCK) {
+            try {
+                RandomAccessFile log = new RandomAccessFile(new File(directory, LOG_FILE), "rw");
+                try {
+                    FileLock lock = log.getChannel().lock();
+                    try {
+                        update.run(log);
+                    } finally {
+                        lock.release();
+                    }
+                } finally {
+                    log.close();
+                }
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+    }
+
+    /**
+     * Reloads the segments if they were changed and reads the records appended to the log since
+     * it was last read. Shall be called with the log file locked, so that a truncated record at
+     * the end can only be the leftover of an interrupted write.
+     */
+    private void refresh(final RandomAccessFile log) throws IOException {
+        final File manifest = new File(directory, MANIFEST_FILE);
+        final long modified = manifest.lastModified();
+        long manifestGeneration = 0;
+        List<String> names = ImmutableList.of();
+        if (manifest.exists()) {
+            DataInputStream in = open(manifest, 0);
+            try {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    throw new IOException(manifest + " is not a feature history index file");
+                }
+                manifestGeneration = in.readLong();
+                final int numSegments = in.readInt();
+                names = Lists.newArrayListWithCapacity(numSegments);
+                for (int i = 0; i < numSegments; i++) {
+                    names.add(in.readUTF());
+                }
+            } finally {
+                Closeables.closeQuietly(in);
+            }
+        }
+        if (manifestGeneration != generation || log.length() < logLength) {
+            // the log was written to a segment, or the index cleared, start over
+            commits.clear();
+            List<Segment> loaded = Lists.newArrayListWithCapacity(names.size());
+            for (String name : names) {
+                loaded.add(Segment.open(new File(directory, name), commits));
+            }
+            segments = loaded;
+            generation = manifestGeneration;
+            logLength = 0;
+            logCommits.clear();
+            logVersions.clear();
+            logVersionCount = 0;
+        }
+        manifestModified = modified;
+        readLog(log);
+    }
+
+    private void readLog(final RandomAccessFile log) throws IOException {
+        final long length = log.length();
+        if (length == logLength) {
+            return;
+        }
+        long validLength = logLength;
+        FileInputStream fileIn = new FileInputStream(new File(directory, LOG_FILE));
+        try {
+            fileIn.getChannel().position(logLength);
+            CountingInputStream counting = new CountingInputStream(new BufferedInputStream(
+                    fileIn));
+            DataInputStream in = new DataInputStream(counting);
+            while (true) {
+                ObjectId commitId;
+                long timestamp;
+                Map<String, ObjectId> paths;
+                try {
+                    commitId = readId(in);
+                    timestamp = in.readLong();
+                    final int numPaths = in.readInt();
+                    paths = Maps.newHashMap();
+                    for (int i = 0; i < numPaths; i++) {
+                        String path = in.readUTF();
+                        paths.put(path, readId(in));
+                    }
+                } catch (EOFException e) {
+                    break;
+                }
+                if (!commits.contains(commitId)) {
+                    addToLog(commitId, timestamp, paths);
+                }
+                validLength = logLength + counting.getCount();
+            }
+        } finally {
+            Closeables.closeQuietly(fileIn);
+        }
+        if (validLength < length) {
+            // drop the record left truncated by an interrupted write
+            log.setLength(validLength);
+        }
+        logLength = validLength;
+    }
+
+    /**
+     * Appends the records of the commits not indexed yet at the end of the log file, which shall
+     * be locked and {@link #refresh refreshed}
+     */
+    private void append(final RandomAccessFile log,
+            final Map<RevCommit, Map<String, ObjectId>> changes) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+        Map<RevCommit, Map<String, ObjectId>> appended = Maps.newLinkedHashMap();
+        for (Map.Entry<RevCommit, Map<String, ObjectId>> entry : changes.entrySet()) {
+            final RevCommit commit = entry.getKey();
+            if (commits.contains(commit.getId()) || appended.containsKey(commit)) {
+                continue;
+            }
+            final Map<String, ObjectId> paths = entry.getValue();
+            out.write(commit.getId().getRawValue());
+            out.writeLong(commit.getCommitter().getTimestamp());
+            out.writeInt(paths.size());
+            for (Map.Entry<String, ObjectId> path : paths.entrySet()) {
+                out.writeUTF(path.getKey());
+                out.write(path.getValue().getRawValue());
+            }
+            appended.put(commit, paths);
+        }
+        if (appended.isEmpty()) {
+            return;
+        }
+        out.flush();
+        log.seek(logLength);
+        log.write(buffer.toByteArray());
+        logLength += buffer.size();
+        for (Map.Entry<RevCommit, Map<String, ObjectId>> entry : appended.entrySet()) {
+            final RevCommit commit = entry.getKey();
+            addToLog(commit.getId(), commit.getCommitter().getTimestamp(), entry.getValue());
+        }
+    }
+
+    private void addToLog(final ObjectId commitId, final long timestamp,
+            final Map<String, ObjectId> paths) {
+        commits.add(commitId);
+        logCommits.add(commitId);
+        for (Map.Entry<String, ObjectId> path : paths.entrySet()) {
+            List<Version> list = logVersions.get(path.getKey());
+            if (list == null) {
+                list = Lists.newArrayListWithCapacity(2);
+                logVersions.put(path.getKey(), list);
+            }
+            list.add(new Version(commitId, timestamp, path.getValue()));
+        }
+        logVersionCount += paths.size();
+    }
+
+    /**
+     * Writes the log to a new segment and empties it. Shall be called with the log file locked
+     * and {@link #refresh refreshed}, so that the records appended by other processes are written
+     * too.
+     */
+    private void writeLog(final RandomAccessFile log) throws IOException {
+        if (logCommits.isEmpty()) {
+            return;
+        }
+        final long next = generation + 1;
+        int count = 0;
+        List<Segment> current = Lists.newArrayList(segments);
+        List<Segment> obsolete = Lists.newArrayList();
+
+        SegmentWriter writer = new SegmentWriter(segmentFile(next, count++), logCommits);
+        try {
+            for (Map.Entry<String, List<Version>> path : new TreeMap<String, List<Version>>(
+                    logVersions).entrySet()) {
+                writer.add(path.getKey(), path.getValue());
+            }
+        } catch (IOException e) {
+            writer.abort();
+            throw e;
+        }
+        Segment added = writer.close();
+
+        // keep every segment at least twice as large as the next one
+        while (!current.isEmpty()
+                && 2 * added.length > current.get(current.size() - 1).length) {
+            Segment previous = current.remove(current.size() - 1);
+            Segment merged = merge(previous, added, segmentFile(next, count++));
+            obsolete.add(previous);
+            obsolete.add(added);
+            added = merged;
+        }
+        current.add(added);
+
+        writeManifest(next, current);
+        log.setLength(0);
+        for (Segment segment : obsolete) {
+            segment.file.delete();
+        }
+        segments = current;
+        generation = next;
+        manifestModified = new File(directory, MANIFEST_FILE).lastModified();
+        logLength = 0;
+        logCommits.clear();
+        logVersions.clear();
+        logVersionCount = 0;
+    }
+
+    private File segmentFile(final long generation, final int count) {
+        return new File(directory, SEGMENT_PREFIX + generation + "-" + count);
+    }
+
+    /**
+     * Merges two segments into a new one, the versions of the older one coming first
+     */
+    private Segment merge(final Segment older, final Segment newer, final File file)
+            throws IOException {
+        Set<ObjectId> mergedCommits = Sets.newHashSet();
+        readCommits(older.file, mergedCommits);
+        readCommits(newer.file, mergedCommits);
+        SegmentWriter writer = new SegmentWriter(file, mergedCommits);
+        SegmentReader a = new SegmentReader(older);
+        try {
+            SegmentReader b = new SegmentReader(newer);
+            try {
+                while (a.path != null || b.path != null) {
+                    final int c = a.path == null ? 1 : b.path == null ? -1 : a.path
+                            .compareTo(b.path);
+                    if (c < 0) {
+                        writer.add(a.path, a.versions);
+                        a.next();
+                    } else if (c > 0) {
+                        writer.add(b.path, b.versions);
+                        b.next();
+                    } else {
+                        List<Version> versions = Lists.newArrayList(a.versions);
+                        versions.addAll(b.versions);
+                        writer.add(a.path, versions);
+                        a.next();
+                        b.next();
+                    }
+                }
+            } finally {
+                b.close();
+            }
+        } catch (IOException e) {
+            writer.abort();
+            throw e;
+        } finally {
+            a.close();
+        }
+        return writer.close();
+    }
+
+    private void writeManifest(final long generation, final List<Segment> segments)
+            throws IOException {
+        final File manifest = new File(directory, MANIFEST_FILE);
+        final File tmp = new File(directory, MANIFEST_FILE + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(generation);
+            out.writeInt(segments.size());
+            for (Segment segment : segments) {
+                out.writeUTF(segment.file.getName());
+            }
+        } finally {
+            out.close();
+        }
+        if (manifest.exists() && !manifest.delete()) {
+            throw new IOException("Unable to replace " + manifest);
+        }
+        if (!tmp.renameTo(manifest)) {
+            throw new IOException("Unable to rename " + tmp + " to " + manifest);
+        }
+    }
+
+    private static DataInputStream open(final File file, final long offset) throws IOException {
+        FileInputStream fileIn = new FileInputStream(file);
+        try {
+            fileIn.getChannel().position(offset);
+        } catch (IOException e) {
+            Closeables.closeQuietly(fileIn);
+            throw e;
+        }
+        return new DataInputStream(new BufferedInputStream(fileIn));
+    }
+
+    /**
+     * Reads the header of a segment file, adding its commits to the given set
+     */
+    private static void readCommits(final File file, final Set<ObjectId> commits)
+            throws IOException {
+        DataInputStream in = open(file, 0);
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException(file + " is not a feature history index file");
+            }
+            final int numCommits = in.readInt();
+            for (int i = 0; i < numCommits; i++) {
+                commits.add(readId(in));
+            }
+        } finally {
+            Closeables.closeQuietly(in);
+        }
+    }
+
+    private static ObjectId readId(DataInput in) throws IOException {
+        byte[] rawId = new byte[ID_LENGTH];
+        in.readFully(rawId);
+        return new ObjectId(rawId);
+    }
+
+    private static List<Version> readVersions(DataInput in, int numVersions) throws IOException {
+        List<Version> list = Lists.newArrayListWithCapacity(numVersions);
+        for (int i = 0; i < numVersions; i++) {
+            ObjectId commitId = readId(in);
+            long timestamp = in.readLong();
+            list.add(new Version(commitId, timestamp, readId(in)));
+        }
+        return list;
+    }
+
+    private static void skipFully(DataInput in, long n) throws IOException {
+        while (n > 0) {
+            int skipped = in.skipBytes((int) Math.min(n, Integer.MAX_VALUE));
+            if (skipped <= 0) {
+                throw new EOFException();
+            }
+            n -= skipped;
+        }
+    }
+
+    /**
+     * A change to the index files, run with the log file locked
+     */
+    private static abstract class Update {
+
+        abstract void run(RandomAccessFile log) throws IOException;
+    }
+
+    /**
+     * A segment file: a header with the ids of its commits, the versions of each path sorted by
+     * path, and a trailer with every {@link #SPARSE_INTERVAL}th path and its offset, followed by
+     * the offset of the trailer
+     */
+    private static class Segment {
+
+        private final File file;
+
+        private final long length;
+
+        private final int numPaths;
+
+        private final String[] keys;
+
+        private final long[] offsets;
+
+        Segment(File file, long length, int numPaths, String[] keys, long[] offsets) {
+            this.file = file;
+            this.length = length;
+            this.numPaths = numPaths;
+            this.keys = keys;
+            this.offsets = offsets;
+        }
+
+        /**
+         * Reads the commits and the sparse path index of a segment file
+         */
+        static Segment open(final File file, final Set<ObjectId> commits) throws IOException {
+            readCommits(file, commits);
+            final long length = file.length();
+            long trailer;
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                raf.seek(length - 8);
+                trailer = raf.readLong();
+            } finally {
+                raf.close();
+            }
+            DataInputStream in = FeatureHistoryIndex.open(file, trailer);
+            try {
+                final int numPaths = in.readInt();
+                final int numKeys = in.readInt();
+                String[] keys = new String[numKeys];
+                long[] offsets = new long[numKeys];
+                for (int i = 0; i < numKeys; i++) {
+                    keys[i] = in.readUTF();
+                    offsets[i] = in.readLong();
+                }
+                return new Segment(file, length, numPaths, keys, offsets);
+            } finally {
+                Closeables.closeQuietly(in);
+            }
+        }
+
+        /**
+         * @return the versions of the given path in this segment, oldest first
+         */
+        List<Version> versions(final String path) throws IOException {
+            // the last indexed path not after the one looked for
+            int block = -1;
+            int low = 0;
+            int high = keys.length - 1;
+            while (low <= high) {
+                final int mid = (low + high) >>> 1;
+                if (keys[mid].compareTo(path) <= 0) {
+                    block = mid;
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            if (block < 0) {
+                return ImmutableList.of();
+            }
+            DataInputStream in = FeatureHistoryIndex.open(file, offsets[block]);
+            try {
+                final int blockSize = Math.min(SPARSE_INTERVAL, numPaths - block
+                        * SPARSE_INTERVAL);
+                for (int i = 0; i < blockSize; i++) {
+                    final int c = in.readUTF().compareTo(path);
+                    final int numVersions = in.readInt();
+                    if (c == 0) {
+                        return readVersions(in, numVersions);
+                    }
+                    if (c > 0) {
+                        break;
+                    }
+                    skipFully(in, (long) numVersions * VERSION_LENGTH);
+                }
+            } finally {
+                Closeables.closeQuietly(in);
+            }
+            return ImmutableList.of();
+        }
+    }
+
+    /**
+     * Reads the paths of a segment in order
+     */
+    private static class SegmentReader {
+
+        private final DataInputStream in;
+
+        private int remaining;
+
+        @Nullable
+        private String path;
+
+        private List<Version> versions;
+
+        SegmentReader(final Segment segment) throws IOException {
+            in = open(segment.file, 0);
+            remaining = segment.numPaths;
+            try {
+                in.readInt();
+                in.readInt();
+                skipFully(in, (long) in.readInt() * ID_LENGTH);
+                next();
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        /**
+         * Moves to the next path, leaving {@link #path} {@code null} past the last one
+         */
+        void next() throws IOException {
+            if (remaining == 0) {
+                path = null;
+                versions = null;
+                return;
+            }
+            path = in.readUTF();
+            versions = readVersions(in, in.readInt());
+            remaining--;
+        }
+
+        void close() {
+            Closeables.closeQuietly(in);
+        }
+    }
+
+    /**
+     * Writes a segment file, given its paths in order
+     */
+    private static class SegmentWriter {
+
+        private final File file;
+
+        private final CountingOutputStream counting;
+
+        private final DataOutputStream out;
+
+        private final List<String> keys = Lists.newArrayList();
+
+        private final List<Long> offsets = Lists.newArrayList();
+
+        private int numPaths;
+
+        SegmentWriter(final File file, final Collection<ObjectId> commits) throws IOException {
+            this.file = file;
+            this.counting = new CountingOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(file)));
+            this.out = new DataOutputStream(counting);
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(commits.size());
+                for (ObjectId commitId : commits) {
+                    out.write(commitId.getRawValue());
+                }
+            } catch (IOException e) {
+                abort();
+                throw e;
+            }
+        }
+
+        void add(final String path, final List<Version> versions) throws IOException {
+            if (numPaths % SPARSE_INTERVAL == 0) {
+                keys.add(path);
+                offsets.add(Long.valueOf(counting.getCount()));
+            }
+            numPaths++;
+            out.writeUTF(path);
+            out.writeInt(versions.size());
+            for (Version version : versions) {
+                out.write(version.getCommitId().getRawValue());
+                out.writeLong(version.getTimestamp());
+                out.write(version.getObjectId().getRawValue());
+            }
+        }
+
+        Segment close() throws IOException {
+            final String[] keyArray = keys.toArray(new String[keys.size()]);
+            final long[] offsetArray = new long[offsets.size()];
+            try {
+                final long trailer = counting.getCount();
+                out.writeInt(numPaths);
+                out.writeInt(keyArray.length);
+                for (int i = 0; i < keyArray.length; i++) {
+                    offsetArray[i] = offsets.get(i).longValue();
+                    out.writeUTF(keyArray[i]);
+                    out.writeLong(offsetArray[i]);
+                }
+                out.writeLong(trailer);
+                out.close();
+            } catch (IOException e) {
+                abort();
+                throw e;
+            }
+            return new Segment(file, file.length(), numPaths, keyArray, offsetArray);
+        }
+
+        void abort() {
+            Closeables.closeQuietly(out);
+            file.delete();
+        }
+    }
+
+    /**
+     * A version of a feature: the commit that changed it, and the id of the feature the commit
+     * left at its path
+     */
+    public static class Version {
+
+        private final ObjectId commitId;
+
+        private final long timestamp;
+
+        private final ObjectId objectId;
+
+        Version(ObjectId commitId, long timestamp, ObjectId objectId) {
+            this.commitId = commitId;
+            this.timestamp = timestamp;
+            this.objectId = objectId;
+        }
+
+        /**
+         * @return the id of the commit that changed the feature
+         */
+        public ObjectId getCommitId() {
+            return commitId;
+        }
+
+        /**
+         * @return the committer timestamp of the commit that changed the feature
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * @return the id of the feature left by the commit, {@link ObjectId#NULL} if it removed it
+         */
+        public ObjectId getObjectId() {
+            return objectId;
+        }
+
+        /**
+         * @return whether the commit removed the feature
+         */
+        public boolean isRemoved() {
+            return objectId.isNull();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Version)) {
+                return false;
+            }
+            Version v = (Version) o;
+            return commitId.equals(v.commitId) && objectId.equals(v.objectId)
+                    && timestamp == v.timestamp;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(commitId, objectId, Long.valueOf(timestamp));
+        }
+
+        @Override
+        public String toString() {
+            return "Version[" + commitId + ", " + objectId + "]";
+        }
+    }
+}
@@ -59,7 +59,12 @@ public enum FieldType {
     DATETIME(0x1C, Date.class), //
     DATE(0x1D, java.sql.Date.class), //
     TIME(0x1E, java.sql.Time.class), //
-    TIMESTAMP(0x1F, java.sql.Timestamp.class);
+    TIMESTAMP(0x1F, java.sql.Timestamp.class), //
+    /**
+     * Geometries in the datastream format's compact encoding, only ever used as a storage tag.
+     * Being declared after {@link #GEOMETRY}, bindings still resolve to the WKB based types.
+     */
+    COMPACT_GEOMETRY(0x20, Geometry.class);
 
     private final byte tagValue;
 
@@ -68,7 +73,10 @@ public enum FieldType {
     private static final Map<Class<?>, FieldType> BINDING_MAPPING = Maps.newHashMap();
     static {
         for (FieldType t : FieldType.values()) {
-            BINDING_MAPPING.put(t.getBinding(), t);
+            // first one wins, so that alternate encodings don't take over a binding
+            if (!BINDING_MAPPING.containsKey(t.getBinding())) {
+                BINDING_MAPPING.put(t.getBinding(), t);
+            }
         }
     }
 
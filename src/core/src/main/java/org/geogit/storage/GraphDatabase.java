@@ -60,6 +60,27 @@ public interface GraphDatabase {
      */
     public boolean put(final ObjectId commitId, ImmutableList<ObjectId> parentIds);
 
+    /**
+     * Adds a commit to the database with the given parents and committer timestamp. If a commit
+     * with the same id already exists, it will not be inserted.
+     * 
+     * @param commitId the commit id to insert
+     * @param parentIds the commit ids of the commit's parents
+     * @param timestamp the committer timestamp of the commit
+     * @return true if the commit id was inserted, false otherwise
+     * @see #getTimestamp(ObjectId)
+     */
+    public boolean put(final ObjectId commitId, ImmutableList<ObjectId> parentIds, long timestamp);
+
+    /**
+     * Gets the committer timestamp of a commit, as given when it was {@link #put(ObjectId,
+     * ImmutableList, long) added}.
+     * 
+     * @param commitId the commit id
+     * @return the timestamp of the commit, or {@link Optional#absent()} if it's not known
+     */
+    public Optional<Long> getTimestamp(final ObjectId commitId);
+
     /**
      * Maps a commit to another original commit. This is used in sparse repositories.
      * 
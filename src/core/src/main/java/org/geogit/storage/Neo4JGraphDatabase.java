@@ -36,6 +36,7 @@ import org.neo4j.graphdb.traversal.Evaluator;
 import org.neo4j.graphdb.traversal.TraversalDescription;
 import org.neo4j.graphdb.traversal.Traverser;
 import org.neo4j.kernel.Traversal;
+import org.neo4j.tooling.GlobalGraphOperations;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Throwables;
@@ -53,6 +54,8 @@ public class Neo4JGraphDatabase extends AbstractGraphDatabase {
 
     private final Platform platform;
 
+    private static final String TIMESTAMP_PROPERTY = "timestamp";
+
     private enum CommitRelationshipTypes implements RelationshipType {
         TOROOT, PARENT, MAPPED_TO
     }
@@ -198,6 +201,19 @@ public class Neo4JGraphDatabase extends AbstractGraphDatabase {
 
     @Override
     public boolean put(ObjectId commitId, ImmutableList<ObjectId> parentIds) {
+        return put(commitId, parentIds, Optional.<Long> absent());
+    }
+
+    @Override
+    public boolean put(ObjectId commitId, ImmutableList<ObjectId> parentIds, long timestamp) {
+        return put(commitId, parentIds, Optional.of(Long.valueOf(timestamp)));
+    }
+
+    /**
+     * Adds the commit node and its timestamp, if given, in a single transaction
+     */
+    private boolean put(ObjectId commitId, ImmutableList<ObjectId> parentIds,
+            Optional<Long> timestamp) {
         Transaction tx = graphDB.beginTx();
 
         Node commitNode = null;
@@ -224,6 +240,10 @@ public class Neo4JGraphDatabase extends AbstractGraphDatabase {
                 }
             }
 
+            if (timestamp.isPresent()) {
+                commitNode.setProperty(TIMESTAMP_PROPERTY, String.valueOf(timestamp.get()));
+            }
+
             tx.success();
         } catch (Exception e) {
             tx.failure();
@@ -235,6 +255,16 @@ public class Neo4JGraphDatabase extends AbstractGraphDatabase {
         return true;
     }
 
+    @Override
+    public Optional<Long> getTimestamp(ObjectId commitId) {
+        Index<Node> idIndex = graphDB.index().forNodes("identifiers");
+        Node node = idIndex.get("id", commitId.toString()).getSingle();
+        if (node == null || !node.hasProperty(TIMESTAMP_PROPERTY)) {
+            return Optional.absent();
+        }
+        return Optional.of(Long.valueOf((String) node.getProperty(TIMESTAMP_PROPERTY)));
+    }
+
     /**
      * Maps a commit to another original commit. This is used in sparse repositories.
      * 
@@ -454,6 +484,47 @@ public class Neo4JGraphDatabase extends AbstractGraphDatabase {
 
     }
 
+    /**
+     * Copies the commits, parent relationships, mappings and properties of this graph to another
+     * graph database, used to migrate repositories to a different implementation.
+     * 
+     * @param target the graph database to copy the commits to
+     */
+    public void copyTo(GraphDatabase target) {
+        for (Node node : GlobalGraphOperations.at(graphDB).getAllNodes()) {
+            if (!node.hasProperty("id")) {
+                // the root node
+                continue;
+            }
+            final ObjectId commitId = ObjectId.valueOf((String) node.getProperty("id"));
+            final boolean root = node
+                    .getRelationships(Direction.OUTGOING, CommitRelationshipTypes.TOROOT)
+                    .iterator().hasNext();
+            Builder<ObjectId> parentIds = new ImmutableList.Builder<ObjectId>();
+            for (Node parentNode : getParentNodes(node)) {
+                parentIds.add(ObjectId.valueOf((String) parentNode.getProperty("id")));
+            }
+            ImmutableList<ObjectId> parents = parentIds.build();
+            if (root || !parents.isEmpty()) {
+                if (node.hasProperty(TIMESTAMP_PROPERTY)) {
+                    long timestamp = Long.parseLong((String) node.getProperty(TIMESTAMP_PROPERTY));
+                    target.put(commitId, parents, timestamp);
+                } else {
+                    target.put(commitId, parents);
+                }
+            }
+            Node mappedNode = getMappedNode(node);
+            if (mappedNode != null) {
+                target.map(commitId, ObjectId.valueOf((String) mappedNode.getProperty("id")));
+            }
+            for (String key : node.getPropertyKeys()) {
+                if (!"id".equals(key) && !TIMESTAMP_PROPERTY.equals(key)) {
+                    target.setProperty(commitId, key, String.valueOf(node.getProperty(key)));
+                }
+            }
+        }
+    }
+
     private boolean processCommit(Node commit, Queue<Node> myQueue, Set<Node> mySet,
             Queue<Node> theirQueue, Set<Node> theirSet) {
         if (!mySet.contains(commit)) {
@@ -43,7 +43,10 @@ public final class NodePathStorageOrder extends Ordering<String> {
     // private Cache<String, ObjectId> cache = CacheBuilder.newBuilder().maximumSize(1000).build();
     private Map<String, ObjectId> cache = new WeakHashMap<String, ObjectId>();
 
-    private ObjectId pathHash(final String path) {
+    /**
+     * @return the SHA1 hash of the UTF-8 bytes of {@code path}, by which nodes are ordered
+     */
+    public ObjectId pathHash(final String path) {
         ObjectId pathHash = cache.get(path);// .getIfPresent(path);
         if (pathHash == null) {
             hasher.reset();
@@ -60,8 +63,18 @@ public final class NodePathStorageOrder extends Ordering<String> {
      * @return and Integer between zero and {@link RevTree#MAX_BUCKETS} minus one
      */
     public Integer bucket(final String nodeName, final int depth) {
+        return bucket(pathHash(nodeName), depth);
+    }
+
+    /**
+     * Computes the bucket index that corresponds to the given {@link #pathHash(String) path hash}
+     * at the given depth.
+     * 
+     * @return and Integer between zero and {@link RevTree#MAX_BUCKETS} minus one
+     */
+    public Integer bucket(final ObjectId pathHash, final int depth) {
 
-        final int byteN = pathHash(nodeName).byteN(depth);// 0-255
+        final int byteN = pathHash.byteN(depth);// 0-255
         final int maxBuckets = RevTree.MAX_BUCKETS;
 
         final int bucket = (byteN * maxBuckets) / 256;
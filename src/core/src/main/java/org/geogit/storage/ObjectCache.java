@@ -0,0 +1,515 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.Node;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevCommit;
+import org.geogit.api.RevFeature;
+import org.geogit.api.RevFeatureType;
+import org.geogit.api.RevObject;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.RevTag;
+import org.geogit.api.RevTree;
+import org.geogit.api.porcelain.ConfigException;
+import org.geogit.storage.datastream.LazyRevFeature;
+import org.geogit.storage.datastream.LazyRevTree;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Closeables;
+import com.google.inject.Provider;
+import com.ning.compress.lzf.LZFInputStream;
+import com.ning.compress.lzf.LZFOutputStream;
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * A byte bounded cache of {@link RevObject}s, with a separate budget for each
+ * {@link RevObject.TYPE object type}.
+ * <p>
+ * Entries are weighted by their serialized size. When the cache holds objects on the heap that
+ * size is estimated from the object contents; when it's configured to work {@code offheap}, the
+ * objects are kept LZF compressed in direct buffers and weighted by their exact compressed size,
+ * at the cost of decoding them on each hit.
+ * <p>
+ * The geometries of features are mutable, so features are not shared with the callers getting them
+ * out of the cache. A {@link LazyRevFeature} is held as a {@link LazyRevFeature#copy() copy} and
+ * each hit gets a copy of its own, which decodes its values again only if it needs them; any other
+ * feature is held serialized, even on the heap, and decoded into a new one on each hit.
+ * <p>
+ * The cache is configured through the repository config database the first time it's used:
+ * <ul>
+ * <li>{@code cache.<type>.maxbytes}: byte budget for the given type (one of {@code commit},
+ * {@code tree}, {@code feature}, {@code featuretype}, {@code tag}). Zero disables caching for
+ * that type.
+ * <li>{@code cache.offheap}: {@code true} to hold compressed objects off the heap
+ * <li>{@code cache.expireafteraccess}: if greater than zero, number of seconds after which an
+ * entry that has not been accessed is evicted
+ * </ul>
+ * Hit, miss, and eviction counts are recorded per type and available through {@link #stats(TYPE)}.
+ *
+ * @see CachingObjectDatabaseGetInterceptor
+ */
+public class ObjectCache {
+
+    private static final int ID_SIZE = 20;
+
+    private static final Map<TYPE, Long> DEFAULT_MAX_BYTES = new EnumMap<TYPE, Long>(TYPE.class);
+    static {
+        DEFAULT_MAX_BYTES.put(TYPE.COMMIT, 8L * 1024 * 1024);
+        DEFAULT_MAX_BYTES.put(TYPE.TREE, 64L * 1024 * 1024);
+        DEFAULT_MAX_BYTES.put(TYPE.FEATURE, 32L * 1024 * 1024);
+        DEFAULT_MAX_BYTES.put(TYPE.FEATURETYPE, 4L * 1024 * 1024);
+        DEFAULT_MAX_BYTES.put(TYPE.TAG, 1L * 1024 * 1024);
+    }
+
+    private final Provider<ConfigDatabase> configDb;
+
+    private final Provider<ObjectSerializingFactory> serialFactory;
+
+    private volatile Map<TYPE, TypeCache> caches;
+
+    /**
+     * @param configDb provides the config database the cache settings are read from
+     * @param serialFactory provides the serialization format used to hold objects off-heap
+     */
+    public ObjectCache(Provider<ConfigDatabase> configDb,
+            Provider<ObjectSerializingFactory> serialFactory) {
+        this.configDb = configDb;
+        this.serialFactory = serialFactory;
+    }
+
+    /**
+     * @return the cached object with the given id, or {@code null} if it's not cached
+     */
+    @Nullable
+    public RevObject getIfPresent(final ObjectId id) {
+        for (TypeCache cache : caches().values()) {
+            RevObject object = cache.getIfPresent(id);
+            if (object != null) {
+                return object;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the cached object with the given id if it's cached and of the given type,
+     *         {@code null} otherwise
+     */
+    @Nullable
+    public <T extends RevObject> T getIfPresent(final ObjectId id, final Class<T> type) {
+        final TYPE objectType = typeOf(type);
+        RevObject object;
+        if (objectType == null) {
+            object = getIfPresent(id);
+        } else {
+            TypeCache cache = caches().get(objectType);
+            object = cache == null ? null : cache.getIfPresent(id);
+        }
+        return type.isInstance(object) ? type.cast(object) : null;
+    }
+
+    /**
+     * Adds the given object to the cache for its type, if caching is enabled for it.
+     * <p>
+     * Objects are expected to be added after looking them up in the cache failed, hence each call
+     * counts as a cache miss for the object's type.
+     */
+    public void put(final RevObject object) {
+        TypeCache cache = caches().get(object.getType());
+        if (cache != null) {
+            cache.put(object);
+        }
+    }
+
+    /**
+     * Discards the object with the given id, if cached.
+     */
+    public void invalidate(final ObjectId id) {
+        for (TypeCache cache : caches().values()) {
+            cache.cache.invalidate(id);
+        }
+    }
+
+    /**
+     * Discards all cached objects.
+     */
+    public void invalidateAll() {
+        for (TypeCache cache : caches().values()) {
+            cache.cache.invalidateAll();
+        }
+    }
+
+    /**
+     * @return the hit, miss and eviction counts for the given type; load counts are not tracked
+     *         and always zero
+     */
+    public CacheStats stats(final TYPE type) {
+        TypeCache cache = caches().get(type);
+        if (cache == null) {
+            return new CacheStats(0, 0, 0, 0, 0, 0);
+        }
+        return new CacheStats(cache.hits.get(), cache.misses.get(), 0, 0, 0,
+                cache.evictions.get());
+    }
+
+    /**
+     * @return the current weight, in bytes, of the objects of the given type held by the cache
+     */
+    public long weightedSize(final TYPE type) {
+        TypeCache cache = caches().get(type);
+        return cache == null ? 0L : cache.weightedSize.get();
+    }
+
+    /**
+     * @return the configured byte budget for the given type, {@code 0} if caching is disabled for
+     *         that type
+     */
+    public long maxBytes(final TYPE type) {
+        TypeCache cache = caches().get(type);
+        return cache == null ? 0L : cache.maxBytes;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("ObjectCache[");
+        for (TypeCache cache : caches().values()) {
+            CacheStats stats = stats(cache.type);
+            sb.append(cache.type).append(": ").append(cache.weightedSize.get()).append('/')
+                    .append(cache.maxBytes).append(" bytes, hits=").append(stats.hitCount())
+                    .append(", misses=").append(stats.missCount()).append(", evictions=")
+                    .append(stats.evictionCount()).append("; ");
+        }
+        return sb.append(']').toString();
+    }
+
+    private Map<TYPE, TypeCache> caches() {
+        Map<TYPE, TypeCache> caches = this.caches;
+        if (caches == null) {
+            synchronized (this) {
+                caches = this.caches;
+                if (caches == null) {
+                    caches = createCaches();
+                    this.caches = caches;
+                }
+            }
+        }
+        return caches;
+    }
+
+    private Map<TYPE, TypeCache> createCaches() {
+        final boolean offHeap = Boolean.valueOf(config("cache.offheap").or("false"));
+        final long expireSeconds = Long.parseLong(config("cache.expireafteraccess").or("0"));
+
+        Map<TYPE, TypeCache> caches = new EnumMap<TYPE, TypeCache>(TYPE.class);
+        for (TYPE type : DEFAULT_MAX_BYTES.keySet()) {
+            String key = "cache." + type.name().toLowerCase() + ".maxbytes";
+            long maxBytes = config(key).isPresent() ? Long.parseLong(config(key).get())
+                    : DEFAULT_MAX_BYTES.get(type).longValue();
+            if (maxBytes > 0) {
+                caches.put(type, new TypeCache(type, maxBytes, expireSeconds, offHeap));
+            }
+        }
+        return caches;
+    }
+
+    @Nullable
+    private static TYPE typeOf(Class<? extends RevObject> clazz) {
+        if (RevTree.class.isAssignableFrom(clazz)) {
+            return TYPE.TREE;
+        } else if (RevFeature.class.isAssignableFrom(clazz)) {
+            return TYPE.FEATURE;
+        } else if (RevFeatureType.class.isAssignableFrom(clazz)) {
+            return TYPE.FEATURETYPE;
+        } else if (RevCommit.class.isAssignableFrom(clazz)) {
+            return TYPE.COMMIT;
+        } else if (RevTag.class.isAssignableFrom(clazz)) {
+            return TYPE.TAG;
+        }
+        return null;
+    }
+
+    private Optional<String> config(String key) {
+        if (configDb == null) {
+            return Optional.absent();
+        }
+        try {
+            Optional<String> value = configDb.get().get(key);
+            if (value.isPresent() && value.get().trim().isEmpty()) {
+                return Optional.absent();
+            }
+            return value;
+        } catch (ConfigException e) {
+            // not inside a repository, go with the defaults
+            return Optional.absent();
+        }
+    }
+
+    /**
+     * The cache for a single object type. Values are either the {@link RevObject} itself, a
+     * {@code byte[]} holding its serialized form, or a direct {@link ByteBuffer} holding its LZF
+     * compressed serialized form.
+     */
+    private class TypeCache {
+
+        private final TYPE type;
+
+        private final long maxBytes;
+
+        private final boolean offHeap;
+
+        private final Cache<ObjectId, Object> cache;
+
+        private final AtomicLong weightedSize = new AtomicLong();
+
+        private final AtomicLong hits = new AtomicLong();
+
+        private final AtomicLong misses = new AtomicLong();
+
+        private final AtomicLong evictions = new AtomicLong();
+
+        TypeCache(final TYPE type, final long maxBytes, final long expireSeconds,
+                final boolean offHeap) {
+            this.type = type;
+            this.maxBytes = maxBytes;
+            this.offHeap = offHeap;
+
+            CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder();
+            builder.concurrencyLevel(4).maximumWeight(maxBytes);
+            builder.weigher(new Weigher<ObjectId, Object>() {
+                @Override
+                public int weigh(ObjectId key, Object value) {
+                    return weight(value);
+                }
+            });
+            if (expireSeconds > 0) {
+                builder.expireAfterAccess(expireSeconds, TimeUnit.SECONDS);
+            }
+            builder.removalListener(new RemovalListener<ObjectId, Object>() {
+                @Override
+                public void onRemoval(RemovalNotification<ObjectId, Object> notification) {
+                    weightedSize.addAndGet(-weight(notification.getValue()));
+                    if (notification.wasEvicted()) {
+                        evictions.incrementAndGet();
+                    }
+                }
+            });
+            this.cache = builder.build();
+        }
+
+        /**
+         * Probes this cache without recording a miss, since the object may well be in the cache
+         * for another type.
+         */
+        @Nullable
+        RevObject getIfPresent(ObjectId id) {
+            Object value = cache.asMap().get(id);
+            if (value == null) {
+                return null;
+            }
+            hits.incrementAndGet();
+            if (value instanceof LazyRevFeature) {
+                return ((LazyRevFeature) value).copy();
+            }
+            if (value instanceof RevObject) {
+                return (RevObject) value;
+            }
+            if (value instanceof byte[]) {
+                return read(id, new ByteArrayInputStream((byte[]) value));
+            }
+            return decode(id, (ByteBuffer) value);
+        }
+
+        void put(RevObject object) {
+            misses.incrementAndGet();
+            Object value;
+            if (offHeap) {
+                value = encode(object);
+            } else if (object instanceof LazyRevFeature) {
+                // don't share the values the caller decodes
+                value = ((LazyRevFeature) object).copy();
+            } else if (object instanceof RevFeature) {
+                // don't share its geometries with the callers getting it out of the cache
+                value = serialize(object);
+            } else {
+                value = object;
+            }
+            int weight = weight(value);
+            if (weight > maxBytes) {
+                return;
+            }
+            // account for the new weight before the cache gets a chance to evict it
+            weightedSize.addAndGet(weight);
+            cache.put(object.getId(), value);
+        }
+
+        private byte[] serialize(RevObject object) {
+            ObjectWriter<RevObject> writer = serialFactory.get().createObjectWriter(
+                    object.getType());
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try {
+                writer.write(object, out);
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+            return out.toByteArray();
+        }
+
+        private ByteBuffer encode(RevObject object) {
+            ObjectWriter<RevObject> writer = serialFactory.get().createObjectWriter(
+                    object.getType());
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            LZFOutputStream cOut = new LZFOutputStream(out);
+            try {
+                writer.write(object, cOut);
+                cOut.close();
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+            byte[] bytes = out.toByteArray();
+            ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+            buffer.put(bytes);
+            buffer.flip();
+            return buffer;
+        }
+
+        private RevObject decode(ObjectId id, ByteBuffer buffer) {
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.duplicate().get(bytes);
+            InputStream in;
+            try {
+                in = new LZFInputStream(new ByteArrayInputStream(bytes));
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+            try {
+                return read(id, in);
+            } finally {
+                Closeables.closeQuietly(in);
+            }
+        }
+
+        private RevObject read(ObjectId id, InputStream in) {
+            return serialFactory.get().createObjectReader().read(id, in);
+        }
+    }
+
+    private static int weight(Object value) {
+        if (value instanceof ByteBuffer) {
+            return ((ByteBuffer) value).capacity();
+        }
+        if (value instanceof byte[]) {
+            return ((byte[]) value).length;
+        }
+        long size = estimateSize((RevObject) value);
+        return (int) Math.min(Integer.MAX_VALUE, size);
+    }
+
+    /**
+     * Estimates the serialized size of an object without actually serializing it. The estimate
+     * doesn't need to be exact, just proportional enough to keep the cache within its budget.
+     */
+    static long estimateSize(final RevObject object) {
+        final int idSize = ID_SIZE;
+        long size = idSize + 1;
+        switch (object.getType()) {
+        case TREE: {
+            if (object instanceof LazyRevTree) {
+                // don't force decoding the nodes just to weigh them
+                return size + ((LazyRevTree) object).serializedSize();
+            }
+            RevTree tree = (RevTree) object;
+            size += 16;
+            ImmutableList<Node> empty = ImmutableList.of();
+            for (Node node : tree.trees().or(empty)) {
+                size += estimateSize(node);
+            }
+            for (Node node : tree.features().or(empty)) {
+                size += estimateSize(node);
+            }
+            if (tree.buckets().isPresent()) {
+                // bucket index, id and bounds
+                size += (4 + idSize + 32) * tree.buckets().get().size();
+            }
+            break;
+        }
+        case FEATURE: {
+            if (object instanceof LazyRevFeature) {
+                // don't force decoding the values just to weigh them, and leave room for the ones
+                // decoded later on
+                return size + 4 * ((LazyRevFeature) object).serializedSize();
+            }
+            for (Optional<Object> value : ((RevFeature) object).getValues()) {
+                size += 1 + (value.isPresent() ? estimateValueSize(value.get()) : 0);
+            }
+            break;
+        }
+        case FEATURETYPE: {
+            size += 64 * ((RevFeatureType) object).sortedDescriptors().size();
+            break;
+        }
+        case COMMIT: {
+            RevCommit commit = (RevCommit) object;
+            size += idSize * (1 + commit.getParentIds().size()) + 128;
+            size += commit.getMessage() == null ? 0 : 2 * commit.getMessage().length();
+            break;
+        }
+        case TAG: {
+            RevTag tag = (RevTag) object;
+            size += idSize + 128 + 2 * tag.getName().length();
+            size += tag.getMessage() == null ? 0 : 2 * tag.getMessage().length();
+            break;
+        }
+        default:
+            break;
+        }
+        return size;
+    }
+
+    private static long estimateSize(Node node) {
+        // name, object id, type and bounds
+        long size = 2 * node.getName().length() + ID_SIZE + 1 + 32;
+        if (node.getMetadataId().isPresent()) {
+            size += ID_SIZE;
+        }
+        return size;
+    }
+
+    private static long estimateValueSize(Object value) {
+        if (value instanceof Geometry) {
+            return 16L * ((Geometry) value).getNumPoints() + 8;
+        }
+        if (value instanceof CharSequence) {
+            return 2L * ((CharSequence) value).length();
+        }
+        if (value instanceof byte[]) {
+            return ((byte[]) value).length;
+        }
+        if (value instanceof Number || value instanceof Boolean || value instanceof Character) {
+            return 8;
+        }
+        return 16;
+    }
+}
@@ -7,6 +7,7 @@ package org.geogit.storage;
 import java.io.InputStream;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 
 import javax.annotation.Nullable;
 
@@ -47,6 +48,17 @@ public interface ObjectDatabase {
      */
     public boolean exists(final ObjectId id);
 
+    /**
+     * Determines which of the given {@link ObjectId}s exist in the object database.
+     * <p>
+     * Implementations are encouraged to resolve the ids in batches rather than issuing one look up
+     * per id.
+     * 
+     * @param ids the ids to search for
+     * @return the subset of {@code ids} that exist in the database
+     */
+    public Set<ObjectId> existsAll(Iterable<ObjectId> ids);
+
     /**
      * Gets the raw input stream of the object with the given {@link ObjectId id}.
      * 
@@ -97,6 +109,18 @@ public interface ObjectDatabase {
     <T extends RevObject> T getIfPresent(ObjectId id, Class<T> type)
             throws IllegalArgumentException;
 
+    /**
+     * Reads all the objects with the given {@link ObjectId ids} out of the database.
+     * <p>
+     * The returned iterator is lazy, objects are fetched in batches as it's traversed. Ids for
+     * which no object exists are silently skipped, and the objects are <b>not</b> guaranteed to be
+     * returned in the same order than the requested ids.
+     * 
+     * @param ids the ids of the objects to fetch
+     * @return an iterator over the objects found
+     */
+    public Iterator<RevObject> getAll(Iterable<ObjectId> ids);
+
     /**
      * Shortcut for {@link #get(ObjectId, Class) get(id, RevTree.class)}
      */
@@ -79,7 +79,7 @@ public class ObjectDatabasePutInterceptor implements MethodInterceptor {
             for (RevCommit commit : addedCommits) {
                 ObjectId commitId = commit.getId();
                 ImmutableList<ObjectId> parentIds = commit.getParentIds();
-                graphDatabase.put(commitId, parentIds);
+                graphDatabase.put(commitId, parentIds, commit.getCommitter().getTimestamp());
             }
         }
 
@@ -94,7 +94,7 @@ public class ObjectDatabasePutInterceptor implements MethodInterceptor {
             RevCommit commit = repository.get().getCommit(objectId);
             ObjectId commitId = commit.getId();
             ImmutableList<ObjectId> parentIds = commit.getParentIds();
-            graphDb.get().put(commitId, parentIds);
+            graphDb.get().put(commitId, parentIds, commit.getCommitter().getTimestamp());
         }
 
         return result;
@@ -108,7 +108,7 @@ public class ObjectDatabasePutInterceptor implements MethodInterceptor {
             RevCommit commit = (RevCommit) revObject;
             ObjectId commitId = commit.getId();
             ImmutableList<ObjectId> parentIds = commit.getParentIds();
-            graphDb.get().put(commitId, parentIds);
+            graphDb.get().put(commitId, parentIds, commit.getCommitter().getTimestamp());
         }
 
         return invocation.proceed();
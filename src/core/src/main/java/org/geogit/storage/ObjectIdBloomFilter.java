@@ -0,0 +1,275 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.geogit.api.ObjectId;
+
+import com.google.common.io.Closeables;
+
+/**
+ * A Bloom filter over {@link ObjectId}s, used by object databases to answer "definitely not
+ * stored" without touching the underlying storage.
+ * <p>
+ * Since object ids are already SHA-1 hashes, the bit positions are derived straight from the id
+ * bytes by double hashing instead of re-hashing them. The filter is safe for concurrent use and
+ * can be saved to and loaded from a file.
+ * <p>
+ * Besides the {@link #expectedFpp() expected false positive probability}, which degrades as more
+ * ids than the filter was sized for are added, the filter keeps track of the
+ * {@link #observedFpp() observed} rate as reported by its owner through
+ * {@link #falsePositive()}.
+ */
+public class ObjectIdBloomFilter {
+
+    /**
+     * Default number of ids a new filter is sized for
+     */
+    public static final long DEFAULT_EXPECTED_INSERTIONS = 1024 * 1024;
+
+    /**
+     * Number of bits per expected id, ~1% false positive probability with {@link #NUM_HASHES}
+     */
+    private static final int BITS_PER_ID = 10;
+
+    private static final int NUM_HASHES = 7;
+
+    private static final int MAGIC = 0x4747424c;// GGBL
+
+    private static final int VERSION = 1;
+
+    private final AtomicLongArray words;
+
+    private final long numBits;
+
+    private final int numHashes;
+
+    private final AtomicLong bitCount;
+
+    private final AtomicLong insertions;
+
+    private final AtomicLong negatives = new AtomicLong();
+
+    private final AtomicLong falsePositives = new AtomicLong();
+
+    private ObjectIdBloomFilter(final AtomicLongArray words, final int numHashes,
+            final long bitCount, final long insertions) {
+        this.words = words;
+        this.numBits = 64L * words.length();
+        this.numHashes = numHashes;
+        this.bitCount = new AtomicLong(bitCount);
+        this.insertions = new AtomicLong(insertions);
+    }
+
+    /**
+     * Creates an empty filter sized for the given number of ids.
+     */
+    public static ObjectIdBloomFilter create(final long expectedInsertions) {
+        checkArgument(expectedInsertions > 0, "expectedInsertions shall be positive");
+        long bits = expectedInsertions * BITS_PER_ID;
+        long numWords = Math.min(Integer.MAX_VALUE, (bits + 63) / 64);
+        return new ObjectIdBloomFilter(new AtomicLongArray((int) numWords), NUM_HASHES, 0L, 0L);
+    }
+
+    /**
+     * Adds the id to the filter.
+     *
+     * @return {@code true} if the filter changed, {@code false} if the id might already have been
+     *         added
+     */
+    public boolean put(final ObjectId id) {
+        final long hash1 = hash1(id);
+        final long hash2 = hash2(id);
+        boolean changed = false;
+        for (int i = 1; i <= numHashes; i++) {
+            long bit = ((hash1 + i * hash2) & Long.MAX_VALUE) % numBits;
+            changed |= set(bit);
+        }
+        if (changed) {
+            insertions.incrementAndGet();
+        }
+        return changed;
+    }
+
+    /**
+     * @return {@code false} if the id has definitely not been added to the filter, {@code true}
+     *         if it might have been
+     */
+    public boolean mightContain(final ObjectId id) {
+        final long hash1 = hash1(id);
+        final long hash2 = hash2(id);
+        for (int i = 1; i <= numHashes; i++) {
+            long bit = ((hash1 + i * hash2) & Long.MAX_VALUE) % numBits;
+            if (!get(bit)) {
+                negatives.incrementAndGet();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Records that an id for which {@link #mightContain} returned {@code true} was not actually
+     * stored.
+     */
+    public void falsePositive() {
+        falsePositives.incrementAndGet();
+    }
+
+    /**
+     * @return the approximate number of ids added to the filter
+     */
+    public long insertions() {
+        return insertions.get();
+    }
+
+    /**
+     * @return the probability that {@link #mightContain} returns {@code true} for an id that was
+     *         never added, given the current fill ratio of the filter
+     */
+    public double expectedFpp() {
+        return Math.pow((double) bitCount.get() / numBits, numHashes);
+    }
+
+    /**
+     * @return the ratio of false positives over the look ups for ids that were not stored, as
+     *         reported through {@link #falsePositive()}; {@code 0} if no such look up happened
+     */
+    public double observedFpp() {
+        long fp = falsePositives.get();
+        long total = fp + negatives.get();
+        return total == 0 ? 0D : (double) fp / total;
+    }
+
+    /**
+     * @return the number of look ups answered as a definite miss
+     */
+    public long negatives() {
+        return negatives.get();
+    }
+
+    /**
+     * @return the number of false positives reported through {@link #falsePositive()}
+     */
+    public long falsePositives() {
+        return falsePositives.get();
+    }
+
+    /**
+     * Saves the filter to the given file, replacing it atomically if it exists.
+     */
+    public void save(final File file) throws IOException {
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(numHashes);
+            out.writeLong(bitCount.get());
+            out.writeLong(insertions.get());
+            final int numWords = words.length();
+            out.writeInt(numWords);
+            for (int i = 0; i < numWords; i++) {
+                out.writeLong(words.get(i));
+            }
+        } finally {
+            out.close();
+        }
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Can't replace " + file.getAbsolutePath());
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Can't rename " + tmp.getAbsolutePath() + " to "
+                    + file.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Loads a filter previously {@link #save(File) saved} to the given file.
+     *
+     * @throws IOException if the file can't be read or is not a filter file
+     */
+    public static ObjectIdBloomFilter load(final File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a bloom filter file: " + file.getAbsolutePath());
+            }
+            final int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported bloom filter version: " + version);
+            }
+            final int numHashes = in.readInt();
+            final long bitCount = in.readLong();
+            final long insertions = in.readLong();
+            final int numWords = in.readInt();
+            if (numHashes <= 0 || numWords <= 0) {
+                throw new IOException("Corrupt bloom filter file: " + file.getAbsolutePath());
+            }
+            AtomicLongArray words = new AtomicLongArray(numWords);
+            for (int i = 0; i < numWords; i++) {
+                words.set(i, in.readLong());
+            }
+            return new ObjectIdBloomFilter(words, numHashes, bitCount, insertions);
+        } finally {
+            Closeables.closeQuietly(in);
+        }
+    }
+
+    private boolean set(final long bit) {
+        final int index = (int) (bit >>> 6);
+        final long mask = 1L << bit;
+        while (true) {
+            long word = words.get(index);
+            if ((word & mask) != 0) {
+                return false;
+            }
+            if (words.compareAndSet(index, word, word | mask)) {
+                bitCount.incrementAndGet();
+                return true;
+            }
+        }
+    }
+
+    private boolean get(final long bit) {
+        return (words.get((int) (bit >>> 6)) & (1L << bit)) != 0;
+    }
+
+    private static long hash1(ObjectId id) {
+        return toLong(id, 0);
+    }
+
+    private static long hash2(ObjectId id) {
+        return toLong(id, 8);
+    }
+
+    private static long toLong(ObjectId id, int offset) {
+        long value = 0;
+        for (int i = offset; i < offset + 8; i++) {
+            value = (value << 8) | id.byteN(i);
+        }
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ObjectIdBloomFilter[bits=%d, hashes=%d, ids=%d, expectedFpp=%.5f, "
+                + "observedFpp=%.5f]", numBits, numHashes, insertions(), expectedFpp(),
+                observedFpp());
+    }
+}
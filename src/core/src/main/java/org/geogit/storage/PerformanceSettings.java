@@ -0,0 +1,121 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import org.geogit.api.RevTreeBuilder;
+import org.geogit.api.plumbing.diff.DiffTreeWalk;
+import org.geogit.api.porcelain.ConfigException;
+
+import com.google.common.base.Optional;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+
+/**
+ * How much memory and how many threads the repository operations building and comparing large
+ * trees can use.
+ * <p>
+ * The settings are read from the repository config database the first time they're used:
+ * <ul>
+ * <li>{@code tree.parallelism}: how many threads to rebuild the bucket trees of a tree with,
+ * defaults to {@link RevTreeBuilder#DEFAULT_PARALLELISM the number of processors}
+ * <li>{@code tree.maxchangesinmemory}: how many pending changes the trees changed by the working
+ * tree hold on the heap before spilling them to disk, defaults to
+ * {@link RevTreeBuilder#DEFAULT_MAX_CHANGES_IN_MEMORY}
+ * <li>{@code diff.parallelism}: how many pairs of bucket trees to compare concurrently, defaults
+ * to {@link DiffTreeWalk#DEFAULT_PARALLELISM the number of processors}
+ * </ul>
+ * All of them shall be positive integers.
+ */
+public class PerformanceSettings {
+
+    private final Provider<ConfigDatabase> configDb;
+
+    private boolean initialized;
+
+    private int treeParallelism;
+
+    private int treeMaxChangesInMemory;
+
+    private int diffParallelism;
+
+    /**
+     * @param configDb provides the config database to read the settings from
+     */
+    @Inject
+    public PerformanceSettings(Provider<ConfigDatabase> configDb) {
+        this.configDb = configDb;
+    }
+
+    /**
+     * @return how many threads to rebuild the bucket trees of a tree with
+     * @see RevTreeBuilder#setParallelism(int)
+     */
+    public synchronized int treeParallelism() {
+        init();
+        return treeParallelism;
+    }
+
+    /**
+     * @return how many pending changes the trees changed by the working tree hold on the heap
+     * @see RevTreeBuilder#spillToDisk(int, java.io.File)
+     */
+    public synchronized int treeMaxChangesInMemory() {
+        init();
+        return treeMaxChangesInMemory;
+    }
+
+    /**
+     * @return how many pairs of bucket trees to compare concurrently
+     * @see DiffTreeWalk#setParallelism(int)
+     */
+    public synchronized int diffParallelism() {
+        init();
+        return diffParallelism;
+    }
+
+    private void init() {
+        if (initialized) {
+            return;
+        }
+        treeParallelism = positive("tree.parallelism", RevTreeBuilder.DEFAULT_PARALLELISM);
+        treeMaxChangesInMemory = positive("tree.maxchangesinmemory",
+                RevTreeBuilder.DEFAULT_MAX_CHANGES_IN_MEMORY);
+        diffParallelism = positive("diff.parallelism", DiffTreeWalk.DEFAULT_PARALLELISM);
+        initialized = true;
+    }
+
+    private int positive(final String key, final int defaultValue) {
+        Optional<String> configured = config(key);
+        if (!configured.isPresent()) {
+            return defaultValue;
+        }
+        final int value;
+        try {
+            value = Integer.parseInt(configured.get().trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalStateException(key + " is not a number: " + configured.get());
+        }
+        if (value <= 0) {
+            throw new IllegalStateException(key + " shall be a positive integer: " + value);
+        }
+        return value;
+    }
+
+    private Optional<String> config(String key) {
+        if (configDb == null) {
+            return Optional.absent();
+        }
+        try {
+            Optional<String> value = configDb.get().get(key);
+            if (value.isPresent() && value.get().trim().isEmpty()) {
+                return Optional.absent();
+            }
+            return value;
+        } catch (ConfigException e) {
+            // not inside a repository, go with the defaults
+            return Optional.absent();
+        }
+    }
+}
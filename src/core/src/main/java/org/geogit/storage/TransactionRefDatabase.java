@@ -39,6 +39,10 @@ import com.google.common.collect.Maps;
  * in order for the transaction refs namespace to be created and all original references copied in
  * there, and {@link TransactionRefDatabase#close() close()} for the transaction refs namespace to
  * be deleted.
+ * <p>
+ * The refs under {@link Ref#INDEXES_PREFIX} are not mapped, as the indexes they point to only
+ * depend on the contents of the indexed trees, so that the indexes built inside the transaction are
+ * kept after it ends and the ones built outside are used inside.
  * 
  * @see GeogitTransaction
  * @see TransactionBegin
@@ -133,6 +137,9 @@ public class TransactionRefDatabase implements RefDatabase {
      */
     @Override
     public String getRef(final String name) {
+        if (isShared(name)) {
+            return refDb.getRef(name);
+        }
         String internalName;
         String value;
         if (name.startsWith("changed") || name.startsWith("orig")) {
@@ -169,6 +176,10 @@ public class TransactionRefDatabase implements RefDatabase {
 
     @Override
     public void putRef(final String refName, final String refValue) {
+        if (isShared(refName)) {
+            refDb.putRef(refName, refValue);
+            return;
+        }
         String internalName = toInternal(refName);
         refDb.putRef(internalName, refValue);
     }
@@ -181,6 +192,9 @@ public class TransactionRefDatabase implements RefDatabase {
 
     @Override
     public String remove(final String refName) {
+        if (isShared(refName)) {
+            return refDb.remove(refName);
+        }
         return refDb.remove(toInternal(refName));
     }
 
@@ -191,6 +205,9 @@ public class TransactionRefDatabase implements RefDatabase {
 
     @Override
     public Map<String, String> getAll(final String prefix) {
+        if (isShared(prefix)) {
+            return refDb.getAll(prefix);
+        }
         Map<String, String> originals = refDb.getAll(append(this.txOrigNamespace, prefix));
         Map<String, String> changed = refDb.getAll(append(this.txNamespace, prefix));
 
@@ -212,6 +229,10 @@ public class TransactionRefDatabase implements RefDatabase {
         return external;
     }
 
+    private static boolean isShared(final String name) {
+        return name.startsWith(Ref.INDEXES_PREFIX);
+    }
+
     private Map<String, String> toExternal(final Map<String, String> transactionEntries) {
 
         Map<String, String> transformed = Maps.newHashMap();
@@ -0,0 +1,404 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage.datastream;
+
+import static org.geogit.storage.datastream.Varint.readSignedVarLong;
+import static org.geogit.storage.datastream.Varint.readUnsignedVarInt;
+import static org.geogit.storage.datastream.Varint.writeSignedVarLong;
+import static org.geogit.storage.datastream.Varint.writeUnsignedVarInt;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.CoordinateFilter;
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryCollection;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.MultiLineString;
+import com.vividsolutions.jts.geom.MultiPoint;
+import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * A compact, TWKB like, encoding for 2D geometries, used for the
+ * {@link org.geogit.storage.FieldType#COMPACT_GEOMETRY COMPACT_GEOMETRY} field type.
+ * <p>
+ * Ordinates are scaled by a power of ten into integers, and each one is written as the zig-zag
+ * varint delta to the previous one in the geometry. The precision is chosen per geometry as the
+ * smallest number of decimal digits that gives back exactly the same doubles, so the encoding is
+ * lossless; geometries for which there is no such precision (see {@link #precisionOf(Geometry)})
+ * must be written as WKB instead. As with the default {@code WKBWriter} only the X and Y ordinates
+ * are kept.
+ * <p>
+ * Layout: a header byte with the geometry type in the low four bits and the precision in the high
+ * four ones, followed by:
+ * <ul>
+ * <li>point: the number of coordinates (0 or 1) and the coordinate
+ * <li>linestring: the number of coordinates and the coordinates
+ * <li>polygon: the number of rings, and each ring as a linestring
+ * <li>multi geometries: the number of parts, and each part without header
+ * <li>geometry collections: the number of parts, and each part with its own header
+ * </ul>
+ * All the counts are unsigned varints.
+ */
+public final class CompactGeometryEncoding {
+
+    /**
+     * The maximum number of decimal digits a geometry can be encoded with
+     */
+    public static final int MAX_PRECISION = 15;
+
+    private static final byte POINT = 1;
+
+    private static final byte LINESTRING = 2;
+
+    private static final byte POLYGON = 3;
+
+    private static final byte MULTIPOINT = 4;
+
+    private static final byte MULTILINESTRING = 5;
+
+    private static final byte MULTIPOLYGON = 6;
+
+    private static final byte GEOMETRYCOLLECTION = 7;
+
+    /**
+     * Scaled ordinates shall be exactly representable as doubles, or rounding is not reliable
+     */
+    private static final double MAX_SCALED = 9007199254740992D;// 2^53
+
+    private static final double[] SCALES = new double[MAX_PRECISION + 1];
+    static {
+        double scale = 1D;
+        for (int i = 0; i <= MAX_PRECISION; i++) {
+            SCALES[i] = scale;
+            scale *= 10D;
+        }
+    }
+
+    private CompactGeometryEncoding() {
+        // utility class
+    }
+
+    /**
+     * @return the minimum number of decimal digits needed to encode the geometry without loss, or
+     *         {@code -1} if it can't be encoded by this encoding (e.g. due to NaN or too large
+     *         ordinates, or too many significant digits)
+     */
+    public static int precisionOf(Geometry geometry) {
+        PrecisionFilter filter = new PrecisionFilter();
+        // raising the precision for an ordinate may break a previous one, iterate until stable
+        do {
+            filter.changed = false;
+            geometry.apply(filter);
+        } while (filter.changed && filter.precision >= 0);
+        return filter.precision;
+    }
+
+    private static boolean isExact(final double ordinate, final int precision) {
+        final double scale = SCALES[precision];
+        final double scaled = ordinate * scale;
+        return Math.abs(scaled) < MAX_SCALED && Math.round(scaled) / scale == ordinate;
+    }
+
+    private static class PrecisionFilter implements CoordinateFilter {
+
+        int precision;
+
+        boolean changed;
+
+        @Override
+        public void filter(Coordinate coord) {
+            if (precision < 0) {
+                return;
+            }
+            int p = fit(coord.x, precision);
+            if (p >= 0) {
+                p = fit(coord.y, p);
+            }
+            if (p != precision) {
+                precision = p;
+                changed = true;
+            }
+        }
+
+        private static int fit(double ordinate, int precision) {
+            for (int p = precision; p <= MAX_PRECISION; p++) {
+                if (isExact(ordinate, p)) {
+                    return p;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Writes the geometry with the given precision, as returned by {@link #precisionOf(Geometry)}
+     */
+    public static void write(Geometry geometry, int precision, DataOutput out) throws IOException {
+        if (precision < 0 || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException("Invalid precision: " + precision);
+        }
+        new Encoder(SCALES[precision], precision << 4).write(geometry, true, out);
+    }
+
+    private static class Encoder {
+
+        private final double scale;
+
+        private final int precisionBits;
+
+        private long lastX, lastY;
+
+        Encoder(double scale, int precisionBits) {
+            this.scale = scale;
+            this.precisionBits = precisionBits;
+        }
+
+        void write(Geometry geom, boolean header, DataOutput out) throws IOException {
+            if (geom instanceof Point) {
+                header(POINT, header, out);
+                CoordinateSequence seq = ((Point) geom).getCoordinateSequence();
+                writeUnsignedVarInt(seq.size(), out);
+                write(seq, out);
+            } else if (geom instanceof LineString) {
+                header(LINESTRING, header, out);
+                CoordinateSequence seq = ((LineString) geom).getCoordinateSequence();
+                writeUnsignedVarInt(seq.size(), out);
+                write(seq, out);
+            } else if (geom instanceof Polygon) {
+                header(POLYGON, header, out);
+                Polygon polygon = (Polygon) geom;
+                if (polygon.isEmpty()) {
+                    writeUnsignedVarInt(0, out);
+                    return;
+                }
+                final int numHoles = polygon.getNumInteriorRing();
+                writeUnsignedVarInt(1 + numHoles, out);
+                write(polygon.getExteriorRing(), false, out);
+                for (int i = 0; i < numHoles; i++) {
+                    write(polygon.getInteriorRingN(i), false, out);
+                }
+            } else if (geom instanceof GeometryCollection) {
+                final boolean homogeneous;
+                if (geom instanceof MultiPoint) {
+                    header(MULTIPOINT, header, out);
+                    homogeneous = true;
+                } else if (geom instanceof MultiLineString) {
+                    header(MULTILINESTRING, header, out);
+                    homogeneous = true;
+                } else if (geom instanceof MultiPolygon) {
+                    header(MULTIPOLYGON, header, out);
+                    homogeneous = true;
+                } else {
+                    header(GEOMETRYCOLLECTION, header, out);
+                    homogeneous = false;
+                }
+                final int numGeometries = geom.getNumGeometries();
+                writeUnsignedVarInt(numGeometries, out);
+                for (int i = 0; i < numGeometries; i++) {
+                    write(geom.getGeometryN(i), !homogeneous, out);
+                }
+            } else {
+                throw new IllegalArgumentException("Unsupported geometry type: "
+                        + geom.getGeometryType());
+            }
+        }
+
+        private void header(byte type, boolean write, DataOutput out) throws IOException {
+            if (write) {
+                out.writeByte(precisionBits | type);
+            }
+        }
+
+        private void write(CoordinateSequence seq, DataOutput out) throws IOException {
+            final int size = seq.size();
+            for (int i = 0; i < size; i++) {
+                long x = Math.round(seq.getX(i) * scale);
+                long y = Math.round(seq.getY(i) * scale);
+                writeSignedVarLong(x - lastX, out);
+                writeSignedVarLong(y - lastY, out);
+                lastX = x;
+                lastY = y;
+            }
+        }
+    }
+
+    /**
+     * Copies an encoded geometry from {@code in} to {@code out} without decoding it
+     */
+    static void copy(DataInput in, DataOutput out) throws IOException {
+        final int header = in.readUnsignedByte();
+        out.writeByte(header);
+        copy(header & 0x0F, in, out);
+    }
+
+    private static void copy(final int type, DataInput in, DataOutput out) throws IOException {
+        switch (type) {
+        case POINT:
+        case LINESTRING:
+            copySequence(in, out);
+            break;
+        case POLYGON:
+        case MULTIPOINT:
+        case MULTILINESTRING: {
+            final int parts = copyVarint(in, out);
+            for (int i = 0; i < parts; i++) {
+                copySequence(in, out);
+            }
+            break;
+        }
+        case MULTIPOLYGON: {
+            final int polygons = copyVarint(in, out);
+            for (int i = 0; i < polygons; i++) {
+                copy(POLYGON, in, out);
+            }
+            break;
+        }
+        case GEOMETRYCOLLECTION: {
+            final int parts = copyVarint(in, out);
+            for (int i = 0; i < parts; i++) {
+                copy(in, out);
+            }
+            break;
+        }
+        default:
+            throw new IllegalArgumentException("Unknown geometry type: " + type);
+        }
+    }
+
+    private static void copySequence(DataInput in, DataOutput out) throws IOException {
+        final int ordinates = 2 * copyVarint(in, out);
+        for (int i = 0; i < ordinates; i++) {
+            copyVarint(in, out);
+        }
+    }
+
+    /**
+     * Copies a variable length integer and returns its value, which is only meaningful for the
+     * unsigned 32 bit counts
+     */
+    private static int copyVarint(DataInput in, DataOutput out) throws IOException {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.readUnsignedByte();
+            out.writeByte(b);
+            if (shift < 32) {
+                value |= (b & 0x7F) << shift;
+            }
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    /**
+     * Decodes geometries written by {@link CompactGeometryEncoding#write}, creating the coordinate
+     * sequences straight out of the encoded deltas. Instances hold decoding state and are not
+     * thread safe, but are meant to be reused.
+     */
+    public static final class Reader {
+
+        private final GeometryFactory factory;
+
+        private double scale;
+
+        private long lastX, lastY;
+
+        public Reader() {
+            this(new GeometryFactory());
+        }
+
+        public Reader(GeometryFactory factory) {
+            this.factory = factory;
+        }
+
+        public Geometry read(DataInput in) throws IOException {
+            final int header = in.readUnsignedByte();
+            scale = SCALES[header >>> 4];
+            lastX = 0;
+            lastY = 0;
+            return read(header & 0x0F, in);
+        }
+
+        private Geometry read(final int type, DataInput in) throws IOException {
+            switch (type) {
+            case POINT:
+                return factory.createPoint(readSequence(in));
+            case LINESTRING:
+                return factory.createLineString(readSequence(in));
+            case POLYGON:
+                return readPolygon(in);
+            case MULTIPOINT: {
+                Point[] points = new Point[readUnsignedVarInt(in)];
+                for (int i = 0; i < points.length; i++) {
+                    points[i] = factory.createPoint(readSequence(in));
+                }
+                return factory.createMultiPoint(points);
+            }
+            case MULTILINESTRING: {
+                LineString[] lines = new LineString[readUnsignedVarInt(in)];
+                for (int i = 0; i < lines.length; i++) {
+                    lines[i] = factory.createLineString(readSequence(in));
+                }
+                return factory.createMultiLineString(lines);
+            }
+            case MULTIPOLYGON: {
+                Polygon[] polygons = new Polygon[readUnsignedVarInt(in)];
+                for (int i = 0; i < polygons.length; i++) {
+                    polygons[i] = readPolygon(in);
+                }
+                return factory.createMultiPolygon(polygons);
+            }
+            case GEOMETRYCOLLECTION: {
+                Geometry[] geometries = new Geometry[readUnsignedVarInt(in)];
+                for (int i = 0; i < geometries.length; i++) {
+                    // the precision is shared by the whole geometry, just take the type
+                    geometries[i] = read(in.readUnsignedByte() & 0x0F, in);
+                }
+                return factory.createGeometryCollection(geometries);
+            }
+            default:
+                throw new IllegalArgumentException("Unknown geometry type: " + type);
+            }
+        }
+
+        private Polygon readPolygon(DataInput in) throws IOException {
+            final int numRings = readUnsignedVarInt(in);
+            if (numRings == 0) {
+                return factory.createPolygon(null, null);
+            }
+            LinearRing shell = factory.createLinearRing(readSequence(in));
+            LinearRing[] holes = new LinearRing[numRings - 1];
+            for (int i = 0; i < holes.length; i++) {
+                holes[i] = factory.createLinearRing(readSequence(in));
+            }
+            return factory.createPolygon(shell, holes);
+        }
+
+        private CoordinateSequence readSequence(DataInput in) throws IOException {
+            final int size = readUnsignedVarInt(in);
+            CoordinateSequence seq = factory.getCoordinateSequenceFactory().create(size, 2);
+            final double scale = this.scale;
+            long x = lastX, y = lastY;
+            for (int i = 0; i < size; i++) {
+                x += readSignedVarLong(in);
+                y += readSignedVarLong(in);
+                seq.setOrdinate(i, CoordinateSequence.X, x / scale);
+                seq.setOrdinate(i, CoordinateSequence.Y, y / scale);
+            }
+            lastX = x;
+            lastY = y;
+            return seq;
+        }
+    }
+}
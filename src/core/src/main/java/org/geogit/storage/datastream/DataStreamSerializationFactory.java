@@ -7,6 +7,8 @@ package org.geogit.storage.datastream;
 import java.io.Serializable;
 import java.util.Map;
 
+import javax.annotation.Nullable;
+
 import org.geogit.api.RevCommit;
 import org.geogit.api.RevFeature;
 import org.geogit.api.RevFeatureType;
@@ -14,11 +16,33 @@ import org.geogit.api.RevObject;
 import org.geogit.api.RevObject.TYPE;
 import org.geogit.api.RevTag;
 import org.geogit.api.RevTree;
+import org.geogit.api.porcelain.ConfigException;
+import org.geogit.storage.ConfigDatabase;
+import org.geogit.storage.FieldType;
 import org.geogit.storage.ObjectReader;
 import org.geogit.storage.ObjectSerializingFactory;
 import org.geogit.storage.ObjectWriter;
 
+import com.google.common.base.Optional;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+
+/**
+ * Serialization factory for the binary datastream format.
+ * <p>
+ * Objects of every encoding are always readable. How geometry attributes are written is selected
+ * per repository through the {@code datastream.geometry} config option: {@code wkb} (the default)
+ * or {@code compact}, for the {@link FieldType#COMPACT_GEOMETRY compact encoding}. How the bounds
+ * of tree nodes and buckets are written is selected through the {@code datastream.treebounds}
+ * config option: {@code double} (the default) or {@code float}, to store them as floats rounded
+ * outwards, which halves their size but makes spatial pruning less precise.
+ */
 public class DataStreamSerializationFactory implements ObjectSerializingFactory {
+
+    static final String GEOMETRY_ENCODING_KEY = "datastream.geometry";
+
+    static final String TREE_BOUNDS_KEY = "datastream.treebounds";
+
     private final static ObjectReader<RevCommit> COMMIT_READER = new CommitReader();
 
     private final static ObjectReader<RevTree> TREE_READER = new TreeReader();
@@ -35,12 +59,77 @@ public class DataStreamSerializationFactory implements ObjectSerializingFactory
 
     private final static ObjectWriter<RevTree> TREE_WRITER = new TreeWriter();
 
+    private final static ObjectWriter<RevTree> FLOAT_BOUNDS_TREE_WRITER = new TreeWriter(true);
+
     private final static ObjectWriter<RevFeature> FEATURE_WRITER = new FeatureWriter();
 
+    private final static ObjectWriter<RevFeature> COMPACT_FEATURE_WRITER = new FeatureWriter(true);
+
     private final static ObjectWriter<RevFeatureType> FEATURETYPE_WRITER = new FeatureTypeWriter();
 
     private final static ObjectWriter<RevTag> TAG_WRITER = new TagWriter();
 
+    @Nullable
+    private final Provider<ConfigDatabase> configDb;
+
+    private volatile ObjectWriter<RevFeature> featureWriter;
+
+    private volatile ObjectWriter<RevTree> treeWriter;
+
+    /**
+     * Creates a factory that writes geometries as WKB and tree bounds as doubles
+     */
+    public DataStreamSerializationFactory() {
+        this(null);
+    }
+
+    @Inject
+    public DataStreamSerializationFactory(@Nullable Provider<ConfigDatabase> configDb) {
+        this.configDb = configDb;
+    }
+
+    private ObjectWriter<RevFeature> featureWriter() {
+        if (featureWriter == null) {
+            String encoding = config(GEOMETRY_ENCODING_KEY).or("wkb").trim();
+            if ("compact".equalsIgnoreCase(encoding)) {
+                featureWriter = COMPACT_FEATURE_WRITER;
+            } else if ("wkb".equalsIgnoreCase(encoding)) {
+                featureWriter = FEATURE_WRITER;
+            } else {
+                throw new IllegalStateException("Unknown " + GEOMETRY_ENCODING_KEY + " value: '"
+                        + encoding + "'. Expected one of wkb, compact");
+            }
+        }
+        return featureWriter;
+    }
+
+    private ObjectWriter<RevTree> treeWriter() {
+        if (treeWriter == null) {
+            String bounds = config(TREE_BOUNDS_KEY).or("double").trim();
+            if ("float".equalsIgnoreCase(bounds)) {
+                treeWriter = FLOAT_BOUNDS_TREE_WRITER;
+            } else if ("double".equalsIgnoreCase(bounds)) {
+                treeWriter = TREE_WRITER;
+            } else {
+                throw new IllegalStateException("Unknown " + TREE_BOUNDS_KEY + " value: '"
+                        + bounds + "'. Expected one of double, float");
+            }
+        }
+        return treeWriter;
+    }
+
+    private Optional<String> config(String key) {
+        if (configDb == null) {
+            return Optional.absent();
+        }
+        try {
+            return configDb.get().get(key);
+        } catch (ConfigException e) {
+            // not inside a repository, go with the defaults
+            return Optional.absent();
+        }
+    }
+
     @Override
     public ObjectReader<RevCommit> createCommitReader() {
         return COMMIT_READER;
@@ -73,9 +162,9 @@ public class DataStreamSerializationFactory implements ObjectSerializingFactory
         case COMMIT:
             return (ObjectWriter<T>) COMMIT_WRITER;
         case TREE:
-            return (ObjectWriter<T>) TREE_WRITER;
+            return (ObjectWriter<T>) treeWriter();
         case FEATURE:
-            return (ObjectWriter<T>) FEATURE_WRITER;
+            return (ObjectWriter<T>) featureWriter();
         case FEATURETYPE:
             return (ObjectWriter<T>) FEATURETYPE_WRITER;
         case TAG:
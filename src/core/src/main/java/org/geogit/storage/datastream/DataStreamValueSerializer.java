@@ -31,6 +31,29 @@ public class DataStreamValueSerializer {
 
     }
 
+    // JTS readers and writers are not thread safe, but are worth reusing
+    private static final ThreadLocal<WKBReader> WKB_READER = new ThreadLocal<WKBReader>() {
+        @Override
+        protected WKBReader initialValue() {
+            return new WKBReader();
+        }
+    };
+
+    private static final ThreadLocal<WKBWriter> WKB_WRITER = new ThreadLocal<WKBWriter>() {
+        @Override
+        protected WKBWriter initialValue() {
+            return new WKBWriter();
+        }
+    };
+
+    private static final ThreadLocal<CompactGeometryEncoding.Reader> COMPACT_GEOMETRY_READER = //
+    new ThreadLocal<CompactGeometryEncoding.Reader>() {
+        @Override
+        protected CompactGeometryEncoding.Reader initialValue() {
+            return new CompactGeometryEncoding.Reader();
+        }
+    };
+
     static Map<FieldType, ValueSerializer> serializers = new HashMap<FieldType, ValueSerializer>();
     static {
         serializers.put(FieldType.NULL, new ValueSerializer() {
@@ -312,9 +335,8 @@ public class DataStreamValueSerializer {
                 int len = in.readInt();
                 byte[] bytes = new byte[len]; // TODO: We should bound this to limit memory usage.
                 in.readFully(bytes);
-                WKBReader wkbReader = new WKBReader();
                 try {
-                    return wkbReader.read(bytes);
+                    return WKB_READER.get().read(bytes);
                 } catch (ParseException e) {
                     throw new RuntimeException(e);
                 }
@@ -322,8 +344,7 @@ public class DataStreamValueSerializer {
 
             @Override
             public void write(Object field, DataOutput data) throws IOException {
-                WKBWriter wkbWriter = new WKBWriter();
-                byte[] bytes = wkbWriter.write((Geometry) field);
+                byte[] bytes = WKB_WRITER.get().write((Geometry) field);
                 byteArray.write(bytes, data);
             }
         };
@@ -335,6 +356,17 @@ public class DataStreamValueSerializer {
         serializers.put(FieldType.MULTILINESTRING, geometry);
         serializers.put(FieldType.MULTIPOLYGON, geometry);
         serializers.put(FieldType.GEOMETRYCOLLECTION, geometry);
+        serializers.put(FieldType.COMPACT_GEOMETRY, new ValueSerializer() {
+            @Override
+            public Object read(DataInput in) throws IOException {
+                return COMPACT_GEOMETRY_READER.get().read(in);
+            }
+
+            @Override
+            public void write(Object field, DataOutput data) throws IOException {
+                writeCompactGeometry((Geometry) field, data);
+            }
+        });
         serializers.put(FieldType.UUID, new ValueSerializer() {
             @Override
             public Object read(DataInput in) throws IOException {
@@ -459,6 +491,143 @@ public class DataStreamValueSerializer {
         }
     }
 
+    /**
+     * Writes the geometry in the {@link FieldType#COMPACT_GEOMETRY compact encoding} if it can be
+     * encoded without loss, or as WKB otherwise. The field type tag written in front of the value
+     * tells which one was used.
+     * 
+     * @param geometry the geometry to write
+     * @param data the output to write to
+     * @return the type of the written value, to be used when reading it back
+     */
+    public static FieldType writeGeometry(Geometry geometry, DataOutput data) throws IOException {
+        final int precision = CompactGeometryEncoding.precisionOf(geometry);
+        if (precision < 0) {
+            FieldType type = FieldType.forBinding(geometry.getClass());
+            data.writeByte(type.getTag());
+            serializers.get(type).write(geometry, data);
+            return type;
+        }
+        data.writeByte(FieldType.COMPACT_GEOMETRY.getTag());
+        CompactGeometryEncoding.write(geometry, precision, data);
+        return FieldType.COMPACT_GEOMETRY;
+    }
+
+    private static void writeCompactGeometry(Geometry geometry, DataOutput data)
+            throws IOException {
+        final int precision = CompactGeometryEncoding.precisionOf(geometry);
+        if (precision < 0) {
+            throw new IllegalArgumentException(
+                    "Geometry can't be written in the compact encoding without loss");
+        }
+        CompactGeometryEncoding.write(geometry, precision, data);
+    }
+
+    /**
+     * Copies a value of the specified type from {@code in} to {@code out} without decoding it
+     * 
+     * @param type the type of the value
+     * @param in the input to read the value from
+     * @param out the output to copy the value to
+     */
+    static void copy(FieldType type, DataInput in, DataOutput out) throws IOException {
+        switch (type) {
+        case NULL:
+            break;
+        case BOOLEAN:
+        case BYTE:
+            copy(1, in, out);
+            break;
+        case SHORT:
+            copy(2, in, out);
+            break;
+        case INTEGER:
+        case FLOAT:
+            copy(4, in, out);
+            break;
+        case LONG:
+        case DOUBLE:
+        case DATETIME:
+        case DATE:
+        case TIME:
+            copy(8, in, out);
+            break;
+        case TIMESTAMP:
+            copy(12, in, out);
+            break;
+        case UUID:
+            copy(16, in, out);
+            break;
+        case STRING:
+            copy(copyUnsignedShort(in, out), in, out);
+            break;
+        case BOOLEAN_ARRAY:
+            copy((copyInt(in, out) + 7) / 8, in, out);
+            break;
+        case BYTE_ARRAY:
+        case BIG_INTEGER:
+        case POINT:
+        case LINESTRING:
+        case POLYGON:
+        case MULTIPOINT:
+        case MULTILINESTRING:
+        case MULTIPOLYGON:
+        case GEOMETRYCOLLECTION:
+        case GEOMETRY:
+            copy(copyInt(in, out), in, out);
+            break;
+        case SHORT_ARRAY:
+            copy(2 * copyInt(in, out), in, out);
+            break;
+        case INTEGER_ARRAY:
+        case FLOAT_ARRAY:
+            copy(4 * copyInt(in, out), in, out);
+            break;
+        case LONG_ARRAY:
+        case DOUBLE_ARRAY:
+            copy(8 * copyInt(in, out), in, out);
+            break;
+        case STRING_ARRAY: {
+            final int len = copyInt(in, out);
+            for (int i = 0; i < len; i++) {
+                copy(copyUnsignedShort(in, out), in, out);
+            }
+            break;
+        }
+        case BIG_DECIMAL:
+            copy(4, in, out);// scale
+            copy(copyInt(in, out), in, out);
+            break;
+        case COMPACT_GEOMETRY:
+            CompactGeometryEncoding.copy(in, out);
+            break;
+        default:
+            throw new IllegalArgumentException("The specified type is not supported");
+        }
+    }
+
+    private static int copyInt(DataInput in, DataOutput out) throws IOException {
+        final int value = in.readInt();
+        out.writeInt(value);
+        return value;
+    }
+
+    private static int copyUnsignedShort(DataInput in, DataOutput out) throws IOException {
+        final int value = in.readUnsignedShort();
+        out.writeShort(value);
+        return value;
+    }
+
+    private static void copy(int length, DataInput in, DataOutput out) throws IOException {
+        byte[] buffer = new byte[Math.min(length, 8192)];
+        while (length > 0) {
+            final int chunk = Math.min(length, buffer.length);
+            in.readFully(buffer, 0, chunk);
+            out.write(buffer, 0, chunk);
+            length -= chunk;
+        }
+    }
+
     /**
      * Reads an object of the specified type from the provided data stream
      * 
@@ -16,14 +16,35 @@ import org.geogit.storage.FieldType;
 import org.geogit.storage.ObjectWriter;
 
 import com.google.common.base.Optional;
+import com.vividsolutions.jts.geom.Geometry;
 
 public class FeatureWriter implements ObjectWriter<RevFeature> {
+
+    private final boolean compactGeometries;
+
+    public FeatureWriter() {
+        this(false);
+    }
+
+    /**
+     * @param compactGeometries whether to write geometries in the
+     *        {@link FieldType#COMPACT_GEOMETRY compact encoding} whenever it's lossless, instead
+     *        of as WKB
+     */
+    public FeatureWriter(boolean compactGeometries) {
+        this.compactGeometries = compactGeometries;
+    }
+
     @Override
     public void write(RevFeature feature, OutputStream out) throws IOException {
         DataOutput data = new DataOutputStream(out);
         writeHeader(data, "feature");
         data.writeInt(feature.getValues().size());
         for (Optional<Object> field : feature.getValues()) {
+            if (compactGeometries && field.orNull() instanceof Geometry) {
+                DataStreamValueSerializer.writeGeometry((Geometry) field.get(), data);
+                continue;
+            }
             FieldType type = FieldType.forValue(field);
             data.writeByte(type.getTag());
             if (type != FieldType.NULL) {
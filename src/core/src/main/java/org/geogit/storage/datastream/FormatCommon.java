@@ -11,8 +11,8 @@ import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.SortedMap;
-import java.util.TreeMap;
+
+import javax.annotation.Nullable;
 
 import org.geogit.api.Bucket;
 import org.geogit.api.Node;
@@ -25,7 +25,6 @@ import org.geogit.api.RevObject;
 import org.geogit.api.RevPerson;
 import org.geogit.api.RevTag;
 import org.geogit.api.RevTree;
-import org.geogit.api.RevTreeImpl;
 import org.geogit.api.plumbing.diff.DiffEntry;
 import org.geogit.storage.FieldType;
 import org.geotools.feature.NameImpl;
@@ -42,7 +41,6 @@ import org.opengis.filter.Filter;
 import org.opengis.referencing.FactoryException;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 
-import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableList.Builder;
 import com.vividsolutions.jts.geom.Envelope;
@@ -100,6 +98,31 @@ public class FormatCommon {
      */
     public static final byte BUCKET = 0x02;
 
+    /**
+     * Marks a tree serialized in the compact format, right after the {@code "tree"} header. The
+     * original format starts with the tree size as a long instead, whose first byte is zero for
+     * any tree with less than 2^56 features, hence the two can be told apart.
+     * <p>
+     * In the compact format counts and sizes are variable length integers, and each node and
+     * bucket carries a flags byte telling whether its metadata id is present and how its bounds
+     * are encoded, if at all.
+     */
+    public static final byte TREE_FORMAT_V2 = 0x02;
+
+    private static final int METADATA_ID_PRESENT = 0x01;
+
+    static final int BOUNDS_MASK = 0x0E;
+
+    private static final int BOUNDS_NONE = 0x00;
+
+    private static final int BOUNDS_POINT_DOUBLE = 0x02;
+
+    private static final int BOUNDS_POINT_FLOAT = 0x04;
+
+    private static final int BOUNDS_BOX_DOUBLE = 0x06;
+
+    private static final int BOUNDS_BOX_FLOAT = 0x08;
+
     /**
      * The featuretype factory to use when calling code does not provide one.
      */
@@ -180,46 +203,12 @@ public class FormatCommon {
         data.writeInt(person.getTimeZoneOffset());
     }
 
+    /**
+     * Reads a tree consuming exactly its serialized bytes from {@code in}. Its nodes and buckets
+     * are decoded as they're accessed, see {@link LazyRevTree}.
+     */
     public static RevTree readTree(ObjectId id, DataInput in) throws IOException {
-        final long size = in.readLong();
-        final int treeCount = in.readInt();
-        final List<Node> features = new ArrayList<Node>();
-        final List<Node> trees = new ArrayList<Node>();
-        final SortedMap<Integer, Bucket> buckets = new TreeMap<Integer, Bucket>();
-
-        final int nFeatures = in.readInt();
-        for (int i = 0; i < nFeatures; i++) {
-            Node n = readNode(in);
-            if (n.getType() != RevObject.TYPE.FEATURE) {
-                throw new IllegalStateException("Non-feature node in tree's feature list.");
-            }
-            features.add(n);
-        }
-
-        final int nTrees = in.readInt();
-        for (int i = 0; i < nTrees; i++) {
-            Node n = readNode(in);
-            if (n.getType() != RevObject.TYPE.TREE) {
-                throw new IllegalStateException("Non-tree node in tree's subtree list.");
-            }
-            trees.add(n);
-        }
-
-        final int nBuckets = in.readInt();
-        for (int i = 0; i < nBuckets; i++) {
-            int key = in.readInt();
-            Bucket bucket = readBucket(in);
-            buckets.put(key, bucket);
-        }
-
-        if (trees.isEmpty() && features.isEmpty()) {
-            return RevTreeImpl.createNodeTree(id, size, treeCount, buckets);
-        } else if (buckets.isEmpty()) {
-            return RevTreeImpl.createLeafTree(id, size, features, trees);
-        } else {
-            throw new IllegalArgumentException(
-                    "Tree has mixed buckets and nodes; this is not supported.");
-        }
+        return LazyRevTree.read(id, in);
     }
 
     public static Node readNode(DataInput in) throws IOException {
@@ -240,6 +229,91 @@ public class FormatCommon {
         return node;
     }
 
+    /**
+     * Reads a node in the compact tree format, as written by
+     * {@link #writeNodeV2(Node, DataOutput, boolean)}.
+     */
+    public static Node readNodeV2(DataInput in) throws IOException {
+        final String name = in.readUTF();
+        final int flags = in.readUnsignedByte();
+        final RevObject.TYPE contentType = RevObject.TYPE.valueOf(flags >>> 4);
+        final ObjectId objectId = readObjectId(in);
+        final ObjectId metadataId;
+        if ((flags & METADATA_ID_PRESENT) != 0) {
+            metadataId = readObjectId(in);
+        } else {
+            metadataId = ObjectId.NULL;
+        }
+        final Envelope bounds = readBoundsV2(flags & BOUNDS_MASK, in);
+        return Node.create(name, objectId, metadataId, contentType, bounds);
+    }
+
+    /**
+     * Reads a bucket in the compact tree format, as written by
+     * {@link #writeBucketV2(int, Bucket, DataOutput, boolean)}, right after its index.
+     */
+    public static Bucket readBucketV2(DataInput in) throws IOException {
+        final ObjectId objectId = readObjectId(in);
+        final int flags = in.readUnsignedByte();
+        return Bucket.create(objectId, readBoundsV2(flags & BOUNDS_MASK, in));
+    }
+
+    @Nullable
+    private static Envelope readBoundsV2(final int boundsFlags, DataInput in) throws IOException {
+        switch (boundsFlags) {
+        case BOUNDS_NONE:
+            return null;
+        case BOUNDS_POINT_DOUBLE: {
+            double x = in.readDouble();
+            double y = in.readDouble();
+            return new Envelope(x, x, y, y);
+        }
+        case BOUNDS_POINT_FLOAT: {
+            double x = in.readFloat();
+            double y = in.readFloat();
+            return new Envelope(x, x, y, y);
+        }
+        case BOUNDS_BOX_DOUBLE:
+            return readBBox(in);
+        case BOUNDS_BOX_FLOAT: {
+            final double minx = in.readFloat();
+            final double maxx = in.readFloat();
+            final double miny = in.readFloat();
+            final double maxy = in.readFloat();
+            return new Envelope(minx, maxx, miny, maxy);
+        }
+        default:
+            throw new IllegalArgumentException("Unknown bounds encoding: " + boundsFlags);
+        }
+    }
+
+    /**
+     * @return the number of bytes taken by bounds encoded as told by the given node or bucket
+     *         flags in the compact tree format
+     */
+    static int boundsLengthV2(final int flags) {
+        switch (flags & BOUNDS_MASK) {
+        case BOUNDS_NONE:
+            return 0;
+        case BOUNDS_POINT_FLOAT:
+            return 8;
+        case BOUNDS_POINT_DOUBLE:
+        case BOUNDS_BOX_FLOAT:
+            return 16;
+        case BOUNDS_BOX_DOUBLE:
+            return 32;
+        default:
+            throw new IllegalArgumentException("Unknown bounds encoding: " + (flags & BOUNDS_MASK));
+        }
+    }
+
+    /**
+     * @return the number of bytes that follow the flags byte of a node in the compact tree format
+     */
+    static int nodeLengthAfterFlagsV2(final int flags) {
+        return 20 + ((flags & METADATA_ID_PRESENT) != 0 ? 20 : 0) + boundsLengthV2(flags);
+    }
+
     public static DiffEntry readDiff(DataInput in) throws IOException {
         boolean oldNode = in.readBoolean();
         NodeRef oldNodeRef = null;
@@ -279,18 +353,11 @@ public class FormatCommon {
         return new Envelope(minx, maxx, miny, maxy);
     }
 
+    /**
+     * Reads a feature whose values are decoded on demand, see {@link LazyRevFeature}
+     */
     public static RevFeature readFeature(ObjectId id, DataInput in) throws IOException {
-        final int count = in.readInt();
-        final ImmutableList.Builder<Optional<Object>> builder = ImmutableList.builder();
-
-        for (int i = 0; i < count; i++) {
-            final byte fieldTag = in.readByte();
-            final FieldType fieldType = FieldType.valueOf(fieldTag);
-            Object value = DataStreamValueSerializer.read(fieldType, in);
-            builder.add(Optional.fromNullable(value));
-        }
-
-        return new RevFeature(id, builder.build());
+        return LazyRevFeature.read(id, in);
     }
 
     public static RevFeatureType readFeatureType(ObjectId id, DataInput in) throws IOException {
@@ -395,6 +462,121 @@ public class FormatCommon {
         writeBoundingBox(envelope, data);
     }
 
+    /**
+     * Writes a node in the compact tree format: its name, a flags byte holding the node type and
+     * whether the metadata id and bounds follow, the object id, and then the metadata id and
+     * bounds if present. Point bounds are written as a single coordinate, and bounds are written
+     * as floats when that loses no precision.
+     * 
+     * @param floatBounds whether to write non point bounds as floats even if that loses
+     *        precision, in which case they're rounded outwards so they still contain the
+     *        original bounds
+     */
+    public static void writeNodeV2(Node node, DataOutput data, boolean floatBounds)
+            throws IOException {
+        data.writeUTF(node.getName());
+        final ObjectId metadataId = node.getMetadataId().or(ObjectId.NULL);
+        final Envelope bounds = new Envelope();
+        node.expand(bounds);
+        final int boundsFlags = boundsFlagsV2(bounds, floatBounds);
+        int flags = (node.getType().value() << 4) | boundsFlags;
+        if (!metadataId.isNull()) {
+            flags |= METADATA_ID_PRESENT;
+        }
+        data.writeByte(flags);
+        data.write(node.getObjectId().getRawValue());
+        if (!metadataId.isNull()) {
+            data.write(metadataId.getRawValue());
+        }
+        writeBoundsV2(bounds, boundsFlags, data);
+    }
+
+    /**
+     * Writes a bucket in the compact tree format: its index as a variable length integer, its
+     * object id, a flags byte telling how the bounds are encoded, and the bounds if present.
+     * 
+     * @see #writeNodeV2(Node, DataOutput, boolean)
+     */
+    public static void writeBucketV2(int index, Bucket bucket, DataOutput data,
+            boolean floatBounds) throws IOException {
+        Varint.writeUnsignedVarInt(index, data);
+        data.write(bucket.id().getRawValue());
+        final Envelope bounds = new Envelope();
+        bucket.expand(bounds);
+        final int boundsFlags = boundsFlagsV2(bounds, floatBounds);
+        data.writeByte(boundsFlags);
+        writeBoundsV2(bounds, boundsFlags, data);
+    }
+
+    private static int boundsFlagsV2(Envelope bounds, boolean floatBounds) {
+        if (bounds.isNull()) {
+            return BOUNDS_NONE;
+        }
+        if (bounds.getWidth() == 0D && bounds.getHeight() == 0D) {
+            return isFloat(bounds.getMinX()) && isFloat(bounds.getMinY()) ? BOUNDS_POINT_FLOAT
+                    : BOUNDS_POINT_DOUBLE;
+        }
+        if (floatBounds
+                || (isFloat(bounds.getMinX()) && isFloat(bounds.getMaxX())
+                        && isFloat(bounds.getMinY()) && isFloat(bounds.getMaxY()))) {
+            return BOUNDS_BOX_FLOAT;
+        }
+        return BOUNDS_BOX_DOUBLE;
+    }
+
+    private static boolean isFloat(double value) {
+        return (double) (float) value == value;
+    }
+
+    private static void writeBoundsV2(Envelope bounds, int boundsFlags, DataOutput data)
+            throws IOException {
+        switch (boundsFlags) {
+        case BOUNDS_NONE:
+            break;
+        case BOUNDS_POINT_DOUBLE:
+            data.writeDouble(bounds.getMinX());
+            data.writeDouble(bounds.getMinY());
+            break;
+        case BOUNDS_POINT_FLOAT:
+            data.writeFloat((float) bounds.getMinX());
+            data.writeFloat((float) bounds.getMinY());
+            break;
+        case BOUNDS_BOX_DOUBLE:
+            writeBoundingBox(bounds, data);
+            break;
+        case BOUNDS_BOX_FLOAT:
+            data.writeFloat(roundDown(bounds.getMinX()));
+            data.writeFloat(roundUp(bounds.getMaxX()));
+            data.writeFloat(roundDown(bounds.getMinY()));
+            data.writeFloat(roundUp(bounds.getMaxY()));
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown bounds encoding: " + boundsFlags);
+        }
+    }
+
+    /**
+     * @return the largest float that's less than or equal to {@code value}
+     */
+    static float roundDown(final double value) {
+        float f = (float) value;
+        if (f > value) {
+            f = Math.nextAfter(f, Double.NEGATIVE_INFINITY);
+        }
+        return f;
+    }
+
+    /**
+     * @return the smallest float that's greater than or equal to {@code value}
+     */
+    static float roundUp(final double value) {
+        float f = (float) value;
+        if (f < value) {
+            f = Math.nextUp(f);
+        }
+        return f;
+    }
+
     public static void writeDiff(DiffEntry diff, DataOutput data) throws IOException {
         if (diff.getOldObject() == null) {
             data.writeBoolean(false);
@@ -0,0 +1,121 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage.datastream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevFeature;
+import org.geogit.storage.FieldType;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * A {@link RevFeature} that keeps its serialized form and only decodes each value the first time
+ * it's asked for through {@link #get(int)}, so that values that are never requested (for example
+ * large geometries on attribute only queries) are never parsed.
+ * <p>
+ * Decoded values are kept, and {@link #getValues()} decodes all the values at once. Like the values
+ * of any other feature they're handed out as is, so geometries, arrays and dates changed by a caller
+ * are seen by the other callers of the same instance; {@link #copy()} gives a caller a feature of
+ * its own without decoding anything, as the object cache does on every hit.
+ */
+public class LazyRevFeature extends RevFeature {
+
+    /**
+     * The serialized values, each one being its type tag followed by the value
+     */
+    private final byte[] data;
+
+    /**
+     * Offset in {@link #data} of each value, right after its type tag
+     */
+    private final int[] offsets;
+
+    private final AtomicReferenceArray<Optional<Object>> decoded;
+
+    private LazyRevFeature(ObjectId id, byte[] data, int[] offsets) {
+        super(id);
+        this.data = data;
+        this.offsets = offsets;
+        this.decoded = new AtomicReferenceArray<Optional<Object>>(offsets.length);
+    }
+
+    @Override
+    public int size() {
+        return offsets.length;
+    }
+
+    @Override
+    public Optional<Object> get(final int index) {
+        Optional<Object> value = decoded.get(index);
+        if (value == null) {
+            value = decode(index);
+            decoded.set(index, value);
+        }
+        return value;
+    }
+
+    @Override
+    public ImmutableList<Optional<Object>> getValues() {
+        ImmutableList.Builder<Optional<Object>> builder = ImmutableList.builder();
+        for (int i = 0; i < offsets.length; i++) {
+            builder.add(get(i));
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return a feature sharing the serialized values of this one, but none of the decoded ones
+     */
+    public LazyRevFeature copy() {
+        return new LazyRevFeature(getId(), data, offsets);
+    }
+
+    /**
+     * @return the number of bytes of the serialized values held by this feature
+     */
+    public int serializedSize() {
+        return data.length;
+    }
+
+    private Optional<Object> decode(final int index) {
+        final int offset = offsets[index];
+        final FieldType type = FieldType.valueOf(data[offset - 1]);
+        DataInput in = new DataInputStream(new ByteArrayInputStream(data, offset, data.length
+                - offset));
+        try {
+            return Optional.fromNullable(DataStreamValueSerializer.read(type, in));
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * Reads exactly the serialized feature values from {@code in}, recording where each one
+     * starts, but without decoding them.
+     */
+    static LazyRevFeature read(final ObjectId id, final DataInput in) throws IOException {
+        final int count = in.readInt();
+        final int[] offsets = new int[count];
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+        for (int i = 0; i < count; i++) {
+            final byte fieldTag = in.readByte();
+            out.writeByte(fieldTag);
+            offsets[i] = out.size();
+            DataStreamValueSerializer.copy(FieldType.valueOf(fieldTag), in, out);
+        }
+        return new LazyRevFeature(id, buffer.toByteArray(), offsets);
+    }
+}
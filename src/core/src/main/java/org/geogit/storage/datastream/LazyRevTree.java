@@ -0,0 +1,457 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage.datastream;
+
+import static org.geogit.storage.datastream.FormatCommon.TREE_FORMAT_V2;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.geogit.api.AbstractRevObject;
+import org.geogit.api.Bucket;
+import org.geogit.api.Node;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevObject;
+import org.geogit.api.RevTree;
+import org.geogit.api.RevTreeBuilder;
+import org.geogit.storage.ObjectDatabase;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Iterators;
+import com.google.common.io.ByteStreams;
+
+/**
+ * A {@link RevTree} backed by its serialized form, either in the original format or in the
+ * {@link FormatCommon#TREE_FORMAT_V2 compact} one written by {@link TreeWriter}.
+ * <p>
+ * Creating the tree only walks the serialized nodes to find out where each of them starts; the
+ * {@link Node} and {@link Bucket} objects are decoded on demand. {@link #children()} decodes
+ * each node as it's iterated, the {@link #features()}, {@link #trees()} and {@link #buckets()}
+ * collections are decoded the first time they're asked for, and {@link #getChild(String)} looks
+ * a node up by comparing the encoded names in place, decoding only the matching node. Asking a
+ * leaf tree for its buckets, or a bucket tree for its nodes, decodes nothing at all.
+ */
+public class LazyRevTree extends AbstractRevObject implements RevTree {
+
+    /**
+     * Length of a node in the original format after its name: object id, metadata id, type and
+     * bounds
+     */
+    private static final int NODE_FIXED_LENGTH = 20 + 20 + 1 + 32;
+
+    /**
+     * Length of a bucket in the original format: index, object id and bounds
+     */
+    private static final int BUCKET_LENGTH = 4 + 20 + 32;
+
+    private final byte[] data;
+
+    private final boolean compact;
+
+    private final long size;
+
+    private final int numTrees;
+
+    private final int[] featureOffsets;
+
+    private final int[] treeOffsets;
+
+    private final int[] bucketOffsets;
+
+    private volatile Optional<ImmutableList<Node>> features;
+
+    private volatile Optional<ImmutableList<Node>> trees;
+
+    private volatile Optional<ImmutableSortedMap<Integer, Bucket>> buckets;
+
+    /**
+     * @param id the id of the tree
+     * @param data the serialized tree, right after the {@code "tree"} header; not copied, so it
+     *        shall not be modified afterwards
+     */
+    public LazyRevTree(final ObjectId id, final byte[] data) {
+        super(id);
+        Preconditions.checkNotNull(data);
+        this.data = data;
+        this.compact = data.length > 0 && data[0] == TREE_FORMAT_V2;
+        final PositionInput in = new PositionInput(data);
+        try {
+            if (compact) {
+                in.readByte();
+                this.size = Varint.readUnsignedVarLong(in);
+                this.numTrees = Varint.readUnsignedVarInt(in);
+            } else {
+                this.size = in.readLong();
+                this.numTrees = in.readInt();
+            }
+            this.featureOffsets = indexNodes(in, RevObject.TYPE.FEATURE,
+                    "Non-feature node in tree's feature list.");
+            this.treeOffsets = indexNodes(in, RevObject.TYPE.TREE,
+                    "Non-tree node in tree's subtree list.");
+            this.bucketOffsets = indexBuckets(in);
+        } catch (EOFException e) {
+            throw new IllegalArgumentException("Truncated tree " + id);
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        if (bucketOffsets.length > 0 && (featureOffsets.length > 0 || treeOffsets.length > 0)) {
+            throw new IllegalArgumentException(
+                    "Tree has mixed buckets and nodes; this is not supported.");
+        }
+    }
+
+    private int[] indexNodes(final PositionInput in, final RevObject.TYPE expectedType,
+            final String typeMismatchMessage) throws IOException {
+        final int[] offsets = new int[readCount(in)];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = in.position();
+            final int nameLength = in.readUnsignedShort();
+            skip(in, nameLength);
+            final int type;
+            if (compact) {
+                final int flags = in.readUnsignedByte();
+                type = flags >>> 4;
+                skip(in, FormatCommon.nodeLengthAfterFlagsV2(flags));
+            } else {
+                skip(in, 40);
+                type = in.readUnsignedByte();
+                skip(in, 32);
+            }
+            if (RevObject.TYPE.valueOf(type) != expectedType) {
+                throw new IllegalStateException(typeMismatchMessage);
+            }
+        }
+        return offsets;
+    }
+
+    private int[] indexBuckets(final PositionInput in) throws IOException {
+        final int[] offsets = new int[readCount(in)];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = in.position();
+            if (compact) {
+                Varint.readUnsignedVarInt(in);
+                skip(in, 20);
+                skip(in, FormatCommon.boundsLengthV2(in.readUnsignedByte()));
+            } else {
+                skip(in, BUCKET_LENGTH);
+            }
+        }
+        return offsets;
+    }
+
+    private int readCount(DataInput in) throws IOException {
+        return compact ? Varint.readUnsignedVarInt(in) : in.readInt();
+    }
+
+    private static void skip(DataInput in, int length) throws IOException {
+        if (in.skipBytes(length) != length) {
+            throw new EOFException();
+        }
+    }
+
+    /**
+     * Creates a tree out of the serialized tree at the current position of {@code in}, reading
+     * exactly the bytes of the tree and nothing past them.
+     */
+    static LazyRevTree read(final ObjectId id, final DataInput in) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+        byte[] copyBuffer = new byte[256];
+        final byte first = in.readByte();
+        out.writeByte(first);
+        if (first == TREE_FORMAT_V2) {
+            copyVarint(in, out);// size
+            copyVarint(in, out);// numTrees
+            for (int list = 0; list < 2; list++) {
+                final int numNodes = copyVarint(in, out);
+                for (int i = 0; i < numNodes; i++) {
+                    final int nameLength = in.readUnsignedShort();
+                    out.writeShort(nameLength);
+                    copyBuffer = copy(in, out, nameLength, copyBuffer);
+                    final int flags = in.readUnsignedByte();
+                    out.writeByte(flags);
+                    copyBuffer = copy(in, out, FormatCommon.nodeLengthAfterFlagsV2(flags),
+                            copyBuffer);
+                }
+            }
+            final int numBuckets = copyVarint(in, out);
+            for (int i = 0; i < numBuckets; i++) {
+                copyVarint(in, out);// index
+                copyBuffer = copy(in, out, 20, copyBuffer);
+                final int flags = in.readUnsignedByte();
+                out.writeByte(flags);
+                copyBuffer = copy(in, out, FormatCommon.boundsLengthV2(flags), copyBuffer);
+            }
+        } else {
+            // rest of the size long, and the tree count
+            copyBuffer = copy(in, out, 7 + 4, copyBuffer);
+            for (int list = 0; list < 2; list++) {
+                final int numNodes = in.readInt();
+                out.writeInt(numNodes);
+                for (int i = 0; i < numNodes; i++) {
+                    final int nameLength = in.readUnsignedShort();
+                    out.writeShort(nameLength);
+                    copyBuffer = copy(in, out, nameLength + NODE_FIXED_LENGTH, copyBuffer);
+                }
+            }
+            final int numBuckets = in.readInt();
+            out.writeInt(numBuckets);
+            for (int i = 0; i < numBuckets; i++) {
+                copyBuffer = copy(in, out, BUCKET_LENGTH, copyBuffer);
+            }
+        }
+        return new LazyRevTree(id, buffer.toByteArray());
+    }
+
+    private static byte[] copy(DataInput in, DataOutputStream out, int length, byte[] copyBuffer)
+            throws IOException {
+        if (copyBuffer.length < length) {
+            copyBuffer = new byte[length];
+        }
+        in.readFully(copyBuffer, 0, length);
+        out.write(copyBuffer, 0, length);
+        return copyBuffer;
+    }
+
+    /**
+     * Copies a variable length integer and returns its value
+     */
+    private static int copyVarint(DataInput in, DataOutputStream out) throws IOException {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.readUnsignedByte();
+            out.writeByte(b);
+            if (shift < 32) {
+                value |= (b & 0x7F) << shift;
+            }
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    @Override
+    public TYPE getType() {
+        return TYPE.TREE;
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public int numTrees() {
+        return bucketOffsets.length > 0 ? numTrees : treeOffsets.length;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return featureOffsets.length == 0 && treeOffsets.length == 0
+                && bucketOffsets.length == 0;
+    }
+
+    @Override
+    public Optional<ImmutableList<Node>> features() {
+        Optional<ImmutableList<Node>> features = this.features;
+        if (features == null) {
+            this.features = features = decodeNodes(featureOffsets);
+        }
+        return features;
+    }
+
+    @Override
+    public Optional<ImmutableList<Node>> trees() {
+        Optional<ImmutableList<Node>> trees = this.trees;
+        if (trees == null) {
+            this.trees = trees = decodeNodes(treeOffsets);
+        }
+        return trees;
+    }
+
+    @Override
+    public Optional<ImmutableSortedMap<Integer, Bucket>> buckets() {
+        Optional<ImmutableSortedMap<Integer, Bucket>> buckets = this.buckets;
+        if (buckets == null) {
+            if (bucketOffsets.length == 0) {
+                buckets = Optional.absent();
+            } else {
+                SortedMap<Integer, Bucket> map = new TreeMap<Integer, Bucket>();
+                try {
+                    for (int offset : bucketOffsets) {
+                        DataInput in = ByteStreams.newDataInput(data, offset);
+                        if (compact) {
+                            int index = Varint.readUnsignedVarInt(in);
+                            map.put(Integer.valueOf(index), FormatCommon.readBucketV2(in));
+                        } else {
+                            int index = in.readInt();
+                            map.put(Integer.valueOf(index), FormatCommon.readBucket(in));
+                        }
+                    }
+                } catch (IOException e) {
+                    throw Throwables.propagate(e);
+                }
+                buckets = Optional.of(ImmutableSortedMap.copyOfSorted(map));
+            }
+            this.buckets = buckets;
+        }
+        return buckets;
+    }
+
+    @Override
+    public RevTreeBuilder builder(ObjectDatabase target) {
+        return new RevTreeBuilder(target, this);
+    }
+
+    /**
+     * Iterates over the subtree nodes and then the feature nodes, decoding them as they're
+     * reached.
+     */
+    @Override
+    public Iterator<Node> children() {
+        Preconditions.checkState(bucketOffsets.length == 0);
+        return Iterators.concat(iterate(treeOffsets), iterate(featureOffsets));
+    }
+
+    /**
+     * Looks up a direct child node of this tree by name, without decoding the nodes that don't
+     * match.
+     * <p>
+     * Precondition: {@code !buckets().isPresent()}
+     *
+     * @return the child node named {@code name}, or {@link Optional#absent()}
+     */
+    public Optional<Node> getChild(final String name) {
+        Preconditions.checkState(bucketOffsets.length == 0);
+        final byte[] encodedName = encodeName(name);
+        Node node = find(treeOffsets, encodedName);
+        if (node == null) {
+            node = find(featureOffsets, encodedName);
+        }
+        return Optional.fromNullable(node);
+    }
+
+    /**
+     * @return the size in bytes of the serialized tree this object is backed by
+     */
+    public int serializedSize() {
+        return data.length;
+    }
+
+    private Node find(final int[] offsets, final byte[] encodedName) {
+        for (int i = 0; i < offsets.length; i++) {
+            if (nameEquals(offsets[i], encodedName)) {
+                return decodeNode(offsets[i]);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param encodedName the name as written by {@link java.io.DataOutput#writeUTF(String)},
+     *        including its two bytes length prefix, which both formats start nodes with
+     */
+    private boolean nameEquals(final int offset, final byte[] encodedName) {
+        if (offset + encodedName.length > data.length) {
+            return false;
+        }
+        for (int i = 0; i < encodedName.length; i++) {
+            if (data[offset + i] != encodedName[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] encodeName(final String name) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(2 + name.length());
+        try {
+            new DataOutputStream(out).writeUTF(name);
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        return out.toByteArray();
+    }
+
+    private Iterator<Node> iterate(final int[] offsets) {
+        return new AbstractIterator<Node>() {
+            private int index;
+
+            @Override
+            protected Node computeNext() {
+                if (index == offsets.length) {
+                    return endOfData();
+                }
+                return decodeNode(offsets[index++]);
+            }
+        };
+    }
+
+    private Optional<ImmutableList<Node>> decodeNodes(final int[] offsets) {
+        if (offsets.length == 0) {
+            return Optional.absent();
+        }
+        ImmutableList.Builder<Node> builder = ImmutableList.builder();
+        for (int offset : offsets) {
+            builder.add(decodeNode(offset));
+        }
+        return Optional.of(builder.build());
+    }
+
+    private Node decodeNode(final int offset) {
+        DataInput in = ByteStreams.newDataInput(data, offset);
+        try {
+            return compact ? FormatCommon.readNodeV2(in) : FormatCommon.readNode(in);
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("Tree[");
+        builder.append(getId().toString());
+        builder.append("; subtrees=");
+        builder.append(treeOffsets.length);
+        builder.append(", buckets=");
+        builder.append(bucketOffsets.length);
+        builder.append(", features=");
+        builder.append(featureOffsets.length);
+        builder.append(']');
+        return builder.toString();
+    }
+
+    /**
+     * A {@link DataInput} over a byte array that knows its position in it
+     */
+    private static final class PositionInput extends DataInputStream {
+
+        private final int length;
+
+        PositionInput(byte[] data) {
+            super(new ByteArrayInputStream(data));
+            this.length = data.length;
+        }
+
+        int position() throws IOException {
+            return length - in.available();
+        }
+    }
+}
@@ -4,9 +4,12 @@
  */
 package org.geogit.storage.datastream;
 
-import static org.geogit.storage.datastream.FormatCommon.writeBucket;
+import static org.geogit.storage.datastream.FormatCommon.TREE_FORMAT_V2;
+import static org.geogit.storage.datastream.FormatCommon.writeBucketV2;
 import static org.geogit.storage.datastream.FormatCommon.writeHeader;
-import static org.geogit.storage.datastream.FormatCommon.writeNode;
+import static org.geogit.storage.datastream.FormatCommon.writeNodeV2;
+import static org.geogit.storage.datastream.Varint.writeUnsignedVarInt;
+import static org.geogit.storage.datastream.Varint.writeUnsignedVarLong;
 
 import java.io.DataOutput;
 import java.io.DataOutputStream;
@@ -22,39 +25,59 @@ import org.geogit.storage.ObjectWriter;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSortedMap;
 
+/**
+ * Writes trees in the {@link FormatCommon#TREE_FORMAT_V2 compact format}; trees written in the
+ * original format can still be read.
+ */
 public class TreeWriter implements ObjectWriter<RevTree> {
+
+    private final boolean floatBounds;
+
+    public TreeWriter() {
+        this(false);
+    }
+
+    /**
+     * @param floatBounds whether to store node and bucket bounds as floats, rounded outwards,
+     *        even if that loses precision
+     */
+    public TreeWriter(boolean floatBounds) {
+        this.floatBounds = floatBounds;
+    }
+
     @Override
     public void write(RevTree tree, OutputStream out) throws IOException {
         DataOutput data = new DataOutputStream(out);
         writeHeader(data, "tree");
-        data.writeLong(tree.size());
-        data.writeInt(tree.numTrees());
+        data.writeByte(TREE_FORMAT_V2);
+        writeUnsignedVarLong(tree.size(), data);
+        writeUnsignedVarInt(tree.numTrees(), data);
         if (tree.features().isPresent()) {
-            data.writeInt(tree.features().get().size());
+            writeUnsignedVarInt(tree.features().get().size(), data);
             ImmutableList<Node> features = tree.features().get();
             for (Node feature : features) {
-                writeNode(feature, data);
+                writeNodeV2(feature, data, floatBounds);
             }
         } else {
-            data.writeInt(0);
+            writeUnsignedVarInt(0, data);
         }
         if (tree.trees().isPresent()) {
-            data.writeInt(tree.trees().get().size());
+            writeUnsignedVarInt(tree.trees().get().size(), data);
             ImmutableList<Node> subTrees = tree.trees().get();
             for (Node subTree : subTrees) {
-                writeNode(subTree, data);
+                writeNodeV2(subTree, data, floatBounds);
             }
         } else {
-            data.writeInt(0);
+            writeUnsignedVarInt(0, data);
         }
         if (tree.buckets().isPresent()) {
-            data.writeInt(tree.buckets().get().size());
+            writeUnsignedVarInt(tree.buckets().get().size(), data);
             ImmutableSortedMap<Integer, Bucket> buckets = tree.buckets().get();
             for (Map.Entry<Integer, Bucket> bucket : buckets.entrySet()) {
-                writeBucket(bucket.getKey(), bucket.getValue(), data);
+                writeBucketV2(bucket.getKey(), bucket.getValue(), data, floatBounds);
             }
         } else {
-            data.writeInt(0);
+            writeUnsignedVarInt(0, data);
         }
     }
 }
@@ -0,0 +1,788 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage.fs;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.Platform;
+import org.geogit.api.plumbing.ResolveGeogitDir;
+import org.geogit.storage.AbstractGraphDatabase;
+import org.geogit.storage.GraphDatabase;
+import org.geogit.storage.Neo4JGraphDatabase;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.google.common.io.Closeables;
+import com.google.inject.Inject;
+
+/**
+ * A {@link GraphDatabase} kept in a single, append only, commit graph file.
+ * <p>
+ * Every change to the graph (a commit and its parents, a mapping, or a property) is appended to
+ * the {@code graph/commitgraph} file of the repository as it's made. On open, the file is mapped
+ * in memory and replayed into arrays indexed by the position of each commit in the graph, holding
+ * the parent and child positions, mappings, and committer timestamps, so that history queries
+ * don't need any lookup other than an array access per commit.
+ * <p>
+ * Generation numbers (one more than the highest generation of the parents, {@code 1} for commits
+ * with no known parents) and depths are computed on demand and remembered, and forgotten for all
+ * the descendants of a commit whose parents become known after them. The lowest common ancestor
+ * search walks both histories in decreasing generation order, which allows it to stop at the
+ * first commit reached from both sides instead of walking the whole history of both commits.
+ * <p>
+ * If the file doesn't exist yet but the repository has a {@link Neo4JGraphDatabase Neo4J graph},
+ * the graph is imported from it the first time the database is opened.
+ */
+public class FileGraphDatabase extends AbstractGraphDatabase {
+
+    private static final String FILE = "commitgraph";
+
+    private static final String NEO4J_DIRECTORY = "graphDB.db";
+
+    private static final Map<String, CommitGraph> graphs = //
+    new ConcurrentHashMap<String, CommitGraph>();
+
+    private final Platform platform;
+
+    private CommitGraph graph;
+
+    private String graphPath;
+
+    /**
+     * Constructs a new {@code FileGraphDatabase} using the given platform.
+     *
+     * @param platform the platform to use.
+     */
+    @Inject
+    public FileGraphDatabase(final Platform platform) {
+        this.platform = platform;
+    }
+
+    @Override
+    public void open() {
+        if (isOpen()) {
+            return;
+        }
+        URL envHome = new ResolveGeogitDir(platform).call();
+        if (envHome == null) {
+            throw new IllegalStateException("Not inside a geogit directory");
+        }
+        if (!"file".equals(envHome.getProtocol())) {
+            throw new UnsupportedOperationException(
+                    "This Graph Database works only against file system repositories. "
+                            + "Repository location: " + envHome.toExternalForm());
+        }
+        File repoDir;
+        try {
+            repoDir = new File(envHome.toURI());
+        } catch (URISyntaxException e) {
+            throw Throwables.propagate(e);
+        }
+        File graphDir = new File(repoDir, "graph");
+        if (!graphDir.exists() && !graphDir.mkdir()) {
+            throw new IllegalStateException("Cannot create graph directory '"
+                    + graphDir.getAbsolutePath() + "'");
+        }
+        File file = new File(graphDir, FILE);
+        graphPath = file.getAbsolutePath();
+        synchronized (graphs) {
+            graph = graphs.get(graphPath);
+            if (graph == null) {
+                final boolean importNeo4J = !file.exists()
+                        && new File(graphDir, NEO4J_DIRECTORY).exists();
+                try {
+                    graph = new CommitGraph(file);
+                } catch (IOException e) {
+                    throw Throwables.propagate(e);
+                }
+                graphs.put(graphPath, graph);
+                if (importNeo4J) {
+                    Neo4JGraphDatabase neo4j = new Neo4JGraphDatabase(platform);
+                    neo4j.open();
+                    try {
+                        neo4j.copyTo(this);
+                    } finally {
+                        neo4j.close();
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return graph != null;
+    }
+
+    @Override
+    public void close() {
+        if (isOpen()) {
+            graphs.remove(graphPath);
+            graph.close();
+            graph = null;
+        }
+    }
+
+    @Override
+    public boolean exists(ObjectId commitId) {
+        return graph().position(commitId) >= 0;
+    }
+
+    @Override
+    public ImmutableList<ObjectId> getParents(ObjectId commitId) throws IllegalArgumentException {
+        return graph().parents(commitId);
+    }
+
+    @Override
+    public ImmutableList<ObjectId> getChildren(ObjectId commitId) throws IllegalArgumentException {
+        return graph().children(commitId);
+    }
+
+    @Override
+    public boolean put(ObjectId commitId, ImmutableList<ObjectId> parentIds) {
+        return graph().add(commitId, parentIds, false, 0L);
+    }
+
+    @Override
+    public boolean put(ObjectId commitId, ImmutableList<ObjectId> parentIds, long timestamp) {
+        return graph().add(commitId, parentIds, true, timestamp);
+    }
+
+    @Override
+    public Optional<Long> getTimestamp(ObjectId commitId) {
+        return graph().timestamp(commitId);
+    }
+
+    @Override
+    public void map(ObjectId mapped, ObjectId original) {
+        graph().map(mapped, original);
+    }
+
+    @Override
+    public ObjectId getMapping(ObjectId commitId) {
+        return graph().mapping(commitId);
+    }
+
+    @Override
+    public int getDepth(ObjectId commitId) {
+        return graph().depth(commitId);
+    }
+
+    @Override
+    public Optional<ObjectId> findLowestCommonAncestor(ObjectId leftId, ObjectId rightId) {
+        return graph().lowestCommonAncestor(leftId, rightId);
+    }
+
+    @Override
+    public void setProperty(ObjectId commitId, String propertyName, String propertyValue) {
+        graph().setProperty(commitId, propertyName, propertyValue);
+    }
+
+    @Override
+    public boolean isSparsePath(ObjectId start, ObjectId end) {
+        return graph().isSparsePath(start, end);
+    }
+
+    private CommitGraph graph() {
+        checkState(isOpen(), "graph database is not open");
+        return graph;
+    }
+
+    /**
+     * The in memory commit graph, backed by the commit graph file.
+     * <p>
+     * Commits referenced as parents before being added themselves are kept as placeholders, with
+     * no parents; like in the Neo4J graph, they exist but have no relationships of their own.
+     */
+    private static class CommitGraph {
+
+        private static final int MAGIC = 0x47474347;// GGCG
+
+        private static final int VERSION = 1;
+
+        private static final int HEADER_LENGTH = 8;
+
+        private static final byte PUT = 'P';
+
+        private static final byte MAP = 'M';
+
+        private static final byte PROPERTY = 'S';
+
+        private static final int ID_BYTES = ObjectId.HASH_FUNCTION.bits() / 8;
+
+        private static final Charset CHARSET = Charset.forName("UTF-8");
+
+        private static final int[] NONE = new int[0];
+
+        /**
+         * Generation or depth not computed yet
+         */
+        private static final int UNKNOWN = -1;
+
+        private static final byte ADDED = 1;
+
+        private static final byte HAS_TIMESTAMP = 2;
+
+        private final File file;
+
+        private DataOutputStream out;
+
+        private final Map<ObjectId, Integer> positions = Maps.newHashMap();
+
+        private int size;
+
+        private ObjectId[] ids = new ObjectId[0];
+
+        private byte[] flags = new byte[0];
+
+        private int[][] parents = new int[0][];
+
+        private int[][] children = new int[0][];
+
+        private int[] mappings = new int[0];
+
+        private long[] timestamps = new long[0];
+
+        private int[] generations = new int[0];
+
+        private int[] depths = new int[0];
+
+        private final Map<Integer, Map<String, String>> properties = Maps.newHashMap();
+
+        CommitGraph(File file) throws IOException {
+            this.file = file;
+            if (file.exists()) {
+                load();
+            }
+            // load() deletes files that don't even have a complete header
+            final boolean exists = file.exists();
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file,
+                    exists)));
+            if (!exists) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.flush();
+            }
+        }
+
+        synchronized void close() {
+            Closeables.closeQuietly(out);
+        }
+
+        /**
+         * Replays the records in the file, dropping the last one if it was left truncated by an
+         * interrupted write
+         */
+        private void load() throws IOException {
+            long validLength = HEADER_LENGTH;
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                FileChannel channel = raf.getChannel();
+                ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (buffer.remaining() < HEADER_LENGTH) {
+                    validLength = 0;
+                } else {
+                    checkState(buffer.getInt() == MAGIC, "%s is not a commit graph file", file);
+                    int version = buffer.getInt();
+                    checkState(version == VERSION, "unsupported commit graph version: %s",
+                            version);
+                    try {
+                        while (buffer.hasRemaining()) {
+                            replay(buffer);
+                            validLength = buffer.position();
+                        }
+                    } catch (BufferUnderflowException truncated) {
+                        // validLength points to the end of the last complete record
+                    }
+                }
+                if (validLength < channel.size()) {
+                    raf.setLength(validLength);
+                }
+            } finally {
+                raf.close();
+            }
+            if (validLength == 0) {
+                // not even the header was written
+                file.delete();
+            }
+        }
+
+        private void replay(ByteBuffer buffer) {
+            final byte type = buffer.get();
+            switch (type) {
+            case PUT: {
+                ObjectId commitId = readId(buffer);
+                boolean hasTimestamp = buffer.get() != 0;
+                long timestamp = buffer.getLong();
+                int numParents = buffer.getInt();
+                ObjectId[] parentIds = new ObjectId[numParents];
+                for (int i = 0; i < numParents; i++) {
+                    parentIds[i] = readId(buffer);
+                }
+                apply(commitId, Arrays.asList(parentIds), hasTimestamp, timestamp);
+                break;
+            }
+            case MAP: {
+                ObjectId mapped = readId(buffer);
+                ObjectId original = readId(buffer);
+                applyMapping(mapped, original);
+                break;
+            }
+            case PROPERTY: {
+                ObjectId commitId = readId(buffer);
+                String name = readString(buffer);
+                String value = readString(buffer);
+                applyProperty(commitId, name, value);
+                break;
+            }
+            default:
+                throw new IllegalStateException("Corrupt commit graph file " + file
+                        + ", unknown record type " + type + " at " + (buffer.position() - 1));
+            }
+        }
+
+        private static ObjectId readId(ByteBuffer buffer) {
+            byte[] raw = new byte[ID_BYTES];
+            buffer.get(raw);
+            return new ObjectId(raw);
+        }
+
+        private static String readString(ByteBuffer buffer) {
+            byte[] bytes = new byte[buffer.getInt()];
+            buffer.get(bytes);
+            return new String(bytes, CHARSET);
+        }
+
+        private void writeString(String value) throws IOException {
+            byte[] bytes = value.getBytes(CHARSET);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        synchronized int position(ObjectId commitId) {
+            Integer position = positions.get(commitId);
+            return position == null ? -1 : position.intValue();
+        }
+
+        private int getOrAdd(ObjectId commitId) {
+            int position = position(commitId);
+            if (position >= 0) {
+                return position;
+            }
+            if (size == ids.length) {
+                int capacity = Math.max(1024, size * 2);
+                ids = Arrays.copyOf(ids, capacity);
+                flags = Arrays.copyOf(flags, capacity);
+                parents = Arrays.copyOf(parents, capacity);
+                children = Arrays.copyOf(children, capacity);
+                mappings = Arrays.copyOf(mappings, capacity);
+                timestamps = Arrays.copyOf(timestamps, capacity);
+                generations = Arrays.copyOf(generations, capacity);
+                depths = Arrays.copyOf(depths, capacity);
+            }
+            position = size++;
+            ids[position] = commitId;
+            parents[position] = NONE;
+            children[position] = NONE;
+            mappings[position] = -1;
+            generations[position] = UNKNOWN;
+            depths[position] = UNKNOWN;
+            positions.put(commitId, Integer.valueOf(position));
+            return position;
+        }
+
+        private boolean added(int position) {
+            return (flags[position] & ADDED) != 0;
+        }
+
+        /**
+         * Whether the commit has relationships of its own, which is what the Neo4J graph checks
+         * for
+         */
+        private boolean hasOutgoing(int position) {
+            return added(position) || mappings[position] >= 0;
+        }
+
+        synchronized boolean add(ObjectId commitId, List<ObjectId> parentIds,
+                boolean hasTimestamp, long timestamp) {
+            if (!apply(commitId, parentIds, hasTimestamp, timestamp)) {
+                return false;
+            }
+            try {
+                out.writeByte(PUT);
+                out.write(commitId.getRawValue());
+                out.writeByte(hasTimestamp ? 1 : 0);
+                out.writeLong(timestamp);
+                out.writeInt(parentIds.size());
+                for (ObjectId parentId : parentIds) {
+                    out.write(parentId.getRawValue());
+                }
+                out.flush();
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+            return true;
+        }
+
+        private boolean apply(ObjectId commitId, List<ObjectId> parentIds, boolean hasTimestamp,
+                long timestamp) {
+            final int position = getOrAdd(commitId);
+            if (added(position)) {
+                return false;
+            }
+            int[] parentPositions = new int[parentIds.size()];
+            for (int i = 0; i < parentPositions.length; i++) {
+                int parent = getOrAdd(parentIds.get(i));
+                parentPositions[i] = parent;
+                int[] siblings = children[parent];
+                siblings = Arrays.copyOf(siblings, siblings.length + 1);
+                siblings[siblings.length - 1] = position;
+                children[parent] = siblings;
+            }
+            parents[position] = parentPositions;
+            flags[position] |= ADDED;
+            if (hasTimestamp) {
+                flags[position] |= HAS_TIMESTAMP;
+                timestamps[position] = timestamp;
+            }
+            // it may have been a placeholder with known descendants
+            forget(position);
+            return true;
+        }
+
+        /**
+         * Forgets the generation and depth of the commit and all its descendants
+         */
+        private void forget(int position) {
+            Deque<Integer> pending = new ArrayDeque<Integer>();
+            pending.push(Integer.valueOf(position));
+            while (!pending.isEmpty()) {
+                int p = pending.pop().intValue();
+                if (p != position && generations[p] == UNKNOWN && depths[p] == UNKNOWN) {
+                    // its descendants can't be known either
+                    continue;
+                }
+                generations[p] = UNKNOWN;
+                depths[p] = UNKNOWN;
+                for (int child : children[p]) {
+                    pending.push(Integer.valueOf(child));
+                }
+            }
+        }
+
+        synchronized ImmutableList<ObjectId> parents(ObjectId commitId) {
+            return ids(parents, position(commitId));
+        }
+
+        synchronized ImmutableList<ObjectId> children(ObjectId commitId) {
+            return ids(children, position(commitId));
+        }
+
+        private ImmutableList<ObjectId> ids(int[][] relationships, int position) {
+            if (position < 0) {
+                return ImmutableList.of();
+            }
+            ImmutableList.Builder<ObjectId> builder = ImmutableList.builder();
+            for (int related : relationships[position]) {
+                builder.add(ids[related]);
+            }
+            return builder.build();
+        }
+
+        synchronized Optional<Long> timestamp(ObjectId commitId) {
+            int position = position(commitId);
+            if (position < 0 || (flags[position] & HAS_TIMESTAMP) == 0) {
+                return Optional.absent();
+            }
+            return Optional.of(Long.valueOf(timestamps[position]));
+        }
+
+        synchronized void map(ObjectId mapped, ObjectId original) {
+            applyMapping(mapped, original);
+            try {
+                out.writeByte(MAP);
+                out.write(mapped.getRawValue());
+                out.write(original.getRawValue());
+                out.flush();
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+
+        private void applyMapping(ObjectId mapped, ObjectId original) {
+            int position = getOrAdd(mapped);
+            mappings[position] = getOrAdd(original);
+            // a mapping makes a commit with no parents count as a dead end rather than a root
+            forget(position);
+        }
+
+        synchronized ObjectId mapping(ObjectId commitId) {
+            int position = position(commitId);
+            if (position < 0 || mappings[position] < 0) {
+                return ObjectId.NULL;
+            }
+            return ids[mappings[position]];
+        }
+
+        synchronized void setProperty(ObjectId commitId, String name, String value) {
+            applyProperty(commitId, name, value);
+            try {
+                out.writeByte(PROPERTY);
+                out.write(commitId.getRawValue());
+                writeString(name);
+                writeString(value);
+                out.flush();
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+
+        private void applyProperty(ObjectId commitId, String name, String value) {
+            Integer position = Integer.valueOf(getOrAdd(commitId));
+            Map<String, String> commitProperties = properties.get(position);
+            if (commitProperties == null) {
+                commitProperties = Maps.newHashMap();
+                properties.put(position, commitProperties);
+            }
+            commitProperties.put(name, value);
+        }
+
+        private boolean hasProperty(int position, String name) {
+            Map<String, String> commitProperties = properties.get(Integer.valueOf(position));
+            return commitProperties != null && commitProperties.containsKey(name);
+        }
+
+        private int generation(final int position) {
+            if (generations[position] != UNKNOWN) {
+                return generations[position];
+            }
+            Deque<Integer> pending = new ArrayDeque<Integer>();
+            pending.push(Integer.valueOf(position));
+            while (!pending.isEmpty()) {
+                final int p = pending.peek().intValue();
+                if (generations[p] != UNKNOWN) {
+                    pending.pop();
+                    continue;
+                }
+                int max = 0;
+                boolean ready = true;
+                for (int parent : parents[p]) {
+                    if (generations[parent] == UNKNOWN) {
+                        ready = false;
+                        pending.push(Integer.valueOf(parent));
+                    } else {
+                        max = Math.max(max, generations[parent]);
+                    }
+                }
+                if (ready) {
+                    generations[p] = max + 1;
+                    pending.pop();
+                }
+            }
+            return generations[position];
+        }
+
+        /**
+         * The depth is the length of the shortest path to a root commit (one added with no
+         * parents) or a commit with no relationships, {@link Integer#MAX_VALUE} if there's none
+         */
+        synchronized int depth(ObjectId commitId) {
+            final int position = position(commitId);
+            if (position < 0) {
+                return 0;
+            }
+            if (depths[position] != UNKNOWN) {
+                return depths[position];
+            }
+            Deque<Integer> pending = new ArrayDeque<Integer>();
+            pending.push(Integer.valueOf(position));
+            while (!pending.isEmpty()) {
+                final int p = pending.peek().intValue();
+                if (depths[p] != UNKNOWN) {
+                    pending.pop();
+                    continue;
+                }
+                if (!hasOutgoing(p) || (added(p) && parents[p].length == 0)) {
+                    depths[p] = 0;
+                    pending.pop();
+                    continue;
+                }
+                int min = Integer.MAX_VALUE;
+                boolean ready = true;
+                for (int parent : parents[p]) {
+                    if (depths[parent] == UNKNOWN) {
+                        ready = false;
+                        pending.push(Integer.valueOf(parent));
+                    } else if (depths[parent] != Integer.MAX_VALUE) {
+                        min = Math.min(min, depths[parent] + 1);
+                    }
+                }
+                if (ready) {
+                    depths[p] = min;
+                    pending.pop();
+                }
+            }
+            return depths[position];
+        }
+
+        synchronized Optional<ObjectId> lowestCommonAncestor(ObjectId leftId, ObjectId rightId) {
+            final int left = position(leftId);
+            final int right = position(rightId);
+            if (left < 0 || right < 0 || !hasOutgoing(left) || !hasOutgoing(right)) {
+                return Optional.absent();
+            }
+            final byte fromLeft = 1;
+            final byte fromRight = 2;
+            final byte fromBoth = fromLeft | fromRight;
+            final Map<Integer, Byte> reachedFrom = Maps.newHashMap();
+            final Map<Integer, Byte> visited = Maps.newHashMap();
+            PriorityQueue<Integer> queue = new PriorityQueue<Integer>(64,
+                    new Comparator<Integer>() {
+                        @Override
+                        public int compare(Integer p1, Integer p2) {
+                            int g1 = generations[p1.intValue()];
+                            int g2 = generations[p2.intValue()];
+                            return g1 > g2 ? -1 : (g1 == g2 ? 0 : 1);
+                        }
+                    });
+            generation(left);
+            generation(right);
+            reachedFrom.put(Integer.valueOf(left), Byte.valueOf(fromLeft));
+            queue.add(Integer.valueOf(left));
+            Byte rightFlags = Byte.valueOf((byte) (left == right ? fromBoth : fromRight));
+            reachedFrom.put(Integer.valueOf(right), rightFlags);
+            queue.add(Integer.valueOf(right));
+
+            // every child has a higher generation than its parents, so by the time a commit is
+            // polled it's been reached from every side it can be reached from, and the first one
+            // reached from both sides has no descendants reached from both sides
+            while (!queue.isEmpty()) {
+                final Integer position = queue.poll();
+                final byte from = reachedFrom.get(position).byteValue();
+                Byte visitedFrom = visited.get(position);
+                if (visitedFrom != null && visitedFrom.byteValue() == from) {
+                    continue;
+                }
+                visited.put(position, Byte.valueOf(from));
+                if (from == fromBoth) {
+                    return Optional.of(ids[position.intValue()]);
+                }
+                for (int parent : parents[position.intValue()]) {
+                    if (!hasOutgoing(parent)) {
+                        continue;
+                    }
+                    Integer parentPosition = Integer.valueOf(parent);
+                    Byte parentFrom = reachedFrom.get(parentPosition);
+                    byte newFrom = (byte) (from | (parentFrom == null ? 0 : parentFrom
+                            .byteValue()));
+                    if (parentFrom == null || parentFrom.byteValue() != newFrom) {
+                        reachedFrom.put(parentPosition, Byte.valueOf(newFrom));
+                        generation(parent);
+                        queue.add(parentPosition);
+                    }
+                }
+            }
+            return Optional.absent();
+        }
+
+        /**
+         * Looks for sparse commits in the shortest paths from {@code start} to {@code end}, the
+         * same way the Neo4J graph does
+         */
+        synchronized boolean isSparsePath(ObjectId startId, ObjectId endId) {
+            final int start = position(startId);
+            final int end = position(endId);
+            if (start < 0 || end < 0 || start == end) {
+                return false;
+            }
+            // breadth first distances from start, up to end
+            final Map<Integer, Integer> distances = Maps.newHashMap();
+            Deque<Integer> queue = new ArrayDeque<Integer>();
+            distances.put(Integer.valueOf(start), Integer.valueOf(0));
+            queue.add(Integer.valueOf(start));
+            while (!queue.isEmpty() && !distances.containsKey(Integer.valueOf(end))) {
+                Integer p = queue.poll();
+                int distance = distances.get(p).intValue();
+                for (int parent : parents[p.intValue()]) {
+                    Integer parentPosition = Integer.valueOf(parent);
+                    if (!distances.containsKey(parentPosition)) {
+                        distances.put(parentPosition, Integer.valueOf(distance + 1));
+                        queue.add(parentPosition);
+                    }
+                }
+            }
+            if (!distances.containsKey(Integer.valueOf(end))) {
+                return false;
+            }
+            // walk the shortest paths backwards from end
+            queue.clear();
+            queue.add(Integer.valueOf(end));
+            final Map<Integer, Boolean> onPath = Maps.newHashMap();
+            while (!queue.isEmpty()) {
+                final Integer p = queue.poll();
+                final int distance = distances.get(p).intValue();
+                for (int child : children[p.intValue()]) {
+                    Integer childPosition = Integer.valueOf(child);
+                    Integer childDistance = distances.get(childPosition);
+                    if (childDistance == null || childDistance.intValue() != distance - 1
+                            || onPath.containsKey(childPosition)) {
+                        continue;
+                    }
+                    onPath.put(childPosition, Boolean.TRUE);
+                    queue.add(childPosition);
+                    if (hasProperty(child, GraphDatabase.SPARSE_FLAG)) {
+                        return true;
+                    }
+                    if (p.intValue() == end && !mappedParentsRepresented(child)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Whether all the parents of the commit the given one is mapped to are mapped back to
+         * themselves
+         */
+        private boolean mappedParentsRepresented(int position) {
+            final int mapped = mappings[position];
+            if (mapped < 0) {
+                return true;
+            }
+            for (int parent : parents[mapped]) {
+                int mappedParent = mappings[parent];
+                if (mappedParent < 0 || mappings[mappedParent] != parent) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
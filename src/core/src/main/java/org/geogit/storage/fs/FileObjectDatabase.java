@@ -15,18 +15,34 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.geogit.api.ObjectId;
 import org.geogit.api.Platform;
+import org.geogit.api.RevObject;
 import org.geogit.api.plumbing.ResolveGeogitDir;
 import org.geogit.storage.AbstractObjectDatabase;
 import org.geogit.storage.ObjectDatabase;
+import org.geogit.storage.ObjectIdBloomFilter;
 import org.geogit.storage.ObjectSerializingFactory;
 
+import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableList.Builder;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
 
 /**
@@ -37,6 +53,21 @@ import com.google.inject.Inject;
  */
 public class FileObjectDatabase extends AbstractObjectDatabase implements ObjectDatabase {
 
+    /**
+     * Maximum number of concurrent reads issued by {@link #getAll(Iterable)} and
+     * {@link #existsAll(Iterable)}
+     */
+    private static final int READ_AHEAD = 64;
+
+    private static final String BLOOM_FILTER_FILE = "objects.bloom";
+
+    /**
+     * Shared by all instances, used to issue parallel reads for the batch operations
+     */
+    private static final ExecutorService READ_EXECUTOR = Executors.newFixedThreadPool(
+            Math.max(2, Runtime.getRuntime().availableProcessors()), new ThreadFactoryBuilder()
+                    .setDaemon(true).setNameFormat("geogit-object-reader-%d").build());
+
     private final Platform platform;
 
     private final String databaseName;
@@ -112,6 +143,61 @@ public class FileObjectDatabase extends AbstractObjectDatabase implements Object
                     + dataRoot.getAbsolutePath());
         }
         dataRootPath = dataRoot.getAbsolutePath();
+        openBloomFilter(getBloomFilterFile());
+    }
+
+    /**
+     * @return the file the bloom filter over the stored ids is persisted to
+     */
+    protected File getBloomFilterFile() {
+        return new File(dataRoot, BLOOM_FILTER_FILE);
+    }
+
+    @Override
+    protected boolean scanIds(ObjectIdBloomFilter filter) {
+        for (ObjectId id : looseObjectIds()) {
+            filter.put(id);
+        }
+        return true;
+    }
+
+    /**
+     * @return the ids of all the objects stored one per file under the data root
+     */
+    protected List<ObjectId> looseObjectIds() {
+        List<ObjectId> ids = Lists.newArrayList();
+        File[] level1 = dataRoot.listFiles();
+        if (level1 == null) {
+            return ids;
+        }
+        for (File dir1 : level1) {
+            if (!isHexDir(dir1)) {
+                continue;
+            }
+            File[] level2 = dir1.listFiles();
+            if (level2 == null) {
+                continue;
+            }
+            for (File dir2 : level2) {
+                if (!isHexDir(dir2)) {
+                    continue;
+                }
+                String[] names = dir2.list();
+                if (names == null) {
+                    continue;
+                }
+                for (String name : names) {
+                    if (name.length() == 40) {
+                        ids.add(ObjectId.valueOf(name));
+                    }
+                }
+            }
+        }
+        return ids;
+    }
+
+    private static boolean isHexDir(File f) {
+        return f.isDirectory() && f.getName().length() == 2;
     }
 
     /**
@@ -119,6 +205,7 @@ public class FileObjectDatabase extends AbstractObjectDatabase implements Object
      */
     @Override
     public void close() {
+        closeBloomFilter();
         dataRoot = null;
         dataRootPath = null;
     }
@@ -131,8 +218,15 @@ public class FileObjectDatabase extends AbstractObjectDatabase implements Object
      */
     @Override
     public boolean exists(final ObjectId id) {
+        if (!mightContain(id)) {
+            return false;
+        }
         File f = filePath(id);
-        return f.exists();
+        boolean exists = f.exists();
+        if (!exists) {
+            bloomFilterMiss();
+        }
+        return exists;
     }
 
     @Override
@@ -153,10 +247,20 @@ public class FileObjectDatabase extends AbstractObjectDatabase implements Object
      */
     @Override
     protected boolean putInternal(final ObjectId id, final byte[] rawData) {
+        return putInternal(id, rawData, 0, rawData.length);
+    }
+
+    /**
+     * Writes the slice straight out of the buffer, with no intermediate copy.
+     */
+    @Override
+    protected boolean putInternal(final ObjectId id, final byte[] buffer, final int offset,
+            final int length) {
         final File f = filePath(id);
-        if (f.exists()) {
+        if (mightContain(id) && f.exists()) {
             return false;
         }
+        bloomFilterAdd(id);
 
         FileOutputStream fileOutputStream;
         try {
@@ -173,7 +277,7 @@ public class FileObjectDatabase extends AbstractObjectDatabase implements Object
             }
         }
         try {
-            fileOutputStream.write(rawData);
+            fileOutputStream.write(buffer, offset, length);
             fileOutputStream.flush();
             fileOutputStream.close();
         } catch (IOException e) {
@@ -182,6 +286,68 @@ public class FileObjectDatabase extends AbstractObjectDatabase implements Object
         return true;
     }
 
+    /**
+     * Reads the objects in parallel, keeping up to a fixed number of reads in flight ahead of the
+     * consumer. Objects are returned in the same order than the requested ids.
+     */
+    @Override
+    public Iterator<RevObject> getAll(final Iterable<ObjectId> ids) {
+        Preconditions.checkNotNull(ids, "ids");
+        final Iterator<ObjectId> idIterator = ids.iterator();
+        return new AbstractIterator<RevObject>() {
+
+            private final LinkedList<Future<RevObject>> pending = Lists.newLinkedList();
+
+            @Override
+            protected RevObject computeNext() {
+                while (true) {
+                    while (pending.size() < READ_AHEAD && idIterator.hasNext()) {
+                        final ObjectId id = idIterator.next();
+                        pending.add(READ_EXECUTOR.submit(new Callable<RevObject>() {
+                            @Override
+                            public RevObject call() {
+                                return getIfPresent(id);
+                            }
+                        }));
+                    }
+                    if (pending.isEmpty()) {
+                        return endOfData();
+                    }
+                    RevObject object = Futures.getUnchecked(pending.removeFirst());
+                    if (object != null) {
+                        return object;
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Checks for the existence of the objects in parallel.
+     */
+    @Override
+    public Set<ObjectId> existsAll(final Iterable<ObjectId> ids) {
+        Preconditions.checkNotNull(ids, "ids");
+        Set<ObjectId> existing = Sets.newHashSet();
+        for (List<ObjectId> batch : Iterables.partition(ids, READ_AHEAD)) {
+            List<Future<Boolean>> results = Lists.newArrayListWithCapacity(batch.size());
+            for (final ObjectId id : batch) {
+                results.add(READ_EXECUTOR.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        return Boolean.valueOf(exists(id));
+                    }
+                }));
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                if (Futures.getUnchecked(results.get(i)).booleanValue()) {
+                    existing.add(batch.get(i));
+                }
+            }
+        }
+        return existing;
+    }
+
     /**
      * Deletes the object with the provided {@link ObjectId id} from the database.
      * 
@@ -0,0 +1,554 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage.fs;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.ObjectId;
+import org.geogit.storage.ObjectIdBloomFilter;
+
+import com.google.common.base.Function;
+import com.google.common.base.Predicate;
+import com.google.common.base.Throwables;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.collect.PeekingIterator;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Closeables;
+import com.google.common.io.CountingOutputStream;
+
+/**
+ * An immutable, append-once pack of compressed objects and its sorted fan-out index.
+ * <p>
+ * A pack is made of two files sharing the same base name:
+ * <ul>
+ * <li>{@code <name>.pack}: a small header followed by the raw (already compressed) contents of each
+ * object, one after the other.
+ * <li>{@code <name>.idx}: a header, a 256 entries fan-out table with the cumulative number of
+ * objects whose id starts with a byte lower or equal than the table index, the object ids sorted
+ * in unsigned byte order, and the offset and length of each object inside the pack file.
+ * </ul>
+ * The index file is written last, so a pack is only considered complete when its index exists. A
+ * {@code <name>.bloom} {@link ObjectIdBloomFilter bloom filter} of the pack ids is written right
+ * before it, so that lookups for objects not in the pack rarely need to search the index. It's
+ * rebuilt out of the index if missing.
+ * <p>
+ * Both files are memory mapped for reading whenever they fit in a single mapping, otherwise the
+ * pack contents are read with positioned reads on its file channel. All read operations are
+ * thread safe.
+ */
+final class PackFile {
+
+    static final String PACK_EXTENSION = ".pack";
+
+    static final String INDEX_EXTENSION = ".idx";
+
+    static final String BLOOM_EXTENSION = ".bloom";
+
+    private static final int PACK_MAGIC = 0x4747504B;// GGPK
+
+    private static final int INDEX_MAGIC = 0x47474958;// GGIX
+
+    private static final int VERSION = 1;
+
+    private static final int FANOUT_SIZE = 256;
+
+    private static final int ID_SIZE = 20;
+
+    private static final int PACK_HEADER_SIZE = 8;
+
+    /**
+     * magic, version, and object count
+     */
+    private static final int INDEX_HEADER_SIZE = 12;
+
+    private static final int FANOUT_OFFSET = INDEX_HEADER_SIZE;
+
+    private static final int IDS_OFFSET = FANOUT_OFFSET + 4 * FANOUT_SIZE;
+
+    /**
+     * Orders {@link ObjectId}s by unsigned byte value, the order used by the pack index
+     */
+    static final Comparator<ObjectId> UNSIGNED_ORDER = new Comparator<ObjectId>() {
+        @Override
+        public int compare(ObjectId o1, ObjectId o2) {
+            for (int i = 0; i < ID_SIZE; i++) {
+                int c = o1.byteN(i) - o2.byteN(i);
+                if (c != 0) {
+                    return c;
+                }
+            }
+            return 0;
+        }
+    };
+
+    private final String name;
+
+    private final File packFile;
+
+    private final File indexFile;
+
+    private final File bloomFile;
+
+    private final int size;
+
+    private final int[] fanout;
+
+    private final int offsetsOffset;
+
+    private final int lengthsOffset;
+
+    private final ByteBuffer index;
+
+    private final RandomAccessFile packRaf;
+
+    private final FileChannel packChannel;
+
+    @Nullable
+    private final ByteBuffer packData;
+
+    private final ObjectIdBloomFilter filter;
+
+    private PackFile(final File packFile, final File indexFile) throws IOException {
+        this.packFile = packFile;
+        this.indexFile = indexFile;
+        String fname = indexFile.getName();
+        this.name = fname.substring(0, fname.length() - INDEX_EXTENSION.length());
+        this.bloomFile = new File(indexFile.getParentFile(), name + BLOOM_EXTENSION);
+
+        this.index = map(indexFile);
+        checkState(INDEX_MAGIC == index.getInt(0), "%s is not a pack index", indexFile);
+        checkState(VERSION == index.getInt(4), "Unsupported pack index version: %s",
+                index.getInt(4));
+        this.size = index.getInt(8);
+        this.fanout = new int[FANOUT_SIZE];
+        for (int i = 0; i < FANOUT_SIZE; i++) {
+            fanout[i] = index.getInt(FANOUT_OFFSET + 4 * i);
+        }
+        checkState(fanout[FANOUT_SIZE - 1] == size, "Corrupt fan-out table in %s", indexFile);
+        this.offsetsOffset = IDS_OFFSET + ID_SIZE * size;
+        this.lengthsOffset = offsetsOffset + 8 * size;
+
+        this.packRaf = new RandomAccessFile(packFile, "r");
+        this.packChannel = packRaf.getChannel();
+        final long packSize = packChannel.size();
+        this.packData = packSize <= Integer.MAX_VALUE ? packChannel.map(MapMode.READ_ONLY, 0,
+                packSize) : null;
+        ByteBuffer header = ByteBuffer.allocate(PACK_HEADER_SIZE);
+        readFully(header, 0);
+        checkState(PACK_MAGIC == header.getInt(0), "%s is not a pack file", packFile);
+        this.filter = loadFilter();
+    }
+
+    private ObjectIdBloomFilter loadFilter() {
+        if (bloomFile.exists()) {
+            try {
+                return ObjectIdBloomFilter.load(bloomFile);
+            } catch (IOException e) {
+                // rebuilt below
+            }
+        }
+        ObjectIdBloomFilter filter = ObjectIdBloomFilter.create(Math.max(1, size));
+        for (int i = 0; i < size; i++) {
+            filter.put(idAt(i));
+        }
+        return filter;
+    }
+
+    /**
+     * Opens the pack whose index file is given.
+     */
+    public static PackFile open(final File indexFile) {
+        final String fname = indexFile.getName();
+        checkArgument(fname.endsWith(INDEX_EXTENSION), "Not a pack index: %s", fname);
+        File packFile = new File(indexFile.getParentFile(), fname.substring(0, fname.length()
+                - INDEX_EXTENSION.length())
+                + PACK_EXTENSION);
+        checkState(packFile.exists(), "Pack file %s does not exist", packFile);
+        try {
+            return new PackFile(packFile, indexFile);
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * Creates a new pack named {@code name} in {@code directory} holding the given objects.
+     *
+     * @param ids the ids of the objects to pack, they'll be sorted by this method
+     * @param contents provides the raw contents of each object, the returned streams are closed by
+     *        this method
+     * @return the newly created and opened pack
+     */
+    public static PackFile create(final File directory, final String name,
+            final List<ObjectId> ids, final Function<ObjectId, InputStream> contents) {
+
+        final List<ObjectId> sorted = Lists.newArrayList(ids);
+        Collections.sort(sorted, UNSIGNED_ORDER);
+        return write(directory, name, sorted, sorted.size(), contents);
+    }
+
+    /**
+     * Creates a new pack named {@code name} in {@code directory} holding the objects of the given
+     * packs, but the ones matching {@code exclude}. An object contained in more than one pack is
+     * copied once, from the first pack in the list that contains it.
+     *
+     * @param exclude shall return the same result for the same id during the whole call, as the
+     *        ids are traversed once to write the pack and once more to write its index
+     * @return the newly created and opened pack, the merged packs are left untouched
+     */
+    public static PackFile merge(final File directory, final String name,
+            final List<PackFile> packs, final Predicate<ObjectId> exclude) {
+
+        long maxSize = 0;
+        for (PackFile pack : packs) {
+            maxSize += pack.size();
+        }
+        checkState(maxSize <= Integer.MAX_VALUE, "Too many objects to merge: %s", maxSize);
+
+        final Iterable<ObjectId> sortedIds = new Iterable<ObjectId>() {
+            @Override
+            public Iterator<ObjectId> iterator() {
+                List<Iterator<ObjectId>> ids = Lists.newArrayListWithCapacity(packs.size());
+                for (PackFile pack : packs) {
+                    ids.add(pack.ids());
+                }
+                final PeekingIterator<ObjectId> merged = Iterators.peekingIterator(Iterators
+                        .mergeSorted(ids, UNSIGNED_ORDER));
+                return new AbstractIterator<ObjectId>() {
+                    @Override
+                    protected ObjectId computeNext() {
+                        while (merged.hasNext()) {
+                            final ObjectId id = merged.next();
+                            while (merged.hasNext() && merged.peek().equals(id)) {
+                                merged.next();
+                            }
+                            if (!exclude.apply(id)) {
+                                return id;
+                            }
+                        }
+                        return endOfData();
+                    }
+                };
+            }
+        };
+        final Function<ObjectId, InputStream> contents = new Function<ObjectId, InputStream>() {
+            @Override
+            public InputStream apply(ObjectId id) {
+                for (PackFile pack : packs) {
+                    int index = pack.find(id);
+                    if (index > -1) {
+                        return new ByteArrayInputStream(pack.read(index));
+                    }
+                }
+                throw new IllegalStateException("Object " + id + " not found in merged packs");
+            }
+        };
+        return write(directory, name, sortedIds, (int) maxSize, contents);
+    }
+
+    /**
+     * Writes the pack, its bloom filter and its index, in that order.
+     *
+     * @param sortedIds the ids in {@link #UNSIGNED_ORDER}, traversed twice
+     * @param maxSize an upper bound of the number of ids
+     */
+    private static PackFile write(final File directory, final String name,
+            final Iterable<ObjectId> sortedIds, final int maxSize,
+            final Function<ObjectId, InputStream> contents) {
+
+        final long[] offsets = new long[maxSize];
+        final int[] lengths = new int[maxSize];
+        final int[] fanout = new int[FANOUT_SIZE];
+        final ObjectIdBloomFilter filter = ObjectIdBloomFilter.create(Math.max(1, maxSize));
+        int size = 0;
+
+        final File packFile = new File(directory, name + PACK_EXTENSION);
+        final File indexFile = new File(directory, name + INDEX_EXTENSION);
+        final File bloomFile = new File(directory, name + BLOOM_EXTENSION);
+        final File tmpIndex = new File(directory, name + INDEX_EXTENSION + ".tmp");
+        try {
+            CountingOutputStream packOut = new CountingOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(packFile), 64 * 1024));
+            try {
+                DataOutputStream header = new DataOutputStream(packOut);
+                header.writeInt(PACK_MAGIC);
+                header.writeInt(VERSION);
+                header.flush();
+                for (ObjectId id : sortedIds) {
+                    offsets[size] = packOut.getCount();
+                    InputStream in = contents.apply(id);
+                    try {
+                        ByteStreams.copy(in, packOut);
+                    } finally {
+                        Closeables.closeQuietly(in);
+                    }
+                    long length = packOut.getCount() - offsets[size];
+                    checkState(length <= Integer.MAX_VALUE, "Object too large: %s", id);
+                    lengths[size] = (int) length;
+                    fanout[id.byteN(0)]++;
+                    filter.put(id);
+                    size++;
+                }
+                packOut.flush();
+            } finally {
+                packOut.close();
+            }
+
+            for (int i = 1; i < FANOUT_SIZE; i++) {
+                fanout[i] += fanout[i - 1];
+            }
+            filter.save(bloomFile);
+
+            OutputStream indexStream = new BufferedOutputStream(new FileOutputStream(tmpIndex),
+                    64 * 1024);
+            try {
+                DataOutputStream indexOut = new DataOutputStream(indexStream);
+                indexOut.writeInt(INDEX_MAGIC);
+                indexOut.writeInt(VERSION);
+                indexOut.writeInt(size);
+                for (int count : fanout) {
+                    indexOut.writeInt(count);
+                }
+                int written = 0;
+                for (ObjectId id : sortedIds) {
+                    indexOut.write(id.getRawValue());
+                    written++;
+                }
+                checkState(written == size, "Pack ids changed while writing %s", name);
+                for (int i = 0; i < size; i++) {
+                    indexOut.writeLong(offsets[i]);
+                }
+                for (int i = 0; i < size; i++) {
+                    indexOut.writeInt(lengths[i]);
+                }
+                indexOut.flush();
+            } finally {
+                indexStream.close();
+            }
+            if (!tmpIndex.renameTo(indexFile)) {
+                throw new IOException("Unable to rename " + tmpIndex + " to " + indexFile);
+            }
+        } catch (IOException e) {
+            packFile.delete();
+            bloomFile.delete();
+            tmpIndex.delete();
+            throw Throwables.propagate(e);
+        }
+        return open(indexFile);
+    }
+
+    /**
+     * @return the base name of this pack's files
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the number of objects in this pack
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the index of the object with the given id inside this pack, or {@code -1} if this
+     *         pack does not contain it
+     */
+    public int find(final ObjectId id) {
+        final int first = id.byteN(0);
+        int low = first == 0 ? 0 : fanout[first - 1];
+        int high = fanout[first] - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int c = compareAt(mid, id);
+            if (c < 0) {
+                low = mid + 1;
+            } else if (c > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    public boolean contains(final ObjectId id) {
+        return filter.mightContain(id) && find(id) > -1;
+    }
+
+    /**
+     * @return the id of the object at the given index
+     */
+    public ObjectId idAt(final int objectIndex) {
+        byte[] raw = new byte[ID_SIZE];
+        ByteBuffer ids = index.duplicate();
+        ids.position(IDS_OFFSET + ID_SIZE * objectIndex);
+        ids.get(raw);
+        return new ObjectId(raw);
+    }
+
+    /**
+     * @return the ids of the objects in this pack, in {@link #UNSIGNED_ORDER}
+     */
+    public Iterator<ObjectId> ids() {
+        return new AbstractIterator<ObjectId>() {
+            private int next;
+
+            @Override
+            protected ObjectId computeNext() {
+                return next < size ? idAt(next++) : endOfData();
+            }
+        };
+    }
+
+    /**
+     * Returns the ids of all the objects in this pack whose raw value starts with the given prefix.
+     */
+    public List<ObjectId> lookUp(final byte[] prefix) {
+        List<ObjectId> matches = Lists.newLinkedList();
+        if (size == 0) {
+            return matches;
+        }
+        int low;
+        int high;
+        if (prefix.length == 0) {
+            low = 0;
+            high = size;
+        } else {
+            final int first = prefix[0] & 0xFF;
+            low = first == 0 ? 0 : fanout[first - 1];
+            high = fanout[first];
+        }
+        // lower bound of the prefix inside the fan-out range
+        int from = low;
+        int to = high;
+        while (from < to) {
+            int mid = (from + to) >>> 1;
+            if (comparePrefixAt(mid, prefix) < 0) {
+                from = mid + 1;
+            } else {
+                to = mid;
+            }
+        }
+        for (int i = from; i < high && comparePrefixAt(i, prefix) == 0; i++) {
+            matches.add(idAt(i));
+        }
+        return matches;
+    }
+
+    /**
+     * @return the raw contents of the object at the given index
+     */
+    public byte[] read(final int objectIndex) {
+        final long offset = index.getLong(offsetsOffset + 8 * objectIndex);
+        final int length = index.getInt(lengthsOffset + 4 * objectIndex);
+        final byte[] raw = new byte[length];
+        if (packData != null) {
+            ByteBuffer data = packData.duplicate();
+            data.position((int) offset);
+            data.get(raw);
+        } else {
+            try {
+                readFully(ByteBuffer.wrap(raw), offset);
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+        return raw;
+    }
+
+    /**
+     * Releases the file handle held by this pack.
+     * <p>
+     * The mapped buffers are left for the garbage collector to unmap, so that lookups still
+     * iterating over this pack when it's closed don't fail.
+     */
+    public void close() {
+        Closeables.closeQuietly(packRaf);
+    }
+
+    /**
+     * Deletes this pack's files, closing it first.
+     */
+    public boolean delete() {
+        close();
+        // the index first, for the pack to be no longer visible even if the rest can't be deleted
+        boolean deleted = indexFile.delete();
+        deleted &= packFile.delete();
+        bloomFile.delete();
+        return deleted;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[" + name + ", " + size + " objects]";
+    }
+
+    private int compareAt(final int objectIndex, final ObjectId id) {
+        final int base = IDS_OFFSET + ID_SIZE * objectIndex;
+        for (int i = 0; i < ID_SIZE; i++) {
+            int c = (index.get(base + i) & 0xFF) - id.byteN(i);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    private int comparePrefixAt(final int objectIndex, final byte[] prefix) {
+        final int base = IDS_OFFSET + ID_SIZE * objectIndex;
+        for (int i = 0; i < prefix.length; i++) {
+            int c = (index.get(base + i) & 0xFF) - (prefix[i] & 0xFF);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    private void readFully(ByteBuffer target, long position) throws IOException {
+        while (target.hasRemaining()) {
+            int read = packChannel.read(target, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of pack file " + packFile);
+            }
+            position += read;
+        }
+    }
+
+    private static ByteBuffer map(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            checkState(channel.size() <= Integer.MAX_VALUE, "Index file too large: %s", file);
+            return channel.map(MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            raf.close();
+        }
+    }
+}
@@ -0,0 +1,715 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage.fs;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.Platform;
+import org.geogit.storage.ObjectDatabase;
+import org.geogit.storage.ObjectIdBloomFilter;
+import org.geogit.storage.ObjectSerializingFactory;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Function;
+import com.google.common.base.Predicates;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.io.Closeables;
+import com.google.inject.Inject;
+
+/**
+ * A file system based object database that stores objects in append-only {@link PackFile packs}
+ * instead of one file per object.
+ * <p>
+ * New objects are first written to a small <i>loose objects</i> area with the same layout than
+ * {@link FileObjectDatabase}. Once the number of loose objects written reaches the
+ * {@link #setLooseObjectsThreshold(int) threshold}, and when the database is closed, they're folded
+ * into a new pack and the loose files deleted. Lookups are served from the packs first, newest
+ * first, and then from the loose objects area. Each pack has its own bloom filter, so a lookup
+ * only searches the index of the packs that likely contain the object.
+ * <p>
+ * After each fold the newest packs are merged into one while the next older pack is no larger than
+ * twice their total size, which keeps the number of packs logarithmic in the number of objects.
+ * Merging drops the deleted objects. Only one process merges packs at a time, and the merged packs
+ * are deleted once the new one is in place.
+ * <p>
+ * Packs are immutable. Deleting a packed object appends a tombstone for it to the
+ * {@code pack/tombstones} file, so that it's no longer visible, and storing it again appends a
+ * record that revives it. The file is compacted when the database is closed if most of its
+ * records are obsolete.
+ * <p>
+ * Other processes may fold objects into new packs or delete objects while this database is open,
+ * so an object that's found neither in the known packs nor in the loose objects area is looked up
+ * again after picking up any pack and tombstone created since they were last read, provided the
+ * pack directory or the tombstones file changed since then.
+ *
+ * @see PackFile
+ */
+public class PackedObjectDatabase extends FileObjectDatabase implements ObjectDatabase {
+
+    /**
+     * Default number of loose objects written before they're folded into a pack
+     */
+    public static final int DEFAULT_LOOSE_OBJECTS_THRESHOLD = 10 * 1000;
+
+    private static final String PACK_DIR = "pack";
+
+    private static final String TOMBSTONES_FILE = "tombstones";
+
+    private static final String PACK_PREFIX = "pack-";
+
+    private static final String BLOOM_FILTER_FILE = "objects.bloom";
+
+    private static final String MERGE_LOCK_FILE = "merge.lock";
+
+    /**
+     * Granularity of the file system modification times, directories modified less than this
+     * before being listed are listed again when looking for new packs
+     */
+    private static final long MTIME_GRANULARITY = 2000;
+
+    /**
+     * Serializes the access to the tombstones files of all the databases in this JVM, since file
+     * locks are held on behalf of the whole JVM and can't be acquired twice
+     */
+    private static final Object TOMBSTONES_LOCK = new Object();
+
+    /**
+     * Serializes pack merges of all the databases in this JVM, for the same reason
+     */
+    private static final Object MERGE_LOCK = new Object();
+
+    /**
+     * Newest pack first
+     */
+    private final List<PackFile> packs = new CopyOnWriteArrayList<PackFile>();
+
+    /**
+     * Ids of the objects written to the loose area by this instance and not yet packed
+     */
+    private final Set<ObjectId> looseObjects = Sets.newHashSet();
+
+    private final Set<ObjectId> tombstones = Collections.synchronizedSet(Sets
+            .<ObjectId> newHashSet());
+
+    private volatile File packDir;
+
+    /**
+     * Modification time of the pack directory and system time the last time it was listed
+     */
+    private volatile long packDirModified;
+
+    private volatile long packDirListed;
+
+    /**
+     * Header line of the tombstones file as last read, changes when the file is compacted
+     */
+    private String tombstonesHeader;
+
+    /**
+     * Number of bytes of the tombstones file already applied to {@link #tombstones}
+     */
+    private volatile long tombstonesOffset;
+
+    /**
+     * Number of records in the tombstones file, to decide whether to compact it
+     */
+    private int tombstoneRecords;
+
+    private int looseObjectsThreshold = DEFAULT_LOOSE_OBJECTS_THRESHOLD;
+
+    /**
+     * Constructs a new {@code PackedObjectDatabase} using the given platform.
+     *
+     * @param platform the platform to use.
+     */
+    @Inject
+    public PackedObjectDatabase(final Platform platform,
+            final ObjectSerializingFactory serialFactory) {
+        super(platform, serialFactory);
+    }
+
+    protected PackedObjectDatabase(final Platform platform, final String databaseName,
+            final ObjectSerializingFactory serialFactory) {
+        super(platform, databaseName, serialFactory);
+    }
+
+    /**
+     * @param threshold the number of loose objects to accumulate before folding them into a pack
+     */
+    public void setLooseObjectsThreshold(int threshold) {
+        checkArgument(threshold > 0, "threshold shall be a positive integer: %s", threshold);
+        this.looseObjectsThreshold = threshold;
+    }
+
+    /**
+     * @return the number of packs currently in use
+     */
+    public int getPackCount() {
+        return packs.size();
+    }
+
+    /**
+     * Opens the database for use by GeoGit, loading the existing packs and tombstones.
+     */
+    @Override
+    public synchronized void open() {
+        if (isOpen()) {
+            return;
+        }
+        // the packs may have already been loaded to build the bloom filter
+        super.open();
+        loadPacks();
+    }
+
+    private synchronized void loadPacks() {
+        if (packDir != null) {
+            return;
+        }
+        packDir = new File(getDataRoot(), PACK_DIR);
+        if (!packDir.exists() && !packDir.mkdirs()) {
+            throw new IllegalStateException("Can't create pack directory: "
+                    + packDir.getAbsolutePath());
+        }
+        packDirModified = 0;
+        tombstonesHeader = null;
+        tombstonesOffset = 0;
+        tombstoneRecords = 0;
+        refreshPacks();
+    }
+
+    /**
+     * @return whether the pack directory may have been modified since it was last listed, which
+     *         only costs a {@code stat} call
+     */
+    private boolean packDirChanged() {
+        final long modified = packDir.lastModified();
+        return modified != packDirModified || packDirListed - modified < MTIME_GRANULARITY;
+    }
+
+    /**
+     * @return whether {@link #refreshPacks()} may find any new pack or tombstone, checked without
+     *         holding any lock
+     */
+    private boolean packsChanged() {
+        return packDirChanged()
+                || new File(packDir, TOMBSTONES_FILE).length() != tombstonesOffset;
+    }
+
+    /**
+     * Opens the packs created since the pack directory was last listed, by this or another
+     * process, forgets the ones merged away since then, and applies the tombstones appended since
+     * the tombstones file was last read.
+     */
+    private synchronized void refreshPacks() {
+        if (packDirChanged()) {
+            packDirListed = System.currentTimeMillis();
+            packDirModified = packDir.lastModified();
+            File[] indexFiles = packDir.listFiles(new FileFilter() {
+                @Override
+                public boolean accept(File f) {
+                    return f.isFile() && f.getName().startsWith(PACK_PREFIX)
+                            && f.getName().endsWith(PackFile.INDEX_EXTENSION);
+                }
+            });
+            if (indexFiles != null) {
+                Set<String> listed = Sets.newHashSet();
+                for (File indexFile : indexFiles) {
+                    addPack(indexFile);
+                    listed.add(packName(indexFile));
+                }
+                // the packs merged by another process are listed before the merged ones are gone
+                for (PackFile pack : packs) {
+                    if (!listed.contains(pack.getName())) {
+                        packs.remove(pack);
+                        pack.close();
+                    }
+                }
+            }
+        }
+        final File tombstonesFile = new File(packDir, TOMBSTONES_FILE);
+        if (tombstonesFile.length() != tombstonesOffset) {
+            readTombstones(false);
+        }
+    }
+
+    private static String packName(File indexFile) {
+        final String fname = indexFile.getName();
+        return fname.substring(0, fname.length() - PackFile.INDEX_EXTENSION.length());
+    }
+
+    /**
+     * Opens the pack unless already open and inserts it in its place in {@link #packs}, that is
+     * kept sorted newest first by pack name, so that concurrent lookups see it or not but never
+     * miss any other pack.
+     */
+    private void addPack(File indexFile) {
+        final String name = packName(indexFile);
+        int position = 0;
+        for (PackFile pack : packs) {
+            int c = pack.getName().compareTo(name);
+            if (c == 0) {
+                return;
+            }
+            if (c < 0) {
+                break;
+            }
+            position++;
+        }
+        packs.add(position, PackFile.open(indexFile));
+    }
+
+    /**
+     * Folds any pending loose object into a pack and closes the database.
+     */
+    @Override
+    public synchronized void close() {
+        if (!isOpen()) {
+            return;
+        }
+        foldLooseObjects();
+        for (PackFile pack : packs) {
+            pack.close();
+        }
+        packs.clear();
+        compactTombstones();
+        tombstones.clear();
+        packDir = null;
+        super.close();
+    }
+
+    @Override
+    protected File getBloomFilterFile() {
+        return new File(new File(getDataRoot(), PACK_DIR), BLOOM_FILTER_FILE);
+    }
+
+    @Override
+    protected boolean scanIds(ObjectIdBloomFilter filter) {
+        loadPacks();
+        for (PackFile pack : packs) {
+            final int size = pack.size();
+            for (int i = 0; i < size; i++) {
+                ObjectId id = pack.idAt(i);
+                if (!tombstones.contains(id)) {
+                    filter.put(id);
+                }
+            }
+        }
+        return super.scanIds(filter);
+    }
+
+    @Override
+    public boolean exists(final ObjectId id) {
+        if (!mightContain(id)) {
+            return false;
+        }
+        if (findPack(id) != null || super.exists(id)) {
+            return true;
+        }
+        // may have been folded into a pack by another process after the packs were listed
+        if (!packsChanged()) {
+            return false;
+        }
+        refreshPacks();
+        return findPack(id) != null || super.exists(id);
+    }
+
+    @Override
+    protected InputStream getRawInternal(final ObjectId id, final boolean failIfNotFound) {
+        InputStream raw = getPackedOrLoose(id);
+        if (raw == null && packsChanged()) {
+            // may have been folded into a pack by another process after the packs were listed
+            refreshPacks();
+            raw = getPackedOrLoose(id);
+        }
+        if (raw == null && failIfNotFound) {
+            return super.getRawInternal(id, true);
+        }
+        return raw;
+    }
+
+    private InputStream getPackedOrLoose(final ObjectId id) {
+        final PackFile pack = findPack(id);
+        if (pack != null) {
+            int index = pack.find(id);
+            if (index > -1) {
+                try {
+                    return new ByteArrayInputStream(pack.read(index));
+                } catch (RuntimeException e) {
+                    if (packs.contains(pack)) {
+                        throw e;
+                    }
+                    // merged and closed meanwhile, the object is in the merged pack
+                    return getPackedOrLoose(id);
+                }
+            }
+        }
+        return super.getRawInternal(id, false);
+    }
+
+    @Override
+    protected boolean putInternal(final ObjectId id, final byte[] buffer, final int offset,
+            final int length) {
+        if (findPack(id) != null) {
+            return false;
+        }
+        final boolean inserted = super.putInternal(id, buffer, offset, length);
+        if (inserted) {
+            synchronized (this) {
+                looseObjects.add(id);
+                if (looseObjects.size() >= looseObjectsThreshold) {
+                    foldLooseObjects();
+                }
+            }
+        }
+        if (tombstones.contains(id)) {
+            removeTombstone(id);
+        }
+        return inserted;
+    }
+
+    /**
+     * Deletes the object with the provided {@link ObjectId id} from the database.
+     * <p>
+     * Loose objects are deleted right away, packed objects are hidden by a tombstone.
+     */
+    @Override
+    public boolean delete(final ObjectId objectId) {
+        checkNotNull(objectId);
+        boolean deleted;
+        synchronized (this) {
+            deleted = super.delete(objectId);
+            looseObjects.remove(objectId);
+        }
+        if (findPack(objectId) != null) {
+            addTombstone(objectId);
+            deleted = true;
+        }
+        return deleted;
+    }
+
+    @Override
+    public List<ObjectId> lookUp(final String partialId) {
+        Set<ObjectId> matches = new LinkedHashSet<ObjectId>(super.lookUp(partialId));
+
+        final byte[] prefix = ObjectId.toRaw(partialId);
+        for (PackFile pack : packs) {
+            for (ObjectId id : pack.lookUp(prefix)) {
+                if (id.toString().startsWith(partialId) && !tombstones.contains(id)) {
+                    matches.add(id);
+                }
+            }
+        }
+        return ImmutableList.copyOf(matches);
+    }
+
+    /**
+     * Folds all the objects in the loose objects area into a new pack, including the ones written
+     * by previous sessions or by a plain {@link FileObjectDatabase}.
+     *
+     * @return the number of objects packed
+     */
+    public int pack() {
+        // moves objects out of the loose area, which a bloom filter rebuild shall not see halfway
+        beginWrite();
+        try {
+            synchronized (this) {
+                List<ObjectId> ids = looseObjectIds();
+                for (ObjectId id : ids) {
+                    // may have been written by another database instance
+                    bloomFilterAdd(id);
+                }
+                looseObjects.addAll(ids);
+                return foldLooseObjects();
+            }
+        } finally {
+            endWrite();
+        }
+    }
+
+    /**
+     * Writes the tracked loose objects to a new pack and deletes their loose copies.
+     */
+    private synchronized int foldLooseObjects() {
+        if (looseObjects.isEmpty()) {
+            return 0;
+        }
+        final List<ObjectId> ids = Lists.newArrayList(looseObjects);
+        final String packName = newPackName();
+        PackFile pack = PackFile.create(packDir, packName, ids,
+                new Function<ObjectId, InputStream>() {
+                    @Override
+                    public InputStream apply(ObjectId id) {
+                        return PackedObjectDatabase.super.getRawInternal(id, true);
+                    }
+                });
+        // newest first
+        packs.add(0, pack);
+        for (ObjectId id : ids) {
+            PackedObjectDatabase.super.delete(id);
+        }
+        looseObjects.clear();
+        mergePacks();
+        return ids.size();
+    }
+
+    /**
+     * Merges the newest packs into a new one while the next older pack is no larger than twice
+     * their total size, so that each object is copied a logarithmic number of times. Does nothing
+     * if another process is merging packs already.
+     */
+    private synchronized void mergePacks() {
+        synchronized (MERGE_LOCK) {
+            RandomAccessFile raf = null;
+            FileLock lock = null;
+            try {
+                raf = new RandomAccessFile(new File(packDir, MERGE_LOCK_FILE), "rw");
+                lock = raf.getChannel().tryLock();
+                if (lock == null) {
+                    return;
+                }
+                // the packs may have been merged by another process since they were listed
+                packDirModified = 0;
+                refreshPacks();
+
+                final List<PackFile> current = Lists.newArrayList(packs);
+                int count = 0;
+                long total = 0;
+                while (count < current.size()
+                        && (count == 0 || current.get(count).size() <= 2 * total)) {
+                    total += current.get(count).size();
+                    count++;
+                }
+                if (count < 2) {
+                    return;
+                }
+                final List<PackFile> merged = current.subList(0, count);
+                final Set<ObjectId> deleted;
+                synchronized (tombstones) {
+                    deleted = ImmutableSet.copyOf(tombstones);
+                }
+                PackFile pack = PackFile.merge(packDir, newPackName(), merged,
+                        Predicates.in(deleted));
+                // the merged pack is visible before the old ones go away
+                packs.add(0, pack);
+                packs.removeAll(merged);
+                for (PackFile old : merged) {
+                    old.delete();
+                }
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            } finally {
+                if (lock != null) {
+                    try {
+                        lock.release();
+                    } catch (IOException e) {
+                        // closing the file releases it anyway
+                    }
+                }
+                Closeables.closeQuietly(raf);
+            }
+        }
+    }
+
+    private String newPackName() {
+        // zero padded so that lexicographic order matches creation order
+        long timestamp = System.currentTimeMillis();
+        String name;
+        int seq = 0;
+        do {
+            name = String.format("%s%016x-%04x", PACK_PREFIX, timestamp, seq++);
+        } while (new File(packDir, name + PackFile.INDEX_EXTENSION).exists()
+                || new File(packDir, name + PackFile.PACK_EXTENSION).exists());
+        return name;
+    }
+
+    private PackFile findPack(final ObjectId id) {
+        if (tombstones.contains(id)) {
+            return null;
+        }
+        for (PackFile pack : packs) {
+            if (pack.contains(id)) {
+                return pack;
+            }
+        }
+        return null;
+    }
+
+    private synchronized void addTombstone(ObjectId id) {
+        if (tombstones.add(id)) {
+            appendTombstone(id.toString());
+        }
+    }
+
+    private synchronized void removeTombstone(ObjectId id) {
+        if (tombstones.remove(id)) {
+            appendTombstone("-" + id.toString());
+        }
+    }
+
+    /**
+     * Reads the tombstones file records not applied yet, starting over if the file was compacted.
+     *
+     * @param forUpdate whether to keep the file locked for writing, in which case the locked file
+     *        is returned positioned at its end, otherwise it's closed and {@code null} returned
+     */
+    private RandomAccessFile readTombstones(final boolean forUpdate) {
+        final File file = new File(packDir, TOMBSTONES_FILE);
+        if (!forUpdate && !file.exists()) {
+            return null;
+        }
+        synchronized (TOMBSTONES_LOCK) {
+            RandomAccessFile raf = null;
+            FileLock lock = null;
+            try {
+                raf = new RandomAccessFile(file, forUpdate ? "rw" : "r");
+                final FileChannel channel = raf.getChannel();
+                lock = channel.lock(0, Long.MAX_VALUE, !forUpdate);
+                final String header = raf.length() == 0 ? null : raf.readLine();
+                if (header == null || !header.equals(tombstonesHeader)) {
+                    // compacted by another process
+                    tombstones.clear();
+                    tombstonesHeader = header;
+                    tombstonesOffset = 0;
+                    tombstoneRecords = 0;
+                }
+                final byte[] tail = new byte[(int) (raf.length() - tombstonesOffset)];
+                raf.seek(tombstonesOffset);
+                raf.readFully(tail);
+                int start = 0;
+                for (int i = 0; i < tail.length; i++) {
+                    if (tail[i] == '\n') {
+                        applyTombstone(new String(tail, start, i - start, Charsets.US_ASCII));
+                        start = i + 1;
+                    }
+                }
+                // a trailing partial record is left for a later read
+                tombstonesOffset += start;
+                if (!forUpdate) {
+                    return null;
+                }
+                if (raf.length() > tombstonesOffset) {
+                    // left by an interrupted write, as appends hold the lock
+                    raf.setLength(tombstonesOffset);
+                }
+                raf.seek(tombstonesOffset);
+                RandomAccessFile locked = raf;
+                raf = null;
+                lock = null;
+                return locked;
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            } finally {
+                if (lock != null) {
+                    try {
+                        lock.release();
+                    } catch (IOException e) {
+                        // closing the file releases it anyway
+                    }
+                }
+                Closeables.closeQuietly(raf);
+            }
+        }
+    }
+
+    private void applyTombstone(final String record) {
+        final String line = record.trim();
+        if (line.isEmpty() || line.startsWith("#")) {
+            return;
+        }
+        tombstoneRecords++;
+        final boolean revived = line.startsWith("-");
+        final ObjectId id;
+        try {
+            id = ObjectId.valueOf(revived ? line.substring(1) : line);
+        } catch (IllegalArgumentException malformed) {
+            return;
+        }
+        if (revived) {
+            tombstones.remove(id);
+        } else {
+            tombstones.add(id);
+        }
+    }
+
+    /**
+     * Appends a record to the tombstones file, after applying any record appended by other
+     * processes.
+     */
+    private void appendTombstone(final String record) {
+        synchronized (TOMBSTONES_LOCK) {
+            final RandomAccessFile raf = readTombstones(true);
+            try {
+                if (tombstonesOffset == 0) {
+                    writeTombstonesHeader(raf);
+                }
+                raf.write((record + "\n").getBytes(Charsets.US_ASCII));
+                tombstonesOffset = raf.length();
+                // in case reading the file started over
+                applyTombstone(record);
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            } finally {
+                Closeables.closeQuietly(raf);
+            }
+        }
+    }
+
+    /**
+     * Rewrites the tombstones file with just the current tombstones if most of its records are
+     * obsolete. The file is rewritten in place under its lock, with a new header so that other
+     * processes know to read it again from the start.
+     */
+    private void compactTombstones() {
+        if (tombstoneRecords <= 2 * tombstones.size() + 1000) {
+            return;
+        }
+        synchronized (TOMBSTONES_LOCK) {
+            final RandomAccessFile raf = readTombstones(true);
+            try {
+                StringBuilder sb = new StringBuilder();
+                synchronized (tombstones) {
+                    for (ObjectId id : tombstones) {
+                        sb.append(id.toString()).append('\n');
+                    }
+                }
+                raf.setLength(0);
+                writeTombstonesHeader(raf);
+                raf.write(sb.toString().getBytes(Charsets.US_ASCII));
+                tombstonesOffset = raf.length();
+                tombstoneRecords = tombstones.size();
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            } finally {
+                Closeables.closeQuietly(raf);
+            }
+        }
+    }
+
+    private void writeTombstonesHeader(RandomAccessFile raf) throws IOException {
+        tombstonesHeader = "#" + UUID.randomUUID();
+        raf.write((tombstonesHeader + "\n").getBytes(Charsets.US_ASCII));
+    }
+}
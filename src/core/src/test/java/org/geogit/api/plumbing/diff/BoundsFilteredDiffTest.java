@@ -0,0 +1,172 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+
+package org.geogit.api.plumbing.diff;
+
+import java.util.List;
+
+import org.geogit.api.Node;
+import org.geogit.api.NodeRef;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.RevTree;
+import org.geogit.api.RevTreeBuilder;
+import org.geogit.storage.ObjectDatabase;
+import org.geogit.storage.datastream.DataStreamSerializationFactory;
+import org.geogit.storage.memory.HeapObjectDatabse;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ *
+ */
+public class BoundsFilteredDiffTest extends Assert {
+
+    private static final ObjectId FAKE_FEATURE_ID = ObjectId
+            .forString("1100000000000000000000000000000000000000");
+
+    private static final ObjectId FAKE_FEATURE_ID_CHANGED = ObjectId
+            .forString("2200000000000000000000000000000000000000");
+
+    private static final int SIZE = 4000;
+
+    private static final Envelope AREA = new Envelope(10, 20, 10, 20);
+
+    private ObjectDatabase odb;
+
+    private RevTree tree;
+
+    private RevTree changed;
+
+    @Before
+    public void setUp() {
+        odb = new HeapObjectDatabse(new DataStreamSerializationFactory());
+        odb.open();
+
+        RevTreeBuilder builder = new RevTreeBuilder(odb);
+        for (int i = 0; i < SIZE; i++) {
+            builder.put(point(i, FAKE_FEATURE_ID, i % 100, i / 100));
+        }
+        tree = builder.build();
+        assertTrue(tree.buckets().isPresent());
+
+        for (int i = 0; i < SIZE; i += 13) {
+            builder.put(point(i, FAKE_FEATURE_ID_CHANGED, i % 100, i / 100));
+        }
+        for (int i = 5; i < SIZE; i += 29) {
+            builder.remove(String.valueOf(i));
+        }
+        // moved into the area and out of it
+        builder.put(point(1, FAKE_FEATURE_ID_CHANGED, 15, 15));
+        builder.put(point(1515, FAKE_FEATURE_ID_CHANGED, 90, 90));
+        // added with no bounds
+        builder.put(Node.create("nobounds", FAKE_FEATURE_ID, ObjectId.NULL, TYPE.FEATURE));
+        changed = builder.build();
+    }
+
+    private Node point(int i, ObjectId id, double x, double y) {
+        return Node.create(String.valueOf(i), id, ObjectId.NULL, TYPE.FEATURE, new Envelope(x, x,
+                y, y));
+    }
+
+    private List<DiffEntry> diff(RevTree left, RevTree right, Envelope bounds, int parallelism) {
+        DiffTreeWalk walk = new DiffTreeWalk(odb, left, right);
+        walk.setParallelism(parallelism);
+        walk.setBoundsFilter(bounds);
+        return ImmutableList.copyOf(walk.get());
+    }
+
+    private List<DiffEntry> bruteForce(RevTree left, RevTree right, final Envelope bounds) {
+        List<DiffEntry> all = ImmutableList.copyOf(new DiffTreeWalk(odb, left, right).get());
+        return ImmutableList.copyOf(Iterables.filter(all, new Predicate<DiffEntry>() {
+            @Override
+            public boolean apply(DiffEntry entry) {
+                NodeRef oldObject = entry.getOldObject();
+                NodeRef newObject = entry.getNewObject();
+                return (oldObject != null && oldObject.intersects(bounds))
+                        || (newObject != null && newObject.intersects(bounds));
+            }
+        }));
+    }
+
+    @Test
+    public void testBucketsBuckets() {
+        List<DiffEntry> expected = bruteForce(tree, changed, AREA);
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, diff(tree, changed, AREA, 1));
+        assertEquals(expected, diff(tree, changed, AREA, 4));
+        assertEquals(bruteForce(changed, tree, AREA), diff(changed, tree, AREA, 1));
+    }
+
+    @Test
+    public void testMovedFeatures() {
+        List<DiffEntry> entries = diff(tree, changed, AREA, 1);
+        boolean movedIn = false;
+        boolean movedOut = false;
+        for (DiffEntry entry : entries) {
+            movedIn |= "1".equals(entry.newName());
+            movedOut |= "1515".equals(entry.newName());
+            assertFalse("nobounds".equals(entry.newName()));
+        }
+        assertTrue(movedIn);
+        assertTrue(movedOut);
+    }
+
+    @Test
+    public void testNoIntersection() {
+        Envelope nowhere = new Envelope(1000, 2000, 1000, 2000);
+        assertTrue(diff(tree, changed, nowhere, 1).isEmpty());
+        assertTrue(diff(RevTree.EMPTY, changed, nowhere, 1).isEmpty());
+    }
+
+    @Test
+    public void testAddedRemovedAll() {
+        assertEquals(bruteForce(RevTree.EMPTY, changed, AREA), diff(RevTree.EMPTY, changed, AREA,
+                1));
+        assertEquals(bruteForce(tree, RevTree.EMPTY, AREA), diff(tree, RevTree.EMPTY, AREA, 1));
+    }
+
+    @Test
+    public void testBucketsChildren() {
+        RevTreeBuilder builder = new RevTreeBuilder(odb);
+        for (int i = 0; i < SIZE; i += 10) {
+            builder.put(point(i, FAKE_FEATURE_ID_CHANGED, i % 100, i / 100));
+        }
+        builder.put(point(1, FAKE_FEATURE_ID, 15, 15));
+        RevTree small = builder.build();
+        assertFalse(small.buckets().isPresent());
+
+        assertEquals(bruteForce(tree, small, AREA), diff(tree, small, AREA, 1));
+        assertEquals(bruteForce(small, tree, AREA), diff(small, tree, AREA, 1));
+    }
+
+    /**
+     * Assert long runs of nodes out of the bounds are skipped without recursing once per node
+     */
+    @Test
+    public void testBucketsChildrenLongSkip() {
+        RevTreeBuilder builder = new RevTreeBuilder(odb);
+        for (int i = 0; i < 100000; i++) {
+            builder.put(point(i, FAKE_FEATURE_ID, 500 + i % 100, 500 + i / 100));
+        }
+        RevTree large = builder.build();
+        RevTree small = new RevTreeBuilder(odb).put(point(1, FAKE_FEATURE_ID, 15, 15)).build();
+
+        assertEquals(1, diff(large, small, AREA, 1).size());
+        assertEquals(1, diff(small, large, AREA, 1).size());
+    }
+
+    @Test
+    public void testNullFilter() {
+        assertEquals(ImmutableList.copyOf(new DiffTreeWalk(odb, tree, changed).get()),
+                diff(tree, changed, null, 1));
+    }
+}
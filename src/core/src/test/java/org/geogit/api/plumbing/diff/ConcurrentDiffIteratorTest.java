@@ -0,0 +1,158 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+
+package org.geogit.api.plumbing.diff;
+
+import java.util.Iterator;
+import java.util.List;
+
+import org.geogit.api.Node;
+import org.geogit.api.NodeRef;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.RevTree;
+import org.geogit.api.RevTreeBuilder;
+import org.geogit.storage.ObjectDatabase;
+import org.geogit.storage.datastream.DataStreamSerializationFactory;
+import org.geogit.storage.memory.HeapObjectDatabse;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+
+/**
+ *
+ */
+public class ConcurrentDiffIteratorTest extends Assert {
+
+    private static final ObjectId FAKE_FEATURE_ID = ObjectId
+            .forString("1100000000000000000000000000000000000000");
+
+    private static final ObjectId FAKE_FEATURE_ID_CHANGED = ObjectId
+            .forString("2200000000000000000000000000000000000000");
+
+    private ObjectDatabase odb;
+
+    private RevTree bucketsTree;
+
+    private RevTree changedBucketsTree;
+
+    @Before
+    public void setUp() {
+        odb = new HeapObjectDatabse(new DataStreamSerializationFactory());
+        odb.open();
+
+        final int size = 4 * RevTree.NORMALIZED_SIZE_LIMIT;
+        RevTreeBuilder builder = createFeaturesTree("", size);
+        bucketsTree = builder.build();
+        assertTrue(bucketsTree.buckets().isPresent());
+
+        for (int i = 0; i < size; i += 7) {
+            builder.put(Node.create(String.valueOf(i), FAKE_FEATURE_ID_CHANGED, ObjectId.NULL,
+                    TYPE.FEATURE));
+        }
+        for (int i = 3; i < size; i += 11) {
+            builder.remove(String.valueOf(i));
+        }
+        for (int i = size; i < size + 100; i++) {
+            builder.put(featureRef("", i));
+        }
+        changedBucketsTree = builder.build();
+    }
+
+    private RevTreeBuilder createFeaturesTree(final String parentPath, final int numEntries) {
+        RevTreeBuilder tree = new RevTreeBuilder(odb);
+        for (int i = 0; i < numEntries; i++) {
+            tree.put(featureRef(parentPath, i));
+        }
+        return tree;
+    }
+
+    private Node featureRef(String parentPath, int i) {
+        String path = NodeRef.appendChild(parentPath, String.valueOf(i));
+        return Node.create(path, FAKE_FEATURE_ID, ObjectId.NULL, TYPE.FEATURE);
+    }
+
+    private List<DiffEntry> diff(RevTree left, RevTree right, int parallelism, boolean ordered,
+            boolean reportTrees) {
+        DiffTreeWalk walk = new DiffTreeWalk(odb, left, right);
+        walk.setParallelism(parallelism);
+        walk.setOrdered(ordered);
+        walk.setReportTrees(reportTrees);
+        return ImmutableList.copyOf(walk.get());
+    }
+
+    @Test
+    public void testOrdered() {
+        List<DiffEntry> sequential = diff(bucketsTree, changedBucketsTree, 1, true, false);
+        assertFalse(sequential.isEmpty());
+        assertEquals(sequential, diff(bucketsTree, changedBucketsTree, 4, true, false));
+        assertEquals(diff(changedBucketsTree, bucketsTree, 1, true, false),
+                diff(changedBucketsTree, bucketsTree, 4, true, false));
+    }
+
+    @Test
+    public void testUnordered() {
+        List<DiffEntry> sequential = diff(bucketsTree, changedBucketsTree, 1, true, false);
+        List<DiffEntry> unordered = diff(bucketsTree, changedBucketsTree, 4, false, false);
+        assertEquals(sequential.size(), unordered.size());
+        assertEquals(ImmutableSet.copyOf(sequential), ImmutableSet.copyOf(unordered));
+    }
+
+    @Test
+    public void testSameTree() {
+        assertTrue(diff(bucketsTree, bucketsTree, 4, true, false).isEmpty());
+        assertTrue(diff(bucketsTree, bucketsTree, 4, false, false).isEmpty());
+    }
+
+    @Test
+    public void testNestedTrees() {
+        RevTreeBuilder root = new RevTreeBuilder(odb);
+        RevTreeBuilder changedRoot = new RevTreeBuilder(odb);
+        for (String name : new String[] { "tree1", "tree2" }) {
+            RevTree tree = createFeaturesTree(name, 2 * RevTree.NORMALIZED_SIZE_LIMIT).build();
+            odb.put(tree);
+            root.put(Node.create(name, tree.getId(), ObjectId.NULL, TYPE.TREE));
+
+            RevTreeBuilder changed = new RevTreeBuilder(odb, tree);
+            changed.remove(NodeRef.appendChild(name, "10"));
+            changed.put(Node.create(NodeRef.appendChild(name, "20"), FAKE_FEATURE_ID_CHANGED,
+                    ObjectId.NULL, TYPE.FEATURE));
+            RevTree changedTree = changed.build();
+            odb.put(changedTree);
+            changedRoot.put(Node.create(name, changedTree.getId(), ObjectId.NULL, TYPE.TREE));
+        }
+        RevTree left = root.build();
+        RevTree right = changedRoot.build();
+
+        List<DiffEntry> sequential = diff(left, right, 1, true, true);
+        assertFalse(sequential.isEmpty());
+        assertEquals(sequential, diff(left, right, 4, true, true));
+        assertEquals(ImmutableSet.copyOf(sequential),
+                ImmutableSet.copyOf(diff(left, right, 4, false, true)));
+    }
+
+    @Test
+    public void testPropagatesErrors() {
+        List<Supplier<Iterator<DiffEntry>>> diffs = Lists.newArrayList();
+        diffs.add(new Supplier<Iterator<DiffEntry>>() {
+            @Override
+            public Iterator<DiffEntry> get() {
+                throw new IllegalStateException("expected");
+            }
+        });
+        Iterator<DiffEntry> iterator = new ConcurrentDiffIterator(diffs, 2, true);
+        try {
+            iterator.hasNext();
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertEquals("expected", e.getMessage());
+        }
+    }
+}
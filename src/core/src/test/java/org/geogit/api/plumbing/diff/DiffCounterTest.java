@@ -5,6 +5,8 @@
 
 package org.geogit.api.plumbing.diff;
 
+import java.util.Arrays;
+
 import org.geogit.api.Bucket;
 import org.geogit.api.Node;
 import org.geogit.api.NodeRef;
@@ -87,6 +89,12 @@ public class DiffCounterTest extends Assert {
         return count.longValue();
     }
 
+    private long count(RevTree left, RevTree right, String... pathFilters) {
+        DiffCounter counter = new DiffCounter(odb, left, right);
+        counter.setFilter(Arrays.asList(pathFilters));
+        return counter.get().longValue();
+    }
+
     @Test
     public void testSameTree() {
         assertEquals(0, count(childrenFeatureTree, childrenFeatureTree));
@@ -255,6 +263,69 @@ public class DiffCounterTest extends Assert {
         assertEquals(expected, count(changed, deepTree));
     }
 
+    @Test
+    public void testPathFilters() {
+        final int size = 2 * RevTree.NORMALIZED_SIZE_LIMIT;
+        RevTreeBuilder leftRoot = new RevTreeBuilder(odb);
+        RevTreeBuilder rightRoot = new RevTreeBuilder(odb);
+        for (String treeName : new String[] { "roads", "roads2" }) {
+            RevTreeBuilder left = createFeaturesTree("", size);
+            createFeatureTypesTree(leftRoot, treeName, left);
+            RevTreeBuilder right = createFeaturesTree("", size);
+            for (int i = 0; i < 10; i++) {
+                right.put(Node.create(String.valueOf(i), FAKE_FEATURE_ID_CHANGED, ObjectId.NULL,
+                        TYPE.FEATURE));
+            }
+            right.remove("10");
+            right.put(featureRef("", size));
+            createFeatureTypesTree(rightRoot, treeName, right);
+        }
+        final RevTree left = leftRoot.build();
+        final RevTree right = rightRoot.build();
+
+        assertEquals(24, count(left, right));
+        assertEquals(24, count(left, right, ""));
+        assertEquals(12, count(left, right, "roads"));
+        assertEquals(12, count(right, left, "roads2"));
+        assertEquals(24, count(left, right, "roads", "roads2"));
+        assertEquals(0, count(left, right, "road"));
+        assertEquals(0, count(left, right, "rivers"));
+        assertEquals(1, count(left, right, "roads/5"));
+        assertEquals(1, count(left, right, "roads/10"));
+        assertEquals(1, count(left, right, "roads/" + size));
+        assertEquals(0, count(left, right, "roads/11"));
+        assertEquals(3, count(left, right, "roads/1", "roads/11", "roads2/2", "roads2/10"));
+        assertEquals(12, count(left, right, "roads", "roads/1"));
+    }
+
+    @Test
+    public void testParallelism() {
+        final RevTree deepTree = createFeaturesTree("", 20000).build();
+        RevTreeBuilder builder = new RevTreeBuilder(odb, deepTree);
+        for (int i = 0; i < 20000; i += 3) {
+            builder.put(Node.create(String.valueOf(i), FAKE_FEATURE_ID_CHANGED, ObjectId.NULL,
+                    TYPE.FEATURE));
+        }
+        for (int i = 1; i < 20000; i += 17) {
+            builder.remove(String.valueOf(i));
+        }
+        RevTree changed = builder.build();
+
+        final long expected = count(deepTree, changed);
+        assertTrue(expected > 0);
+        for (int parallelism : new int[] { 2, 4, 32 }) {
+            DiffCounter counter = new DiffCounter(odb, deepTree, changed);
+            counter.setParallelism(parallelism);
+            assertEquals(expected, counter.get().longValue());
+
+            counter = new DiffCounter(odb, changed, deepTree);
+            counter.setParallelism(parallelism);
+            counter.addFilter("5");
+            counter.addFilter("6");
+            assertEquals(1, counter.get().longValue());
+        }
+    }
+
     private int depth(RevTree deepTree, int currDepth) {
         if (!deepTree.buckets().isPresent()) {
             return currDepth;
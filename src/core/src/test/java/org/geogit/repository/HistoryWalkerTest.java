@@ -0,0 +1,124 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+
+package org.geogit.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.geogit.api.CommitBuilder;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevCommit;
+import org.geogit.storage.ObjectDatabase;
+import org.geogit.storage.datastream.DataStreamSerializationFactory;
+import org.geogit.storage.memory.HeapObjectDatabse;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+
+public class HistoryWalkerTest {
+
+    private ObjectDatabase odb;
+
+    @Before
+    public void setUp() {
+        odb = new HeapObjectDatabse(new DataStreamSerializationFactory());
+        odb.open();
+    }
+
+    private RevCommit commit(String message, long timestamp, RevCommit... parents) {
+        List<ObjectId> parentIds = Lists.newArrayList();
+        for (RevCommit parent : parents) {
+            parentIds.add(parent.getId());
+        }
+        return commit(message, timestamp, parentIds);
+    }
+
+    private RevCommit commit(String message, long timestamp, List<ObjectId> parentIds) {
+        CommitBuilder builder = new CommitBuilder();
+        builder.setAuthor("groldan").setCommitter("groldan").setMessage(message);
+        builder.setTreeId(ObjectId.forString("tree"));
+        builder.setAuthorTimestamp(timestamp).setCommitterTimestamp(timestamp);
+        builder.setParentIds(parentIds);
+        RevCommit commit = builder.build();
+        odb.put(commit);
+        return commit;
+    }
+
+    private List<RevCommit> walk(boolean firstParentOnly, RevCommit... tips) {
+        List<ObjectId> tipIds = Lists.newArrayList();
+        for (RevCommit tip : tips) {
+            tipIds.add(tip.getId());
+        }
+        return ImmutableList.copyOf(new HistoryWalker(odb, tipIds, firstParentOnly));
+    }
+
+    @Test
+    public void testMerge() {
+        RevCommit c1 = commit("c1", 1000);
+        RevCommit c2 = commit("c2", 2000, c1);
+        RevCommit c3 = commit("c3", 3000, c1);
+        RevCommit c4 = commit("c4", 4000, c3);
+        RevCommit merge = commit("merge", 5000, c4, c2);
+
+        assertEquals(ImmutableList.of(merge, c4, c3, c2, c1), walk(false, merge));
+        assertEquals(ImmutableList.of(merge, c4, c3, c1), walk(true, merge));
+        assertEquals(ImmutableList.of(c4, c3, c2, c1), walk(false, c2, c4));
+    }
+
+    @Test
+    public void testSameTimestamp() {
+        RevCommit c1 = commit("c1", 1000);
+        RevCommit c2 = commit("c2", 1000, c1);
+        RevCommit c3 = commit("c3", 1000, c1);
+        RevCommit merge = commit("merge", 1000, c2, c3);
+
+        // returned in the order they're reached
+        assertEquals(ImmutableList.of(merge, c2, c3, c1), walk(false, merge));
+    }
+
+    @Test
+    public void testMissingParent() {
+        RevCommit c1 = commit("c1", 1000, ImmutableList.of(ObjectId.forString("missing")));
+        RevCommit c2 = commit("c2", 2000, c1);
+
+        assertEquals(ImmutableList.of(c2, c1), walk(false, c2));
+    }
+
+    @Test
+    public void testWideMerge() {
+        // more branches than commits are read ahead at once
+        final int numBranches = HistoryWalker.MAX_READ_AHEAD + 500;
+        RevCommit root = commit("root", 1);
+        List<RevCommit> branches = Lists.newArrayList();
+        List<ObjectId> branchIds = Lists.newArrayList();
+        for (int i = 0; i < numBranches; i++) {
+            RevCommit branch = commit("branch " + i, 2 + 2 * i, root);
+            // a second commit on every other branch, between the others
+            if (i % 2 == 0) {
+                branches.add(branch);
+                branch = commit("branch tip " + i, 3 + 2 * i, branch);
+            }
+            branches.add(branch);
+            branchIds.add(branch.getId());
+        }
+        RevCommit merge = commit("merge", Long.MAX_VALUE, branchIds);
+
+        List<RevCommit> history = walk(false, merge);
+        assertEquals(branches.size() + 2, history.size());
+        assertEquals(branches.size() + 2, ImmutableSet.copyOf(history).size());
+        assertEquals(merge, history.get(0));
+        assertEquals(root, history.get(history.size() - 1));
+        for (int i = 1; i < history.size(); i++) {
+            assertTrue(history.get(i - 1).getCommitter().getTimestamp() > history.get(i)
+                    .getCommitter().getTimestamp());
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+
+package org.geogit.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.geogit.api.Node;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.RevTree;
+import org.geogit.api.RevTreeBuilder;
+import org.geogit.api.plumbing.HashObject;
+import org.geogit.storage.ObjectDatabase;
+import org.geogit.storage.RefDatabase;
+import org.geogit.storage.datastream.DataStreamSerializationFactory;
+import org.geogit.storage.memory.HeapObjectDatabse;
+import org.geogit.storage.memory.HeapRefDatabase;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.vividsolutions.jts.geom.Envelope;
+
+public class SpatialIndexTest {
+
+    private ObjectDatabase odb;
+
+    private RefDatabase refs;
+
+    private Random random;
+
+    @Before
+    public void setUp() {
+        odb = new HeapObjectDatabse(new DataStreamSerializationFactory());
+        odb.open();
+        refs = new HeapRefDatabase();
+        refs.create();
+        random = new Random(1000);
+    }
+
+    private Node feature(String name, Envelope bounds) {
+        ObjectId oid = ObjectId.forString(name + bounds);
+        return Node.create(name, oid, ObjectId.NULL, TYPE.FEATURE, bounds);
+    }
+
+    private Envelope randomBounds() {
+        double x = -180 + 360 * random.nextDouble();
+        double y = -90 + 180 * random.nextDouble();
+        double size = random.nextInt(4) == 0 ? random.nextDouble() : 0;
+        return new Envelope(x, x + size, y, y + size);
+    }
+
+    private Map<String, Node> randomFeatures(int count) {
+        Map<String, Node> features = Maps.newHashMap();
+        for (int i = 0; i < count; i++) {
+            String name = "Feature." + i;
+            features.put(name, feature(name, randomBounds()));
+        }
+        return features;
+    }
+
+    private RevTree tree(ObjectDatabase db, Map<String, Node> features) {
+        RevTreeBuilder builder = new RevTreeBuilder(db);
+        for (Node node : features.values()) {
+            builder.put(node);
+        }
+        RevTree tree = builder.build();
+        db.put(tree);
+        return tree;
+    }
+
+    private Set<String> query(RevTree tree, Envelope bounds) {
+        Optional<Iterator<Node>> result = new SpatialIndex(odb, refs).query(tree.getId(), bounds);
+        assertTrue(result.isPresent());
+        Set<String> names = Sets.newHashSet();
+        while (result.get().hasNext()) {
+            assertTrue(names.add(result.get().next().getName()));
+        }
+        return names;
+    }
+
+    private Set<String> bruteForce(Map<String, Node> features, Envelope bounds) {
+        Set<String> names = Sets.newHashSet();
+        for (Node node : features.values()) {
+            if (node.intersects(bounds)) {
+                names.add(node.getName());
+            }
+        }
+        return names;
+    }
+
+    private void assertQueries(RevTree tree, Map<String, Node> features) {
+        for (int i = 0; i < 20; i++) {
+            Envelope bounds = randomBounds();
+            bounds.expandBy(random.nextDouble() * 40);
+            assertEquals(bruteForce(features, bounds), query(tree, bounds));
+        }
+        Envelope world = new Envelope(-180, 180, -90, 90);
+        assertEquals(features.keySet(), query(tree, world));
+    }
+
+    @Test
+    public void testNoIndex() {
+        RevTree tree = tree(odb, randomFeatures(10));
+        SpatialIndex index = new SpatialIndex(odb, refs);
+        assertFalse(index.exists(tree.getId()));
+        assertFalse(index.query(tree.getId(), new Envelope(0, 1, 0, 1)).isPresent());
+    }
+
+    @Test
+    public void testEmptyTree() {
+        RevTree tree = tree(odb, Maps.<String, Node> newHashMap());
+        SpatialIndex index = new SpatialIndex(odb, refs);
+        index.build(tree);
+        assertTrue(index.exists(tree.getId()));
+        assertTrue(query(tree, new Envelope(-180, 180, -90, 90)).isEmpty());
+    }
+
+    @Test
+    public void testQuery() {
+        Map<String, Node> features = randomFeatures(5000);
+        // not indexed
+        features.put("nobounds", Node.create("nobounds", ObjectId.forString("nobounds"),
+                ObjectId.NULL, TYPE.FEATURE));
+        RevTree tree = tree(odb, features);
+        new SpatialIndex(odb, refs).build(tree);
+        features.remove("nobounds");
+
+        assertQueries(tree, features);
+    }
+
+    @Test
+    public void testCoincidentFeatures() {
+        Map<String, Node> features = Maps.newHashMap();
+        for (int i = 0; i < 2 * RevTree.NORMALIZED_SIZE_LIMIT; i++) {
+            String name = "Feature." + i;
+            features.put(name, feature(name, new Envelope(10, 10, 20, 20)));
+        }
+        features.put("other", feature("other", new Envelope(-10, -10, -20, -20)));
+        RevTree tree = tree(odb, features);
+        new SpatialIndex(odb, refs).build(tree);
+
+        assertQueries(tree, features);
+        assertEquals(features.size() - 1, query(tree, new Envelope(9, 11, 19, 21)).size());
+    }
+
+    @Test
+    public void testIncrementalUpdate() {
+        Map<String, Node> features = randomFeatures(3000);
+        RevTree oldTree = tree(odb, features);
+        SpatialIndex index = new SpatialIndex(odb, refs);
+        index.build(oldTree);
+
+        for (int i = 0; i < 3000; i += 3) {
+            features.remove("Feature." + i);
+        }
+        for (int i = 1; i < 3000; i += 7) {
+            String name = "Feature." + i;
+            features.put(name, feature(name, randomBounds()));
+        }
+        for (int i = 0; i < 200; i++) {
+            // some of them out of the bounds of the old tree
+            String name = "Added." + i;
+            features.put(name, feature(name, new Envelope(200 + i, 200 + i, 100, 100.5)));
+        }
+        RevTree newTree = tree(odb, features);
+        ObjectId updated = index.update(oldTree.getId(), newTree.getId());
+        assertEquals(index.indexId(newTree.getId()).get(), updated);
+        // stored under its content id
+        assertEquals(new HashObject().setObject(odb.getTree(updated)).call(), updated);
+
+        assertQueries(newTree, features);
+
+        // the index is the same it'd be if built from scratch
+        ObjectDatabase other = new HeapObjectDatabse(new DataStreamSerializationFactory());
+        other.open();
+        RevTree sameTree = tree(other, features);
+        assertEquals(newTree.getId(), sameTree.getId());
+        RefDatabase otherRefs = new HeapRefDatabase();
+        otherRefs.create();
+        assertEquals(updated, new SpatialIndex(other, otherRefs).build(sameTree));
+        assertEquals(other.getTree(updated), odb.getTree(updated));
+        assertEquals(other.getTree(updated).trees(), odb.getTree(updated).trees());
+    }
+
+    @Test
+    public void testUpdateRemovesAll() {
+        Map<String, Node> features = randomFeatures(1000);
+        RevTree oldTree = tree(odb, features);
+        SpatialIndex index = new SpatialIndex(odb, refs);
+        index.build(oldTree);
+
+        RevTree newTree = tree(odb, Maps.<String, Node> newHashMap());
+        index.update(oldTree.getId(), newTree.getId());
+        assertTrue(index.exists(newTree.getId()));
+        assertTrue(query(newTree, new Envelope(-180, 180, -90, 90)).isEmpty());
+    }
+}
@@ -0,0 +1,104 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import static org.geogit.storage.RevObjectFixtures.commit;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.List;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevCommit;
+import org.geogit.storage.datastream.DataStreamSerializationFactory;
+import org.geogit.storage.memory.HeapObjectDatabse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Closeables;
+
+public class CompressedObjectBufferTest {
+
+    private HeapObjectDatabse db;
+
+    @Before
+    public void setUp() {
+        db = new HeapObjectDatabse(new DataStreamSerializationFactory());
+        db.open();
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+    }
+
+
+    @Test
+    public void testPutGetReusingBuffer() {
+        List<RevCommit> commits = Lists.newArrayList();
+        for (int i = 0; i < 100; i++) {
+            // alternate short and long objects so stale buffer contents would show up
+            String message = i % 2 == 0 ? "short " + i : Strings.repeat("long " + i, 1000);
+            commits.add(commit(message));
+        }
+        for (RevCommit commit : commits) {
+            db.put(commit);
+        }
+        for (RevCommit commit : commits) {
+            assertEquals(commit, db.getCommit(commit.getId()));
+        }
+    }
+
+    @Test
+    public void testPutAll() {
+        List<RevCommit> commits = Lists.newArrayList();
+        for (int i = 0; i < 100; i++) {
+            commits.add(commit("commit " + i));
+        }
+        db.putAll(commits.iterator());
+        Iterator<RevCommit> expected = commits.iterator();
+        while (expected.hasNext()) {
+            RevCommit commit = expected.next();
+            assertEquals(commit, db.getCommit(commit.getId()));
+        }
+    }
+
+    @Test
+    public void testPutRawStream() throws Exception {
+        String contents = Strings.repeat("raw contents ", 10000);
+        ObjectId id = ObjectId.forString(contents);
+        db.put(id, new ByteArrayInputStream(contents.getBytes(Charsets.UTF_8)));
+        InputStream in = db.getRaw(id);
+        try {
+            assertEquals(contents, new String(ByteStreams.toByteArray(in), Charsets.UTF_8));
+        } finally {
+            Closeables.closeQuietly(in);
+        }
+    }
+
+    @Test
+    public void testNestedAcquire() {
+        CompressedObjectBuffer outer = CompressedObjectBuffer.acquire();
+        try {
+            CompressedObjectBuffer inner = CompressedObjectBuffer.acquire();
+            assertNotSame(outer, inner);
+            inner.release();
+        } finally {
+            outer.release();
+        }
+        CompressedObjectBuffer again = CompressedObjectBuffer.acquire();
+        again.release();
+        assertSame(outer, again);
+    }
+}
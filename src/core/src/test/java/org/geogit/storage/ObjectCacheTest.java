@@ -0,0 +1,154 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import static org.geogit.storage.RevObjectFixtures.commit;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import org.geogit.api.RevCommit;
+import org.geogit.api.RevFeature;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.RevTree;
+import org.geogit.api.porcelain.ConfigException;
+import org.geogit.api.porcelain.ConfigException.StatusCode;
+import org.geogit.storage.datastream.DataStreamSerializationFactory;
+import org.geogit.storage.datastream.LazyRevFeature;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Matchers;
+
+import com.google.common.base.Optional;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableList;
+import com.google.inject.util.Providers;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.WKTReader;
+
+public class ObjectCacheTest {
+
+    private ConfigDatabase config;
+
+    private ObjectCache cache;
+
+    @Before
+    public void setUp() {
+        config = mock(ConfigDatabase.class);
+        when(config.get(Matchers.anyString())).thenReturn(Optional.<String> absent());
+        cache = new ObjectCache(Providers.of(config),
+                Providers.<ObjectSerializingFactory> of(new DataStreamSerializationFactory()));
+    }
+
+
+    @Test
+    public void testHitsAndMisses() {
+        RevCommit commit = commit("message");
+        assertNull(cache.getIfPresent(commit.getId()));
+        cache.put(commit);
+        assertSame(commit, cache.getIfPresent(commit.getId()));
+        assertSame(commit, cache.getIfPresent(commit.getId(), RevCommit.class));
+        assertNull(cache.getIfPresent(commit.getId(), RevTree.class));
+
+        CacheStats stats = cache.stats(TYPE.COMMIT);
+        assertEquals(2, stats.hitCount());
+        assertEquals(1, stats.missCount());
+        assertEquals(0, cache.stats(TYPE.TREE).requestCount());
+        assertTrue(cache.weightedSize(TYPE.COMMIT) > 0);
+
+        cache.invalidate(commit.getId());
+        assertNull(cache.getIfPresent(commit.getId()));
+        assertEquals(0, cache.weightedSize(TYPE.COMMIT));
+    }
+
+    @Test
+    public void testByteBudget() {
+        when(config.get("cache.commit.maxbytes")).thenReturn(Optional.of("4096"));
+        for (int i = 0; i < 1000; i++) {
+            cache.put(commit("commit number " + i));
+        }
+        assertEquals(4096, cache.maxBytes(TYPE.COMMIT));
+        assertTrue(cache.weightedSize(TYPE.COMMIT) <= 4096);
+        assertTrue(cache.stats(TYPE.COMMIT).evictionCount() > 0);
+    }
+
+    @Test
+    public void testDisabledType() {
+        when(config.get("cache.commit.maxbytes")).thenReturn(Optional.of("0"));
+        RevCommit commit = commit("message");
+        cache.put(commit);
+        assertNull(cache.getIfPresent(commit.getId()));
+        assertEquals(0, cache.maxBytes(TYPE.COMMIT));
+    }
+
+    @Test
+    public void testOffHeap() {
+        when(config.get("cache.offheap")).thenReturn(Optional.of("true"));
+        RevCommit commit = commit("message");
+        cache.put(commit);
+        RevCommit cached = cache.getIfPresent(commit.getId(), RevCommit.class);
+        assertNotSame(commit, cached);
+        assertEquals(commit, cached);
+    }
+
+    @Test
+    public void testFeaturesNotShared() throws Exception {
+        Geometry geom = new WKTReader().read("LINESTRING (0 0, 1 1)");
+        RevFeature feature = RevFeature.build(ImmutableList.of(Optional.<Object> of(geom)));
+        cache.put(feature);
+        geom.getCoordinates()[0].x = 10;
+        geom.geometryChanged();
+
+        RevFeature cached = cache.getIfPresent(feature.getId(), RevFeature.class);
+        assertNotSame(feature, cached);
+        Geometry cachedGeom = (Geometry) cached.get(0).get();
+        assertEquals("LINESTRING (0 0, 1 1)", cachedGeom.toText());
+        cachedGeom.getCoordinates()[0].x = 20;
+        cachedGeom.geometryChanged();
+        cached = cache.getIfPresent(feature.getId(), RevFeature.class);
+        assertEquals("LINESTRING (0 0, 1 1)", ((Geometry) cached.get(0).get()).toText());
+    }
+
+    @Test
+    public void testLazyFeaturesNotShared() throws Exception {
+        Geometry geom = new WKTReader().read("LINESTRING (0 0, 1 1)");
+        RevFeature feature = RevFeature.build(ImmutableList.of(Optional.<Object> of(geom)));
+        DataStreamSerializationFactory factory = new DataStreamSerializationFactory();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        factory.createObjectWriter(TYPE.FEATURE).write(feature, out);
+        RevFeature lazy = factory.createFeatureReader().read(feature.getId(),
+                new ByteArrayInputStream(out.toByteArray()));
+        assertTrue(lazy instanceof LazyRevFeature);
+        cache.put(lazy);
+        Geometry lazyGeom = (Geometry) lazy.get(0).get();
+        lazyGeom.getCoordinates()[0].x = 10;
+        lazyGeom.geometryChanged();
+
+        RevFeature cached = cache.getIfPresent(feature.getId(), RevFeature.class);
+        assertNotSame(lazy, cached);
+        Geometry cachedGeom = (Geometry) cached.get(0).get();
+        assertEquals("LINESTRING (0 0, 1 1)", cachedGeom.toText());
+        cachedGeom.getCoordinates()[0].x = 20;
+        cachedGeom.geometryChanged();
+        cached = cache.getIfPresent(feature.getId(), RevFeature.class);
+        assertEquals("LINESTRING (0 0, 1 1)", ((Geometry) cached.get(0).get()).toText());
+    }
+
+    @Test
+    public void testNoRepository() {
+        when(config.get(Matchers.anyString())).thenThrow(
+                new ConfigException(StatusCode.INVALID_LOCATION));
+        RevCommit commit = commit("message");
+        cache.put(commit);
+        assertSame(commit, cache.getIfPresent(commit.getId()));
+    }
+}
@@ -0,0 +1,85 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.List;
+
+import org.geogit.api.ObjectId;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.Lists;
+
+public class ObjectIdBloomFilterTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private List<ObjectId> ids(String prefix, int count) {
+        List<ObjectId> ids = Lists.newArrayListWithCapacity(count);
+        for (int i = 0; i < count; i++) {
+            ids.add(ObjectId.forString(prefix + i));
+        }
+        return ids;
+    }
+
+    @Test
+    public void testNoFalseNegatives() {
+        ObjectIdBloomFilter filter = ObjectIdBloomFilter.create(10000);
+        List<ObjectId> ids = ids("stored", 10000);
+        for (ObjectId id : ids) {
+            filter.put(id);
+        }
+        for (ObjectId id : ids) {
+            assertTrue(filter.mightContain(id));
+        }
+        assertEquals(0, filter.negatives());
+    }
+
+    @Test
+    public void testFalsePositiveRate() {
+        ObjectIdBloomFilter filter = ObjectIdBloomFilter.create(10000);
+        for (ObjectId id : ids("stored", 10000)) {
+            filter.put(id);
+        }
+        int falsePositives = 0;
+        for (ObjectId id : ids("missing", 10000)) {
+            if (filter.mightContain(id)) {
+                filter.falsePositive();
+                falsePositives++;
+            }
+        }
+        assertTrue(filter.expectedFpp() < 0.02);
+        assertTrue("too many false positives: " + falsePositives, falsePositives < 300);
+        assertEquals(falsePositives, filter.falsePositives());
+        assertEquals(10000 - falsePositives, filter.negatives());
+        assertEquals(falsePositives / 10000D, filter.observedFpp(), 1e-9);
+    }
+
+    @Test
+    public void testSaveLoad() throws Exception {
+        ObjectIdBloomFilter filter = ObjectIdBloomFilter.create(1000);
+        List<ObjectId> ids = ids("stored", 1000);
+        for (ObjectId id : ids) {
+            filter.put(id);
+        }
+        File file = new File(tempFolder.getRoot(), "test.bloom");
+        filter.save(file);
+
+        ObjectIdBloomFilter loaded = ObjectIdBloomFilter.load(file);
+        assertEquals(filter.insertions(), loaded.insertions());
+        assertEquals(filter.expectedFpp(), loaded.expectedFpp(), 0D);
+        for (ObjectId id : ids) {
+            assertTrue(loaded.mightContain(id));
+        }
+        assertFalse(new File(tempFolder.getRoot(), "test.bloom.tmp").exists());
+    }
+}
@@ -0,0 +1,33 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import org.geogit.api.CommitBuilder;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevCommit;
+
+/**
+ * Builds the objects the storage tests put in and get out of the object stores.
+ */
+public class RevObjectFixtures {
+
+    private RevObjectFixtures() {
+    }
+
+    /**
+     * @return a commit with the given message on a fake tree, with fixed author, committer and
+     *         timestamps, so that its id only depends on the message
+     */
+    public static RevCommit commit(String message) {
+        CommitBuilder builder = new CommitBuilder();
+        builder.setTreeId(ObjectId.forString("fake tree"));
+        builder.setAuthor("groldan");
+        builder.setCommitter("groldan");
+        builder.setAuthorTimestamp(1000);
+        builder.setCommitterTimestamp(1000);
+        builder.setMessage(message);
+        return builder.build();
+    }
+}
@@ -0,0 +1,170 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage.datastream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevFeature;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.storage.ConfigDatabase;
+import org.geogit.storage.FieldType;
+import org.geogit.storage.ObjectWriter;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.inject.Provider;
+import com.google.inject.util.Providers;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.WKBWriter;
+import com.vividsolutions.jts.io.WKTReader;
+
+public class CompactGeometryEncodingTest {
+
+    private static final String[] GEOMETRIES = { //
+    "POINT (1 2)", //
+            "POINT (-180 -90)", //
+            "POINT EMPTY", //
+            "LINESTRING (0 0, 1.5 1.25, -3.125 100000.5)", //
+            "LINESTRING EMPTY", //
+            "POLYGON ((0 0, 10 0, 10 10, 0 10, 0 0), (1 1, 2 1, 2 2, 1 1))", //
+            "POLYGON EMPTY", //
+            "MULTIPOINT (0 0, 0.001 -0.002)", //
+            "MULTILINESTRING ((0 0, 1 1), (2 2, 3 3, 4 4))", //
+            "MULTIPOLYGON (((0 0, 1 0, 1 1, 0 0)), ((5 5, 6 5, 6 6, 5 5)))", //
+            "GEOMETRYCOLLECTION (POINT (1 1), LINESTRING (0 0, 2 2), "
+                    + "GEOMETRYCOLLECTION (MULTIPOINT (3 3, 4 4)))", //
+            "GEOMETRYCOLLECTION EMPTY" };
+
+    private final WKTReader wktReader = new WKTReader();
+
+    private final CompactGeometryEncoding.Reader reader = new CompactGeometryEncoding.Reader();
+
+    private byte[] encode(Geometry geom) throws Exception {
+        int precision = CompactGeometryEncoding.precisionOf(geom);
+        assertTrue(precision >= 0);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CompactGeometryEncoding.write(geom, precision, new DataOutputStream(out));
+        return out.toByteArray();
+    }
+
+    private Geometry decode(byte[] data) throws Exception {
+        return reader.read(new DataInputStream(new ByteArrayInputStream(data)));
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        for (String wkt : GEOMETRIES) {
+            Geometry geom = wktReader.read(wkt);
+            Geometry decoded = decode(encode(geom));
+            assertEquals(wkt, geom.getGeometryType(), decoded.getGeometryType());
+            assertTrue(wkt, geom.equalsExact(decoded));
+        }
+    }
+
+    @Test
+    public void testPrecision() throws Exception {
+        assertEquals(0, CompactGeometryEncoding.precisionOf(wktReader.read("POINT (1 2)")));
+        assertEquals(3,
+                CompactGeometryEncoding.precisionOf(wktReader.read("LINESTRING (1 2, 0.125 3)")));
+        // not representable with a limited number of decimal digits
+        Geometry third = wktReader.read("POINT (0 0)");
+        third.getCoordinate().x = 1D / 3D;
+        third.geometryChanged();
+        assertEquals(-1, CompactGeometryEncoding.precisionOf(third));
+        third.getCoordinate().x = Double.NaN;
+        third.geometryChanged();
+        assertEquals(-1, CompactGeometryEncoding.precisionOf(third));
+        third.getCoordinate().x = 1E300;
+        third.geometryChanged();
+        assertEquals(-1, CompactGeometryEncoding.precisionOf(third));
+    }
+
+    @Test
+    public void testSmallerThanWkb() throws Exception {
+        StringBuilder wkt = new StringBuilder("LINESTRING (");
+        for (int i = 0; i < 1000; i++) {
+            wkt.append(i == 0 ? "" : ", ").append(500000 + i * 0.25).append(' ')
+                    .append(4000000 - i * 0.5);
+        }
+        Geometry line = wktReader.read(wkt.append(')').toString());
+        byte[] compact = encode(line);
+        byte[] wkb = new WKBWriter().write(line);
+        assertTrue(compact.length * 4 < wkb.length);
+        assertTrue(line.equalsExact(decode(compact)));
+    }
+
+    @Test
+    public void testFeatureRoundTrip() throws Exception {
+        Geometry third = wktReader.read("POINT (0 0)");
+        third.getCoordinate().x = 1D / 3D;
+        third.geometryChanged();
+        ImmutableList<Optional<Object>> values = ImmutableList.of(
+                Optional.<Object> of(wktReader.read(GEOMETRIES[5])), Optional.<Object> of("name"),
+                Optional.<Object> of(third), Optional.<Object> absent());
+        RevFeature feature = RevFeature.build(values);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new FeatureWriter(true).write(feature, out);
+        byte[] compact = out.toByteArray();
+
+        out = new ByteArrayOutputStream();
+        new FeatureWriter().write(feature, out);
+        assertTrue(compact.length < out.size());
+
+        RevFeature read = new FeatureReader().read(feature.getId(),
+                new ByteArrayInputStream(compact));
+        assertEquals(feature.getValues().size(), read.getValues().size());
+        for (int i = 0; i < values.size(); i++) {
+            Object expected = values.get(i).orNull();
+            Object actual = read.getValues().get(i).orNull();
+            if (expected instanceof Geometry) {
+                assertTrue(((Geometry) expected).equalsExact((Geometry) actual));
+            } else {
+                assertEquals(expected, actual);
+            }
+        }
+    }
+
+    @Test
+    public void testFactoryConfig() throws Exception {
+        RevFeature feature = RevFeature.build(ImmutableList.of(Optional
+                .<Object> of(wktReader.read("POINT (1 2)"))));
+
+        assertEquals(FieldType.POINT, writtenType(new DataStreamSerializationFactory(), feature));
+
+        ConfigDatabase config = mock(ConfigDatabase.class);
+        when(config.get(DataStreamSerializationFactory.GEOMETRY_ENCODING_KEY)).thenReturn(
+                Optional.of("compact"));
+        Provider<ConfigDatabase> provider = Providers.of(config);
+        assertEquals(FieldType.COMPACT_GEOMETRY,
+                writtenType(new DataStreamSerializationFactory(provider), feature));
+    }
+
+    private FieldType writtenType(DataStreamSerializationFactory factory, RevFeature feature)
+            throws Exception {
+        ObjectWriter<RevFeature> writer = factory.createObjectWriter(TYPE.FEATURE);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.write(feature, out);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(out.toByteArray()));
+        FormatCommon.requireHeader(in, "feature");
+        assertEquals(1, in.readInt());
+        FieldType type = FieldType.valueOf(in.readByte());
+        RevFeature read = factory.createFeatureReader().read(ObjectId.NULL,
+                new ByteArrayInputStream(out.toByteArray()));
+        assertTrue(((Geometry) feature.getValues().get(0).get()).equalsExact((Geometry) read
+                .getValues().get(0).get()));
+        return type;
+    }
+}
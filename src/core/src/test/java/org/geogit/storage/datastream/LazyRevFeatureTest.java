@@ -0,0 +1,177 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage.datastream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.UUID;
+
+import org.geogit.api.RevFeature;
+import org.geogit.storage.FieldType;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.WKTReader;
+
+public class LazyRevFeatureTest {
+
+    private RevFeature feature;
+
+    @Before
+    public void setUp() throws Exception {
+        WKTReader wkt = new WKTReader();
+        java.sql.Timestamp timestamp = new java.sql.Timestamp(1264396155228L);
+        timestamp.setNanos(23456);
+        UUID uuid = UUID.fromString("bd882d24-0fe9-11e1-a736-03b3c0d0d06d");
+        ImmutableList<Optional<Object>> values = ImmutableList.<Optional<Object>> builder()
+                .add(Optional.<Object> of("a string"))//
+                .add(Optional.<Object> absent())//
+                .add(Optional.<Object> of(Boolean.TRUE))//
+                .add(Optional.<Object> of(Byte.valueOf((byte) 18)))//
+                .add(Optional.<Object> of(Short.valueOf((short) 300)))//
+                .add(Optional.<Object> of(Integer.valueOf(1000)))//
+                .add(Optional.<Object> of(Long.valueOf(800000)))//
+                .add(Optional.<Object> of(Float.valueOf(12.5f)))//
+                .add(Optional.<Object> of(Double.valueOf(100.01)))//
+                .add(Optional.<Object> of(new BigInteger("90000000")))//
+                .add(Optional.<Object> of(new BigDecimal("1.89e1021")))//
+                .add(Optional.<Object> of(new byte[] { 1, 2, 3 }))//
+                .add(Optional.<Object> of(new int[] { 1, 2, 3 }))//
+                .add(Optional.<Object> of(new double[] { 1.5, 2.5 }))//
+                .add(Optional.<Object> of(new String[] { "a", "bc" }))//
+                .add(Optional.<Object> of(new java.util.Date(1264396155228L)))//
+                .add(Optional.<Object> of(timestamp))//
+                .add(Optional.<Object> of(uuid))//
+                .add(Optional.<Object> of(wkt.read("LINESTRING (0 0, 1.5 2.25, 3 4)")))//
+                .add(Optional.<Object> of(wkt.read("POINT (1 2)")))//
+                .build();
+        feature = RevFeature.build(values);
+    }
+
+    private byte[] write(boolean compactGeometries, RevFeature... features) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (RevFeature f : features) {
+            new FeatureWriter(compactGeometries).write(f, out);
+        }
+        return out.toByteArray();
+    }
+
+    private RevFeature read(byte[] data) {
+        return new FeatureReader().read(feature.getId(), new ByteArrayInputStream(data));
+    }
+
+    private void assertValues(RevFeature expected, RevFeature actual) {
+        assertEquals(expected.size(), actual.size());
+        // backwards, so that no value is decoded in order
+        for (int i = expected.size() - 1; i >= 0; i--) {
+            assertValue(expected.get(i).orNull(), actual.get(i).orNull());
+        }
+        for (int i = 0; i < expected.size(); i++) {
+            assertValue(expected.get(i).orNull(), actual.getValues().get(i).orNull());
+        }
+    }
+
+    private void assertValue(Object expected, Object actual) {
+        if (expected instanceof Geometry) {
+            assertTrue(((Geometry) expected).equalsExact((Geometry) actual));
+        } else if (expected instanceof byte[]) {
+            assertTrue(java.util.Arrays.equals((byte[]) expected, (byte[]) actual));
+        } else if (expected instanceof int[]) {
+            assertTrue(java.util.Arrays.equals((int[]) expected, (int[]) actual));
+        } else if (expected instanceof double[]) {
+            assertTrue(java.util.Arrays.equals((double[]) expected, (double[]) actual));
+        } else if (expected instanceof Object[]) {
+            assertTrue(java.util.Arrays.equals((Object[]) expected, (Object[]) actual));
+        } else {
+            assertEquals(expected, actual);
+        }
+    }
+
+    @Test
+    public void testLazyRead() throws Exception {
+        RevFeature read = read(write(false, feature));
+        assertTrue(read instanceof LazyRevFeature);
+        assertEquals(feature.getId(), read.getId());
+        assertValues(feature, read);
+
+        read = read(write(true, feature));
+        assertTrue(read instanceof LazyRevFeature);
+        assertValues(feature, read);
+    }
+
+    @Test
+    public void testReadsExactlyTheFeatureBytes() throws Exception {
+        // as in a stream of objects, the reader shall not consume past the feature
+        RevFeature other = RevFeature.build(ImmutableList.of(Optional.<Object> of("other")));
+        for (boolean compact : new boolean[] { false, true }) {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(write(compact,
+                    feature, other)));
+            FormatCommon.requireHeader(in, "feature");
+            RevFeature first = FormatCommon.readFeature(feature.getId(), in);
+            FormatCommon.requireHeader(in, "feature");
+            RevFeature second = FormatCommon.readFeature(other.getId(), in);
+            assertEquals(-1, in.read());
+            assertValues(feature, first);
+            assertEquals("other", second.get(0).get());
+        }
+    }
+
+    @Test
+    public void testUnrequestedValuesAreNotDecoded() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        FormatCommon.writeHeader(out, "feature");
+        out.writeInt(2);
+        out.writeByte(FieldType.LINESTRING.getTag());
+        out.writeInt(4);
+        out.writeInt(0xCAFEBABE);// not a geometry
+        out.writeByte(FieldType.STRING.getTag());
+        out.writeUTF("name");
+
+        RevFeature read = read(bytes.toByteArray());
+        assertEquals(2, read.size());
+        assertEquals("name", read.get(1).get());
+        try {
+            read.get(0);
+            fail("Expected decoding exception");
+        } catch (RuntimeException expected) {
+            // the geometry is only parsed when requested
+        }
+    }
+
+    @Test
+    public void testCopiesDontShareValues() throws Exception {
+        LazyRevFeature read = (LazyRevFeature) read(write(false, feature));
+        assertValues(feature, read);
+        LazyRevFeature copy = read.copy();
+        assertEquals(read.getId(), copy.getId());
+        Geometry line = (Geometry) read.get(18).get();
+        assertSame(line, read.get(18).get());
+        line.getCoordinates()[0].x = 10;
+        line.geometryChanged();
+        ((byte[]) read.get(11).get())[0] = 10;
+        ((java.util.Date) read.getValues().get(15).get()).setTime(0);
+
+        assertValues(feature, copy);
+    }
+
+    @Test
+    public void testRoundTripKeepsId() throws Exception {
+        RevFeature read = read(write(true, feature));
+        assertEquals(feature.getId(), RevFeature.build(read.getValues()).getId());
+    }
+}
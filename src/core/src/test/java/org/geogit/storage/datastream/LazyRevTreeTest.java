@@ -0,0 +1,247 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage.datastream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.List;
+import java.util.Map;
+
+import org.geogit.api.Bucket;
+import org.geogit.api.Node;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.RevTree;
+import org.geogit.api.RevTreeImpl;
+import org.geogit.storage.ConfigDatabase;
+import org.geogit.storage.ObjectWriter;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Lists;
+import com.google.inject.util.Providers;
+import com.vividsolutions.jts.geom.Envelope;
+
+public class LazyRevTreeTest {
+
+    private RevTree leafTree;
+
+    private RevTree bucketTree;
+
+    @Before
+    public void setUp() {
+        List<Node> features = Lists.newArrayList();
+        for (int i = 0; i < 100; i++) {
+            features.add(Node.create("feature." + i, ObjectId.forString("feature" + i),
+                    ObjectId.NULL, TYPE.FEATURE, new Envelope(i, i + 1, i, i + 1)));
+        }
+        List<Node> trees = Lists.newArrayList();
+        for (int i = 0; i < 10; i++) {
+            trees.add(Node.create("tree" + i, ObjectId.forString("tree" + i),
+                    ObjectId.forString("metadata"), TYPE.TREE));
+        }
+        leafTree = RevTreeImpl.createLeafTree(ObjectId.forString("leaf"), 100, features, trees);
+        bucketTree = RevTreeImpl.createNodeTree(ObjectId.forString("buckets"), 1000, 3,
+                ImmutableMap.of(1, Bucket.create(ObjectId.forString("bucket1"), new Envelope()),
+                        7, Bucket.create(ObjectId.forString("bucket7"), new Envelope(0, 1, 0, 1))));
+    }
+
+    private byte[] write(RevTree... trees) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (RevTree tree : trees) {
+            new TreeWriter().write(tree, out);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes the tree in the original, fixed width, format
+     */
+    private byte[] writeOriginalFormat(RevTree tree) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(out);
+        FormatCommon.writeHeader(data, "tree");
+        data.writeLong(tree.size());
+        data.writeInt(tree.numTrees());
+        ImmutableList<Node> empty = ImmutableList.of();
+        data.writeInt(tree.features().or(empty).size());
+        for (Node node : tree.features().or(empty)) {
+            FormatCommon.writeNode(node, data);
+        }
+        data.writeInt(tree.trees().or(empty).size());
+        for (Node node : tree.trees().or(empty)) {
+            FormatCommon.writeNode(node, data);
+        }
+        ImmutableSortedMap<Integer, Bucket> buckets = tree.buckets().or(
+                ImmutableSortedMap.<Integer, Bucket> of());
+        data.writeInt(buckets.size());
+        for (Map.Entry<Integer, Bucket> bucket : buckets.entrySet()) {
+            FormatCommon.writeBucket(bucket.getKey(), bucket.getValue(), data);
+        }
+        return out.toByteArray();
+    }
+
+    private LazyRevTree read(ObjectId id, byte[] data) {
+        return (LazyRevTree) new TreeReader().read(id, new ByteArrayInputStream(data));
+    }
+
+    @Test
+    public void testLeafTree() throws Exception {
+        LazyRevTree tree = read(leafTree.getId(), write(leafTree));
+        assertEquals(leafTree.size(), tree.size());
+        assertEquals(leafTree.numTrees(), tree.numTrees());
+        assertFalse(tree.isEmpty());
+        assertFalse(tree.buckets().isPresent());
+        assertEquals(ImmutableList.copyOf(leafTree.children()),
+                ImmutableList.copyOf(tree.children()));
+        assertEquals(leafTree.features(), tree.features());
+        assertEquals(leafTree.trees(), tree.trees());
+    }
+
+    @Test
+    public void testGetChild() throws Exception {
+        LazyRevTree tree = read(leafTree.getId(), write(leafTree));
+        Optional<Node> feature = tree.getChild("feature.42");
+        assertTrue(feature.isPresent());
+        assertEquals(ObjectId.forString("feature42"), feature.get().getObjectId());
+        Envelope bounds = new Envelope();
+        feature.get().expand(bounds);
+        assertEquals(new Envelope(42, 43, 42, 43), bounds);
+
+        Optional<Node> subtree = tree.getChild("tree3");
+        assertTrue(subtree.isPresent());
+        assertEquals(TYPE.TREE, subtree.get().getType());
+        assertEquals(ObjectId.forString("metadata"), subtree.get().getMetadataId().get());
+
+        assertFalse(tree.getChild("feature.4").isPresent());
+        assertFalse(tree.getChild("feature.420").isPresent());
+        assertFalse(tree.getChild("missing").isPresent());
+    }
+
+    @Test
+    public void testBucketTree() throws Exception {
+        LazyRevTree tree = read(bucketTree.getId(), write(bucketTree));
+        assertEquals(bucketTree.size(), tree.size());
+        assertEquals(3, tree.numTrees());
+        assertFalse(tree.features().isPresent());
+        assertFalse(tree.trees().isPresent());
+        assertEquals(bucketTree.buckets(), tree.buckets());
+    }
+
+    @Test
+    public void testReadsExactlyTheTreeBytes() throws Exception {
+        // as in a stream of objects, the reader shall not consume past the tree
+        byte[] data = write(leafTree, bucketTree);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        FormatCommon.requireHeader(in, "tree");
+        RevTree first = FormatCommon.readTree(leafTree.getId(), in);
+        FormatCommon.requireHeader(in, "tree");
+        RevTree second = FormatCommon.readTree(bucketTree.getId(), in);
+        assertEquals(-1, in.read());
+        assertEquals(leafTree.features(), first.features());
+        assertEquals(bucketTree.buckets(), second.buckets());
+    }
+
+    @Test
+    public void testReadOriginalFormat() throws Exception {
+        LazyRevTree tree = read(leafTree.getId(), writeOriginalFormat(leafTree));
+        assertEquals(leafTree.size(), tree.size());
+        assertEquals(leafTree.features(), tree.features());
+        assertEquals(leafTree.trees(), tree.trees());
+        assertTrue(tree.getChild("feature.42").isPresent());
+        Envelope bounds = new Envelope();
+        tree.getChild("feature.42").get().expand(bounds);
+        assertEquals(new Envelope(42, 43, 42, 43), bounds);
+
+        tree = read(bucketTree.getId(), writeOriginalFormat(bucketTree));
+        assertEquals(3, tree.numTrees());
+        assertEquals(bucketTree.buckets(), tree.buckets());
+
+        // and out of a stream
+        byte[] data = writeOriginalFormat(leafTree);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        FormatCommon.requireHeader(in, "tree");
+        assertEquals(leafTree.features(), FormatCommon.readTree(leafTree.getId(), in).features());
+        assertEquals(-1, in.read());
+    }
+
+    @Test
+    public void testCompactFormatIsSmaller() throws Exception {
+        assertTrue(write(leafTree).length < writeOriginalFormat(leafTree).length);
+        assertTrue(write(bucketTree).length < writeOriginalFormat(bucketTree).length);
+    }
+
+    @Test
+    public void testBoundsPrecision() throws Exception {
+        Envelope box = new Envelope(0.1, 0.3, -0.7, 0.00001);
+        Envelope point = new Envelope(0.1, 0.1, 0.2, 0.2);
+        RevTree tree = RevTreeImpl.createLeafTree(ObjectId.forString("bounds"), 2,
+                ImmutableList.of(
+                        Node.create("box", ObjectId.forString("box"), ObjectId.NULL,
+                                TYPE.FEATURE, box),
+                        Node.create("point", ObjectId.forString("point"), ObjectId.NULL,
+                                TYPE.FEATURE, point)), ImmutableList.<Node> of());
+
+        // doubles are kept unless asked otherwise
+        LazyRevTree exact = read(tree.getId(), write(tree));
+        assertEquals(box, bounds(exact.getChild("box").get()));
+        assertEquals(point, bounds(exact.getChild("point").get()));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new TreeWriter(true).write(tree, out);
+        assertTrue(out.size() < write(tree).length);
+        LazyRevTree rounded = read(tree.getId(), out.toByteArray());
+        Envelope roundedBox = bounds(rounded.getChild("box").get());
+        assertTrue(roundedBox.contains(box));
+        assertEquals(box.getWidth(), roundedBox.getWidth(), 1E-6);
+        assertEquals(box.getHeight(), roundedBox.getHeight(), 1E-6);
+        // points are never rounded, or they would become boxes
+        assertEquals(point, bounds(rounded.getChild("point").get()));
+    }
+
+    @Test
+    public void testFactoryConfig() throws Exception {
+        Envelope box = new Envelope(0.1, 0.3, -0.7, 0.00001);
+        RevTree tree = RevTreeImpl.createLeafTree(ObjectId.forString("bounds"), 1,
+                ImmutableList.of(Node.create("box", ObjectId.forString("box"), ObjectId.NULL,
+                        TYPE.FEATURE, box)), ImmutableList.<Node> of());
+
+        ConfigDatabase config = mock(ConfigDatabase.class);
+        when(config.get(DataStreamSerializationFactory.TREE_BOUNDS_KEY)).thenReturn(
+                Optional.<String> absent());
+        assertEquals(write(tree).length, writtenSize(config, tree));
+
+        when(config.get(DataStreamSerializationFactory.TREE_BOUNDS_KEY)).thenReturn(
+                Optional.of("float"));
+        assertTrue(writtenSize(config, tree) < write(tree).length);
+    }
+
+    private int writtenSize(ConfigDatabase config, RevTree tree) throws Exception {
+        DataStreamSerializationFactory factory = new DataStreamSerializationFactory(
+                Providers.of(config));
+        ObjectWriter<RevTree> writer = factory.createObjectWriter(TYPE.TREE);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.write(tree, out);
+        return out.size();
+    }
+
+    private Envelope bounds(Node node) {
+        Envelope bounds = new Envelope();
+        node.expand(bounds);
+        return bounds;
+    }
+}
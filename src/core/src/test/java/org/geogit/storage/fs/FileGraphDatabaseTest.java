@@ -0,0 +1,192 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage.fs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.TestPlatform;
+import org.geogit.storage.GraphDatabase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+public class FileGraphDatabaseTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private TestPlatform platform;
+
+    private File repoDir;
+
+    private FileGraphDatabase db;
+
+    @Before
+    public void setUp() throws Exception {
+        File workingDir = tempFolder.newFolder("mockWorkingDir");
+        repoDir = new File(workingDir, ".geogit");
+        repoDir.mkdir();
+        platform = new TestPlatform(workingDir);
+        db = newDatabase();
+    }
+
+    @After
+    public void tearDown() {
+        if (db != null) {
+            db.close();
+        }
+    }
+
+    private FileGraphDatabase newDatabase() {
+        FileGraphDatabase database = new FileGraphDatabase(platform);
+        database.open();
+        return database;
+    }
+
+    private FileGraphDatabase reopen() {
+        db.close();
+        db = newDatabase();
+        return db;
+    }
+
+    private static ObjectId id(String name) {
+        return ObjectId.forString(name);
+    }
+
+    private void put(String commit, String... parents) {
+        ImmutableList.Builder<ObjectId> parentIds = ImmutableList.builder();
+        for (String parent : parents) {
+            parentIds.add(id(parent));
+        }
+        assertTrue(db.put(id(commit), parentIds.build()));
+    }
+
+    /**
+     * <pre>
+     * a - b - c - e - f
+     *      \     /
+     *       - d -
+     * </pre>
+     */
+    private void createMergeGraph() {
+        put("a");
+        put("b", "a");
+        put("c", "b");
+        put("d", "b");
+        put("e", "c", "d");
+        put("f", "e");
+    }
+
+    @Test
+    public void testPut() {
+        assertTrue(db.put(id("a"), ImmutableList.<ObjectId> of(), 1000L));
+        put("b", "a");
+        assertFalse(db.put(id("b"), ImmutableList.of(id("a"))));
+
+        assertTrue(db.exists(id("a")));
+        assertFalse(db.exists(id("c")));
+        assertEquals(ImmutableList.of(id("a")), db.getParents(id("b")));
+        assertEquals(ImmutableList.of(id("b")), db.getChildren(id("a")));
+        assertEquals(ImmutableList.of(), db.getParents(id("c")));
+        assertEquals(Optional.of(Long.valueOf(1000L)), db.getTimestamp(id("a")));
+        assertEquals(Optional.absent(), db.getTimestamp(id("b")));
+    }
+
+    @Test
+    public void testDepth() {
+        createMergeGraph();
+        assertEquals(0, db.getDepth(id("a")));
+        assertEquals(2, db.getDepth(id("d")));
+        assertEquals(4, db.getDepth(id("f")));
+    }
+
+    @Test
+    public void testChildBeforeParent() {
+        put("c", "b");
+        // b is just a placeholder so far, c reaches a commit with no relationships
+        assertTrue(db.exists(id("b")));
+        assertEquals(1, db.getDepth(id("c")));
+        assertEquals(Optional.absent(), db.findLowestCommonAncestor(id("b"), id("c")));
+
+        put("b", "a");
+        put("a");
+        assertEquals(2, db.getDepth(id("c")));
+        assertEquals(Optional.of(id("b")), db.findLowestCommonAncestor(id("b"), id("c")));
+    }
+
+    @Test
+    public void testLowestCommonAncestor() {
+        createMergeGraph();
+        assertEquals(Optional.of(id("b")), db.findLowestCommonAncestor(id("c"), id("d")));
+        assertEquals(Optional.of(id("d")), db.findLowestCommonAncestor(id("f"), id("d")));
+        assertEquals(Optional.of(id("e")), db.findLowestCommonAncestor(id("e"), id("e")));
+        assertEquals(Optional.absent(), db.findLowestCommonAncestor(id("e"), id("x")));
+    }
+
+    @Test
+    public void testMappingAndSparsePath() {
+        createMergeGraph();
+        assertEquals(ObjectId.NULL, db.getMapping(id("c")));
+        db.map(id("c"), id("c2"));
+        db.map(id("c2"), id("c"));
+        assertEquals(id("c2"), db.getMapping(id("c")));
+
+        assertFalse(db.isSparsePath(id("f"), id("a")));
+        db.setProperty(id("d"), GraphDatabase.SPARSE_FLAG, "true");
+        assertTrue(db.isSparsePath(id("e"), id("a")));
+        assertFalse(db.isSparsePath(id("c"), id("a")));
+    }
+
+    @Test
+    public void testReopen() {
+        createMergeGraph();
+        db.map(id("c"), id("c2"));
+        db.setProperty(id("d"), GraphDatabase.SPARSE_FLAG, "true");
+        assertTrue(db.put(id("g"), ImmutableList.of(id("f")), 2000L));
+
+        reopen();
+        assertEquals(ImmutableSet.of(id("c"), id("d")),
+                ImmutableSet.copyOf(db.getParents(id("e"))));
+        assertEquals(id("c2"), db.getMapping(id("c")));
+        assertTrue(db.isSparsePath(id("e"), id("a")));
+        assertEquals(Optional.of(Long.valueOf(2000L)), db.getTimestamp(id("g")));
+        assertEquals(5, db.getDepth(id("g")));
+    }
+
+    @Test
+    public void testTruncatedRecord() throws Exception {
+        createMergeGraph();
+        db.close();
+        File file = new File(new File(repoDir, "graph"), "commitgraph");
+        final long length = file.length();
+        FileOutputStream out = new FileOutputStream(file, true);
+        try {
+            out.write('P');
+            out.write(id("g").getRawValue(), 0, 10);
+        } finally {
+            out.close();
+        }
+        db = newDatabase();
+        assertEquals(length, file.length());
+        assertTrue(db.exists(id("f")));
+        assertFalse(db.exists(id("g")));
+        put("g", "f");
+
+        reopen();
+        assertEquals(ImmutableList.of(id("f")), db.getParents(id("g")));
+    }
+}
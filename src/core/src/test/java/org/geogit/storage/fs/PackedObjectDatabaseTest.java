@@ -0,0 +1,441 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage.fs;
+
+import static org.geogit.storage.RevObjectFixtures.commit;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevCommit;
+import org.geogit.api.RevObject;
+import org.geogit.api.TestPlatform;
+import org.geogit.storage.datastream.DataStreamSerializationFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Function;
+import com.google.common.base.Predicates;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Closeables;
+
+public class PackedObjectDatabaseTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private TestPlatform platform;
+
+    private PackedObjectDatabase db;
+
+    @Before
+    public void setUp() throws Exception {
+        File workingDir = tempFolder.newFolder("mockWorkingDir");
+        new File(workingDir, ".geogit").mkdir();
+        platform = new TestPlatform(workingDir);
+        db = newDatabase();
+    }
+
+    @After
+    public void tearDown() {
+        if (db != null) {
+            db.close();
+        }
+    }
+
+    private PackedObjectDatabase newDatabase() {
+        PackedObjectDatabase database = new PackedObjectDatabase(platform,
+                new DataStreamSerializationFactory());
+        database.open();
+        return database;
+    }
+
+    private ObjectId put(String contents) {
+        ObjectId id = ObjectId.forString(contents);
+        db.put(id, new ByteArrayInputStream(contents.getBytes(Charsets.UTF_8)));
+        return id;
+    }
+
+    private String read(ObjectId id) throws Exception {
+        InputStream in = db.getRaw(id);
+        try {
+            return new String(ByteStreams.toByteArray(in), Charsets.UTF_8);
+        } finally {
+            Closeables.closeQuietly(in);
+        }
+    }
+
+    @Test
+    public void testPutGetLoose() throws Exception {
+        ObjectId id = put("loose object");
+        assertTrue(db.exists(id));
+        assertEquals("loose object", read(id));
+        assertEquals(0, db.getPackCount());
+    }
+
+    @Test
+    public void testFoldOnThreshold() throws Exception {
+        db.setLooseObjectsThreshold(10);
+        List<ObjectId> ids = Lists.newArrayList();
+        for (int i = 0; i < 25; i++) {
+            ids.add(put("object " + i));
+        }
+        // the second pack is merged with the first one
+        assertEquals(1, db.getPackCount());
+        for (int i = 0; i < 25; i++) {
+            assertTrue(db.exists(ids.get(i)));
+            assertEquals("object " + i, read(ids.get(i)));
+        }
+        assertFalse(db.exists(ObjectId.forString("not stored")));
+    }
+
+    @Test
+    public void testFoldOnCloseAndReopen() throws Exception {
+        List<ObjectId> ids = Lists.newArrayList();
+        for (int i = 0; i < 100; i++) {
+            ids.add(put("object " + i));
+        }
+        db.close();
+        db = newDatabase();
+        assertEquals(1, db.getPackCount());
+        for (int i = 0; i < 100; i++) {
+            assertEquals("object " + i, read(ids.get(i)));
+        }
+        // the loose copy is gone
+        String looseName = ids.get(0).toString();
+        File loose = new File(new File(new File(new File(platform.pwd(), ".geogit"), "objects"),
+                looseName.substring(0, 2)), looseName.substring(2, 4));
+        assertFalse(new File(loose, looseName).exists());
+    }
+
+    @Test
+    public void testPutExistingPackedObject() throws Exception {
+        ObjectId id = put("packed");
+        db.close();
+        db = newDatabase();
+        assertFalse(db.put(id, new ByteArrayInputStream("packed".getBytes(Charsets.UTF_8))));
+    }
+
+    @Test
+    public void testDeletePackedObject() throws Exception {
+        ObjectId id = put("to be deleted");
+        ObjectId other = put("to be kept");
+        db.close();
+        db = newDatabase();
+        assertTrue(db.delete(id));
+        assertFalse(db.exists(id));
+        assertNull(db.getIfPresent(id));
+        db.close();
+        db = newDatabase();
+        assertFalse(db.exists(id));
+        assertTrue(db.exists(other));
+
+        // putting it again makes it visible again
+        put("to be deleted");
+        assertTrue(db.exists(id));
+        assertEquals("to be deleted", read(id));
+    }
+
+    @Test
+    public void testTombstonesAppended() throws Exception {
+        ObjectId id = put("deleted twice");
+        db.close();
+        db = newDatabase();
+        File tombstones = new File(new File(new File(new File(platform.pwd(), ".geogit"),
+                "objects"), "pack"), "tombstones");
+        assertTrue(db.delete(id));
+        final long length = tombstones.length();
+        put("deleted twice");
+        assertTrue(tombstones.length() > length);
+        assertTrue(db.delete(id));
+
+        db.close();
+        db = newDatabase();
+        assertFalse(db.exists(id));
+        put("deleted twice");
+        db.close();
+        db = newDatabase();
+        assertEquals("deleted twice", read(id));
+    }
+
+    @Test
+    public void testPackFoldedByAnotherDatabase() throws Exception {
+        PackedObjectDatabase other = newDatabase();
+        try {
+            ObjectId id = ObjectId.forString("folded elsewhere");
+            other.put(id, new ByteArrayInputStream("folded elsewhere".getBytes(Charsets.UTF_8)));
+            assertEquals("folded elsewhere", read(id));
+            assertEquals(1, other.pack());
+            // the loose copy is gone, the lookup falls back to listing the new packs
+            assertEquals("folded elsewhere", read(id));
+            assertEquals(1, db.getPackCount());
+        } finally {
+            other.close();
+        }
+    }
+
+    @Test
+    public void testPackCountBounded() throws Exception {
+        db.setLooseObjectsThreshold(10);
+        List<ObjectId> ids = Lists.newArrayList();
+        for (int i = 0; i < 2000; i++) {
+            ids.add(put("object " + i));
+            assertTrue(db.getPackCount() <= 8);
+        }
+        for (int i = 0; i < 2000; i++) {
+            assertEquals("object " + i, read(ids.get(i)));
+        }
+        // the merged packs are gone
+        File packDir = new File(new File(new File(platform.pwd(), ".geogit"), "objects"), "pack");
+        int indexFiles = 0;
+        for (String name : packDir.list()) {
+            if (name.endsWith(PackFile.INDEX_EXTENSION)) {
+                indexFiles++;
+            }
+        }
+        assertEquals(db.getPackCount(), indexFiles);
+    }
+
+    @Test
+    public void testMergeDropsDeletedObjects() throws Exception {
+        db.setLooseObjectsThreshold(10);
+        for (int i = 0; i < 10; i++) {
+            put("object " + i);
+        }
+        ObjectId deleted = ObjectId.forString("object 0");
+        assertTrue(db.delete(deleted));
+        for (int i = 10; i < 20; i++) {
+            put("object " + i);
+        }
+        assertEquals(1, db.getPackCount());
+        assertFalse(db.exists(deleted));
+        assertEquals("object 1", read(ObjectId.forString("object 1")));
+
+        // putting it again makes it visible again
+        put("object 0");
+        assertEquals("object 0", read(deleted));
+        db.close();
+        db = newDatabase();
+        assertEquals("object 0", read(deleted));
+    }
+
+    @Test
+    public void testPacksMergedByAnotherDatabase() throws Exception {
+        ObjectId first = put("first");
+        assertEquals(1, db.pack());
+        assertEquals(1, db.getPackCount());
+
+        PackedObjectDatabase other = newDatabase();
+        try {
+            ObjectId second = ObjectId.forString("second");
+            other.put(second, new ByteArrayInputStream("second".getBytes(Charsets.UTF_8)));
+            assertEquals(1, other.pack());
+            assertEquals(1, other.getPackCount());
+
+            // the pack db knew about is gone, the lookups fall back to listing the merged one
+            assertEquals("second", read(second));
+            assertEquals(1, db.getPackCount());
+            assertEquals("first", read(first));
+        } finally {
+            other.close();
+        }
+    }
+
+    @Test
+    public void testLookUp() throws Exception {
+        ObjectId packed = put("packed");
+        db.close();
+        db = newDatabase();
+        ObjectId loose = put("loose");
+
+        assertEquals(Lists.newArrayList(packed), db.lookUp(packed.toString().substring(0, 7)));
+        assertEquals(Lists.newArrayList(loose), db.lookUp(loose.toString().substring(0, 8)));
+    }
+
+    @Test
+    public void testPackExistingLooseObjects() throws Exception {
+        FileObjectDatabase plain = new FileObjectDatabase(platform,
+                new DataStreamSerializationFactory());
+        plain.open();
+        ObjectId id = ObjectId.forString("legacy");
+        plain.put(id, new ByteArrayInputStream("legacy".getBytes(Charsets.UTF_8)));
+        plain.close();
+
+        assertEquals(1, db.pack());
+        assertEquals(1, db.getPackCount());
+        assertEquals("legacy", read(id));
+    }
+
+
+    @Test
+    public void testGetAllAndExistsAll() throws Exception {
+        List<ObjectId> ids = Lists.newArrayList();
+        for (int i = 0; i < 50; i++) {
+            RevCommit commit = commit("packed " + i);
+            db.put(commit);
+            ids.add(commit.getId());
+        }
+        db.close();
+        db = newDatabase();
+        for (int i = 0; i < 50; i++) {
+            RevCommit commit = commit("loose " + i);
+            db.put(commit);
+            ids.add(commit.getId());
+        }
+        ObjectId missing = ObjectId.forString("missing");
+        List<ObjectId> query = Lists.newArrayList(ids);
+        query.add(25, missing);
+
+        Set<ObjectId> existing = db.existsAll(query);
+        assertEquals(Sets.newHashSet(ids), existing);
+
+        List<ObjectId> fetched = Lists.newArrayList();
+        Iterator<RevObject> objects = db.getAll(query);
+        while (objects.hasNext()) {
+            RevObject object = objects.next();
+            assertTrue(object instanceof RevCommit);
+            fetched.add(object.getId());
+        }
+        // FileObjectDatabase preserves the requested order
+        assertEquals(ids, fetched);
+    }
+
+    @Test
+    public void testBloomFilter() throws Exception {
+        ObjectId stored = put("stored");
+        ObjectId missing = ObjectId.forString("missing");
+        assertTrue(db.getBloomFilter().isPresent());
+        assertTrue(db.getBloomFilter().get().mightContain(stored));
+        assertFalse(db.exists(missing));
+
+        // saved on close and reused on open
+        db.close();
+        File bloomFile = new File(new File(new File(new File(platform.pwd(), ".geogit"),
+                "objects"), "pack"), "objects.bloom");
+        assertTrue(bloomFile.exists());
+        db = newDatabase();
+        assertTrue(bloomFile.exists());
+        assertTrue(db.exists(stored));
+
+        // a missing filter file is rebuilt out of the stored objects
+        ObjectId loose = put("loose");
+        db.close();
+        assertTrue(bloomFile.delete());
+        db = newDatabase();
+        assertTrue(db.getBloomFilter().get().mightContain(stored));
+        assertTrue(db.getBloomFilter().get().mightContain(loose));
+        assertTrue(db.exists(loose));
+    }
+
+    @Test
+    public void testBloomFilterWithAnotherDatabaseOpen() throws Exception {
+        assertTrue(db.getBloomFilter().isPresent());
+        PackedObjectDatabase other = newDatabase();
+        ObjectId id = ObjectId.forString("written elsewhere");
+        try {
+            // only the first database to open may trust a filter
+            assertFalse(other.getBloomFilter().isPresent());
+            other.put(id, new ByteArrayInputStream("written elsewhere".getBytes(Charsets.UTF_8)));
+            assertTrue(db.exists(id));
+            assertFalse(db.getBloomFilter().isPresent());
+        } finally {
+            other.close();
+        }
+        // nor is the filter saved once the other database opened
+        db.close();
+        db = newDatabase();
+        assertTrue(db.getBloomFilter().get().mightContain(id));
+    }
+
+    @Test
+    public void testPackFileIndex() throws Exception {
+        File dir = tempFolder.newFolder("packs");
+        final List<ObjectId> ids = Lists.newArrayList();
+        for (int i = 0; i < 1000; i++) {
+            ids.add(ObjectId.forString("id" + i));
+        }
+        PackFile pack = PackFile.create(dir, "pack-test", ids,
+                new Function<ObjectId, InputStream>() {
+                    @Override
+                    public InputStream apply(ObjectId id) {
+                        return new ByteArrayInputStream(id.getRawValue());
+                    }
+                });
+        try {
+            assertEquals(1000, pack.size());
+            for (ObjectId id : ids) {
+                int index = pack.find(id);
+                assertTrue(index > -1);
+                assertEquals(id, pack.idAt(index));
+                assertArrayEquals(id.getRawValue(), pack.read(index));
+            }
+            assertEquals(-1, pack.find(ObjectId.forString("missing")));
+            for (int i = 1; i < pack.size(); i++) {
+                assertTrue(PackFile.UNSIGNED_ORDER.compare(pack.idAt(i - 1), pack.idAt(i)) < 0);
+            }
+        } finally {
+            pack.close();
+        }
+    }
+
+    @Test
+    public void testPackFileMerge() throws Exception {
+        File dir = tempFolder.newFolder("packs");
+        Function<ObjectId, InputStream> contents = new Function<ObjectId, InputStream>() {
+            @Override
+            public InputStream apply(ObjectId id) {
+                return new ByteArrayInputStream(id.getRawValue());
+            }
+        };
+        List<ObjectId> ids = Lists.newArrayList();
+        for (int i = 0; i < 1000; i++) {
+            ids.add(ObjectId.forString("id" + i));
+        }
+        // overlapping packs
+        PackFile newer = PackFile.create(dir, "pack-b", ids.subList(0, 600), contents);
+        PackFile older = PackFile.create(dir, "pack-a", ids.subList(400, 1000), contents);
+        ObjectId excluded = ids.get(10);
+        PackFile merged = PackFile.merge(dir, "pack-c", Lists.newArrayList(newer, older),
+                Predicates.equalTo(excluded));
+        try {
+            assertEquals(999, merged.size());
+            assertFalse(merged.contains(excluded));
+            for (ObjectId id : ids) {
+                if (!id.equals(excluded)) {
+                    assertTrue(merged.contains(id));
+                    assertArrayEquals(id.getRawValue(), merged.read(merged.find(id)));
+                }
+            }
+            assertTrue(newer.delete());
+            assertTrue(older.delete());
+            assertFalse(new File(dir, "pack-a" + PackFile.BLOOM_EXTENSION).exists());
+
+            // a missing bloom filter is rebuilt out of the index
+            merged.close();
+            assertTrue(new File(dir, "pack-c" + PackFile.BLOOM_EXTENSION).delete());
+            merged = PackFile.open(new File(dir, "pack-c" + PackFile.INDEX_EXTENSION));
+            assertTrue(merged.contains(ids.get(999)));
+            assertFalse(merged.contains(ObjectId.forString("missing")));
+        } finally {
+            merged.close();
+        }
+    }
+}
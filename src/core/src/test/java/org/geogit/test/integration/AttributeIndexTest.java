@@ -0,0 +1,256 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.test.integration;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.geogit.api.Node;
+import org.geogit.api.NodeRef;
+import org.geogit.api.ObjectId;
+import org.geogit.api.Ref;
+import org.geogit.api.RevTree;
+import org.geogit.api.plumbing.BuildAttributeIndex;
+import org.geogit.api.plumbing.FindTreeChild;
+import org.geogit.api.plumbing.HashObject;
+import org.geogit.api.plumbing.RefParse;
+import org.geogit.api.plumbing.ResolveTreeish;
+import org.geogit.api.plumbing.RevObjectParse;
+import org.geogit.api.porcelain.BranchCreateOp;
+import org.geogit.api.porcelain.CheckoutOp;
+import org.geogit.api.porcelain.CommitOp;
+import org.geogit.api.porcelain.MergeOp;
+import org.geogit.repository.AttributeIndex;
+import org.junit.Test;
+import org.opengis.feature.Feature;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+public class AttributeIndexTest extends RepositoryTestCase {
+
+    private static final int NUM_FEATURES = 1200;
+
+    private Map<String, Integer> ipValues;
+
+    private Map<String, String> spValues;
+
+    private AttributeIndex index;
+
+    @Override
+    protected void setUpInternal() throws Exception {
+        ipValues = Maps.newHashMap();
+        spValues = Maps.newHashMap();
+        List<Feature> features = Lists.newArrayList();
+        for (int i = 0; i < NUM_FEATURES; i++) {
+            features.add(point(i, i % 100, "name" + (i % 37)));
+        }
+        populate(false, features);
+        index = new AttributeIndex(repo.getObjectDatabase(), repo.getRefDatabase());
+    }
+
+    private Feature point(int i, int ip, String sp) throws Exception {
+        String id = "Points." + i;
+        ipValues.put(id, Integer.valueOf(ip));
+        spValues.put(id, sp);
+        return feature(pointsType, id, sp, Integer.valueOf(ip), "POINT(" + i + " " + i + ")");
+    }
+
+    private NodeRef typeTree() {
+        ObjectId rootId = geogit.command(ResolveTreeish.class).setTreeish(Ref.HEAD).call().get();
+        RevTree root = geogit.command(RevObjectParse.class).setObjectId(rootId)
+                .call(RevTree.class).get();
+        return geogit.command(FindTreeChild.class).setParent(root).setChildPath(pointsName)
+                .call().get();
+    }
+
+    private void buildIndex(String attribute) {
+        NodeRef tree = typeTree();
+        ObjectId indexId = geogit.command(BuildAttributeIndex.class).setTree(tree.objectId())
+                .setMetadataId(tree.getMetadataId()).setAttribute(attribute).call();
+        assertEquals(index.indexId(tree.objectId(), attribute).get(), indexId);
+        // stored under its content id
+        RevTree indexTree = repo.getObjectDatabase().getTree(indexId);
+        assertEquals(new HashObject().setObject(indexTree).call(), indexId);
+    }
+
+    private List<String> query(String attribute, Object lower, boolean lowerInclusive,
+            Object upper, boolean upperInclusive) {
+        Optional<Iterator<Node>> nodes = index.query(typeTree().objectId(), attribute, lower,
+                lowerInclusive, upper, upperInclusive);
+        assertTrue(nodes.isPresent());
+        List<String> names = Lists.newArrayList();
+        while (nodes.get().hasNext()) {
+            names.add(nodes.get().next().getName());
+        }
+        return names;
+    }
+
+    private <T extends Comparable<T>> Set<String> bruteForce(Map<String, T> values, T lower,
+            boolean lowerInclusive, T upper, boolean upperInclusive) {
+        Set<String> names = Sets.newHashSet();
+        for (Map.Entry<String, T> e : values.entrySet()) {
+            T value = e.getValue();
+            if (lower != null) {
+                int c = value.compareTo(lower);
+                if (c < 0 || (c == 0 && !lowerInclusive)) {
+                    continue;
+                }
+            }
+            if (upper != null) {
+                int c = value.compareTo(upper);
+                if (c > 0 || (c == 0 && !upperInclusive)) {
+                    continue;
+                }
+            }
+            names.add(e.getKey());
+        }
+        return names;
+    }
+
+    private void assertIpQuery(Integer lower, boolean lowerInclusive, Integer upper,
+            boolean upperInclusive) {
+        List<String> result = query("ip", lower, lowerInclusive, upper, upperInclusive);
+        Set<String> expected = bruteForce(ipValues, lower, lowerInclusive, upper,
+                upperInclusive);
+        assertEquals(expected, Sets.newHashSet(result));
+        assertEquals(expected.size(), result.size());
+        // results come sorted by value
+        for (int i = 1; i < result.size(); i++) {
+            assertTrue(ipValues.get(result.get(i - 1)) <= ipValues.get(result.get(i)));
+        }
+    }
+
+    private void assertIpQueries() {
+        assertIpQuery(50, true, 50, true);
+        assertIpQuery(10, true, 20, false);
+        assertIpQuery(10, false, 20, true);
+        assertIpQuery(null, false, 5, true);
+        assertIpQuery(95, false, null, false);
+        assertIpQuery(1000, true, 1000, true);
+    }
+
+    @Test
+    public void testNoIndex() {
+        assertFalse(index.exists(typeTree().objectId(), "ip"));
+        assertFalse(index.query(typeTree().objectId(), "ip", 1, true, 1, true).isPresent());
+    }
+
+    @Test
+    public void testQuery() {
+        buildIndex("ip");
+        buildIndex("sp");
+        assertTrue(index.exists(typeTree().objectId(), "ip"));
+
+        assertIpQueries();
+
+        assertEquals(bruteForce(spValues, "name3", true, "name3", true),
+                Sets.newHashSet(query("sp", "name3", true, "name3", true)));
+        assertEquals(bruteForce(spValues, "name1", true, "name2", false),
+                Sets.newHashSet(query("sp", "name1", true, "name2", false)));
+    }
+
+    @Test
+    public void testUnsupportedBounds() {
+        buildIndex("ip");
+        ObjectId treeId = typeTree().objectId();
+        assertFalse(index.query(treeId, "ip", new Object(), true, null, false).isPresent());
+        assertFalse(index.query(treeId, "ip", 1, true, "a", true).isPresent());
+        assertFalse(index.query(treeId, "ip", null, true, null, true).isPresent());
+    }
+
+    @Test
+    public void testUpdatedOnCommit() throws Exception {
+        buildIndex("ip");
+        final ObjectId oldTreeId = typeTree().objectId();
+
+        for (int i = 0; i < NUM_FEATURES; i += 5) {
+            Feature removed = point(i, 0, "");
+            ipValues.remove(removed.getIdentifier().getID());
+            spValues.remove(removed.getIdentifier().getID());
+            deleteAndAdd(removed);
+        }
+        for (int i = 1; i < NUM_FEATURES; i += 11) {
+            insertAndAdd(point(i, 1000, "modified"));
+        }
+        for (int i = NUM_FEATURES; i < NUM_FEATURES + 600; i++) {
+            insertAndAdd(point(i, i % 7, "added"));
+        }
+        geogit.command(CommitOp.class).call();
+
+        ObjectId newTreeId = typeTree().objectId();
+        assertFalse(oldTreeId.equals(newTreeId));
+        assertTrue(index.exists(newTreeId, "ip"));
+        assertFalse(index.exists(newTreeId, "sp"));
+        assertIpQueries();
+    }
+
+    @Test
+    public void testUpdatedOnFastForwardMerge() throws Exception {
+        geogit.command(BranchCreateOp.class).setName("branch1").call();
+        geogit.command(CheckoutOp.class).setSource("branch1").call();
+        for (int i = NUM_FEATURES; i < NUM_FEATURES + 100; i++) {
+            insertAndAdd(point(i, 2000, "added"));
+        }
+        geogit.command(CommitOp.class).call();
+        geogit.command(CheckoutOp.class).setSource("master").call();
+
+        // indexed after the branch was committed, so only the merge can carry it forward
+        buildIndex("ip");
+        Ref branch1 = geogit.command(RefParse.class).setName("branch1").call().get();
+        geogit.command(MergeOp.class).addCommit(Suppliers.ofInstance(branch1.getObjectId()))
+                .call();
+
+        assertTrue(index.exists(typeTree().objectId(), "ip"));
+        assertIpQueries();
+        assertIpQuery(2000, true, 2000, true);
+    }
+
+    @Test
+    public void testIndexedAttributes() {
+        ObjectId treeId = typeTree().objectId();
+        assertTrue(index.indexedAttributes(treeId).isEmpty());
+        buildIndex("sp");
+        buildIndex("ip");
+        buildIndex("ip");
+        assertEquals(ImmutableList.of("ip", "sp"), index.indexedAttributes(treeId));
+        assertEquals(ImmutableSet.of(AttributeIndex.NAMESPACE + treeId + "/ip",
+                AttributeIndex.NAMESPACE + treeId + "/sp"),
+                repo.getRefDatabase().getAll(AttributeIndex.NAMESPACE + treeId + "/").keySet());
+    }
+
+    @Test
+    public void testUnderfullPagesMerged() throws Exception {
+        buildIndex("ip");
+        // empties the pages holding the lowest values but a few entries
+        for (int i = 0; i < NUM_FEATURES; i++) {
+            if (i % 100 < 60) {
+                Feature removed = point(i, 0, "");
+                ipValues.remove(removed.getIdentifier().getID());
+                spValues.remove(removed.getIdentifier().getID());
+                deleteAndAdd(removed);
+            }
+        }
+        geogit.command(CommitOp.class).call();
+
+        ObjectId newTreeId = typeTree().objectId();
+        assertEquals(ImmutableList.of("ip"), index.indexedAttributes(newTreeId));
+        RevTree indexTree = repo.getObjectDatabase().getTree(
+                index.indexId(newTreeId, "ip").get());
+        RevTree rootPage = repo.getObjectDatabase().getTree(
+                indexTree.trees().get().get(0).getObjectId());
+        // the few entries left are merged with the next page, which becomes the only one
+        assertFalse(rootPage.trees().isPresent());
+        assertEquals(ipValues.size(), rootPage.features().get().size());
+        assertIpQueries();
+    }
+}
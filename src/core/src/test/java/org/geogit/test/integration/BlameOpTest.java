@@ -8,14 +8,22 @@ import java.util.Collection;
 import java.util.Map;
 
 import org.geogit.api.NodeRef;
+import org.geogit.api.Ref;
 import org.geogit.api.RevCommit;
+import org.geogit.api.plumbing.RefParse;
 import org.geogit.api.porcelain.BlameOp;
 import org.geogit.api.porcelain.BlameReport;
+import org.geogit.api.porcelain.BlameTreeOp;
+import org.geogit.api.porcelain.BranchCreateOp;
+import org.geogit.api.porcelain.CheckoutOp;
 import org.geogit.api.porcelain.CommitOp;
+import org.geogit.api.porcelain.MergeOp;
 import org.geogit.api.porcelain.ValueAndCommit;
 import org.junit.Test;
 import org.opengis.feature.Feature;
 
+import com.google.common.base.Suppliers;
+
 public class BlameOpTest extends RepositoryTestCase {
 
     @Override
@@ -70,7 +78,88 @@ public class BlameOpTest extends RepositoryTestCase {
         assertEquals(changes.get("pp").commit, firstCommit);
         assertEquals(changes.get("sp").value.get(), pointsModified.getProperty("sp").getValue());
         assertEquals(changes.get("ip").value.get(), points1.getProperty("ip").getValue());
-        assertEquals(changes.get("pp").value.get(), points1.getProperty("ip").getValue());
+        assertEquals(changes.get("pp").value.get(), points1.getProperty("pp").getValue());
+    }
+
+    @Test
+    public void testBlameWithUnrelatedCommits() throws Exception {
+        insertAndAdd(points1);
+        RevCommit firstCommit = geogit.command(CommitOp.class).call();
+        insertAndAdd(lines1);
+        geogit.command(CommitOp.class).call();
+        insertAndAdd(points1_modified);
+        RevCommit thirdCommit = geogit.command(CommitOp.class).call();
+        insertAndAdd(points2);
+        geogit.command(CommitOp.class).call();
+
+        String path = NodeRef.appendChild(pointsName, idP1);
+        BlameReport report = geogit.command(BlameOp.class).setPath(path).call();
+        Map<String, ValueAndCommit> changes = report.getChanges();
+        assertEquals(3, changes.size());
+        for (String attribute : changes.keySet()) {
+            Object value = points1_modified.getProperty(attribute).getValue();
+            Object oldValue = points1.getProperty(attribute).getValue();
+            RevCommit expected = value.equals(oldValue) ? firstCommit : thirdCommit;
+            assertEquals(expected, changes.get(attribute).commit);
+            assertEquals(value, changes.get(attribute).value.get());
+        }
+    }
+
+    @Test
+    public void testBlameTree() throws Exception {
+        insertAndAdd(points1);
+        RevCommit firstCommit = geogit.command(CommitOp.class).call();
+        Feature pointsModified = feature(pointsType, idP1, "StringProp1_3", new Integer(1000),
+                "POINT(1 1)");
+        insertAndAdd(pointsModified, points2);
+        RevCommit secondCommit = geogit.command(CommitOp.class).call();
+        insertAndAdd(lines1);
+        geogit.command(CommitOp.class).call();
+
+        Map<String, BlameReport> reports = geogit.command(BlameTreeOp.class).setPath(pointsName)
+                .call();
+        assertEquals(2, reports.size());
+
+        Map<String, ValueAndCommit> changes = reports.get(NodeRef.appendChild(pointsName, idP1))
+                .getChanges();
+        assertEquals(3, changes.size());
+        assertEquals(secondCommit, changes.get("sp").commit);
+        assertEquals(firstCommit, changes.get("ip").commit);
+        assertEquals(firstCommit, changes.get("pp").commit);
+
+        changes = reports.get(NodeRef.appendChild(pointsName, idP2)).getChanges();
+        assertEquals(3, changes.size());
+        for (ValueAndCommit valueAndCommit : changes.values()) {
+            assertEquals(secondCommit, valueAndCommit.commit);
+        }
+    }
+
+    @Test
+    public void testBlameThroughMerge() throws Exception {
+        insertAndAdd(points1);
+        RevCommit firstCommit = geogit.command(CommitOp.class).call();
+        geogit.command(BranchCreateOp.class).setName("branch1").call();
+        Feature pointsModified = feature(pointsType, idP1, "StringProp1_3", new Integer(1000),
+                "POINT(1 1)");
+        insertAndAdd(pointsModified);
+        RevCommit masterCommit = geogit.command(CommitOp.class).call();
+
+        // a commit on the branch, newer than the one on master, that doesn't touch the feature
+        geogit.command(CheckoutOp.class).setSource("branch1").call();
+        insertAndAdd(points2);
+        geogit.command(CommitOp.class).call();
+        geogit.command(CheckoutOp.class).setSource("master").call();
+        Ref branch1 = geogit.command(RefParse.class).setName("branch1").call().get();
+        geogit.command(MergeOp.class).addCommit(Suppliers.ofInstance(branch1.getObjectId()))
+                .call();
+
+        String path = NodeRef.appendChild(pointsName, idP1);
+        BlameReport report = geogit.command(BlameOp.class).setPath(path).call();
+        Map<String, ValueAndCommit> changes = report.getChanges();
+        assertEquals(3, changes.size());
+        assertEquals(masterCommit, changes.get("sp").commit);
+        assertEquals(firstCommit, changes.get("ip").commit);
+        assertEquals(firstCommit, changes.get("pp").commit);
     }
 
     @Test
@@ -0,0 +1,128 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.test.integration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+
+import org.geogit.api.Bucket;
+import org.geogit.api.BulkTreeBuilder;
+import org.geogit.api.Node;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.RevTree;
+import org.geogit.api.RevTreeBuilder;
+import org.geogit.storage.ObjectDatabase;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+public class BulkTreeBuilderTest extends RepositoryTestCase {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private ObjectDatabase odb;
+
+    @Override
+    protected void setUpInternal() throws Exception {
+        odb = repo.getObjectDatabase();
+    }
+
+    private Node node(int i, int version) {
+        String name = "Feature." + i;
+        ObjectId oid = ObjectId.forString(name + "/" + version);
+        switch (i % 3) {
+        case 0:
+            return Node.create(name, oid, ObjectId.NULL, TYPE.FEATURE);
+        case 1:
+            return Node.create(name, oid, ObjectId.NULL, TYPE.FEATURE, new Envelope(i, i, -i, -i));
+        default:
+            return Node.create(name, oid, ObjectId.forString("type"), TYPE.FEATURE, new Envelope(
+                    i, i + 0.5, 1, 1.25));
+        }
+    }
+
+    private void assertSameTree(final int numEntries, final int maxNodesInMemory,
+            final boolean withDuplicates) {
+        RevTreeBuilder expected = new RevTreeBuilder(odb);
+        BulkTreeBuilder actual = new BulkTreeBuilder(odb, maxNodesInMemory, tempFolder.getRoot());
+        for (int i = 0; i < numEntries; i++) {
+            expected.put(node(i, 0));
+            actual.put(node(i, 0));
+        }
+        if (withDuplicates) {
+            for (int i = 0; i < numEntries; i += 7) {
+                expected.put(node(i, 1));
+                actual.put(node(i, 1));
+            }
+        }
+        RevTree expectedTree = expected.build();
+        RevTree actualTree = actual.build();
+        assertEquals(numEntries, actualTree.size());
+        assertEquals(expectedTree.getId(), actualTree.getId());
+        assertEquals(expectedTree.buckets(), actualTree.buckets());
+        if (actualTree.buckets().isPresent()) {
+            for (Bucket bucket : actualTree.buckets().get().values()) {
+                assertTrue(odb.exists(bucket.id()));
+            }
+        }
+        // temporary files are cleaned up
+        assertEquals(0, tempFolder.getRoot().list().length);
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        RevTree tree = new BulkTreeBuilder(odb).build();
+        assertEquals(0, tree.size());
+        assertEquals(new RevTreeBuilder(odb).build().getId(), tree.getId());
+    }
+
+    @Test
+    public void testLeafTree() throws Exception {
+        assertSameTree(RevTree.NORMALIZED_SIZE_LIMIT, 1000, false);
+        assertSameTree(100, 1000, true);
+    }
+
+    @Test
+    public void testBucketTrees() throws Exception {
+        assertSameTree(RevTree.NORMALIZED_SIZE_LIMIT + 1, 1000, false);
+        // deep enough for some buckets to be split again
+        assertSameTree(3 * RevTree.NORMALIZED_SIZE_LIMIT * RevTree.MAX_BUCKETS, 1000 * 1000, true);
+    }
+
+    @Test
+    public void testSpilledRuns() throws Exception {
+        assertSameTree(3 * RevTree.NORMALIZED_SIZE_LIMIT * RevTree.MAX_BUCKETS, 1000, true);
+    }
+
+    @Test
+    public void testOnlyFeatures() throws Exception {
+        BulkTreeBuilder builder = new BulkTreeBuilder(odb);
+        try {
+            builder.put(Node.create("tree", ObjectId.forString("tree"), ObjectId.NULL, TYPE.TREE));
+            fail("Expected IAE");
+        } catch (IllegalArgumentException expected) {
+            assertTrue(expected.getMessage().contains("Only feature nodes"));
+        }
+    }
+
+    @Test
+    public void testTempDirectory() throws Exception {
+        File dir = tempFolder.newFolder("spill");
+        BulkTreeBuilder builder = new BulkTreeBuilder(odb, 10, dir);
+        for (int i = 0; i < 25; i++) {
+            builder.put(node(i, 0));
+        }
+        assertEquals(2, dir.list().length);
+        assertEquals(25, builder.build().size());
+        assertEquals(0, dir.list().length);
+    }
+}
@@ -0,0 +1,129 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.test.integration;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.List;
+import java.util.Set;
+
+import org.geogit.api.NodeRef;
+import org.geogit.api.RevCommit;
+import org.geogit.api.plumbing.BuildChangedPaths;
+import org.geogit.api.plumbing.ResolveGeogitDir;
+import org.geogit.api.porcelain.LogOp;
+import org.geogit.storage.ChangedPaths;
+import org.geogit.storage.ChangedPathsIndex;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.inject.util.Providers;
+
+public class ChangedPathsTest extends RepositoryTestCase {
+
+    private List<RevCommit> commits;
+
+    @Override
+    protected void setUpInternal() throws Exception {
+        commits = populate(true, points1, lines1, points2, lines2, points3);
+    }
+
+    private ChangedPathsIndex newIndex() {
+        return new ChangedPathsIndex(Providers.of(geogit.getPlatform()));
+    }
+
+    private File indexFile() throws Exception {
+        File repoDir = new File(new ResolveGeogitDir(geogit.getPlatform()).call().toURI());
+        return new File(repoDir, "changedpaths");
+    }
+
+    @Test
+    public void testIndexedOnCommit() {
+        ChangedPathsIndex index = newIndex();
+        assertEquals(commits.size(), index.size());
+
+        ChangedPaths lines2Commit = index.get(commits.get(3).getId()).get();
+        assertEquals(ImmutableSet.of(NodeRef.ROOT, linesName), lines2Commit.treePaths());
+        assertTrue(lines2Commit.mightTouch(linesName));
+        assertTrue(lines2Commit.mightTouch(NodeRef.appendChild(linesName, idL2)));
+        assertFalse(lines2Commit.mightTouch(NodeRef.appendChild(linesName, idL1)));
+        assertFalse(lines2Commit.mightTouch(pointsName));
+        assertFalse(lines2Commit.mightTouch(NodeRef.appendChild(pointsName, idP1)));
+    }
+
+    @Test
+    public void testLogWithPaths() {
+        List<RevCommit> pointsCommits = ImmutableList.copyOf(geogit.command(LogOp.class)
+                .addPath(pointsName).call());
+        assertEquals(3, pointsCommits.size());
+        assertEquals(ImmutableSet.of(commits.get(0), commits.get(2), commits.get(4)),
+                ImmutableSet.copyOf(pointsCommits));
+
+        List<RevCommit> lines1Commits = ImmutableList.copyOf(geogit.command(LogOp.class)
+                .addPath(NodeRef.appendChild(linesName, idL1)).call());
+        assertEquals(ImmutableList.of(commits.get(1)), lines1Commits);
+    }
+
+    @Test
+    public void testHistory() {
+        RevCommit head = commits.get(commits.size() - 1);
+        Integer indexed = geogit.command(BuildChangedPaths.class).setCommit(head.getId())
+                .setHistory(true).call();
+        assertEquals(0, indexed.intValue());
+    }
+
+    @Test
+    public void testTruncatedRecord() throws Exception {
+        final File file = indexFile();
+        final long length = file.length();
+        FileOutputStream out = new FileOutputStream(file, true);
+        try {
+            out.write(commits.get(0).getId().getRawValue());
+            out.write(new byte[] { 0, 0 });
+        } finally {
+            out.close();
+        }
+        assertEquals(commits.size(), newIndex().size());
+        assertEquals(length, file.length());
+    }
+
+    @Test
+    public void testAppendedByAnotherIndex() throws Exception {
+        ChangedPathsIndex stale = newIndex();
+        assertEquals(commits.size(), stale.size());
+
+        // indexed behind the back of the stale index
+        RevCommit commit = populate(true, lines3).get(0);
+        assertTrue(stale.exists(commit.getId()));
+        assertEquals(ImmutableSet.of(NodeRef.ROOT, linesName), stale.get(commit.getId()).get()
+                .treePaths());
+
+        // already indexed, not appended twice
+        final long length = indexFile().length();
+        stale.put(commit.getId(), stale.get(commit.getId()).get());
+        assertEquals(length, indexFile().length());
+        assertEquals(commits.size() + 1, newIndex().size());
+    }
+
+    @Test
+    public void testManyFeatures() {
+        Set<String> treePaths = ImmutableSet.of(NodeRef.ROOT, pointsName);
+        List<String> featurePaths = Lists.newArrayList();
+        for (int i = 0; i < 20000; i++) {
+            featurePaths.add(NodeRef.appendChild(pointsName, String.valueOf(i)));
+        }
+        // too many features to filter them, any feature in the changed trees might have changed
+        ChangedPaths changed = ChangedPaths.create(treePaths, featurePaths);
+        assertTrue(changed.mightTouch(NodeRef.appendChild(pointsName, "20001")));
+        assertFalse(changed.mightTouch(NodeRef.appendChild(linesName, "1")));
+
+        changed = ChangedPaths.create(treePaths, featurePaths.subList(0, 100));
+        for (String path : featurePaths.subList(0, 100)) {
+            assertTrue(changed.mightTouch(path));
+        }
+    }
+}
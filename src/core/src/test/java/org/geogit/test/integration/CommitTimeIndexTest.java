@@ -0,0 +1,143 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.test.integration;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Date;
+import java.util.List;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.Ref;
+import org.geogit.api.RevCommit;
+import org.geogit.api.plumbing.CommitFromDateOp;
+import org.geogit.api.plumbing.ResolveGeogitDir;
+import org.geogit.api.plumbing.ResolveTimeline;
+import org.geogit.api.plumbing.UpdateRef;
+import org.geogit.api.porcelain.CommitOp;
+import org.geogit.storage.CommitTimeIndex;
+import org.geogit.storage.CommitTimeIndex.Timeline;
+import org.junit.Test;
+import org.opengis.feature.Feature;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.inject.util.Providers;
+
+public class CommitTimeIndexTest extends RepositoryTestCase {
+
+    private static final String MASTER = Ref.HEADS_PREFIX + "master";
+
+    private List<RevCommit> commits;
+
+    @Override
+    protected void setUpInternal() throws Exception {
+        commits = Lists.newArrayList();
+        commit(points1, 1000);
+        commit(lines1, 2000);
+        commit(points2, 3000);
+    }
+
+    private RevCommit commit(Feature feature, long timestamp) throws Exception {
+        insertAndAdd(feature);
+        RevCommit commit = geogit.command(CommitOp.class).setCommitterTimestamp(timestamp)
+                .call();
+        commits.add(commit);
+        return commit;
+    }
+
+    private Optional<RevCommit> commitAt(long time) {
+        return geogit.command(CommitFromDateOp.class).setDate(new Date(time)).call();
+    }
+
+    private File timelineFile() throws Exception {
+        File repoDir = new File(new ResolveGeogitDir(geogit.getPlatform()).call().toURI());
+        return new File(new File(repoDir, "committime"), MASTER);
+    }
+
+    @Test
+    public void testCommitFromDate() {
+        assertFalse(commitAt(1000).isPresent());
+        assertEquals(commits.get(0), commitAt(1001).get());
+        assertEquals(commits.get(1), commitAt(2500).get());
+        assertEquals(commits.get(2), commitAt(10000).get());
+    }
+
+    @Test
+    public void testUpdatedAsRefAdvances() throws Exception {
+        Timeline timeline = geogit.command(ResolveTimeline.class).call();
+        assertEquals(3, timeline.size());
+        assertEquals(commits.get(2).getId(), timeline.tip());
+
+        commit(lines2, 4000);
+        timeline = geogit.command(ResolveTimeline.class).call();
+        assertEquals(4, timeline.size());
+        assertEquals(commits.get(3).getId(), timeline.tip());
+        assertEquals(commits.get(3), commitAt(5000).get());
+
+        // move the branch back and commit on top of an older commit
+        geogit.command(UpdateRef.class).setName(MASTER).setNewValue(commits.get(1).getId())
+                .call();
+        assertEquals(commits.get(1), commitAt(5000).get());
+        RevCommit rewritten = geogit.command(CommitOp.class).setAllowEmpty(true)
+                .setCommitterTimestamp(6000L).call();
+        assertEquals(rewritten, commitAt(7000).get());
+        assertEquals(commits.get(1), commitAt(5000).get());
+
+        Timeline reloaded = new CommitTimeIndex(Providers.of(geogit.getPlatform())).get(MASTER);
+        assertEquals(3, reloaded.size());
+        assertEquals(rewritten.getId(), reloaded.tip());
+        assertEquals(commits.get(0).getId(), reloaded.get(0));
+    }
+
+    @Test
+    public void testClockSkew() throws Exception {
+        // a commit that claims to be older than its parent
+        commit(lines2, 1500);
+        commit(lines3, 5000);
+
+        // the same as walking the history back from the tip
+        assertEquals(commits.get(4), commitAt(6000).get());
+        assertEquals(commits.get(3), commitAt(4000).get());
+        assertEquals(commits.get(3), commitAt(1600).get());
+        assertEquals(commits.get(0), commitAt(1400).get());
+    }
+
+    @Test
+    public void testUpdatedByAnotherIndex() throws Exception {
+        CommitTimeIndex stale = new CommitTimeIndex(Providers.of(geogit.getPlatform()));
+        Timeline loaded = stale.get(MASTER);
+        assertEquals(3, loaded.size());
+
+        // appended to the file behind the back of the stale index
+        RevCommit commit = commit(lines2, 4000);
+        geogit.command(ResolveTimeline.class).call();
+
+        // the file no longer ends where the stale index expects, so it's rewritten
+        stale.put(MASTER, loaded.append(3, ImmutableList.of(commit)));
+        assertEquals(4 * (ObjectId.NULL.getRawValue().length + 8), timelineFile().length());
+        Timeline reloaded = new CommitTimeIndex(Providers.of(geogit.getPlatform())).get(MASTER);
+        assertEquals(4, reloaded.size());
+        assertEquals(3, reloaded.indexOf(commit.getId()));
+    }
+
+    @Test
+    public void testTruncatedRecord() throws Exception {
+        geogit.command(ResolveTimeline.class).call();
+        final File file = timelineFile();
+        final long length = file.length();
+        FileOutputStream out = new FileOutputStream(file, true);
+        try {
+            out.write(commits.get(0).getId().getRawValue(), 0, 10);
+        } finally {
+            out.close();
+        }
+        Timeline timeline = new CommitTimeIndex(Providers.of(geogit.getPlatform())).get(MASTER);
+        assertEquals(3, timeline.size());
+        assertEquals(commits.get(2).getId(), timeline.tip());
+        assertEquals(length, file.length());
+    }
+}
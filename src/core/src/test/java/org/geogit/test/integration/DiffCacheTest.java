@@ -0,0 +1,155 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.test.integration;
+
+import java.util.Iterator;
+import java.util.List;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevCommit;
+import org.geogit.api.plumbing.diff.DiffEntry;
+import org.geogit.api.porcelain.ConfigOp;
+import org.geogit.api.porcelain.ConfigOp.ConfigAction;
+import org.geogit.api.porcelain.DiffOp;
+import org.geogit.storage.DiffCache;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.inject.util.Providers;
+
+public class DiffCacheTest extends RepositoryTestCase {
+
+    private List<RevCommit> commits;
+
+    @Override
+    protected void setUpInternal() throws Exception {
+        commits = populate(true, points1, points2, points3, lines1, lines2);
+    }
+
+    private DiffCache newCache() {
+        return new DiffCache(Providers.of(geogit.getPlatform()), Providers.of(repo
+                .getConfigDatabase()));
+    }
+
+    private List<DiffEntry> diff(RevCommit oldCommit, RevCommit newCommit) {
+        return ImmutableList.copyOf(geogit.command(DiffOp.class)
+                .setOldVersion(oldCommit.getId()).setNewVersion(newCommit.getId())
+                .setUseCache(true).call());
+    }
+
+    private ObjectId tree(int commit) {
+        return commits.get(commit).getTreeId();
+    }
+
+    @Test
+    public void testDiffOpUsesCache() {
+        List<DiffEntry> first = diff(commits.get(0), commits.get(4));
+        assertEquals(4, first.size());
+        assertEquals(first, diff(commits.get(0), commits.get(4)));
+
+        // a fresh cache finds what the first diff stored on disk
+        DiffCache cache = newCache();
+        assertTrue(cache.weightedSize() > 0);
+        Optional<Iterator<DiffEntry>> cached = cache.get(tree(0), tree(4), "null false null");
+        assertTrue(cached.isPresent());
+        assertEquals(first, ImmutableList.copyOf(cached.get()));
+        assertEquals(1, cache.hits());
+    }
+
+    @Test
+    public void testNotRecordedUnlessAsked() {
+        DiffCache cache = newCache();
+        cache.invalidateAll();
+        ImmutableList.copyOf(geogit.command(DiffOp.class).setOldVersion(commits.get(0).getId())
+                .setNewVersion(commits.get(4).getId()).call());
+        assertEquals(0, cache.weightedSize());
+        assertFalse(cache.get(tree(0), tree(4), "null false null").isPresent());
+    }
+
+    @Test
+    public void testTouched() {
+        DiffCache cache = newCache();
+        ObjectId oldId = commits.get(2).getId();
+        ObjectId newId = commits.get(3).getId();
+        assertFalse(cache.touched(oldId, newId, linesName).isPresent());
+        cache.putTouched(oldId, newId, linesName, true);
+        cache.putTouched(oldId, newId, pointsName, false);
+        assertEquals(Boolean.TRUE, cache.touched(oldId, newId, linesName).get());
+        assertEquals(Boolean.FALSE, cache.touched(oldId, newId, pointsName).get());
+        assertFalse(cache.touched(newId, oldId, linesName).isPresent());
+
+        cache.invalidateAll();
+        assertFalse(cache.touched(oldId, newId, linesName).isPresent());
+    }
+
+    @Test
+    public void testRecord() {
+        DiffCache cache = newCache();
+        List<DiffEntry> entries = diff(commits.get(1), commits.get(3));
+        assertFalse(cache.get(tree(1), tree(3), "filter").isPresent());
+        assertEquals(1, cache.misses());
+
+        Iterator<DiffEntry> recorded = cache.record(tree(1), tree(3), "filter",
+                entries.iterator());
+        // not cached until fully consumed
+        recorded.next();
+        assertFalse(cache.get(tree(1), tree(3), "filter").isPresent());
+        assertEquals(entries, ImmutableList.builder().add(entries.get(0)).addAll(recorded)
+                .build());
+
+        Optional<Iterator<DiffEntry>> cached = cache.get(tree(1), tree(3), "filter");
+        assertTrue(cached.isPresent());
+        assertEquals(entries, ImmutableList.copyOf(cached.get()));
+        assertFalse(cache.get(tree(1), tree(3), "another filter").isPresent());
+    }
+
+    @Test
+    public void testEviction() {
+        DiffCache cache = newCache();
+        cache.invalidateAll();
+        assertEquals(0, cache.weightedSize());
+
+        List<DiffEntry> entries = diff(commits.get(0), commits.get(4));
+        ImmutableList.copyOf(cache.record(tree(0), tree(4), "0", entries.iterator()));
+        final long entrySize = cache.weightedSize();
+        assertTrue(entrySize > 0);
+
+        repo.command(ConfigOp.class).setAction(ConfigAction.CONFIG_SET)
+                .setName("diffcache.maxbytes").setValue(String.valueOf(4 * entrySize)).call();
+        cache = newCache();
+        assertEquals(4 * entrySize, cache.maxBytes());
+        for (int i = 1; i < 10; i++) {
+            ImmutableList.copyOf(cache.record(tree(0), tree(4), String.valueOf(i),
+                    entries.iterator()));
+            assertTrue(cache.weightedSize() <= cache.maxBytes());
+        }
+        // the most recently used are kept
+        assertTrue(cache.get(tree(0), tree(4), "9").isPresent());
+        assertFalse(cache.get(tree(0), tree(4), "0").isPresent());
+    }
+
+    @Test
+    public void testTooBigToCache() {
+        repo.command(ConfigOp.class).setAction(ConfigAction.CONFIG_SET)
+                .setName("diffcache.maxbytes").setValue("8").call();
+        DiffCache cache = newCache();
+        List<DiffEntry> entries = diff(commits.get(0), commits.get(4));
+        assertEquals(entries,
+                ImmutableList.copyOf(cache.record(tree(0), tree(4), "", entries.iterator())));
+        assertFalse(cache.get(tree(0), tree(4), "").isPresent());
+    }
+
+    @Test
+    public void testDisabled() {
+        repo.command(ConfigOp.class).setAction(ConfigAction.CONFIG_SET)
+                .setName("diffcache.maxbytes").setValue("0").call();
+        DiffCache cache = newCache();
+        assertEquals(0, cache.maxBytes());
+        List<DiffEntry> entries = diff(commits.get(0), commits.get(4));
+        ImmutableList.copyOf(cache.record(tree(0), tree(4), "", entries.iterator()));
+        assertFalse(cache.get(tree(0), tree(4), "").isPresent());
+    }
+}
@@ -0,0 +1,183 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.test.integration;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.List;
+import java.util.Map;
+
+import org.geogit.api.NodeRef;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevCommit;
+import org.geogit.api.plumbing.ResolveGeogitDir;
+import org.geogit.api.plumbing.UpdateFeatureHistory;
+import org.geogit.api.porcelain.CommitOp;
+import org.geogit.api.porcelain.LogOp;
+import org.geogit.storage.FeatureHistoryIndex;
+import org.geogit.storage.FeatureHistoryIndex.Version;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.inject.util.Providers;
+
+public class FeatureHistoryIndexTest extends RepositoryTestCase {
+
+    private List<RevCommit> commits;
+
+    private final String points1Path = NodeRef.appendChild(pointsName, idP1);
+
+    @Override
+    protected void setUpInternal() throws Exception {
+        commits = populate(true, points1, lines1, points2);
+    }
+
+    private FeatureHistoryIndex newIndex() {
+        return new FeatureHistoryIndex(Providers.of(geogit.getPlatform()));
+    }
+
+    private File indexDir() throws Exception {
+        File repoDir = new File(new ResolveGeogitDir(geogit.getPlatform()).call().toURI());
+        return new File(repoDir, "featurehistory");
+    }
+
+    private RevCommit commit(String message) {
+        return geogit.command(CommitOp.class).setMessage(message).call();
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        FeatureHistoryIndex index = newIndex();
+        assertFalse(index.isEnabled());
+        assertEquals(0, index.size());
+        assertFalse(indexDir().exists());
+
+        insertAndAdd(points1_modified);
+        commit("modified points1");
+        assertFalse(indexDir().exists());
+    }
+
+    @Test
+    public void testRebuild() throws Exception {
+        Integer indexed = geogit.command(UpdateFeatureHistory.class).setRebuild(true).call();
+        assertEquals(commits.size(), indexed.intValue());
+
+        FeatureHistoryIndex index = newIndex();
+        assertTrue(index.isEnabled());
+        assertEquals(commits.size(), index.size());
+        List<Version> versions = index.getVersions(points1Path);
+        assertEquals(1, versions.size());
+        assertEquals(commits.get(0).getId(), versions.get(0).getCommitId());
+        assertEquals(commits.get(0).getCommitter().getTimestamp(), versions.get(0).getTimestamp());
+        assertEquals(index.getVersions(NodeRef.appendChild(linesName, idL1)).get(0)
+                .getCommitId(), commits.get(1).getId());
+        assertTrue(index.getVersions(pointsName).isEmpty());
+
+        // rebuilding again gives the same result
+        indexed = geogit.command(UpdateFeatureHistory.class).setRebuild(true).call();
+        assertEquals(commits.size(), indexed.intValue());
+        assertEquals(versions, newIndex().getVersions(points1Path));
+    }
+
+    @Test
+    public void testUpdatedOnCommit() throws Exception {
+        geogit.command(UpdateFeatureHistory.class).setRebuild(true).call();
+
+        final ObjectId modifiedId = insertAndAdd(points1_modified);
+        final RevCommit modified = commit("modified points1");
+        deleteAndAdd(points1);
+        final RevCommit deleted = commit("deleted points1");
+
+        List<Version> versions = newIndex().getVersions(points1Path);
+        assertEquals(3, versions.size());
+        assertEquals(deleted.getId(), versions.get(0).getCommitId());
+        assertTrue(versions.get(0).isRemoved());
+        assertEquals(modified.getId(), versions.get(1).getCommitId());
+        assertEquals(modifiedId, versions.get(1).getObjectId());
+        assertEquals(commits.get(0).getId(), versions.get(2).getCommitId());
+
+        List<RevCommit> log = ImmutableList.copyOf(geogit.command(LogOp.class)
+                .addPath(points1Path).call());
+        assertEquals(ImmutableList.of(deleted, modified, commits.get(0)), log);
+    }
+
+    @Test
+    public void testTruncatedRecord() throws Exception {
+        geogit.command(UpdateFeatureHistory.class).setRebuild(true).call();
+        insertAndAdd(points1_modified);
+        commit("modified points1");
+
+        final File log = new File(indexDir(), "log");
+        final long length = log.length();
+        assertTrue(length > 0);
+        FileOutputStream out = new FileOutputStream(log, true);
+        try {
+            out.write(commits.get(0).getId().getRawValue());
+            out.write(new byte[] { 0, 0 });
+        } finally {
+            out.close();
+        }
+        FeatureHistoryIndex index = newIndex();
+        assertEquals(commits.size() + 1, index.size());
+        assertEquals(2, index.getVersions(points1Path).size());
+        assertEquals(length, log.length());
+    }
+
+    @Test
+    public void testAppendedByAnotherIndex() throws Exception {
+        geogit.command(UpdateFeatureHistory.class).setRebuild(true).call();
+        FeatureHistoryIndex stale = newIndex();
+        assertEquals(commits.size(), stale.size());
+
+        // indexed behind the back of the stale index
+        insertAndAdd(points1_modified);
+        final RevCommit modified = commit("modified points1");
+        assertTrue(stale.isIndexed(modified.getId()));
+        assertEquals(modified.getId(), stale.getVersions(points1Path).get(0).getCommitId());
+
+        // writing the log to a segment keeps what the other index appended
+        stale.compact();
+        assertEquals(0, new File(indexDir(), "log").length());
+        FeatureHistoryIndex reloaded = newIndex();
+        assertEquals(commits.size() + 1, reloaded.size());
+        assertEquals(2, reloaded.getVersions(points1Path).size());
+    }
+
+    @Test
+    public void testSegments() throws Exception {
+        FeatureHistoryIndex index = newIndex();
+        index.create();
+        final int numPaths = 1000;
+        Map<String, ObjectId> added = Maps.newHashMap();
+        Map<String, ObjectId> modified = Maps.newHashMap();
+        for (int i = 0; i < numPaths; i++) {
+            String path = NodeRef.appendChild(pointsName, String.valueOf(i));
+            added.put(path, ObjectId.forString(path));
+            if (i % 2 == 0) {
+                modified.put(path, ObjectId.forString(path + "_modified"));
+            }
+        }
+        index.putAll(ImmutableMap.of(commits.get(0), added));
+        index.compact();
+        index.putAll(ImmutableMap.of(commits.get(1), modified));
+        index.compact();
+
+        FeatureHistoryIndex reloaded = newIndex();
+        assertEquals(2, reloaded.size());
+        for (int i = 0; i < numPaths; i++) {
+            String path = NodeRef.appendChild(pointsName, String.valueOf(i));
+            List<Version> versions = reloaded.getVersions(path);
+            assertEquals(i % 2 == 0 ? 2 : 1, versions.size());
+            assertEquals(commits.get(0).getId(), versions.get(versions.size() - 1).getCommitId());
+            assertEquals(ObjectId.forString(path), versions.get(versions.size() - 1)
+                    .getObjectId());
+        }
+        assertTrue(reloaded.getVersions(NodeRef.appendChild(pointsName, "a")).isEmpty());
+        assertTrue(reloaded.getVersions(NodeRef.appendChild(linesName, "1")).isEmpty());
+        assertTrue(reloaded.getVersions("").isEmpty());
+    }
+}
@@ -272,6 +272,41 @@ public class LogOpTest extends RepositoryTestCase {
         assertEquals(expected, logged);
     }
 
+    @Test
+    public void testTemporalConstraintFirstParent() throws Exception {
+
+        List<Feature> features = Arrays.asList(points1, lines1, points2, lines2, points3, lines3);
+        LinkedList<RevCommit> allCommits = new LinkedList<RevCommit>();
+
+        for (int i = 0; i < features.size(); i++) {
+            insertAndAdd(features.get(i));
+            final RevCommit commit = geogit.command(CommitOp.class)
+                    .setCommitterTimestamp(1000L * (i + 1)).call();
+            allCommits.addFirst(commit);
+        }
+
+        Range<Date> commitRange = new Range<Date>(Date.class, new Date(2000), false, new Date(
+                5000), false);
+        List<RevCommit> logged = toList(geogit.command(LogOp.class).setFirstParentOnly(true)
+                .setTimeRange(commitRange).call());
+        assertEquals(allCommits.subList(2, 4), logged);
+
+        commitRange = new Range<Date>(Date.class, new Date(2000), true, new Date(5000), true);
+        logged = toList(geogit.command(LogOp.class).setFirstParentOnly(true)
+                .setTimeRange(commitRange).call());
+        assertEquals(allCommits.subList(1, 5), logged);
+
+        // the log stops at the since commit
+        logged = toList(geogit.command(LogOp.class).setFirstParentOnly(true)
+                .setTimeRange(commitRange).setSince(allCommits.get(3).getId()).call());
+        assertEquals(allCommits.subList(1, 3), logged);
+
+        commitRange = new Range<Date>(Date.class, new Date(7000), true, new Date(8000), true);
+        logged = toList(geogit.command(LogOp.class).setFirstParentOnly(true)
+                .setTimeRange(commitRange).call());
+        assertTrue(logged.isEmpty());
+    }
+
     @Test
     public void testSinceUntil() throws Exception {
         final ObjectId oid1_1 = insertAndAdd(points1);
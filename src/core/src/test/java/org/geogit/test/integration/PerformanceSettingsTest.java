@@ -0,0 +1,54 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.test.integration;
+
+import org.geogit.api.RevTreeBuilder;
+import org.geogit.api.plumbing.diff.DiffTreeWalk;
+import org.geogit.storage.PerformanceSettings;
+import org.junit.Test;
+
+import com.google.inject.util.Providers;
+
+public class PerformanceSettingsTest extends RepositoryTestCase {
+
+    @Override
+    protected void setUpInternal() throws Exception {
+    }
+
+    private PerformanceSettings newSettings() {
+        return new PerformanceSettings(Providers.of(repo.getConfigDatabase()));
+    }
+
+    @Test
+    public void testDefaults() {
+        PerformanceSettings settings = newSettings();
+        assertEquals(RevTreeBuilder.DEFAULT_PARALLELISM, settings.treeParallelism());
+        assertEquals(RevTreeBuilder.DEFAULT_MAX_CHANGES_IN_MEMORY,
+                settings.treeMaxChangesInMemory());
+        assertEquals(DiffTreeWalk.DEFAULT_PARALLELISM, settings.diffParallelism());
+    }
+
+    @Test
+    public void testConfigured() {
+        repo.getConfigDatabase().put("tree.parallelism", "3");
+        repo.getConfigDatabase().put("tree.maxchangesinmemory", "5000");
+        repo.getConfigDatabase().put("diff.parallelism", "1");
+        PerformanceSettings settings = newSettings();
+        assertEquals(3, settings.treeParallelism());
+        assertEquals(5000, settings.treeMaxChangesInMemory());
+        assertEquals(1, settings.diffParallelism());
+    }
+
+    @Test
+    public void testInvalid() {
+        repo.getConfigDatabase().put("diff.parallelism", "0");
+        try {
+            newSettings().diffParallelism();
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("diff.parallelism"));
+        }
+    }
+}
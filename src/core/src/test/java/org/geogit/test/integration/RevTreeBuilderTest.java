@@ -8,6 +8,9 @@ import java.util.HashSet;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.geogit.api.Node;
 import org.geogit.api.NodeRef;
@@ -19,10 +22,13 @@ import org.geogit.api.plumbing.FindTreeChild;
 import org.geogit.api.plumbing.diff.DepthTreeIterator;
 import org.geogit.api.plumbing.diff.DepthTreeIterator.Strategy;
 import org.geogit.storage.ObjectDatabase;
+import org.geogit.storage.datastream.DataStreamSerializationFactory;
+import org.geogit.storage.memory.HeapObjectDatabse;
 import org.junit.Test;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Stopwatch;
+import com.google.common.base.Throwables;
 import com.google.common.collect.Maps;
 
 public class RevTreeBuilderTest extends RepositoryTestCase {
@@ -254,6 +260,189 @@ public class RevTreeBuilderTest extends RepositoryTestCase {
         assertEquals(treeId1, treeId2);
     }
 
+    /**
+     * Assert rebuilding the bucket trees concurrently results in the same tree than doing it
+     * sequentially, both from scratch and when editing an existing tree
+     */
+    @Test
+    public void testParallelBucketRebuild() throws Exception {
+        final int numEntries = 3 * RevTree.NORMALIZED_SIZE_LIMIT * RevTree.MAX_BUCKETS;
+        RevTree sequential = createTree(numEntries, true).setParallelism(1).build();
+        RevTree parallel = createTree(numEntries, true).setParallelism(8).build();
+        assertEquals(sequential.getId(), parallel.getId());
+        assertEquals(numEntries, parallel.size());
+        odb.put(parallel);
+
+        RevTreeBuilder sequentialEdit = parallel.builder(odb).setParallelism(1);
+        RevTreeBuilder parallelEdit = parallel.builder(odb).setParallelism(8);
+        for (int i = 0; i < numEntries; i += 2) {
+            String key = "Feature." + i;
+            if (i % 4 == 0) {
+                sequentialEdit.remove(key);
+                parallelEdit.remove(key);
+            } else {
+                Node ref = Node.create(key, ObjectId.forString(key), FAKE_ID, TYPE.FEATURE);
+                sequentialEdit.put(ref);
+                parallelEdit.put(ref);
+            }
+        }
+        sequential = sequentialEdit.build();
+        parallel = parallelEdit.build();
+        assertEquals(sequential.getId(), parallel.getId());
+        assertEquals(numEntries - numEntries / 4, parallel.size());
+        odb.put(parallel);
+
+        // all the bucket trees were saved
+        int counted = 0;
+        for (DepthTreeIterator it = new DepthTreeIterator("", ObjectId.NULL, parallel, odb,
+                Strategy.CHILDREN); it.hasNext(); it.next()) {
+            counted++;
+        }
+        assertEquals(parallel.size(), counted);
+    }
+
+    /**
+     * Assert the bucket trees of an existing tree are rebuilt by several threads when there are
+     * enough changes: the calling thread blocks on its first bucket tree read until another thread
+     * reads one too
+     */
+    @Test
+    public void testParallelBucketRebuildRuns() throws Exception {
+        final Thread caller = Thread.currentThread();
+        final AtomicBoolean armed = new AtomicBoolean();
+        final CountDownLatch otherThreadRead = new CountDownLatch(1);
+        ObjectDatabase db = new HeapObjectDatabse(new DataStreamSerializationFactory()) {
+            @Override
+            public RevTree getTree(ObjectId id) {
+                if (armed.get()) {
+                    if (Thread.currentThread() == caller) {
+                        try {
+                            otherThreadRead.await(10, TimeUnit.SECONDS);
+                        } catch (InterruptedException e) {
+                            throw Throwables.propagate(e);
+                        }
+                    } else {
+                        otherThreadRead.countDown();
+                    }
+                }
+                return super.getTree(id);
+            }
+        };
+        db.open();
+        final int numEntries = 3 * RevTree.NORMALIZED_SIZE_LIMIT * RevTree.MAX_BUCKETS;
+        RevTreeBuilder builder = new RevTreeBuilder(db);
+        for (int i = 0; i < numEntries; i++) {
+            addNode(builder, i);
+        }
+        RevTree tree = builder.build();
+
+        builder = tree.builder(db).setParallelism(4);
+        for (int i = 0; i < numEntries; i += 2) {
+            String key = "Feature." + i;
+            builder.put(Node.create(key, ObjectId.forString(key), FAKE_ID, TYPE.FEATURE));
+        }
+        armed.set(true);
+        RevTree parallel = builder.build();
+        assertEquals(0, otherThreadRead.getCount());
+        assertEquals(numEntries, parallel.size());
+    }
+
+    /**
+     * Assert spilling the changes to disk results in the same tree than holding them in memory,
+     * both from scratch and when editing an existing tree
+     */
+    @Test
+    public void testSpillToDisk() throws Exception {
+        final int numEntries = 3 * RevTree.NORMALIZED_SIZE_LIMIT * RevTree.MAX_BUCKETS;
+        RevTree inMemory = createTree(numEntries, true).build();
+        RevTreeBuilder spilledBuilder = new RevTreeBuilder(odb).spillToDisk(1000, null);
+        for (int i = numEntries - 1; i >= 0; i--) {
+            addNode(spilledBuilder, i);
+        }
+        RevTree spilled = spilledBuilder.build();
+        assertEquals(inMemory.getId(), spilled.getId());
+        assertEquals(numEntries, spilled.size());
+        odb.put(spilled);
+
+        RevTreeBuilder inMemoryEdit = spilled.builder(odb);
+        RevTreeBuilder spilledEdit = spilled.builder(odb).spillToDisk(1000, null);
+        for (int i = 0; i < numEntries; i += 2) {
+            String key = "Feature." + i;
+            if (i % 4 == 0) {
+                inMemoryEdit.remove(key);
+                spilledEdit.remove(key);
+            } else {
+                Node ref = Node.create(key, ObjectId.forString(key), FAKE_ID, TYPE.FEATURE);
+                inMemoryEdit.put(ref);
+                spilledEdit.put(ref);
+            }
+        }
+        // changes made after being spilled win, and are found by get()
+        inMemoryEdit.put(Node.create("Feature.0", FAKE_ID, FAKE_ID, TYPE.FEATURE));
+        spilledEdit.put(Node.create("Feature.0", FAKE_ID, FAKE_ID, TYPE.FEATURE));
+        assertTrue(spilledEdit.get("Feature.0").isPresent());
+        assertFalse(spilledEdit.get("Feature.4").isPresent());
+        inMemoryEdit.remove("Feature.1");
+        spilledEdit.remove("Feature.1");
+
+        inMemory = inMemoryEdit.build();
+        spilled = spilledEdit.build();
+        assertEquals(inMemory.getId(), spilled.getId());
+        assertEquals(numEntries - numEntries / 4, spilled.size());
+    }
+
+    /**
+     * Assert the changes spilled to disk result in the same tree whether their bucket trees are
+     * rebuilt by the calling thread or by several ones
+     */
+    @Test
+    public void testSpillToDiskInParallel() throws Exception {
+        final int numEntries = 3 * RevTree.NORMALIZED_SIZE_LIMIT * RevTree.MAX_BUCKETS;
+        RevTree tree = createTree(numEntries, true).build();
+        odb.put(tree);
+
+        RevTreeBuilder sequential = tree.builder(odb).spillToDisk(1000, null).setParallelism(1);
+        RevTreeBuilder parallel = tree.builder(odb).spillToDisk(1000, null).setParallelism(4);
+        for (int i = 0; i < numEntries + 2000; i += 3) {
+            String key = "Feature." + i;
+            if (i % 2 == 0) {
+                sequential.remove(key);
+                parallel.remove(key);
+            } else {
+                Node ref = Node.create(key, ObjectId.forString(key), FAKE_ID, TYPE.FEATURE);
+                sequential.put(ref);
+                parallel.put(ref);
+            }
+        }
+        RevTree sequentialTree = sequential.build();
+        RevTree parallelTree = parallel.build();
+        assertEquals(sequentialTree.getId(), parallelTree.getId());
+        assertEquals(sequentialTree.size(), parallelTree.size());
+    }
+
+    /**
+     * Assert the children of a leaf tree are accounted for once when it grows into buckets
+     */
+    @Test
+    public void testLeafTreeGrowsIntoBuckets() throws Exception {
+        final int numEntries = 2 * RevTree.NORMALIZED_SIZE_LIMIT;
+        RevTreeBuilder builder = new RevTreeBuilder(odb);
+        for (int i = 0; i < RevTree.NORMALIZED_SIZE_LIMIT / 2; i++) {
+            addNode(builder, i);
+        }
+        RevTree leaf = builder.build();
+        assertFalse(leaf.buckets().isPresent());
+
+        builder = leaf.builder(odb);
+        for (int i = RevTree.NORMALIZED_SIZE_LIMIT / 2; i < numEntries; i++) {
+            addNode(builder, i);
+        }
+        RevTree tree = builder.build();
+        assertTrue(tree.buckets().isPresent());
+        assertEquals(numEntries, tree.size());
+        assertEquals(createTree(numEntries, true).build().getId(), tree.getId());
+    }
+
     private ObjectId createAndSaveTree(final int numEntries, final boolean insertInAscendingKeyOrder)
             throws Exception {
 
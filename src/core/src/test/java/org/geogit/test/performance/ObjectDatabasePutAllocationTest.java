@@ -0,0 +1,123 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.test.performance;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.text.NumberFormat;
+import java.util.List;
+import java.util.Locale;
+
+import org.geogit.api.CommitBuilder;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevCommit;
+import org.geogit.api.RevObject;
+import org.geogit.storage.datastream.DataStreamSerializationFactory;
+import org.geogit.storage.memory.HeapObjectDatabse;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+
+/**
+ * Compares the bytes allocated by the object database write path against the former one, that
+ * used a new output buffer, compressor, and result array per object.
+ */
+public class ObjectDatabasePutAllocationTest {
+
+    /**
+     * Serializes objects as a real database would, but discards them so that only the write path
+     * is measured
+     */
+    private static class DiscardingObjectDatabase extends HeapObjectDatabse {
+
+        DiscardingObjectDatabase() {
+            super(new DataStreamSerializationFactory());
+        }
+
+        @Override
+        protected boolean putInternal(ObjectId id, byte[] rawData) {
+            return true;
+        }
+
+        @Override
+        protected boolean putInternal(ObjectId id, byte[] buffer, int offset, int length) {
+            return true;
+        }
+
+        /**
+         * The write path before the objects were encoded into a reusable buffer
+         */
+        void putLegacy(RevObject object) {
+            ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+            writeObject(object, rawOut);
+            putInternal(object.getId(), rawOut.toByteArray());
+        }
+    }
+
+    @Ignore
+    @Test
+    public void testPutAllocation() throws Exception {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            System.err.println("Per thread allocation counters not supported by this JVM");
+            return;
+        }
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        final long threadId = Thread.currentThread().getId();
+
+        List<RevCommit> commits = createCommits(10 * 1000);
+        DiscardingObjectDatabase db = new DiscardingObjectDatabase();
+
+        System.err.println("############### Warming up....");
+        for (int i = 0; i < 3; i++) {
+            for (RevCommit commit : commits) {
+                db.putLegacy(commit);
+                db.put(commit);
+            }
+        }
+        System.err.println("############### Warm up done.");
+
+        NumberFormat numberFormat = NumberFormat.getInstance(Locale.ENGLISH);
+        Stopwatch sw = new Stopwatch();
+
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        sw.start();
+        for (RevCommit commit : commits) {
+            db.putLegacy(commit);
+        }
+        sw.stop();
+        long legacy = threadBean.getThreadAllocatedBytes(threadId) - before;
+        System.err.println("Former write path: " + numberFormat.format(legacy / commits.size())
+                + " bytes allocated per object, " + commits.size() + " objects in " + sw);
+
+        before = threadBean.getThreadAllocatedBytes(threadId);
+        sw.reset().start();
+        for (RevCommit commit : commits) {
+            db.put(commit);
+        }
+        sw.stop();
+        long current = threadBean.getThreadAllocatedBytes(threadId) - before;
+        System.err.println("Buffered write path: " + numberFormat.format(current / commits.size())
+                + " bytes allocated per object, " + commits.size() + " objects in " + sw);
+    }
+
+    private List<RevCommit> createCommits(int numCommits) {
+        List<RevCommit> commits = Lists.newArrayListWithCapacity(numCommits);
+        CommitBuilder builder = new CommitBuilder();
+        builder.setTreeId(ObjectId.forString("fake tree"));
+        builder.setAuthor("groldan");
+        builder.setCommitter("groldan");
+        for (int i = 0; i < numCommits; i++) {
+            builder.setAuthorTimestamp(i);
+            builder.setCommitterTimestamp(i);
+            builder.setMessage("Commit " + i + Strings.repeat(" with a longer message", 20));
+            commits.add(builder.build());
+        }
+        return commits;
+    }
+}
@@ -0,0 +1,165 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.geotools.data;
+
+import java.util.Iterator;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.Node;
+import org.geogit.api.NodeRef;
+import org.geogit.api.ObjectId;
+import org.geogit.repository.AttributeIndex;
+import org.geotools.util.Converters;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.filter.And;
+import org.opengis.filter.BinaryComparisonOperator;
+import org.opengis.filter.Filter;
+import org.opengis.filter.PropertyIsBetween;
+import org.opengis.filter.PropertyIsEqualTo;
+import org.opengis.filter.PropertyIsGreaterThan;
+import org.opengis.filter.PropertyIsGreaterThanOrEqualTo;
+import org.opengis.filter.PropertyIsLessThan;
+import org.opengis.filter.PropertyIsLessThanOrEqualTo;
+import org.opengis.filter.expression.Expression;
+import org.opengis.filter.expression.Literal;
+import org.opengis.filter.expression.PropertyName;
+
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.collect.Iterators;
+
+/**
+ * Resolves the feature refs matching a filter out of an {@link AttributeIndex}, if the filter is,
+ * or is a conjunction including, an equality or range comparison on an indexed attribute.
+ * <p>
+ * The returned refs are a superset of the features matching the whole filter, which is still to
+ * be evaluated on each feature.
+ */
+class AttributeIndexQuery {
+
+    private final AttributeIndex index;
+
+    private final SimpleFeatureType schema;
+
+    private final ObjectId typeTreeId;
+
+    private final String typeTreePath;
+
+    AttributeIndexQuery(AttributeIndex index, SimpleFeatureType schema, ObjectId typeTreeId,
+            String typeTreePath) {
+        this.index = index;
+        this.schema = schema;
+        this.typeTreeId = typeTreeId;
+        this.typeTreePath = typeTreePath;
+    }
+
+    /**
+     * @return the refs of the features that may match the filter, or {@link Optional#absent()
+     *         absent} if the index can't be used for it
+     */
+    public Optional<Iterator<NodeRef>> query(final Filter filter) {
+        Optional<Iterator<Node>> nodes = nodes(filter);
+        if (!nodes.isPresent()) {
+            return Optional.absent();
+        }
+        Iterator<NodeRef> refs = Iterators.transform(nodes.get(), new Function<Node, NodeRef>() {
+            @Override
+            public NodeRef apply(Node node) {
+                return new NodeRef(node, typeTreePath, node.getMetadataId().or(ObjectId.NULL));
+            }
+        });
+        return Optional.of(refs);
+    }
+
+    private Optional<Iterator<Node>> nodes(final Filter filter) {
+        if (filter instanceof And) {
+            for (Filter child : ((And) filter).getChildren()) {
+                Optional<Iterator<Node>> nodes = nodes(child);
+                if (nodes.isPresent()) {
+                    return nodes;
+                }
+            }
+            return Optional.absent();
+        }
+        if (filter instanceof PropertyIsBetween) {
+            PropertyIsBetween between = (PropertyIsBetween) filter;
+            String attribute = attribute(between.getExpression());
+            Object lower = value(attribute, between.getLowerBoundary());
+            Object upper = value(attribute, between.getUpperBoundary());
+            if (lower == null || upper == null) {
+                return Optional.absent();
+            }
+            return index.query(typeTreeId, attribute, lower, true, upper, true);
+        }
+        if (!(filter instanceof BinaryComparisonOperator)) {
+            return Optional.absent();
+        }
+        final BinaryComparisonOperator comparison = (BinaryComparisonOperator) filter;
+        // the property may be on either side of the comparison
+        boolean reversed = false;
+        String attribute = attribute(comparison.getExpression1());
+        Object value = value(attribute, comparison.getExpression2());
+        if (value == null) {
+            reversed = true;
+            attribute = attribute(comparison.getExpression2());
+            value = value(attribute, comparison.getExpression1());
+        }
+        if (value == null || (value instanceof String && !comparison.isMatchingCase())) {
+            return Optional.absent();
+        }
+
+        final boolean greater;
+        final boolean inclusive;
+        if (filter instanceof PropertyIsEqualTo) {
+            return index.query(typeTreeId, attribute, value, true, value, true);
+        } else if (filter instanceof PropertyIsGreaterThan) {
+            greater = true;
+            inclusive = false;
+        } else if (filter instanceof PropertyIsGreaterThanOrEqualTo) {
+            greater = true;
+            inclusive = true;
+        } else if (filter instanceof PropertyIsLessThan) {
+            greater = false;
+            inclusive = false;
+        } else if (filter instanceof PropertyIsLessThanOrEqualTo) {
+            greater = false;
+            inclusive = true;
+        } else {
+            return Optional.absent();
+        }
+        if (greater != reversed) {
+            return index.query(typeTreeId, attribute, value, inclusive, null, false);
+        }
+        return index.query(typeTreeId, attribute, null, false, value, inclusive);
+    }
+
+    @Nullable
+    private String attribute(Expression expression) {
+        if (!(expression instanceof PropertyName)) {
+            return null;
+        }
+        AttributeDescriptor descriptor = schema.getDescriptor(((PropertyName) expression)
+                .getPropertyName());
+        return descriptor == null ? null : descriptor.getLocalName();
+    }
+
+    /**
+     * @return the literal value converted to the binding of the attribute, or {@code null}
+     */
+    @Nullable
+    private Object value(@Nullable String attribute, Expression expression) {
+        if (attribute == null || !(expression instanceof Literal)) {
+            return null;
+        }
+        Object value = ((Literal) expression).getValue();
+        if (value == null) {
+            return null;
+        }
+        Class<?> binding = schema.getDescriptor(attribute).getType().getBinding();
+        return Converters.convert(value, binding);
+    }
+}
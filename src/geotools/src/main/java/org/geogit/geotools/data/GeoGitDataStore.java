@@ -8,6 +8,7 @@ package org.geogit.geotools.data;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Date;
 import java.util.List;
 import java.util.NoSuchElementException;
 
@@ -17,10 +18,13 @@ import org.geogit.api.CommandLocator;
 import org.geogit.api.GeoGIT;
 import org.geogit.api.GeogitTransaction;
 import org.geogit.api.NodeRef;
+import org.geogit.api.ObjectId;
 import org.geogit.api.Ref;
+import org.geogit.api.RevCommit;
 import org.geogit.api.RevObject.TYPE;
 import org.geogit.api.SymRef;
 import org.geogit.api.data.FindFeatureTypeTrees;
+import org.geogit.api.plumbing.CommitFromDateOp;
 import org.geogit.api.plumbing.ForEachRef;
 import org.geogit.api.plumbing.RefParse;
 import org.geogit.api.plumbing.TransactionBegin;
@@ -79,6 +83,9 @@ public class GeoGitDataStore extends ContentDataStore implements DataStore {
     /** @see #setBranch(String) */
     private String branch;
 
+    /** @see #setAsOf(Date) */
+    private Date asOf;
+
     public GeoGitDataStore(GeoGIT geogit) {
         super();
         Preconditions.checkNotNull(geogit);
@@ -117,6 +124,30 @@ public class GeoGitDataStore extends ContentDataStore implements DataStore {
         this.branch = branchName;
     }
 
+    /**
+     * Instructs the datastore to read the data as it was in the branch it works against at the
+     * given date, that is, as of the last commit made to the branch before that date, or the
+     * current data if the argument is {@code null}.
+     * <p>
+     * Only affects reads outside a {@link Transaction}. If there were no commits in the branch
+     * before the given date, the datastore contains no feature types.
+     * 
+     * @param asOf the date to read the data at, or {@code null} to read the current data
+     * @see CommitFromDateOp
+     */
+    public void setAsOf(@Nullable final Date asOf) {
+        this.asOf = asOf == null ? null : new Date(asOf.getTime());
+    }
+
+    /**
+     * @return the date the datastore reads the data at, or {@code null} if it reads the current
+     *         data
+     */
+    @Nullable
+    public Date getAsOf() {
+        return asOf == null ? null : new Date(asOf.getTime());
+    }
+
     public String getOrFigureOutBranch() {
         String branch = getConfiguredBranch();
         if (branch != null) {
@@ -255,13 +286,28 @@ public class GeoGitDataStore extends ContentDataStore implements DataStore {
     String getRootRef(@Nullable Transaction tx) {
         final String rootRef;
         if (null == tx || Transaction.AUTO_COMMIT.equals(tx)) {
-            rootRef = getOrFigureOutBranch();
+            if (asOf == null) {
+                rootRef = getOrFigureOutBranch();
+            } else {
+                rootRef = getCommitAsOf().toString();
+            }
         } else {
             rootRef = Ref.WORK_HEAD;
         }
         return rootRef;
     }
 
+    /**
+     * @return the id of the last commit in the branch before the {@link #setAsOf(Date) as of}
+     *         date, {@link ObjectId#NULL} if there's none
+     */
+    private ObjectId getCommitAsOf() {
+        String branch = getOrFigureOutBranch();
+        Optional<RevCommit> commit = getCommandLocator(null).command(CommitFromDateOp.class)
+                .setRef(branch == null ? Ref.HEAD : branch).setDate(asOf).call();
+        return commit.isPresent() ? commit.get().getId() : ObjectId.NULL;
+    }
+
     @Override
     protected ContentFeatureSource createFeatureSource(ContentEntry entry) throws IOException {
         return new GeogitFeatureStore(entry);
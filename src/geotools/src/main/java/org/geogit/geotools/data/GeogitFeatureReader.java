@@ -14,6 +14,8 @@ import static com.google.common.collect.Iterators.transform;
 import java.io.IOException;
 import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.logging.Logger;
@@ -26,6 +28,7 @@ import org.geogit.api.CommandLocator;
 import org.geogit.api.FeatureBuilder;
 import org.geogit.api.Node;
 import org.geogit.api.NodeRef;
+import org.geogit.api.ObjectId;
 import org.geogit.api.Ref;
 import org.geogit.api.RevFeature;
 import org.geogit.api.RevObject;
@@ -34,7 +37,9 @@ import org.geogit.api.plumbing.FindTreeChild;
 import org.geogit.api.plumbing.LsTreeOp;
 import org.geogit.api.plumbing.LsTreeOp.Strategy;
 import org.geogit.api.plumbing.RevObjectParse;
+import org.geogit.repository.AttributeIndex;
 import org.geogit.storage.NodePathStorageOrder;
+import org.geogit.storage.ObjectDatabase;
 import org.geotools.data.FeatureReader;
 import org.geotools.factory.CommonFactoryFinder;
 import org.geotools.filter.spatial.ReprojectingFilterVisitor;
@@ -58,6 +63,8 @@ import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.vividsolutions.jts.geom.Envelope;
 
@@ -69,6 +76,11 @@ class GeogitFeatureReader<T extends FeatureType, F extends Feature> implements F
 
     private static final Logger LOGGER = Logging.getLogger(GeogitFeatureReader.class);
 
+    /**
+     * Number of features fetched from the object database at once
+     */
+    private static final int FETCH_SIZE = 100;
+
     private SimpleFeatureType schema;
 
     private Stats stats;
@@ -181,7 +193,7 @@ class GeogitFeatureReader<T extends FeatureType, F extends Feature> implements F
             refBoundsFilter = and(stats, refBoundsFilter);
         }
 
-        Iterator<NodeRef> featureRefs;
+        Iterator<NodeRef> featureRefs = null;
 
         if (filter instanceof Id) {
             final Function<FeatureId, NodeRef> idToRef;
@@ -189,8 +201,18 @@ class GeogitFeatureReader<T extends FeatureType, F extends Feature> implements F
             Iterator<FeatureId> featureIds = getSortedFidsInNaturalOrder((Id) filter);
             featureRefs = filter(transform(featureIds, idToRef), notNull());
         } else {
+            AttributeIndex attributeIndex = new AttributeIndex(commandLocator.getIndex()
+                    .getDatabase(), commandLocator.getRefDatabase());
+            Optional<Iterator<NodeRef>> indexedRefs = new AttributeIndexQuery(attributeIndex,
+                    schema, parentTree.get().getId(), typeTreePath).query(filter);
+            if (indexedRefs.isPresent()) {
+                featureRefs = filter(indexedRefs.get(), refBoundsFilter);
+            }
+        }
+        if (featureRefs == null) {
             featureRefs = commandLocator.command(LsTreeOp.class)
                     .setStrategy(Strategy.FEATURES_ONLY).setReference(typeTreeRefSpec)
+                    .setQueryBounds(queryBounds.isNull() ? null : queryBounds)
                     .setBoundsFilter(refBoundsFilter).call();
         }
 
@@ -202,7 +224,8 @@ class GeogitFeatureReader<T extends FeatureType, F extends Feature> implements F
         }
 
         NodeRefToFeature refToFeature = new NodeRefToFeature(commandLocator, schema);
-        final Iterator<SimpleFeature> featuresUnfiltered = transform(featureRefs, refToFeature);
+        final Iterator<SimpleFeature> featuresUnfiltered = Iterators.concat(transform(
+                Iterators.partition(featureRefs, FETCH_SIZE), refToFeature));
 
         FilterPredicate filterPredicate = new FilterPredicate(filter);
         Iterator<SimpleFeature> featuresFiltered = filter(featuresUnfiltered, filterPredicate);
@@ -303,26 +326,49 @@ class GeogitFeatureReader<T extends FeatureType, F extends Feature> implements F
         }
     };
 
-    private static class NodeRefToFeature implements Function<NodeRef, SimpleFeature> {
+    /**
+     * Builds the features for a batch of refs, fetching all their {@link RevFeature}s with a single
+     * {@link ObjectDatabase#getAll(Iterable)} call. Features are returned in the same order than the
+     * refs.
+     */
+    private static class NodeRefToFeature implements
+            Function<List<NodeRef>, Iterator<SimpleFeature>> {
 
-        private RevObjectParse parseRevFeatureCommand;
+        private ObjectDatabase database;
 
         private FeatureBuilder featureBuilder;
 
         public NodeRefToFeature(CommandLocator commandLocator, SimpleFeatureType schema) {
             this.featureBuilder = new FeatureBuilder(schema);
-            this.parseRevFeatureCommand = commandLocator.command(RevObjectParse.class);
+            this.database = commandLocator.getIndex().getDatabase();
         }
 
         @Override
-        public SimpleFeature apply(final NodeRef featureRef) {
-            Optional<RevFeature> revFeature = parseRevFeatureCommand.setObjectId(
-                    featureRef.objectId()).call(RevFeature.class);
-            Preconditions.checkState(revFeature.isPresent());
-
-            String id = featureRef.name();
-            Feature feature = featureBuilder.build(id, revFeature.get());
-            return (SimpleFeature) feature;
+        public Iterator<SimpleFeature> apply(final List<NodeRef> featureRefs) {
+            Set<ObjectId> ids = Sets.newHashSet();
+            for (NodeRef ref : featureRefs) {
+                ids.add(ref.objectId());
+            }
+            Map<ObjectId, RevFeature> revFeatures = Maps.newHashMap();
+            Iterator<RevObject> objects = database.getAll(ids);
+            while (objects.hasNext()) {
+                RevObject object = objects.next();
+                Preconditions.checkState(object instanceof RevFeature,
+                        "Object %s is not a feature", object.getId());
+                revFeatures.put(object.getId(), (RevFeature) object);
+            }
+
+            List<SimpleFeature> features = Lists.newArrayListWithCapacity(featureRefs.size());
+            for (NodeRef featureRef : featureRefs) {
+                RevFeature revFeature = revFeatures.get(featureRef.objectId());
+                Preconditions.checkState(revFeature != null, "Feature %s not found",
+                        featureRef.objectId());
+
+                String id = featureRef.name();
+                Feature feature = featureBuilder.build(id, revFeature);
+                features.add((SimpleFeature) feature);
+            }
+            return features.iterator();
         }
     };
 
@@ -19,6 +19,7 @@ import org.geogit.api.plumbing.LsTreeOp;
 import org.geogit.api.plumbing.LsTreeOp.Strategy;
 import org.geogit.api.plumbing.RevObjectParse;
 import org.geogit.geotools.plumbing.GeoToolsOpException.StatusCode;
+import org.geogit.storage.BulkLoadSession;
 import org.geotools.data.DataStore;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureIterator;
@@ -81,9 +82,19 @@ public class ImportOp extends AbstractGeoGitOp<RevTree> {
      * 
      * @return RevTree the new working tree
      */
-    @SuppressWarnings("deprecation")
     @Override
     public RevTree call() {
+        // features are written to the staging database, load them in bulk
+        final BulkLoadSession bulkLoad = BulkLoadSession.begin(getIndex().getDatabase());
+        try {
+            return importFeatures();
+        } finally {
+            bulkLoad.end();
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private RevTree importFeatures() {
         if (dataStore == null) {
             throw new GeoToolsOpException(StatusCode.DATASTORE_NOT_DEFINED);
         }
@@ -18,6 +18,7 @@ package org.geogit.geotools.data;
 
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
 
@@ -204,6 +205,26 @@ public class GeoGitDataStoreTest extends RepositoryTestCase {
         geogit.command(CommitOp.class).call();
     }
 
+    @Test
+    public void testAsOf() throws Exception {
+        insertAndAdd(lines1);
+        geogit.command(CommitOp.class).setCommitterTimestamp(1000L).call();
+        insertAndAdd(points1);
+        geogit.command(CommitOp.class).setCommitterTimestamp(2000L).call();
+
+        dataStore.setAsOf(new Date(1500));
+        List<String> simpleNames = Arrays.asList(dataStore.getTypeNames());
+        assertEquals(Arrays.asList(linesName), simpleNames);
+
+        dataStore = new GeoGitDataStore(geogit);
+        dataStore.setAsOf(new Date(500));
+        assertEquals(0, dataStore.getTypeNames().length);
+
+        dataStore = new GeoGitDataStore(geogit);
+        dataStore.setAsOf(new Date(2500));
+        assertEquals(2, dataStore.getTypeNames().length);
+    }
+
     @Test
     public void testGetSchemaProvidedNamespace() throws Exception {
         String namespace = "http://www.geogit.org/test";
@@ -58,6 +58,7 @@ import org.geogit.osm.history.internal.Way;
 import org.geogit.repository.Repository;
 import org.geogit.repository.StagingArea;
 import org.geogit.repository.WorkingTree;
+import org.geogit.storage.BulkLoadSession;
 import org.geotools.data.DataUtilities;
 import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.geotools.referencing.CRS;
@@ -202,11 +203,21 @@ public class OSMHistoryImport extends AbstractCommand implements CLICommand {
             Iterator<Change> changes = changeset.getChanges().get();
             console.print("applying...");
             console.flush();
-            insertAndAddChanges(cli, changes);
-            // listener.progress(100f);
-            // listener.complete();
 
-            commit(cli, changeset);
+            // each changeset is loaded in bulk and made durable before moving to the next one,
+            // so that an interrupted import can be resumed from the last changeset committed
+            final Repository repository = cli.getGeogit().getRepository();
+            final BulkLoadSession bulkLoad = BulkLoadSession.begin(
+                    repository.getObjectDatabase(), repository.getIndex().getDatabase());
+            try {
+                insertAndAddChanges(cli, changes);
+                // listener.progress(100f);
+                // listener.complete();
+
+                commit(cli, changeset);
+            } finally {
+                bulkLoad.end();
+            }
         }
     }
 
@@ -105,6 +105,9 @@ public class EnvironmentBuilder implements Provider<Environment> {
             envCfg.setTransactional(true);
             envCfg.setCachePercent(50);// Use up to 50% of the heap size for the shared db cache
             envCfg.setConfigParam("je.log.fileMax", String.valueOf(256 * 1024 * 1024));
+            // larger log buffers pay off on bulk loads (see JEObjectDatabase.beginBulkLoad()), but
+            // can't be changed once the environment is open
+            envCfg.setConfigParam("je.log.bufferSize", String.valueOf(4 * 1024 * 1024));
             // check <http://www.oracle.com/technetwork/database/berkeleydb/je-faq-096044.html#35>
             envCfg.setConfigParam("je.evictor.lruOnly", "false");
             envCfg.setConfigParam("je.evictor.nodesPerScan", "100");
@@ -8,24 +8,35 @@ import static com.sleepycat.je.OperationStatus.NOTFOUND;
 import static com.sleepycat.je.OperationStatus.SUCCESS;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 
 import javax.annotation.Nullable;
 
 import org.geogit.api.ObjectId;
 import org.geogit.api.RevObject;
 import org.geogit.storage.AbstractObjectDatabase;
+import org.geogit.storage.BulkLoadSession;
+import org.geogit.storage.BulkLoadable;
+import org.geogit.storage.CompressedObjectBuffer;
 import org.geogit.storage.ObjectDatabase;
+import org.geogit.storage.ObjectIdBloomFilter;
 import org.geogit.storage.ObjectSerializingFactory;
 
 import com.google.common.base.Preconditions;
+import com.google.common.base.Function;
 import com.google.common.base.Throwables;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.primitives.UnsignedBytes;
 import com.google.inject.Inject;
 import com.sleepycat.collections.CurrentTransaction;
 import com.sleepycat.je.Cursor;
@@ -33,6 +44,7 @@ import com.sleepycat.je.CursorConfig;
 import com.sleepycat.je.Database;
 import com.sleepycat.je.DatabaseConfig;
 import com.sleepycat.je.DatabaseEntry;
+import com.sleepycat.je.Durability;
 import com.sleepycat.je.Environment;
 import com.sleepycat.je.LockMode;
 import com.sleepycat.je.OperationStatus;
@@ -42,7 +54,33 @@ import com.sleepycat.je.TransactionConfig;
 /**
  * @TODO: extract interface
  */
-public class JEObjectDatabase extends AbstractObjectDatabase implements ObjectDatabase {
+public class JEObjectDatabase extends AbstractObjectDatabase implements ObjectDatabase,
+        BulkLoadable {
+
+    /**
+     * Orders ids the same way than the database keys, so that batch look ups traverse the b-tree in
+     * key order
+     */
+    private static final Comparator<ObjectId> KEY_ORDER = new Comparator<ObjectId>() {
+
+        private final Comparator<byte[]> bytes = UnsignedBytes.lexicographicalComparator();
+
+        @Override
+        public int compare(ObjectId o1, ObjectId o2) {
+            return bytes.compare(o1.getRawValue(), o2.getRawValue());
+        }
+    };
+
+    private static final String BLOOM_FILTER_FILE = "objects.bloom";
+
+    /**
+     * Commits bulk loaded objects without writing nor syncing the log, which is written as its
+     * buffers fill up and flushed once the bulk load session ends
+     */
+    private static final TransactionConfig BULK_LOAD_TXN_CONFIG = new TransactionConfig();
+    static {
+        BULK_LOAD_TXN_CONFIG.setDurability(Durability.COMMIT_NO_SYNC);
+    }
 
     private EnvironmentBuilder envProvider;
 
@@ -56,6 +94,12 @@ public class JEObjectDatabase extends AbstractObjectDatabase implements ObjectDa
     @Nullable
     private CurrentTransaction txn;
 
+    /**
+     * Number of nested bulk load sessions in progress. While greater than zero writes are committed
+     * without writing the log, see {@link #BULK_LOAD_TXN_CONFIG}.
+     */
+    private volatile int bulkLoadSessions;
+
     @Inject
     public JEObjectDatabase(final ObjectSerializingFactory serialFactory,
             final EnvironmentBuilder envProvider) {
@@ -82,9 +126,11 @@ public class JEObjectDatabase extends AbstractObjectDatabase implements ObjectDa
     public void close() {
         // System.err.println("CLOSE");
         if (objectDb != null) {
+            closeBloomFilter();
             objectDb.close();
             objectDb = null;
         }
+        bulkLoadSessions = 0;
         if (env != null) {
             // System.err.println("--> " + env.getHome());
             env.evictMemory();
@@ -109,12 +155,97 @@ public class JEObjectDatabase extends AbstractObjectDatabase implements ObjectDa
         // System.err.println("--> " + environment.getHome());
         txn = CurrentTransaction.getInstance(environment);
 
+        this.objectDb = openDatabase(environment);
+        openBloomFilter(new File(environment.getHome(), BLOOM_FILTER_FILE));
+    }
+
+    private Database openDatabase(final Environment environment) {
         DatabaseConfig dbConfig = new DatabaseConfig();
         dbConfig.setAllowCreate(true);
-        boolean transactional = getEnvironment().getConfig().getTransactional();
+        boolean transactional = environment.getConfig().getTransactional();
         dbConfig.setTransactional(transactional);
         Database database = environment.openDatabase(null, "ObjectDatabase", dbConfig);
-        this.objectDb = database;
+        return database;
+    }
+
+    /**
+     * Switches the database to bulk load mode: objects are written in transactions that are
+     * committed without writing the log, so that it's written in large chunks as its buffers fill
+     * up. Ending the outermost session writes and syncs the log, making everything written during
+     * the session durable.
+     * <p>
+     * The database stays open and fully usable by other threads while in bulk load mode, but the
+     * objects they write are only durable once the session ends too.
+     */
+    @Override
+    public synchronized BulkLoadSession beginBulkLoad() {
+        Preconditions.checkState(isOpen(), "database is not open");
+        bulkLoadSessions++;
+        return new BulkLoadSession() {
+
+            private boolean ended;
+
+            @Override
+            public void end() {
+                synchronized (JEObjectDatabase.this) {
+                    if (!ended) {
+                        ended = true;
+                        endBulkLoad();
+                    }
+                }
+            }
+        };
+    }
+
+    private synchronized void endBulkLoad() {
+        if (bulkLoadSessions == 0) {
+            // database closed while in the session
+            return;
+        }
+        bulkLoadSessions--;
+        if (bulkLoadSessions > 0) {
+            return;
+        }
+        getEnvironment().flushLog(true);
+    }
+
+    /**
+     * @return the current thread's transaction, or {@code null} if there's none
+     */
+    @Nullable
+    private Transaction transaction() {
+        if (txn == null) {
+            return null;
+        }
+        return txn.getTransaction();
+    }
+
+    /**
+     * @return the configuration of the transactions the objects are written in, if not in the
+     *         current thread's one
+     */
+    private TransactionConfig writeConfig() {
+        return bulkLoadSessions > 0 ? BULK_LOAD_TXN_CONFIG : TransactionConfig.DEFAULT;
+    }
+
+    /**
+     * Traverses the keys in a single cursor pass, without retrieving the data.
+     */
+    @Override
+    protected boolean scanIds(final ObjectIdBloomFilter filter) {
+        DatabaseEntry key = new DatabaseEntry();
+        DatabaseEntry data = new DatabaseEntry();
+        data.setPartial(0, 0, true);
+
+        Cursor cursor = objectDb.openCursor(null, CursorConfig.READ_COMMITTED);
+        try {
+            while (SUCCESS.equals(cursor.getNext(key, data, LockMode.READ_COMMITTED))) {
+                filter.put(new ObjectId(key.getData()));
+            }
+        } finally {
+            cursor.close();
+        }
+        return true;
     }
 
     @Override
@@ -135,7 +266,7 @@ public class JEObjectDatabase extends AbstractObjectDatabase implements ObjectDa
         cursorConfig.setReadCommitted(true);
         cursorConfig.setReadUncommitted(false);
 
-        Transaction transaction = txn == null ? null : txn.getTransaction();
+        Transaction transaction = transaction();
         Cursor cursor = objectDb.openCursor(transaction, cursorConfig);
         try {
             // position cursor at the first closest key to the one looked up
@@ -168,6 +299,9 @@ public class JEObjectDatabase extends AbstractObjectDatabase implements ObjectDa
     @Override
     public boolean exists(final ObjectId id) {
         Preconditions.checkNotNull(id, "id");
+        if (!mightContain(id)) {
+            return false;
+        }
 
         DatabaseEntry key = new DatabaseEntry(id.getRawValue());
         DatabaseEntry data = new DatabaseEntry();
@@ -175,9 +309,101 @@ public class JEObjectDatabase extends AbstractObjectDatabase implements ObjectDa
         data.setPartial(0, 0, true);
 
         final LockMode lockMode = LockMode.DEFAULT;
-        Transaction transaction = txn == null ? null : txn.getTransaction();
+        Transaction transaction = transaction();
         OperationStatus status = objectDb.get(transaction, key, data, lockMode);
-        return SUCCESS == status;
+        final boolean exists = SUCCESS == status;
+        if (!exists) {
+            bloomFilterMiss();
+        }
+        return exists;
+    }
+
+    /**
+     * Looks up the ids in batches, each batch sorted in key order and resolved in a single cursor
+     * pass.
+     */
+    @Override
+    public Set<ObjectId> existsAll(final Iterable<ObjectId> ids) {
+        Preconditions.checkNotNull(ids, "ids");
+        Set<ObjectId> existing = Sets.newHashSet();
+        Iterator<List<ObjectId>> batches = Iterators.partition(ids.iterator(), BATCH_SIZE);
+        while (batches.hasNext()) {
+            List<ObjectId> batch = sortedBatch(batches.next());
+            DatabaseEntry data = new DatabaseEntry();
+            // tell db not to retrieve data
+            data.setPartial(0, 0, true);
+            Transaction transaction = transaction();
+            Cursor cursor = objectDb.openCursor(transaction, CursorConfig.READ_COMMITTED);
+            try {
+                for (ObjectId id : batch) {
+                    DatabaseEntry key = new DatabaseEntry(id.getRawValue());
+                    if (SUCCESS.equals(cursor.getSearchKey(key, data, LockMode.DEFAULT))) {
+                        existing.add(id);
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return existing;
+    }
+
+    /**
+     * Fetches the objects in batches, each batch sorted in key order and resolved in a single
+     * cursor pass. Objects are returned in key order within each batch.
+     */
+    @Override
+    public Iterator<RevObject> getAll(final Iterable<ObjectId> ids) {
+        Preconditions.checkNotNull(ids, "ids");
+        Iterator<List<ObjectId>> batches = Iterators.partition(ids.iterator(), BATCH_SIZE);
+        return Iterators.concat(Iterators.transform(batches,
+                new Function<List<ObjectId>, Iterator<RevObject>>() {
+                    @Override
+                    public Iterator<RevObject> apply(List<ObjectId> batch) {
+                        return getBatch(batch).iterator();
+                    }
+                }));
+    }
+
+    private List<RevObject> getBatch(final List<ObjectId> unsortedIds) {
+        final List<ObjectId> batch = sortedBatch(unsortedIds);
+        final List<ObjectId> found = Lists.newArrayListWithCapacity(batch.size());
+        final List<byte[]> rawData = Lists.newArrayListWithCapacity(batch.size());
+
+        Transaction transaction = transaction();
+        Cursor cursor = objectDb.openCursor(transaction, CursorConfig.READ_COMMITTED);
+        try {
+            DatabaseEntry data = new DatabaseEntry();
+            for (ObjectId id : batch) {
+                DatabaseEntry key = new DatabaseEntry(id.getRawValue());
+                if (SUCCESS.equals(cursor.getSearchKey(key, data, LockMode.DEFAULT))) {
+                    found.add(id);
+                    rawData.add(data.getData());
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        // parse after releasing the cursor
+        List<RevObject> objects = Lists.newArrayListWithCapacity(found.size());
+        for (int i = 0; i < found.size(); i++) {
+            objects.add(readObject(found.get(i), rawData.get(i)));
+        }
+        return objects;
+    }
+
+    /**
+     * @return the ids that might be in the database, in key order
+     */
+    private List<ObjectId> sortedBatch(List<ObjectId> ids) {
+        List<ObjectId> sorted = Lists.newArrayListWithCapacity(ids.size());
+        for (ObjectId id : ids) {
+            if (mightContain(id)) {
+                sorted.add(id);
+            }
+        }
+        Collections.sort(sorted, KEY_ORDER);
+        return sorted;
     }
 
     @Override
@@ -187,7 +413,7 @@ public class JEObjectDatabase extends AbstractObjectDatabase implements ObjectDa
         DatabaseEntry data = new DatabaseEntry();
 
         final LockMode lockMode = LockMode.READ_COMMITTED;
-        Transaction transaction = txn == null ? null : txn.getTransaction();
+        Transaction transaction = transaction();
         OperationStatus operationStatus = objectDb.get(transaction, key, data, lockMode);
         if (NOTFOUND.equals(operationStatus)) {
             if (failIfNotFound) {
@@ -202,44 +428,71 @@ public class JEObjectDatabase extends AbstractObjectDatabase implements ObjectDa
 
     @Override
     public void putAll(final Iterator<? extends RevObject> objects) {
-        TransactionConfig config = TransactionConfig.DEFAULT;
-        Transaction transaction = txn.beginTransaction(config);
+        if (txn == null) {
+            super.putAll(objects);
+            return;
+        }
+        Transaction transaction = txn.beginTransaction(writeConfig());
+        CompressedObjectBuffer buffer = CompressedObjectBuffer.acquire();
+        // the objects are only visible to a bloom filter rebuild once committed
+        beginWrite();
         try {
-            ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
             while (objects.hasNext()) {
                 RevObject object = objects.next();
 
-                rawOut.reset();
-
-                writeObject(object, rawOut);
-                final byte[] rawData = rawOut.toByteArray();
+                encode(object, buffer);
                 final ObjectId id = object.getId();
-                putInternal(id, rawData, transaction);
+                putInternal(id, buffer.buffer(), 0, buffer.length(), transaction);
             }
             txn.commitTransaction();
         } catch (Exception e) {
             txn.abortTransaction();
             throw Throwables.propagate(e);
+        } finally {
+            endWrite();
+            buffer.release();
         }
     }
 
     @Override
     protected boolean putInternal(final ObjectId id, final byte[] rawData) {
+        return putInternal(id, rawData, 0, rawData.length);
+    }
+
+    /**
+     * Hands the slice over to JE as a partial {@link DatabaseEntry}, with no intermediate copy.
+     */
+    @Override
+    protected boolean putInternal(final ObjectId id, final byte[] buffer, final int offset,
+            final int length) {
         OperationStatus status;
-        Transaction transaction = txn == null ? null : txn.getTransaction();
-        status = putInternal(id, rawData, transaction);
+        Transaction transaction = transaction();
+        if (transaction == null && txn != null && bulkLoadSessions > 0) {
+            // rather than auto-committing with the environment's durability
+            transaction = getEnvironment().beginTransaction(null, BULK_LOAD_TXN_CONFIG);
+            try {
+                status = putInternal(id, buffer, offset, length, transaction);
+                transaction.commit();
+            } catch (RuntimeException e) {
+                transaction.abort();
+                throw e;
+            }
+        } else {
+            status = putInternal(id, buffer, offset, length, transaction);
+        }
         final boolean didntExist = SUCCESS.equals(status);
 
         return didntExist;
     }
 
-    private OperationStatus putInternal(final ObjectId id, final byte[] rawData,
-            Transaction transaction) {
+    private OperationStatus putInternal(final ObjectId id, final byte[] buffer, final int offset,
+            final int length, Transaction transaction) {
         OperationStatus status;
         final byte[] rawKey = id.getRawValue();
         DatabaseEntry key = new DatabaseEntry(rawKey);
-        DatabaseEntry data = new DatabaseEntry(rawData);
+        DatabaseEntry data = new DatabaseEntry(buffer, offset, length);
 
+        bloomFilterAdd(id);
         status = objectDb.putNoOverwrite(transaction, key, data);
         return status;
     }
@@ -249,7 +502,7 @@ public class JEObjectDatabase extends AbstractObjectDatabase implements ObjectDa
         final byte[] rawKey = id.getRawValue();
         final DatabaseEntry key = new DatabaseEntry(rawKey);
 
-        Transaction transaction = txn == null ? null : txn.getTransaction();
+        Transaction transaction = transaction();
         final OperationStatus status = objectDb.delete(transaction, key);
 
         return SUCCESS.equals(status);
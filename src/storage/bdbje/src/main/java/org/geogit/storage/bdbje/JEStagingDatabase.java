@@ -23,17 +23,23 @@ import org.geogit.api.RevObject;
 import org.geogit.api.RevTag;
 import org.geogit.api.RevTree;
 import org.geogit.api.plumbing.merge.Conflict;
+import org.geogit.storage.BulkLoadSession;
+import org.geogit.storage.BulkLoadable;
 import org.geogit.storage.ObjectDatabase;
 import org.geogit.storage.ObjectInserter;
 import org.geogit.storage.ObjectSerializingFactory;
 import org.geogit.storage.StagingDatabase;
 
 import com.google.common.base.Charsets;
+import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import com.google.common.io.Files;
 import com.google.common.io.LineProcessor;
 import com.google.inject.Inject;
@@ -62,7 +68,7 @@ import com.sleepycat.je.Environment;
  * list of staged objects.
  * 
  */
-public class JEStagingDatabase implements ObjectDatabase, StagingDatabase {
+public class JEStagingDatabase implements ObjectDatabase, StagingDatabase, BulkLoadable {
 
     /**
      * do not use it for anything else than constructing the delegate JEObjectDatabase or it'll open
@@ -136,6 +142,15 @@ public class JEStagingDatabase implements ObjectDatabase, StagingDatabase {
         }
     }
 
+    /**
+     * Puts the staging database in bulk load mode; the repository database is left alone.
+     */
+    @Override
+    public BulkLoadSession beginBulkLoad() {
+        Preconditions.checkState(isOpen(), "database is not open");
+        return BulkLoadSession.begin(stagingDb);
+    }
+
     // /////////////////////////////////////////////////////////////////////
 
     @Override
@@ -147,6 +162,17 @@ public class JEStagingDatabase implements ObjectDatabase, StagingDatabase {
         return exists;
     }
 
+    @Override
+    public Set<ObjectId> existsAll(Iterable<ObjectId> ids) {
+        Set<ObjectId> existing = stagingDb.existsAll(ids);
+        Set<ObjectId> remaining = Sets.newHashSet(ids);
+        remaining.removeAll(existing);
+        if (!remaining.isEmpty()) {
+            existing.addAll(repositoryDb.existsAll(remaining));
+        }
+        return existing;
+    }
+
     @Override
     public InputStream getRaw(ObjectId id) {
         if (stagingDb.exists(id)) {
@@ -201,6 +227,37 @@ public class JEStagingDatabase implements ObjectDatabase, StagingDatabase {
         return obj;
     }
 
+    /**
+     * Returns the objects found in the staging database first, and then the ones found in the
+     * repository database for the remaining ids.
+     */
+    @Override
+    public Iterator<RevObject> getAll(final Iterable<ObjectId> ids) {
+        final Set<ObjectId> remaining = Sets.newHashSet(ids);
+        final Iterator<RevObject> staged = Iterators.transform(stagingDb.getAll(ids),
+                new Function<RevObject, RevObject>() {
+                    @Override
+                    public RevObject apply(RevObject object) {
+                        remaining.remove(object.getId());
+                        return object;
+                    }
+                });
+        // only evaluated once the staged objects are exhausted
+        Iterator<RevObject> repository = new AbstractIterator<RevObject>() {
+
+            private Iterator<RevObject> delegate;
+
+            @Override
+            protected RevObject computeNext() {
+                if (delegate == null) {
+                    delegate = repositoryDb.getAll(ImmutableList.copyOf(remaining));
+                }
+                return delegate.hasNext() ? delegate.next() : endOfData();
+            }
+        };
+        return Iterators.concat(staged, repository);
+    }
+
     @Override
     public ObjectInserter newObjectInserter() {
         return stagingDb.newObjectInserter();
@@ -0,0 +1,126 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.test.integration.je;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.Platform;
+import org.geogit.api.RevCommit;
+import org.geogit.api.TestPlatform;
+import org.geogit.di.GeogitModule;
+import org.geogit.storage.BulkLoadSession;
+import org.geogit.storage.ObjectDatabase;
+import org.geogit.storage.bdbje.JEObjectDatabase;
+import org.geogit.test.integration.RepositoryTestCase;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.Lists;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.util.Modules;
+
+public class JEBulkLoadTest extends RepositoryTestCase {
+
+    @Rule
+    public TemporaryFolder mockWorkingDirTempFolder = new TemporaryFolder();
+
+    @Override
+    protected Injector createInjector() {
+        File workingDirectory = mockWorkingDirTempFolder.getRoot();
+        Platform testPlatform = new TestPlatform(workingDirectory);
+        return Guice.createInjector(Modules.override(new GeogitModule()).with(
+                new JETestStorageModule(), new TestModule(testPlatform)));
+    }
+
+    @Override
+    protected void setUpInternal() throws Exception {
+        // nothing to set up
+    }
+
+    @Test
+    public void testBulkLoadObjectsSurviveReopen() throws Exception {
+        final ObjectDatabase objectDb = repo.getObjectDatabase();
+        assertTrue(objectDb instanceof JEObjectDatabase);
+
+        BulkLoadSession session = BulkLoadSession.begin(objectDb,
+                repo.getIndex().getDatabase());
+        List<RevCommit> commits;
+        try {
+            commits = populate(true, points1, points2, lines1);
+        } finally {
+            session.end();
+        }
+        // ending twice has no effect
+        session.end();
+
+        objectDb.close();
+        objectDb.open();
+        for (RevCommit commit : commits) {
+            assertEquals(commit, objectDb.getCommit(commit.getId()));
+            assertTrue(objectDb.exists(commit.getTreeId()));
+        }
+    }
+
+    @Test
+    public void testNestedSessions() throws Exception {
+        final JEObjectDatabase objectDb = (JEObjectDatabase) repo.getObjectDatabase();
+        BulkLoadSession outer = objectDb.beginBulkLoad();
+        BulkLoadSession inner = objectDb.beginBulkLoad();
+        List<ObjectId> ids = Lists.newArrayList();
+        for (RevCommit commit : populate(true, points1)) {
+            ids.add(commit.getId());
+        }
+        inner.end();
+        // still in bulk mode, and readable
+        assertTrue(objectDb.existsAll(ids).containsAll(ids));
+        outer.end();
+
+        insertAndAdd(points2);
+        assertTrue(objectDb.existsAll(ids).containsAll(ids));
+    }
+
+    @Test
+    public void testReadersDuringSession() throws Exception {
+        final ObjectDatabase objectDb = repo.getObjectDatabase();
+        final List<RevCommit> commits = populate(true, points1);
+        final AtomicBoolean stop = new AtomicBoolean();
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        Thread reader = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    while (!stop.get()) {
+                        for (RevCommit commit : commits) {
+                            assertEquals(commit, objectDb.getCommit(commit.getId()));
+                        }
+                    }
+                } catch (Throwable e) {
+                    error.set(e);
+                }
+            }
+        };
+        reader.start();
+        try {
+            for (int i = 0; i < 10; i++) {
+                BulkLoadSession session = BulkLoadSession.begin(objectDb);
+                try {
+                    populate(true, points2, lines1);
+                } finally {
+                    session.end();
+                }
+            }
+        } finally {
+            stop.set(true);
+            reader.join();
+        }
+        assertNull(error.get());
+    }
+}
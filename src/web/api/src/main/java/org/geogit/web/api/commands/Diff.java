@@ -78,7 +78,7 @@ public class Diff implements WebAPICommand {
         final GeoGIT geogit = context.getGeoGIT();
 
         final Iterator<DiffEntry> diff = geogit.command(DiffOp.class).setOldVersion(oldRefSpec)
-                .setNewVersion(newRefSpec).setFilter(pathFilter).call();
+                .setNewVersion(newRefSpec).setFilter(pathFilter).setUseCache(true).call();
 
         context.setResponseContent(new CommandResponse() {
             @Override
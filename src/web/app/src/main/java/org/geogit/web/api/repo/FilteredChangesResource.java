@@ -109,7 +109,7 @@ public class FilteredChangesResource extends ServerResource {
             }
 
             Iterator<DiffEntry> changes = ggit.command(DiffOp.class).setNewVersion(commit.getId())
-                    .setOldVersion(parent).setReportTrees(true).call();
+                    .setOldVersion(parent).setReportTrees(true).setUseCache(true).call();
             FilteredDiffIterator filteredChanges = new FilteredDiffIterator(changes, repository,
                     filter) {
                 @Override
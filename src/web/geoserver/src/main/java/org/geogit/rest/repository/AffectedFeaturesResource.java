@@ -69,7 +69,7 @@ public class AffectedFeaturesResource extends Resource {
             if (revCommit.getParentIds() != null && revCommit.getParentIds().size() > 0) {
                 ObjectId parentId = revCommit.getParentIds().get(0);
                 final Iterator<DiffEntry> diff = ggit.command(DiffOp.class).setOldVersion(parentId)
-                        .setNewVersion(commitId).call();
+                        .setNewVersion(commitId).setUseCache(true).call();
 
                 while (diff.hasNext()) {
                     DiffEntry diffEntry = diff.next();
@@ -148,7 +148,7 @@ public class FilteredChangesResource extends Finder {
 
                 Iterator<DiffEntry> changes = ggit.command(DiffOp.class)
                         .setNewVersion(commit.getId()).setOldVersion(parent).setReportTrees(true)
-                        .call();
+                        .setUseCache(true).call();
                 FilteredDiffIterator filteredChanges = new FilteredDiffIterator(changes,
                         repository, filter) {
                     @Override